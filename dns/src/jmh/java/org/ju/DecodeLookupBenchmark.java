@@ -0,0 +1,126 @@
+package org.ju;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsHeaderFlyweight;
+import org.ju.util.DnsMessageCodec;
+import org.ju.util.DnsMessageView;
+import org.ju.util.DnsOptFlyweight;
+import org.ju.util.DnsQuestionFlyweight;
+import org.ju.util.Edns;
+import org.ju.zone.ZoneTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a query far enough to answer it, then finding its records, three ways:
+ * "eager" decodes the whole message into objects, as processQuery(DnsMessage) does;
+ * "flyweight" reads the question in place but builds the QNAME String to look it up, as
+ * the wire path did before; "view" wraps a {@link DnsMessageView} and looks the QNAME's
+ * own bytes up. Queries carry an OPT record and mixed-case names from a 100k-name zone.
+ * Run with the gc profiler (the jmh profile's default) for B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeLookupBenchmark {
+
+    private static final int ZONE_SIZE = 100_000;
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final DnsHeaderFlyweight header = new DnsHeaderFlyweight();
+    private final DnsQuestionFlyweight question = new DnsQuestionFlyweight();
+    private final DnsOptFlyweight opt = new DnsOptFlyweight();
+    private final StringBuilder nameBuilder = new StringBuilder(255);
+    private final DnsMessageView view = new DnsMessageView();
+    private final List<DnsResourceRecord> answers = new ArrayList<>();
+    private ByteBuffer[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ZoneTrie trie = new ZoneTrie(ZONE_SIZE);
+        byte[] rData = {10, 0, 0, 1};
+        for (int i = 0; i < ZONE_SIZE; i++) {
+            trie.add(new DnsResourceRecord(name(i), DnsType.A, DnsClass.IN, 3600, 4, rData));
+        }
+        DnsRecordStore.publish(trie, "benchmark");
+
+        Random random = new Random(42);
+        queries = new ByteBuffer[4096];
+        for (int i = 0; i < queries.length; i++) {
+            String name = name(random.nextInt(ZONE_SIZE));
+            if (random.nextBoolean()) {
+                name = name.toUpperCase();
+            }
+            byte[] wire = codec.encode(new DnsMessage(new DnsHeader(i, 0x0100, 1, 0, 0, 1),
+                    List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                    Collections.emptyList(), Collections.emptyList(), List.of(Edns.opt(1232))));
+            queries[i] = ByteBuffer.wrap(wire);
+        }
+    }
+
+    @Benchmark
+    public int eager() {
+        DnsMessage query = codec.decode(queries[next++ & (queries.length - 1)].array());
+        DnsQuestion q = query.getQuestions().get(0);
+        String name = q.getQName();
+        return answer(SimpleDnsServer.classify(name, q.getQType(), DnsRecordStore.findClosestMatch(name), answers));
+    }
+
+    @Benchmark
+    public int flyweight() {
+        ByteBuffer query = queries[next++ & (queries.length - 1)];
+        header.wrap(query);
+        question.wrap(query, DnsHeaderFlyweight.HEADER_SIZE);
+        opt.wrap(query, header, question.getEndOffset());
+        nameBuilder.setLength(0);
+        String name = question.appendName(nameBuilder).toString();
+        return answer(SimpleDnsServer.classify(name, question.getQType(), DnsRecordStore.findClosestMatch(name),
+                answers));
+    }
+
+    @Benchmark
+    public int view() {
+        DnsMessageView message = view.wrap(queries[next++ & (queries.length - 1)]);
+        DnsQuestionFlyweight q = message.getQuestion();
+        message.getOpt();
+        return answer(SimpleDnsServer.classify(q, DnsRecordStore.findClosestMatch(q.getBuffer(), q.getNameOffset()),
+                answers));
+    }
+
+    /**
+     * The result, with the scratch list emptied for the next call as processQuery does.
+     */
+    private int answer(int result) {
+        int selected = answers.size();
+        answers.clear();
+        return result + selected;
+    }
+
+    private static String name(int i) {
+        return "host" + i + ".dept" + (i % 1000) + ".example" + (i % 10) + ".com.";
+    }
+}
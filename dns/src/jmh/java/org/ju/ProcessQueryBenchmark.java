@@ -0,0 +1,71 @@
+package org.ju;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsType;
+import org.ju.util.DnsMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One query end to end against the built-in zone, minus the socket: the worker's wire
+ * path (with and without the response cache) and the object-model path.
+ * Lives in org.ju because the wire path and its context are package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessQueryBenchmark {
+
+    // Answer, referral, NXDOMAIN
+    @Param({"www.example.com.", "a.b.c.google.com.", "missing.net."})
+    public String name;
+
+    @Param({"true", "false"})
+    public boolean responseCache;
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final ByteBuffer in = ByteBuffer.allocateDirect(512);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(512);
+    private QueryContext context;
+    private byte[] query;
+
+    @Setup
+    public void setUp() {
+        context = new QueryContext(responseCache ? new ResponseCache(1024) : null);
+        query = codec.encode(new DnsMessage(new DnsHeader(0x1234, 0x0100, 1, 0, 0, 0),
+                List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList()));
+        in.put(query).flip();
+    }
+
+    @Benchmark
+    public int wirePath() {
+        in.rewind();
+        return SimpleDnsServer.processQuery(context, in, out).limit();
+    }
+
+    @Benchmark
+    public byte[] objectPath() {
+        return codec.encode(SimpleDnsServer.processQuery(codec.decode(query)));
+    }
+}
@@ -0,0 +1,88 @@
+package org.ju;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsType;
+import org.ju.util.DnsMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a rate limiter check adds to each UDP response.
+ *
+ * "legit" cycles through 4096 client networks, each well under its limit, so every
+ * check finds its bucket and CASes it forward. "flood" is one network far over its
+ * limit: every check is a read that ends in a drop. "fromAddress" is the full call the
+ * worker makes, classifying the response and building the key from an InetAddress.
+ * "clock" is the System.nanoTime() call all three include.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    private static final int CLIENTS = 4096;
+
+    private final ResponseRateLimiter legitLimiter = new ResponseRateLimiter(1_000_000, 0, 2, false, 65_536);
+    private final ResponseRateLimiter floodLimiter = new ResponseRateLimiter(10, 10, 2, false, 65_536);
+    private final long[] keys = new long[CLIENTS];
+    private final InetAddress[] addresses = new InetAddress[CLIENTS];
+    private final long floodKey = (0xC00002L << 3) | ResponseRateLimiter.ANSWER;
+    private ByteBuffer response;
+    private int next;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        for (int i = 0; i < CLIENTS; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, (byte) (i >> 8), (byte) i, 1});
+            keys[i] = ResponseRateLimiter.key(addresses[i], ResponseRateLimiter.ANSWER);
+        }
+        byte[] wire = new DnsMessageCodec().encode(new DnsMessage(new DnsHeader(1, 0x8400, 1, 0, 0, 0),
+                List.of(new DnsQuestion("www.example.com.", DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList()));
+        response = ByteBuffer.wrap(wire);
+        response.putShort(6, (short) 1); // Only the header is classified: an answer count makes it ANSWER
+    }
+
+    @Benchmark
+    public long clock() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public int legit() {
+        next = (next + 1) & (CLIENTS - 1);
+        return legitLimiter.check(keys[next], System.nanoTime());
+    }
+
+    @Benchmark
+    public int flood() {
+        return floodLimiter.check(floodKey, System.nanoTime());
+    }
+
+    @Benchmark
+    public int fromAddress() {
+        next = (next + 1) & (CLIENTS - 1);
+        return legitLimiter.check(addresses[next], response, System.nanoTime());
+    }
+}
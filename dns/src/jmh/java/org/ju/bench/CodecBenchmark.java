@@ -0,0 +1,67 @@
+package org.ju.bench;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Object-model codec: encode and decode of a typical answer with an authority section.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"true", "false"})
+    public boolean compress;
+
+    private DnsMessageCodec codec;
+    private DnsMessage response;
+    private byte[] wire;
+
+    @Setup
+    public void setUp() {
+        codec = new DnsMessageCodec(compress);
+        String name = "www.example.com.";
+        List<DnsResourceRecord> answers = List.of(
+                new DnsResourceRecord(name, DnsType.A, DnsClass.IN, 300, 4, new byte[]{(byte) 192, (byte) 168, 1, 10}),
+                new DnsResourceRecord(name, DnsType.A, DnsClass.IN, 300, 4, new byte[]{(byte) 192, (byte) 168, 1, 11}));
+        List<DnsResourceRecord> authorities = List.of(
+                new DnsResourceRecord("example.com.", DnsType.NS, DnsClass.IN, 3600, 4, new byte[]{127, 0, 0, 1}),
+                new DnsResourceRecord("example.com.", DnsType.NS, DnsClass.IN, 3600, 4, new byte[]{127, 0, 0, 2}));
+        response = new DnsMessage(new DnsHeader(0x1234, 0x8500, 1, 2, 2, 0),
+                List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)), answers, authorities);
+        wire = codec.encode(response);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(response);
+    }
+
+    @Benchmark
+    public DnsMessage decode() {
+        return codec.decode(wire);
+    }
+}
@@ -0,0 +1,46 @@
+package org.ju.bench;
+
+import org.ju.util.DnsLabelEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name encoding: the array-returning encoder (regex split + ByteArrayOutputStream)
+ * against the in-place encoder the wire path uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelEncoderBenchmark {
+
+    @Param({"www.example.com.", "a.b.c.d.e.f.g.host-42.dept7.example.co.uk."})
+    public String name;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    @Benchmark
+    public byte[] encodeToArray() {
+        return DnsLabelEncoder.encode(name);
+    }
+
+    @Benchmark
+    public int encodeToBuffer() {
+        buffer.clear();
+        DnsLabelEncoder.encode(name, buffer);
+        return buffer.position();
+    }
+}
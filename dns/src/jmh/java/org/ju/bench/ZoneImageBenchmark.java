@@ -0,0 +1,75 @@
+package org.ju.bench;
+
+import org.ju.zone.ZoneFileLoader;
+import org.ju.zone.ZoneImage;
+import org.ju.zone.ZoneImageCompiler;
+import org.ju.zone.ZoneTrie;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Startup time and retained heap: in-heap trie built from a master file vs. a mapped image.
+ *
+ * Not a JMH benchmark: one cold load of each, so run it by hand, e.g.
+ * <pre>
+ * MAVEN_OPTS=-Xmx4g mvn -P jmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.ju.bench.ZoneImageBenchmark -Dexec.args="1000000"
+ * </pre>
+ */
+public class ZoneImageBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int names = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path zoneFile = Files.createTempFile("bench", ".zone");
+        Path imageFile = Files.createTempFile("bench", ".img");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(zoneFile)) {
+                out.write("$ORIGIN bench.test.\n$TTL 300\n");
+                for (int i = 0; i < names; i++) {
+                    out.write("host" + i + " A 10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255) + "\n");
+                }
+            }
+            ZoneImageCompiler.compile(zoneFile, null, imageFile);
+
+            long baseline = usedHeap();
+            long start = System.nanoTime();
+            ZoneTrie trie = new ZoneTrie(names);
+            new ZoneFileLoader().load(zoneFile, null, trie::add);
+            long trieNanos = System.nanoTime() - start;
+            long trieHeap = usedHeap() - baseline;
+            report("in-heap trie", trie.size(), trieNanos, trieHeap);
+            trie = null;
+
+            baseline = usedHeap();
+            start = System.nanoTime();
+            ZoneImage image = ZoneImage.open(imageFile, false);
+            long imageNanos = System.nanoTime() - start;
+            long imageHeap = usedHeap() - baseline;
+            report("mapped image", image.size(), imageNanos, imageHeap);
+
+            start = System.nanoTime();
+            image.verify();
+            System.out.printf("  image checksum verify: %.1f ms over %,d bytes%n",
+                    (System.nanoTime() - start) / 1e6, image.byteSize());
+        } finally {
+            Files.deleteIfExists(zoneFile);
+            Files.deleteIfExists(imageFile);
+        }
+    }
+
+    private static void report(String label, int size, long nanos, long heap) {
+        System.out.printf("%-14s names=%,d startup=%.1f ms retained heap=%,d KB%n",
+                label, size, nanos / 1e6, Math.max(0, heap) / 1024);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
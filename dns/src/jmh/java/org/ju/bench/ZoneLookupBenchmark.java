@@ -0,0 +1,117 @@
+package org.ju.bench;
+
+import org.ju.DnsRecordStore;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.zone.CompactZone;
+import org.ju.zone.ZoneTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closest-encloser lookups through {@link DnsRecordStore#findClosestMatch}, against the
+ * HashMap substring walk the store used before the trie, and against a {@link CompactZone}
+ * (same walk, plus building the returned records).
+ *
+ * {@code depth} is the number of extra labels in front of an existing name: 0 is an exact
+ * hit, larger values make the lookup climb further before it finds a match. Each lookup
+ * builds a fresh String, as the server does per packet, so no hash code is cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ZoneLookupBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int zoneSize;
+
+    @Param({"0", "2", "4"})
+    public int depth;
+
+    private Map<String, List<DnsResourceRecord>> map;
+    private CompactZone compact;
+    private byte[][] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        map = new HashMap<>();
+        ZoneTrie trie = new ZoneTrie(zoneSize);
+        compact = new CompactZone(zoneSize);
+        byte[] rData = {10, 0, 0, 1};
+        for (int i = 0; i < zoneSize; i++) {
+            String name = name(i);
+            DnsResourceRecord record = new DnsResourceRecord(name, DnsType.A, DnsClass.IN, 3600, 4, rData);
+            map.computeIfAbsent(name, k -> new ArrayList<>()).add(record);
+            trie.add(record);
+            compact.add(record);
+        }
+        compact.trimToSize();
+        DnsRecordStore.publish(trie, "benchmark");
+
+        StringBuilder prefix = new StringBuilder();
+        for (int d = 0; d < depth; d++) {
+            prefix.append("x").append(d).append('.');
+        }
+        Random random = new Random(42);
+        queries = new byte[4096][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = (prefix + name(random.nextInt(zoneSize))).getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Benchmark
+    public List<DnsResourceRecord> store() {
+        return DnsRecordStore.findClosestMatch(nextName());
+    }
+
+    @Benchmark
+    public List<DnsResourceRecord> compactStore() {
+        return compact.findClosestMatch(nextName());
+    }
+
+    @Benchmark
+    public List<DnsResourceRecord> legacyMapWalk() {
+        String current = nextName();
+        while (!current.isEmpty()) {
+            if (map.containsKey(current)) {
+                return map.get(current);
+            }
+            int dotIndex = current.indexOf('.');
+            if (dotIndex == -1 || dotIndex == current.length() - 1) {
+                return map.get(".");
+            }
+            current = current.substring(dotIndex + 1);
+        }
+        return null;
+    }
+
+    private String nextName() {
+        return new String(queries[next++ & (queries.length - 1)], StandardCharsets.ISO_8859_1);
+    }
+
+    private static String name(int i) {
+        return "host" + i + ".dept" + (i % 1000) + ".example" + (i % 10) + ".com.";
+    }
+}
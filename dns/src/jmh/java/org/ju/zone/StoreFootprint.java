@@ -0,0 +1,63 @@
+package org.ju.zone;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Retained heap per record of the object trie and of the compact store, measured with
+ * JOL over the whole reachable graph, for the same synthetic zone loaded through
+ * {@link ZoneFileLoader}: one A per host, an AAAA for every fourth, an MX for every tenth.
+ *
+ * Run with:
+ * <pre>
+ * mvn -P jmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.ju.zone.StoreFootprint -Dexec.args="200000"
+ * </pre>
+ */
+public class StoreFootprint {
+
+    public static void main(String[] args) throws IOException {
+        int hosts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path file = Files.createTempFile("footprint", ".zone");
+        try {
+            writeZone(file, hosts);
+
+            ZoneTrie trie = new ZoneTrie(hosts);
+            ZoneLoadStats stats = new ZoneFileLoader().load(file, null, trie::add);
+            CompactZone compact = new CompactZone(hosts);
+            new ZoneFileLoader().load(file, null, compact::add);
+            compact.trimToSize();
+
+            long records = compact.recordCount();
+            report("ZoneTrie", GraphLayout.parseInstance(trie).totalSize(), records, trie.size());
+            report("CompactZone", GraphLayout.parseInstance(compact).totalSize(), records, compact.size());
+            System.out.println(stats);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void report(String label, long bytes, long records, int names) {
+        System.out.printf("%-12s %,d records, %,d names: %,d bytes, %.1f bytes/record%n",
+                label, records, names, bytes, (double) bytes / records);
+    }
+
+    private static void writeZone(Path file, int hosts) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("$ORIGIN example.test.\n$TTL 3600\n");
+            for (int i = 0; i < hosts; i++) {
+                out.write("host" + i + " IN A 10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF) + "\n");
+                if (i % 4 == 0) {
+                    out.write("host" + i + " IN AAAA 2001:db8::" + Integer.toHexString(i & 0xFFFF) + "\n");
+                }
+                if (i % 10 == 0) {
+                    out.write("host" + i + " IN MX 10 mail" + (i % 50) + ".example.test.\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.ju;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control for UDP queries: a bounded queue between the threads that receive
+ * packets and the workers that answer them, so that overload is dealt with here, where
+ * we can choose what to drop, rather than in the kernel's socket buffer.
+ *
+ * Queries come in two classes. Cheap ones (authoritative data, recursive cache hits) are
+ * always taken before expensive ones (recursive misses, which hold a worker for upstream
+ * round trips). Load is shed in three ways, each with a counter:
+ * <ul>
+ *   <li>a query arriving at a full queue is dropped ("full");</li>
+ *   <li>unless it is cheap and an expensive one is waiting: then the oldest expensive
+ *       one is dropped to make room ("displaced");</li>
+ *   <li>a query that waited longer than the maximum age is dropped when a worker gets to
+ *       it ("expired"): its client has given up or retried by now, and answering would
+ *       only spend capacity the queries behind it need.</li>
+ * </ul>
+ * Dropped queries get no answer, as they would from a full socket buffer.
+ *
+ * Packets are pooled: the queue owns every buffer a query is received into, sized for
+ * {@code capacity} queued queries plus one held by each receiver and each worker, so
+ * nothing is allocated per packet.
+ */
+public class AdmissionQueue {
+
+    private final int capacity;
+    private final long maxAgeNanos;
+    private final int bufferSize;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Packet> cheap;   // Guarded by lock
+    private final ArrayDeque<Packet> costly;  // Guarded by lock
+    private final ArrayDeque<Packet> free;    // Guarded by lock
+    private boolean closed;                   // Guarded by lock
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedFull = new LongAdder();
+    private final LongAdder shedDisplaced = new LongAdder();
+    private final LongAdder shedExpired = new LongAdder();
+
+    /**
+     * @param holders Receivers plus workers: how many packets can be out of the queue at once.
+     */
+    public AdmissionQueue(int capacity, long maxAgeMillis, int bufferSize, int holders) {
+        this(capacity, maxAgeMillis, bufferSize, holders, System::nanoTime);
+    }
+
+    AdmissionQueue(int capacity, long maxAgeMillis, int bufferSize, int holders, LongSupplier nanoClock) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.bufferSize = bufferSize;
+        this.nanoClock = nanoClock;
+        this.cheap = new ArrayDeque<>(capacity);
+        this.costly = new ArrayDeque<>(capacity);
+        this.free = new ArrayDeque<>(capacity + holders);
+        for (int i = 0; i < capacity + holders; i++) {
+            free.add(new Packet(bufferSize));
+        }
+    }
+
+    // --- Receiving side ---
+
+    /**
+     * A packet to receive the next query into. Never blocks.
+     */
+    public Packet acquire() {
+        lock.lock();
+        try {
+            Packet packet = free.pollFirst();
+            return packet != null ? packet : new Packet(bufferSize); // Only if a caller holds more than its share
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a received query; its age counts from now.
+     *
+     * @return Whether it was queued. If not, the caller still owns {@code packet} and may
+     * reuse it for the next query.
+     */
+    public boolean offer(Packet packet, boolean isCheap) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (cheap.size() + costly.size() >= capacity) {
+                if (!isCheap || costly.isEmpty()) {
+                    shedFull.increment();
+                    return false;
+                }
+                free.addLast(costly.pollFirst());
+                shedDisplaced.increment();
+            }
+            packet.receivedAt = nanoClock.getAsLong();
+            (isCheap ? cheap : costly).addLast(packet);
+            admitted.increment();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Working side ---
+
+    /**
+     * The next query young enough to be worth answering, cheap ones first. Blocks while
+     * there is none.
+     *
+     * @return The packet, to be handed back with {@link #release}; null once closed.
+     */
+    public Packet take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!closed) {
+                Packet packet = cheap.pollFirst();
+                if (packet == null) {
+                    packet = costly.pollFirst();
+                }
+                if (packet == null) {
+                    notEmpty.await();
+                } else if (nanoClock.getAsLong() - packet.receivedAt > maxAgeNanos) {
+                    shedExpired.increment();
+                    free.addLast(packet);
+                } else {
+                    return packet;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a packet taken from {@link #take} (or acquired and not queued) to the pool.
+     */
+    public void release(Packet packet) {
+        lock.lock();
+        try {
+            free.addLast(packet);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes every waiting worker; from now on {@link #take} returns null and nothing is queued.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Getters ---
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Queries waiting right now.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return cheap.size() + costly.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * Queries dropped on arrival because the queue was full.
+     */
+    public long getShedFull() {
+        return shedFull.sum();
+    }
+
+    /**
+     * Expensive queries dropped from a full queue to make room for a cheap one.
+     */
+    public long getShedDisplaced() {
+        return shedDisplaced.sum();
+    }
+
+    /**
+     * Queries dropped for having waited longer than the maximum age.
+     */
+    public long getShedExpired() {
+        return shedExpired.sum();
+    }
+
+    /**
+     * One received query: its bytes, where it came from and when.
+     */
+    public static final class Packet {
+
+        final ByteBuffer buffer;
+        SocketAddress client;
+        DatagramChannel channel; // The socket it came in on, and the reply goes out on
+        long receivedAt;
+
+        Packet(int bufferSize) {
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+}
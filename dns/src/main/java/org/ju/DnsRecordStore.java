@@ -3,14 +3,28 @@ package org.ju;
 import org.ju.model.DnsClass;
 import org.ju.model.DnsResourceRecord;
 import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.zone.CompactZone;
+import org.ju.zone.Soa;
+import org.ju.zone.ZoneDiff;
+import org.ju.zone.ZoneFileLoader;
+import org.ju.zone.ZoneImage;
+import org.ju.zone.ZoneIndex;
+import org.ju.zone.ZoneLoadStats;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 /**
  * Stores DNS records organized by domain name.
@@ -20,22 +34,29 @@ public class DnsRecordStore {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DnsRecordStore.class);
     
-    // Map: Domain Name -> List of Records associated with that name
-    private static final Map<String, List<DnsResourceRecord>> zoneData = new HashMap<>();
+    // The zone data currently being served. Queries read it once (one volatile load) and
+    // never lock; reloads build a complete new snapshot off to the side and swap it in.
+    private static final AtomicReference<ZoneSnapshot> current = new AtomicReference<>();
+
+    // Told about every publication, with the snapshot it replaced (null for the first)
+    private static final List<BiConsumer<ZoneSnapshot, ZoneSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    // Domain Name -> List of Records for the built-in simulation data
+    private static final ZoneTrie builtIn = new ZoneTrie();
 
     static {
         try {
             // --- 1. ROOT ZONE (.) ---
             // The Root knows who handles "com." and "org."
-            // We point these NS records to "localhost" (127.0.0.1) because we are simulating
+            // Every nameserver's glue points at "localhost" (127.0.0.1) because we are simulating
             // the whole internet on one machine. In real life, these would be different IPs.
-            addRecord("com.", DnsType.NS, "127.0.0.1"); 
-            addRecord("org.", DnsType.NS, "127.0.0.1");
+            addDelegation("com.", "ns.com.", "127.0.0.1");
+            addDelegation("org.", "ns.org.", "127.0.0.1");
 
             // --- 2. TLD ZONE (com.) ---
             // The .com server knows who handles "example.com" and "google.com"
-            addRecord("example.com.", DnsType.NS, "127.0.0.1");
-            addRecord("google.com.", DnsType.NS, "127.0.0.1");
+            addDelegation("example.com.", "ns1.example.com.", "127.0.0.1");
+            addDelegation("google.com.", "ns1.google.com.", "127.0.0.1");
 
             // --- 3. AUTHORITATIVE ZONES ---
             // These servers know the actual IP addresses (A Records)
@@ -49,6 +70,8 @@ public class DnsRecordStore {
         } catch (Exception e) {
             LOGGER.error("Failed to init store", e);
         }
+        builtIn.link();
+        publish(builtIn, "built-in");
     }
 
     private static void addRecord(String name, int type, String dataIp) throws Exception {
@@ -57,31 +80,183 @@ public class DnsRecordStore {
                 name, type, DnsClass.IN, 3600, rData.length, rData
         );
         
-        zoneData.computeIfAbsent(name, k -> new ArrayList<>()).add(record);
+        builtIn.add(record);
     }
 
     /**
-     * Iterative Lookup Logic:
-     * Attempts to find the exact match. If not found, strips the prefix
-     * (e.g., www.google.com -> google.com) to find the closest "Parent"
-     * that has an NS record.
+     * An NS record for {@code zone} naming {@code nameserver}, plus the nameserver's A
+     * record, which referrals carry as glue.
      */
-    public static List<DnsResourceRecord> findClosestMatch(String domain) {
-        String current = domain;
-        
-        while (!current.isEmpty()) {
-            if (zoneData.containsKey(current)) {
-                return zoneData.get(current);
+    private static void addDelegation(String zone, String nameserver, String glueIp) throws Exception {
+        byte[] rData = DnsLabelEncoder.encode(nameserver);
+        builtIn.add(new DnsResourceRecord(zone, DnsType.NS, DnsClass.IN, 3600, rData.length, rData));
+        addRecord(nameserver, DnsType.A, glueIp);
+    }
+
+    /**
+     * Replaces the data being served with the contents of a master file.
+     * The new trie is built off to the side and published in one step.
+     *
+     * @param origin Initial $ORIGIN, or null if the file sets its own.
+     */
+    public static ZoneLoadStats loadZoneFile(Path file, String origin) throws IOException {
+        return loadZoneFile(file, origin, false);
+    }
+
+    /**
+     * As {@link #loadZoneFile(Path, String)}; with {@code compact} the records are kept
+     * in a {@link CompactZone} rather than as objects, for a much smaller heap. A compact
+     * store answers with what each name holds, without the CNAME chains, glue and
+     * wildcards a trie links in, so a zone with wildcards is refused rather than served
+     * NXDOMAIN where they should match.
+     *
+     * @throws IOException also if {@code compact} and the zone has a wildcard name.
+     */
+    public static ZoneLoadStats loadZoneFile(Path file, String origin, boolean compact) throws IOException {
+        // Rough sizing hint: a zone file line is a few dozen bytes
+        int expectedNames = Math.max(1024, (int) Math.min(Files.size(file) / 32, Integer.MAX_VALUE / 4));
+        ZoneLoadStats stats;
+        if (compact) {
+            CompactZone zone = new CompactZone(expectedNames);
+            String[] wildcard = new String[1];
+            stats = new ZoneFileLoader().load(file, origin, record -> {
+                if (wildcard[0] == null && SimpleDnsServer.isWildcard(record.getName())) {
+                    wildcard[0] = record.getName();
+                }
+                zone.add(record);
+            });
+            if (wildcard[0] != null) {
+                throw new IOException(file + ": the compact store cannot answer for wildcard " + wildcard[0]
+                        + "; load this zone without it");
             }
+            publish(zone.trimToSize(), file.toString());
+        } else {
+            ZoneTrie trie = new ZoneTrie(expectedNames);
+            stats = new ZoneFileLoader().load(file, origin, trie::add);
+            trie.link();
+            publish(trie, file.toString());
+        }
+        return stats;
+    }
+
+    /**
+     * Serves a compiled {@link ZoneImage} straight from its memory mapping. Like the
+     * compact store it answers with what each name holds; {@link org.ju.zone.ZoneImageCompiler}
+     * refuses zones with wildcards, which it could not answer for.
+     */
+    public static ZoneImage loadZoneImage(Path image, boolean verifyChecksum) throws IOException {
+        long start = System.nanoTime();
+        ZoneImage zone = ZoneImage.open(image, verifyChecksum);
+        publish(zone, image.toString());
+        LOGGER.info("Mapped zone image {} ({} names, {} bytes) in {} ms",
+                image, zone.size(), zone.byteSize(), (System.nanoTime() - start) / 1_000_000);
+        return zone;
+    }
+
+    /**
+     * Atomically makes {@code index} the data being served. The index must not be
+     * modified afterwards. Queries already running keep the snapshot they started with.
+     */
+    public static ZoneSnapshot publish(ZoneIndex index, String source) {
+        ZoneSnapshot previous;
+        ZoneSnapshot published;
+        do {
+            previous = current.get();
+            published = new ZoneSnapshot(index, previous == null ? 1 : previous.getVersion() + 1, source);
+        } while (!current.compareAndSet(previous, published));
+        notifyListeners(previous, published);
+        return published;
+    }
 
-            // Logic to strip the first label: "www.example.com." -> "example.com."
-            int dotIndex = current.indexOf('.');
-            if (dotIndex == -1 || dotIndex == current.length() - 1) {
-                // We reached the end or just a dot. Check root "."
-                return zoneData.get("."); // Might return null if root isn't defined or needed
+    /**
+     * Publishes the data being served with {@code diff} applied. The new trie shares
+     * whatever the diff leaves alone (see {@link ZoneTrie#apply}), so a change costs
+     * about its own size rather than the zone's, and the snapshot carries the diff for
+     * the zone transfer journal.
+     *
+     * @throws IllegalStateException if the data being served is not a ZoneTrie, or its
+     *         copy of the diff's zone is not at the serial the diff starts from.
+     */
+    public static ZoneSnapshot apply(ZoneDiff diff, String source) {
+        String apex = diff.getOldSoa().getName();
+        ZoneSnapshot previous;
+        ZoneSnapshot published;
+        do {
+            previous = current.get();
+            if (!(previous.getIndex() instanceof ZoneTrie)) {
+                throw new IllegalStateException("Cannot apply a diff to " + previous);
             }
-            current = current.substring(dotIndex + 1);
+            ZoneTrie trie = (ZoneTrie) previous.getIndex();
+            DnsResourceRecord soa = Soa.find(trie.get(apex));
+            if (soa == null || Soa.serial(soa) != diff.getFromSerial()) {
+                throw new IllegalStateException("Diff " + diff + " does not apply to "
+                        + (soa == null ? "a store without " + apex : "serial " + Soa.serial(soa)));
+            }
+            published = new ZoneSnapshot(trie.apply(List.of(diff)), previous.getVersion() + 1, source,
+                    List.of(diff));
+        } while (!current.compareAndSet(previous, published));
+        notifyListeners(previous, published);
+        return published;
+    }
+
+    private static void notifyListeners(ZoneSnapshot previous, ZoneSnapshot published) {
+        LOGGER.info("Published {}", published);
+        for (BiConsumer<ZoneSnapshot, ZoneSnapshot> listener : listeners) {
+            listener.accept(previous, published);
         }
-        return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Calls {@code listener} with (previous, published) after every publication, on the
+     * publishing thread. Publications racing each other may be reported out of order.
+     */
+    public static void addPublishListener(BiConsumer<ZoneSnapshot, ZoneSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public static void removePublishListener(BiConsumer<ZoneSnapshot, ZoneSnapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The snapshot currently being served. Take it once per query and use it throughout.
+     */
+    public static ZoneSnapshot current() {
+        return current.get();
+    }
+
+    /**
+     * Current version of the zone data. Any change to the store produces a new value.
+     */
+    public static long getVersion() {
+        return current.get().getVersion();
+    }
+
+    /**
+     * Iterative Lookup Logic:
+     * Attempts to find the exact match. If not found, falls back to the closest
+     * "Parent" (e.g., www.google.com -> google.com -> com -> .) that holds records,
+     * which is where the NS delegation lives. One right-to-left pass over the labels,
+     * matched case-insensitively.
+     */
+    public static List<DnsResourceRecord> findClosestMatch(String domain) {
+        return current.get().findClosestMatch(domain);
+    }
+
+    /**
+     * The records to answer {@code domain} with: as {@link #findClosestMatch(String)},
+     * but with CNAME chains and wildcards resolved where the zone has precomputed them
+     * (see {@link ZoneIndex#findAnswer(CharSequence)}).
+     */
+    public static List<DnsResourceRecord> findAnswer(String domain) {
+        return current.get().findAnswer(domain);
+    }
+
+    /**
+     * As {@link #findClosestMatch(String)}, keyed on an uncompressed wire-format name in
+     * a packet buffer (a question's QNAME, say), so no String is built for the lookup.
+     */
+    public static List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset) {
+        return current.get().findClosestMatch(buffer, nameOffset);
+    }
+}
@@ -0,0 +1,653 @@
+package org.ju;
+
+import org.ju.util.Edns;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tunables for a {@link DnsServerEngine}.
+ * Setters return {@code this} so a config can be built up in one expression.
+ */
+public class DnsServerConfig {
+
+    public static final int DEFAULT_PORT = 5354;
+
+    private String bindAddress = "0.0.0.0";
+    private int port = DEFAULT_PORT;
+
+    // One receive/worker loop per core by default
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    // With SO_REUSEPORT every worker binds its own socket to the same port and
+    // the kernel spreads flows across them. Without it, workers share one socket.
+    private boolean reusePort = false;
+
+    // Admission control: receiver threads drain the socket(s) into a bounded queue that the
+    // workers take from, cache hits before recursive misses. A query that waited longer
+    // than the maximum age is dropped, since its client will have retried by then
+    private int admissionQueueSize = 1024;  // 0 = off: each worker receives and answers in turn
+    private int admissionMaxAgeMillis = 500;
+
+    // Max number of pre-encoded responses kept by the engine; 0 disables the cache
+    private int responseCacheSize = 65536;
+
+    // Master file to serve instead of the built-in simulation data (null = built-in)
+    private String zoneFile;
+    private String zoneOrigin;
+    private boolean compactStore = false; // Load it into a CompactZone: far less heap per record
+
+    // Compiled zone image to mmap instead (see ZoneImageCompiler)
+    private String zoneImage;
+    private boolean verifyZoneImage = true;
+
+    // Reload the zone file/image automatically when it changes on disk (SIGHUP always works)
+    private boolean watchZone = false;
+
+    // Recursive mode: queries with RD=1 are resolved by walking referrals from the roots
+    private boolean recursive = false;
+    private final List<InetSocketAddress> rootServers = new ArrayList<>(); // Empty = 127.0.0.1:nameserverPort
+    private int nameserverPort = DEFAULT_PORT; // The simulated hierarchy does not listen on 53
+    private int resolverTimeoutMillis = 2000;
+    private int resolverCacheEntries = 100_000;
+    private long resolverCacheBytes = 64L * 1024 * 1024;
+    private long serveStaleSeconds = 86400;  // Expired answers kept for when upstreams fail (RFC 8767); 0 = off
+    private double prefetchFraction = 0.1;   // Hits with less of their TTL left are refreshed ahead; 0 = off
+    private boolean coalesceMisses = true;   // Concurrent misses on one question share a single walk
+
+    // Largest UDP response we send to an EDNS(0) client, whatever it advertises; clients
+    // without EDNS always get at most 512 bytes
+    private int ednsMaxPayload = Edns.DEFAULT_PAYLOAD;
+
+    // DNS over TCP on the same port (RFC 7766): persistent, pipelined connections
+    private boolean tcpEnabled = true;
+    private int tcpWorkers = 4;               // Query threads, separate from the UDP workers
+    private int tcpMaxConnections = 256;      // Further connections are closed at once
+    private int tcpIdleTimeoutMillis = 10_000; // A connection with nothing in flight is closed after this
+
+    // Response rate limiting on UDP, per client network and kind of response
+    private int rrlResponsesPerSecond = 0; // 0 = off
+    private int rrlBurst = 0;              // Responses allowed back to back; 0 = one second's worth
+    private int rrlSlip = 2;               // 1 in N limited responses goes out truncated; 0 = drop all
+    private boolean rrlDryRun = false;     // Count what would be limited, but send everything
+    private int rrlTableSize = 65_536;     // Buckets tracked at once (rounded up to a power of two)
+
+    // Zone transfers (RFC 5936, RFC 1995). A primary serves AXFR/IXFR over TCP and sends
+    // NOTIFY on every new serial; a secondary serves one zone copied from its primary
+    private boolean transfersAllowed = false;
+    private int journalSize = 100;                 // IXFR diffs kept per zone
+    private final List<InetSocketAddress> notifyTargets = new CopyOnWriteArrayList<>(); // Read live by the primary
+    private InetSocketAddress primary;             // Non-null = run as a secondary
+    private String secondaryZone;
+    private int refreshSeconds = 0;                // 0 = the SOA's REFRESH
+
+    // Counters are always on unless disabled; stage latencies are timed for 1 query in N
+    private boolean metricsEnabled = true;
+    private int metricsSampleInterval = 64;
+    private int metricsPort = -1; // Prometheus endpoint; -1 = off, 0 = any free port
+
+    // --- Getters / Setters ---
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public DnsServerConfig setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public DnsServerConfig setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public DnsServerConfig setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be >= 1: " + workers);
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public DnsServerConfig setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    public int getAdmissionQueueSize() {
+        return admissionQueueSize;
+    }
+
+    public DnsServerConfig setAdmissionQueueSize(int admissionQueueSize) {
+        if (admissionQueueSize < 0) {
+            throw new IllegalArgumentException("admissionQueueSize must be >= 0: " + admissionQueueSize);
+        }
+        this.admissionQueueSize = admissionQueueSize;
+        return this;
+    }
+
+    public int getAdmissionMaxAgeMillis() {
+        return admissionMaxAgeMillis;
+    }
+
+    public DnsServerConfig setAdmissionMaxAgeMillis(int admissionMaxAgeMillis) {
+        if (admissionMaxAgeMillis < 1) {
+            throw new IllegalArgumentException("admissionMaxAgeMillis must be >= 1: " + admissionMaxAgeMillis);
+        }
+        this.admissionMaxAgeMillis = admissionMaxAgeMillis;
+        return this;
+    }
+
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public DnsServerConfig setResponseCacheSize(int responseCacheSize) {
+        if (responseCacheSize < 0) {
+            throw new IllegalArgumentException("responseCacheSize must be >= 0: " + responseCacheSize);
+        }
+        this.responseCacheSize = responseCacheSize;
+        return this;
+    }
+
+    public String getZoneFile() {
+        return zoneFile;
+    }
+
+    public DnsServerConfig setZoneFile(String zoneFile) {
+        this.zoneFile = zoneFile;
+        return this;
+    }
+
+    public String getZoneOrigin() {
+        return zoneOrigin;
+    }
+
+    public DnsServerConfig setZoneOrigin(String zoneOrigin) {
+        this.zoneOrigin = zoneOrigin;
+        return this;
+    }
+
+    public String getZoneImage() {
+        return zoneImage;
+    }
+
+    public DnsServerConfig setZoneImage(String zoneImage) {
+        this.zoneImage = zoneImage;
+        return this;
+    }
+
+    public boolean isVerifyZoneImage() {
+        return verifyZoneImage;
+    }
+
+    public DnsServerConfig setVerifyZoneImage(boolean verifyZoneImage) {
+        this.verifyZoneImage = verifyZoneImage;
+        return this;
+    }
+
+    public boolean isCompactStore() {
+        return compactStore;
+    }
+
+    public DnsServerConfig setCompactStore(boolean compactStore) {
+        this.compactStore = compactStore;
+        return this;
+    }
+
+    public boolean isWatchZone() {
+        return watchZone;
+    }
+
+    public DnsServerConfig setWatchZone(boolean watchZone) {
+        this.watchZone = watchZone;
+        return this;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public DnsServerConfig setRecursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    /**
+     * The configured root hints, or the local simulator if none were given.
+     */
+    public List<InetSocketAddress> getRootServers() {
+        if (rootServers.isEmpty()) {
+            List<InetSocketAddress> local = new ArrayList<>();
+            local.add(new InetSocketAddress("127.0.0.1", nameserverPort));
+            return local;
+        }
+        return new ArrayList<>(rootServers);
+    }
+
+    /**
+     * Adds a root hint given as {@code host} or {@code host:port}.
+     */
+    public DnsServerConfig addRootServer(String hostAndPort) {
+        rootServers.add(parseAddress(hostAndPort));
+        return this;
+    }
+
+    public int getNameserverPort() {
+        return nameserverPort;
+    }
+
+    public DnsServerConfig setNameserverPort(int nameserverPort) {
+        this.nameserverPort = nameserverPort;
+        return this;
+    }
+
+    public int getResolverTimeoutMillis() {
+        return resolverTimeoutMillis;
+    }
+
+    public DnsServerConfig setResolverTimeoutMillis(int resolverTimeoutMillis) {
+        this.resolverTimeoutMillis = resolverTimeoutMillis;
+        return this;
+    }
+
+    public int getResolverCacheEntries() {
+        return resolverCacheEntries;
+    }
+
+    public DnsServerConfig setResolverCacheEntries(int resolverCacheEntries) {
+        this.resolverCacheEntries = resolverCacheEntries;
+        return this;
+    }
+
+    public long getResolverCacheBytes() {
+        return resolverCacheBytes;
+    }
+
+    public DnsServerConfig setResolverCacheBytes(long resolverCacheBytes) {
+        this.resolverCacheBytes = resolverCacheBytes;
+        return this;
+    }
+
+    public long getServeStaleSeconds() {
+        return serveStaleSeconds;
+    }
+
+    public DnsServerConfig setServeStaleSeconds(long serveStaleSeconds) {
+        if (serveStaleSeconds < 0) {
+            throw new IllegalArgumentException("serveStaleSeconds must not be negative: " + serveStaleSeconds);
+        }
+        this.serveStaleSeconds = serveStaleSeconds;
+        return this;
+    }
+
+    public double getPrefetchFraction() {
+        return prefetchFraction;
+    }
+
+    public DnsServerConfig setPrefetchFraction(double prefetchFraction) {
+        if (prefetchFraction < 0 || prefetchFraction >= 1) {
+            throw new IllegalArgumentException("prefetchFraction must be in [0, 1): " + prefetchFraction);
+        }
+        this.prefetchFraction = prefetchFraction;
+        return this;
+    }
+
+    public boolean isCoalesceMisses() {
+        return coalesceMisses;
+    }
+
+    public DnsServerConfig setCoalesceMisses(boolean coalesceMisses) {
+        this.coalesceMisses = coalesceMisses;
+        return this;
+    }
+
+    public int getEdnsMaxPayload() {
+        return ednsMaxPayload;
+    }
+
+    public DnsServerConfig setEdnsMaxPayload(int ednsMaxPayload) {
+        if (ednsMaxPayload < Edns.MIN_PAYLOAD || ednsMaxPayload > 65535) {
+            throw new IllegalArgumentException("ednsMaxPayload must be between 512 and 65535: " + ednsMaxPayload);
+        }
+        this.ednsMaxPayload = ednsMaxPayload;
+        return this;
+    }
+
+    public boolean isTcpEnabled() {
+        return tcpEnabled;
+    }
+
+    public DnsServerConfig setTcpEnabled(boolean tcpEnabled) {
+        this.tcpEnabled = tcpEnabled;
+        return this;
+    }
+
+    public int getTcpWorkers() {
+        return tcpWorkers;
+    }
+
+    public DnsServerConfig setTcpWorkers(int tcpWorkers) {
+        if (tcpWorkers < 1) {
+            throw new IllegalArgumentException("tcpWorkers must be >= 1: " + tcpWorkers);
+        }
+        this.tcpWorkers = tcpWorkers;
+        return this;
+    }
+
+    public int getTcpMaxConnections() {
+        return tcpMaxConnections;
+    }
+
+    public DnsServerConfig setTcpMaxConnections(int tcpMaxConnections) {
+        if (tcpMaxConnections < 1) {
+            throw new IllegalArgumentException("tcpMaxConnections must be >= 1: " + tcpMaxConnections);
+        }
+        this.tcpMaxConnections = tcpMaxConnections;
+        return this;
+    }
+
+    public int getTcpIdleTimeoutMillis() {
+        return tcpIdleTimeoutMillis;
+    }
+
+    public DnsServerConfig setTcpIdleTimeoutMillis(int tcpIdleTimeoutMillis) {
+        if (tcpIdleTimeoutMillis < 1) {
+            throw new IllegalArgumentException("tcpIdleTimeoutMillis must be >= 1: " + tcpIdleTimeoutMillis);
+        }
+        this.tcpIdleTimeoutMillis = tcpIdleTimeoutMillis;
+        return this;
+    }
+
+    public int getRrlResponsesPerSecond() {
+        return rrlResponsesPerSecond;
+    }
+
+    public DnsServerConfig setRrlResponsesPerSecond(int rrlResponsesPerSecond) {
+        if (rrlResponsesPerSecond < 0) {
+            throw new IllegalArgumentException("rrlResponsesPerSecond must be >= 0: " + rrlResponsesPerSecond);
+        }
+        this.rrlResponsesPerSecond = rrlResponsesPerSecond;
+        return this;
+    }
+
+    public int getRrlBurst() {
+        return rrlBurst;
+    }
+
+    public DnsServerConfig setRrlBurst(int rrlBurst) {
+        if (rrlBurst < 0) {
+            throw new IllegalArgumentException("rrlBurst must be >= 0: " + rrlBurst);
+        }
+        this.rrlBurst = rrlBurst;
+        return this;
+    }
+
+    public int getRrlSlip() {
+        return rrlSlip;
+    }
+
+    public DnsServerConfig setRrlSlip(int rrlSlip) {
+        if (rrlSlip < 0) {
+            throw new IllegalArgumentException("rrlSlip must be >= 0: " + rrlSlip);
+        }
+        this.rrlSlip = rrlSlip;
+        return this;
+    }
+
+    public boolean isRrlDryRun() {
+        return rrlDryRun;
+    }
+
+    public DnsServerConfig setRrlDryRun(boolean rrlDryRun) {
+        this.rrlDryRun = rrlDryRun;
+        return this;
+    }
+
+    public int getRrlTableSize() {
+        return rrlTableSize;
+    }
+
+    public DnsServerConfig setRrlTableSize(int rrlTableSize) {
+        if (rrlTableSize < 4) {
+            throw new IllegalArgumentException("rrlTableSize must be >= 4: " + rrlTableSize);
+        }
+        this.rrlTableSize = rrlTableSize;
+        return this;
+    }
+
+    public boolean isTransfersAllowed() {
+        return transfersAllowed;
+    }
+
+    public DnsServerConfig setTransfersAllowed(boolean transfersAllowed) {
+        this.transfersAllowed = transfersAllowed;
+        return this;
+    }
+
+    public int getJournalSize() {
+        return journalSize;
+    }
+
+    public DnsServerConfig setJournalSize(int journalSize) {
+        if (journalSize < 1) {
+            throw new IllegalArgumentException("journalSize must be >= 1: " + journalSize);
+        }
+        this.journalSize = journalSize;
+        return this;
+    }
+
+    public List<InetSocketAddress> getNotifyTargets() {
+        return new ArrayList<>(notifyTargets);
+    }
+
+    /**
+     * Adds a secondary to NOTIFY, given as {@code host} or {@code host:port}.
+     */
+    public DnsServerConfig addNotifyTarget(String hostAndPort) {
+        notifyTargets.add(parseAddress(hostAndPort));
+        return this;
+    }
+
+    public DnsServerConfig addNotifyTarget(InetSocketAddress target) {
+        notifyTargets.add(target);
+        return this;
+    }
+
+    public InetSocketAddress getPrimary() {
+        return primary;
+    }
+
+    public DnsServerConfig setPrimary(String hostAndPort) {
+        return setPrimary(parseAddress(hostAndPort));
+    }
+
+    public DnsServerConfig setPrimary(InetSocketAddress primary) {
+        this.primary = primary;
+        return this;
+    }
+
+    public boolean isSecondary() {
+        return primary != null;
+    }
+
+    public String getSecondaryZone() {
+        return secondaryZone;
+    }
+
+    public DnsServerConfig setSecondaryZone(String secondaryZone) {
+        this.secondaryZone = secondaryZone;
+        return this;
+    }
+
+    public int getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    public DnsServerConfig setRefreshSeconds(int refreshSeconds) {
+        if (refreshSeconds < 0) {
+            throw new IllegalArgumentException("refreshSeconds must be >= 0: " + refreshSeconds);
+        }
+        this.refreshSeconds = refreshSeconds;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public DnsServerConfig setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    public int getMetricsSampleInterval() {
+        return metricsSampleInterval;
+    }
+
+    public DnsServerConfig setMetricsSampleInterval(int metricsSampleInterval) {
+        if (metricsSampleInterval < 1) {
+            throw new IllegalArgumentException("metricsSampleInterval must be >= 1: " + metricsSampleInterval);
+        }
+        this.metricsSampleInterval = metricsSampleInterval;
+        return this;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public DnsServerConfig setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+        return this;
+    }
+
+    /**
+     * Parses command line flags such as {@code --port 5354 --workers 8 --reuseport}.
+     */
+    public static DnsServerConfig fromArgs(String[] args) {
+        DnsServerConfig config = new DnsServerConfig();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--bind": config.setBindAddress(args[++i]); break;
+                case "--port": config.setPort(Integer.parseInt(args[++i])); break;
+                case "--workers": config.setWorkers(Integer.parseInt(args[++i])); break;
+                case "--reuseport": config.setReusePort(true); break;
+                case "--admission-queue": config.setAdmissionQueueSize(Integer.parseInt(args[++i])); break;
+                case "--max-queue-age": config.setAdmissionMaxAgeMillis(Integer.parseInt(args[++i])); break;
+                case "--cache-size": config.setResponseCacheSize(Integer.parseInt(args[++i])); break;
+                case "--zone": config.setZoneFile(args[++i]); break;
+                case "--origin": config.setZoneOrigin(args[++i]); break;
+                case "--compact-store": config.setCompactStore(true); break;
+                case "--zone-image": config.setZoneImage(args[++i]); break;
+                case "--skip-image-verify": config.setVerifyZoneImage(false); break;
+                case "--watch": config.setWatchZone(true); break;
+                case "--recursive": config.setRecursive(true); break;
+                case "--root": config.addRootServer(args[++i]); break;
+                case "--ns-port": config.setNameserverPort(Integer.parseInt(args[++i])); break;
+                case "--resolver-timeout": config.setResolverTimeoutMillis(Integer.parseInt(args[++i])); break;
+                case "--resolver-cache-entries": config.setResolverCacheEntries(Integer.parseInt(args[++i])); break;
+                case "--resolver-cache-bytes": config.setResolverCacheBytes(Long.parseLong(args[++i])); break;
+                case "--serve-stale": config.setServeStaleSeconds(Long.parseLong(args[++i])); break;
+                case "--prefetch": config.setPrefetchFraction(Double.parseDouble(args[++i])); break;
+                case "--no-coalesce": config.setCoalesceMisses(false); break;
+                case "--edns-max-payload": config.setEdnsMaxPayload(Integer.parseInt(args[++i])); break;
+                case "--no-tcp": config.setTcpEnabled(false); break;
+                case "--tcp-workers": config.setTcpWorkers(Integer.parseInt(args[++i])); break;
+                case "--tcp-max-connections": config.setTcpMaxConnections(Integer.parseInt(args[++i])); break;
+                case "--tcp-idle-timeout": config.setTcpIdleTimeoutMillis(Integer.parseInt(args[++i])); break;
+                case "--rrl-rate": config.setRrlResponsesPerSecond(Integer.parseInt(args[++i])); break;
+                case "--rrl-burst": config.setRrlBurst(Integer.parseInt(args[++i])); break;
+                case "--rrl-slip": config.setRrlSlip(Integer.parseInt(args[++i])); break;
+                case "--rrl-dry-run": config.setRrlDryRun(true); break;
+                case "--rrl-table-size": config.setRrlTableSize(Integer.parseInt(args[++i])); break;
+                case "--allow-transfer": config.setTransfersAllowed(true); break;
+                case "--journal-size": config.setJournalSize(Integer.parseInt(args[++i])); break;
+                case "--notify": config.addNotifyTarget(args[++i]); break;
+                case "--primary": config.setPrimary(args[++i]); break;
+                case "--secondary-zone": config.setSecondaryZone(args[++i]); break;
+                case "--refresh": config.setRefreshSeconds(Integer.parseInt(args[++i])); break;
+                case "--no-metrics": config.setMetricsEnabled(false); break;
+                case "--metrics-sample": config.setMetricsSampleInterval(Integer.parseInt(args[++i])); break;
+                case "--metrics-port": config.setMetricsPort(Integer.parseInt(args[++i])); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (config.isSecondary() && config.getSecondaryZone() == null) {
+            throw new IllegalArgumentException("--primary needs --secondary-zone");
+        }
+        return config;
+    }
+
+    /**
+     * {@code host} or {@code host:port}; the port defaults to 53.
+     */
+    private static InetSocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(hostAndPort, 53);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    @Override
+    public String toString() {
+        return "DnsServerConfig{" +
+                "bindAddress='" + bindAddress + '\'' +
+                ", port=" + port +
+                ", workers=" + workers +
+                ", reusePort=" + reusePort +
+                ", admissionQueueSize=" + admissionQueueSize +
+                ", admissionMaxAgeMillis=" + admissionMaxAgeMillis +
+                ", responseCacheSize=" + responseCacheSize +
+                ", zoneFile='" + zoneFile + '\'' +
+                ", zoneOrigin='" + zoneOrigin + '\'' +
+                ", compactStore=" + compactStore +
+                ", zoneImage='" + zoneImage + '\'' +
+                ", verifyZoneImage=" + verifyZoneImage +
+                ", watchZone=" + watchZone +
+                ", recursive=" + recursive +
+                ", rootServers=" + rootServers +
+                ", nameserverPort=" + nameserverPort +
+                ", resolverCacheEntries=" + resolverCacheEntries +
+                ", resolverCacheBytes=" + resolverCacheBytes +
+                ", serveStaleSeconds=" + serveStaleSeconds +
+                ", prefetchFraction=" + prefetchFraction +
+                ", coalesceMisses=" + coalesceMisses +
+                ", ednsMaxPayload=" + ednsMaxPayload +
+                ", tcpEnabled=" + tcpEnabled +
+                ", tcpWorkers=" + tcpWorkers +
+                ", tcpMaxConnections=" + tcpMaxConnections +
+                ", tcpIdleTimeoutMillis=" + tcpIdleTimeoutMillis +
+                ", rrlResponsesPerSecond=" + rrlResponsesPerSecond +
+                ", rrlBurst=" + rrlBurst +
+                ", rrlSlip=" + rrlSlip +
+                ", rrlDryRun=" + rrlDryRun +
+                ", rrlTableSize=" + rrlTableSize +
+                ", transfersAllowed=" + transfersAllowed +
+                ", journalSize=" + journalSize +
+                ", notifyTargets=" + notifyTargets +
+                ", primary=" + primary +
+                ", secondaryZone='" + secondaryZone + '\'' +
+                ", refreshSeconds=" + refreshSeconds +
+                ", metricsEnabled=" + metricsEnabled +
+                ", metricsSampleInterval=" + metricsSampleInterval +
+                ", metricsPort=" + metricsPort +
+                '}';
+    }
+}
@@ -0,0 +1,640 @@
+package org.ju;
+
+import org.ju.client.AsyncDnsClient;
+import org.ju.metrics.MetricsHttpServer;
+import org.ju.metrics.ServerMetrics;
+import org.ju.resolver.IterativeResolver;
+import org.ju.resolver.ResolverCache;
+import org.ju.util.DnsMessageView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Multi-core UDP serving engine.
+ * Runs N independent receive/worker loops on NIO {@link DatagramChannel}s. Each loop
+ * owns its buffers and codec state, so the only thing the loops share is the
+ * (read-only) record store.
+ *
+ * With SO_REUSEPORT every loop gets its own socket bound to the same port, otherwise
+ * all loops block in receive() on one shared socket. Responses too big for a UDP
+ * packet go out truncated with TC=1; a {@link DnsTcpListener} on the same port serves
+ * the full answer when the client retries over TCP. With rate limiting on, every UDP
+ * response passes a {@link ResponseRateLimiter} check just before it is sent; TCP
+ * clients cannot spoof their address and are never limited.
+ *
+ * With admission control on, the loops are split in two: one receiver thread per socket
+ * drains it into an {@link AdmissionQueue}, and the workers answer from there, cheap
+ * queries first and none that have waited too long. Overload is then shed by choice,
+ * instead of by the kernel dropping whatever no longer fits the socket buffer while
+ * the queries already in it go stale.
+ *
+ * An engine configured with a primary is a secondary: it serves the one zone a
+ * {@link SecondaryReplicator} copies from there instead of the process-wide store. With
+ * transfers allowed, a {@link ZoneTransferServer} answers AXFR and IXFR for the store's
+ * zones over TCP and sends NOTIFY when they change.
+ */
+public class DnsServerEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DnsServerEngine.class);
+    private static final int BIND_ATTEMPTS = 8; // For port 0: UDP and TCP must both get the port
+    private static final int PREFETCH_THREADS = 2;
+    private static final int PREFETCH_BACKLOG = 1024; // Prefetches beyond this are skipped
+    private static final int FLAG_RD = 0x0100;
+
+    private final DnsServerConfig config;
+    private final ResponseCache cache;
+    private final ServerMetrics metrics;
+    private final ResponseRateLimiter limiter;
+    private MetricsHttpServer metricsServer;
+    private ObjectName mbeanName;
+    private AsyncDnsClient upstream;
+    private ExecutorService prefetcher;
+    private volatile IterativeResolver resolver;
+    private volatile AdmissionQueue admission;
+    private volatile DnsTcpListener tcp;
+    private SecondaryReplicator secondary;
+    private ZoneTransferServer transfers;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean running;
+    private InetSocketAddress localAddress;
+
+    public DnsServerEngine(DnsServerConfig config) {
+        this.config = config;
+        this.cache = config.getResponseCacheSize() > 0 ? new ResponseCache(config.getResponseCacheSize()) : null;
+        this.limiter = config.getRrlResponsesPerSecond() > 0 ? new ResponseRateLimiter(config) : null;
+        this.metrics = config.isMetricsEnabled() ? new ServerMetrics(config.getMetricsSampleInterval()) : null;
+        if (metrics != null) {
+            registerComponentMetrics();
+        }
+    }
+
+    /**
+     * Binds the socket(s) and starts the worker loops. Returns once every loop is running.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Engine already started");
+        }
+        int workers = config.getWorkers();
+        InetSocketAddress bind = new InetSocketAddress(config.getBindAddress(), config.getPort());
+
+        try {
+            if (config.isRecursive()) {
+                // All workers share one upstream client; its queries are multiplexed by ID
+                upstream = new AsyncDnsClient(1, config.getResolverTimeoutMillis(), 1);
+                resolver = new IterativeResolver(upstream, config.getRootServers(), config.getNameserverPort(),
+                        new ResolverCache(config.getResolverCacheEntries(), config.getResolverCacheBytes(),
+                                config.getServeStaleSeconds()))
+                        .setCoalescing(config.isCoalesceMisses());
+                if (config.getPrefetchFraction() > 0) {
+                    prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(PREFETCH_BACKLOG), r -> {
+                        Thread thread = new Thread(r, "dns-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    resolver.setPrefetch(config.getPrefetchFraction(), prefetcher);
+                }
+            }
+            if (config.isSecondary()) {
+                secondary = new SecondaryReplicator(config);
+            }
+            if (config.isTransfersAllowed()) {
+                transfers = new ZoneTransferServer(config);
+            }
+            for (int attempt = 1; ; attempt++) {
+                bindUdp(bind, workers);
+                if (!config.isTcpEnabled()) {
+                    break;
+                }
+                try {
+                    // Same address and port as UDP, which may have been picked by the kernel
+                    tcp = new DnsTcpListener(localAddress, config, cache, resolver, metrics, transfers, secondary);
+                    break;
+                } catch (BindException e) {
+                    // A port the kernel found free for UDP can be taken for TCP; try another
+                    if (config.getPort() != 0 || attempt == BIND_ATTEMPTS) {
+                        throw e;
+                    }
+                    closeChannels();
+                }
+            }
+        } catch (IOException e) {
+            closeChannels();
+            if (upstream != null) {
+                upstream.close();
+                upstream = null;
+            }
+            if (prefetcher != null) {
+                prefetcher.shutdownNow();
+                prefetcher = null;
+            }
+            secondary = null;
+            transfers = null;
+            throw e;
+        }
+
+        running = true;
+        if (config.getAdmissionQueueSize() > 0) {
+            admission = new AdmissionQueue(config.getAdmissionQueueSize(), config.getAdmissionMaxAgeMillis(),
+                    config.getEdnsMaxPayload(), workers + channels.size());
+            for (int i = 0; i < channels.size(); i++) {
+                startThread(new Receiver(channels.get(i)), "dns-receiver-" + i);
+            }
+        }
+        for (int i = 0; i < workers; i++) {
+            // With admission control, workers take queries from the queue, not a socket
+            DatagramChannel channel = (admission != null) ? null : channels.get(config.isReusePort() ? i : 0);
+            startThread(new Worker(channel), "dns-worker-" + i);
+        }
+        if (tcp != null) {
+            tcp.start();
+        }
+        if (transfers != null) {
+            transfers.start();
+        }
+        if (secondary != null) {
+            secondary.start();
+        }
+        if (metrics != null) {
+            try {
+                exportMetrics();
+            } catch (IOException e) {
+                stop();
+                throw e;
+            }
+        }
+        LOGGER.info("DNS engine listening on {} with {} worker(s), reuseport={}, tcp={}, recursive={}, secondary={}",
+                localAddress, workers, config.isReusePort(), tcp != null, config.isRecursive(),
+                secondary != null ? secondary.getApex() : "no");
+    }
+
+    /**
+     * Stops every worker loop and releases the sockets. Safe to call more than once.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // Closing a channel wakes up any thread blocked in receive(), closing the queue any in take()
+        closeChannels();
+        if (admission != null) {
+            admission.close();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+        if (tcp != null) {
+            tcp.close();
+            tcp = null;
+        }
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+            prefetcher = null;
+        }
+        if (upstream != null) {
+            upstream.close();
+            upstream = null;
+        }
+        if (secondary != null) {
+            secondary.close();
+            secondary = null;
+        }
+        if (transfers != null) {
+            transfers.close();
+            transfers = null;
+        }
+        unexportMetrics();
+        LOGGER.info("DNS engine on {} stopped", localAddress);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The shared wire-format response cache, or null if it is disabled.
+     */
+    public ResponseCache getResponseCache() {
+        return cache;
+    }
+
+    /**
+     * The resolver behind recursive mode, or null if the engine is authoritative only.
+     */
+    public IterativeResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * The admission queue of the current (or last) run, or null if admission control is
+     * off or the engine has not been started.
+     */
+    public AdmissionQueue getAdmissionQueue() {
+        return admission;
+    }
+
+    /**
+     * The UDP response rate limiter, or null if rate limiting is off.
+     */
+    public ResponseRateLimiter getRateLimiter() {
+        return limiter;
+    }
+
+    /**
+     * The engine's metrics, or null if they are disabled.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Where the Prometheus endpoint listens, or null if it is not running.
+     */
+    public synchronized InetSocketAddress getMetricsAddress() {
+        return metricsServer != null ? metricsServer.getAddress() : null;
+    }
+
+    /**
+     * The address actually bound, useful when the config asked for port 0.
+     */
+    public synchronized InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    private void registerComponentMetrics() {
+        if (cache != null) {
+            metrics.register("dns_response_cache_hits_total", "Response cache hits.", true, cache::getHits);
+            metrics.register("dns_response_cache_misses_total", "Response cache misses.", true, cache::getMisses);
+            metrics.register("dns_response_cache_evictions_total", "Response cache evictions.", true,
+                    cache::getEvictions);
+        }
+        if (limiter != null) {
+            metrics.register("dns_rrl_limited_total", "UDP responses over the rate limit (dry run included).", true,
+                    limiter::getLimited);
+            metrics.register("dns_rrl_dropped_total", "UDP responses dropped by the rate limiter.", true,
+                    limiter::getDropped);
+            metrics.register("dns_rrl_slipped_total", "UDP responses sent truncated by the rate limiter.", true,
+                    limiter::getSlipped);
+        }
+        if (config.getAdmissionQueueSize() > 0) {
+            // The queue only exists once the engine has started
+            metrics.register("dns_admission_queue_depth", "UDP queries waiting for a worker.", false,
+                    () -> admission != null ? admission.size() : 0);
+            metrics.register("dns_shed_queue_full_total", "UDP queries dropped because the queue was full.", true,
+                    () -> admission != null ? admission.getShedFull() : 0);
+            metrics.register("dns_shed_displaced_total", "Recursive misses dropped to queue a cheaper query.", true,
+                    () -> admission != null ? admission.getShedDisplaced() : 0);
+            metrics.register("dns_shed_expired_total", "UDP queries dropped for waiting too long.", true,
+                    () -> admission != null ? admission.getShedExpired() : 0);
+        }
+        if (config.isTcpEnabled()) {
+            // Like the resolver, the listener only exists while the engine runs
+            metrics.register("dns_tcp_connections", "Open TCP connections.", false,
+                    () -> tcp != null ? tcp.getConnections() : 0);
+            metrics.register("dns_tcp_connections_accepted_total", "TCP connections accepted.", true,
+                    () -> tcp != null ? tcp.getAccepted() : 0);
+            metrics.register("dns_tcp_connections_rejected_total", "TCP connections refused at the cap.", true,
+                    () -> tcp != null ? tcp.getRejected() : 0);
+            metrics.register("dns_tcp_idle_timeouts_total", "TCP connections closed for being idle.", true,
+                    () -> tcp != null ? tcp.getIdleClosed() : 0);
+        }
+        if (config.isRecursive()) {
+            // The resolver only exists while the engine runs
+            metrics.register("dns_resolver_cache_entries", "Entries in the resolver cache.", false,
+                    () -> resolver != null ? resolver.getCache().size() : 0);
+            metrics.register("dns_resolver_cache_bytes", "Estimated bytes held by the resolver cache.", false,
+                    () -> resolver != null ? resolver.getCache().byteSize() : 0);
+            metrics.register("dns_resolver_cache_hits_total", "Resolver cache hits.", true,
+                    () -> resolver != null ? resolver.getCache().getHits() : 0);
+            metrics.register("dns_resolver_cache_misses_total", "Resolver cache misses.", true,
+                    () -> resolver != null ? resolver.getCache().getMisses() : 0);
+            metrics.register("dns_resolver_stale_answers_total", "Expired answers served while upstreams failed.", true,
+                    () -> resolver != null ? resolver.getCache().getStaleHits() : 0);
+            metrics.register("dns_resolver_prefetches_total", "Answers refreshed ahead of expiry.", true,
+                    () -> resolver != null ? resolver.getPrefetches() : 0);
+            metrics.register("dns_resolver_coalesced_total", "Misses that waited on another query's walk.", true,
+                    () -> resolver != null ? resolver.getCoalesced() : 0);
+            metrics.register("dns_resolver_hedged_queries_total", "Queries sent because a nameserver was slow.", true,
+                    () -> resolver != null ? resolver.getHedges() : 0);
+        }
+    }
+
+    private void exportMetrics() throws IOException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            mbeanName = new ObjectName("org.ju:type=DnsServer,port=" + localAddress.getPort());
+            server.registerMBean(metrics, mbeanName);
+        } catch (JMException e) {
+            LOGGER.warn("Could not register metrics MBean: {}", e.toString());
+            mbeanName = null;
+        }
+        if (config.getMetricsPort() >= 0) {
+            metricsServer = new MetricsHttpServer(
+                    new InetSocketAddress(config.getBindAddress(), config.getMetricsPort()), metrics);
+            metricsServer.start();
+        }
+    }
+
+    private void unexportMetrics() {
+        if (metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                LOGGER.debug("Could not unregister {}", mbeanName, e);
+            }
+            mbeanName = null;
+        }
+    }
+
+    private void bindUdp(InetSocketAddress bind, int workers) throws IOException {
+        if (config.isReusePort()) {
+            // --- One socket per worker, all on the same port ---
+            for (int i = 0; i < workers; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new IOException("SO_REUSEPORT is not supported on this platform");
+                }
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                // With port 0 the first bind picks the port, the rest must follow it
+                channel.bind(i == 0 ? bind : localAddress);
+                if (i == 0) {
+                    localAddress = (InetSocketAddress) channel.getLocalAddress();
+                }
+            }
+        } else {
+            // --- One shared socket ---
+            DatagramChannel channel = DatagramChannel.open();
+            channels.add(channel);
+            channel.bind(bind);
+            localAddress = (InetSocketAddress) channel.getLocalAddress();
+        }
+    }
+
+    private void startThread(Runnable loop, String name) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing channel", e);
+            }
+        }
+        channels.clear();
+    }
+
+    /**
+     * This engine's copy of its zone when it is a secondary, else null.
+     */
+    synchronized SecondaryReplicator getSecondary() {
+        return secondary;
+    }
+
+    /**
+     * The AXFR/IXFR server, or null unless transfers are allowed and the engine runs.
+     */
+    synchronized ZoneTransferServer getTransferServer() {
+        return transfers;
+    }
+
+    /**
+     * The TCP side of the engine, or null if TCP is disabled or the engine is stopped.
+     */
+    DnsTcpListener getTcpListener() {
+        return tcp;
+    }
+
+    /**
+     * Receives queries from one socket into the admission queue, sorting them into cheap
+     * and expensive as it goes. Classifying reads the header and, for a recursive query,
+     * asks the resolver cache whether it has the answer; nothing is decoded beyond that,
+     * and the QNAME is only copied into a reused buffer, never made a String.
+     */
+    private final class Receiver implements Runnable {
+
+        private final DatagramChannel channel;
+        private final DnsMessageView view = new DnsMessageView();
+        private final StringBuilder name = new StringBuilder(255);
+        private final ResolverCache.Probe probe = new ResolverCache.Probe();
+
+        Receiver(DatagramChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            AdmissionQueue queue = admission;
+            AdmissionQueue.Packet packet = queue.acquire();
+            while (running) {
+                try {
+                    packet.buffer.clear();
+                    packet.client = channel.receive(packet.buffer);
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    if (running) {
+                        LOGGER.warn("Receive failed", e);
+                    }
+                    continue;
+                }
+                packet.buffer.flip();
+                packet.channel = channel;
+                if (queue.offer(packet, isCheap(packet.buffer))) {
+                    packet = queue.acquire();
+                }
+            }
+        }
+
+        /**
+         * Everything is cheap except a recursive query the resolver has no answer for.
+         * Malformed queries count as cheap: a worker throws them out quickly.
+         */
+        private boolean isCheap(ByteBuffer query) {
+            IterativeResolver r = resolver;
+            if (r == null) {
+                return true;
+            }
+            try {
+                view.wrap(query);
+                if ((view.getHeader().getFlags() & FLAG_RD) == 0 || view.getHeader().getQdCount() < 1) {
+                    return true;
+                }
+                name.setLength(0);
+                return r.getCache().hasAnswer(probe.wrap(view.getQuestion().appendName(name),
+                        view.getQuestion().getQType()));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e) {
+                return true;
+            } finally {
+                query.position(0);
+            }
+        }
+    }
+
+    /**
+     * A single receive -> processQuery -> send loop over the wire-format codec, or with
+     * admission control a take -> processQuery -> send loop over the admission queue.
+     * In recursive mode a cache miss blocks the loop on upstream round trips.
+     * All buffers and flyweights are allocated once and reused for every packet; both
+     * buffers are sized for the largest EDNS payload we accept or send. With admission
+     * control queries arrive in the queue's own buffers, so there is no input buffer.
+     */
+    private final class Worker implements Runnable {
+
+        private final DatagramChannel channel; // Null with admission control
+        private final ByteBuffer in;           // Likewise
+        private final ByteBuffer out = ByteBuffer.allocateDirect(config.getEdnsMaxPayload());
+        private final QueryContext context = new QueryContext(cache, resolver, metrics);
+
+        Worker(DatagramChannel channel) {
+            this.channel = channel;
+            this.in = (channel != null) ? ByteBuffer.allocateDirect(config.getEdnsMaxPayload()) : null;
+            context.maxUdpPayload = config.getEdnsMaxPayload();
+            if (secondary != null) {
+                context.zones = secondary::current;
+                context.secondary = secondary;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (channel == null) {
+                runQueued();
+                return;
+            }
+            while (running) {
+                SocketAddress client;
+                try {
+                    in.clear();
+                    client = channel.receive(in);
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    if (running) {
+                        LOGGER.warn("Receive failed", e);
+                    }
+                    continue;
+                }
+                in.flip();
+                if (!answer(channel, in, client)) {
+                    break;
+                }
+            }
+        }
+
+        private void runQueued() {
+            AdmissionQueue queue = admission;
+            while (running) {
+                AdmissionQueue.Packet packet;
+                try {
+                    packet = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (packet == null) {
+                    break; // Closed
+                }
+                try {
+                    if (!answer(packet.channel, packet.buffer, packet.client)) {
+                        break;
+                    }
+                } finally {
+                    queue.release(packet);
+                }
+            }
+        }
+
+        /**
+         * Processes one query and sends the response, if any.
+         *
+         * @return False once the channel is closed.
+         */
+        private boolean answer(DatagramChannel channel, ByteBuffer query, SocketAddress client) {
+            context.beginPacket();
+            ByteBuffer response;
+            try {
+                response = SimpleDnsServer.processQuery(context, query, out);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e) {
+                if (context.counters != null) {
+                    context.counters.onDecodeError();
+                }
+                LOGGER.debug("Malformed query from {}: {}", client, e.toString());
+                return true;
+            } catch (Exception e) {
+                if (context.counters != null) {
+                    context.counters.onDropped();
+                }
+                LOGGER.debug("Error processing packet from {}", client, e);
+                return true;
+            }
+
+            if (limiter != null) {
+                int verdict = limiter.check(((InetSocketAddress) client).getAddress(), response, System.nanoTime());
+                if (verdict == ResponseRateLimiter.DROP) {
+                    return true;
+                }
+                if (verdict == ResponseRateLimiter.SLIP) {
+                    ResponseRateLimiter.slip(response, context.message.getQuestion());
+                }
+            }
+
+            try {
+                long t = context.timed ? System.nanoTime() : 0;
+                channel.send(response, client);
+                if (context.counters != null) {
+                    if (context.timed) {
+                        context.lap(ServerMetrics.STAGE_SEND, t);
+                    }
+                    context.counters.onResponse(context.message.getQuestion().getQType(), response);
+                }
+            } catch (ClosedChannelException e) {
+                return false;
+            } catch (IOException e) {
+                if (context.counters != null) {
+                    context.counters.onDropped();
+                }
+                LOGGER.debug("Send to {} failed", client, e);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package org.ju;
+
+import org.ju.metrics.ServerMetrics;
+import org.ju.resolver.IterativeResolver;
+import org.ju.util.DnsMessageCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * DNS over TCP (RFC 1035 §4.2.2, RFC 7766) on the engine's port.
+ *
+ * One selector thread accepts connections and does all socket I/O. Every complete
+ * length-prefixed query is handed to a small pool of query threads, so a slow query
+ * (a recursive cache miss, say) never holds up the others on its connection, and
+ * responses go out as soon as they are ready, possibly out of order; clients match
+ * them by ID. Connections stay open for more queries until they have had nothing in
+ * flight for the idle timeout. The UDP workers are never involved.
+ */
+final class DnsTcpListener implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DnsTcpListener.class);
+
+    private static final int READ_BUFFER_SIZE = 4096; // Grows for bigger frames
+    private static final int MAX_PENDING = 64;        // Per connection; reading pauses at this many
+    private static final long SWEEP_MILLIS = 250;     // How often to look for idle connections
+    private static final int STREAM_BACKLOG = 256 * 1024; // Unwritten bytes a zone transfer may run ahead by
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService queryThreads;
+    private final ZoneTransferServer transfers;
+    private final ThreadLocal<QueryState> states;
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final Thread ioThread;
+    private volatile boolean running;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder idleClosed = new LongAdder();
+
+    DnsTcpListener(InetSocketAddress bind, DnsServerConfig config, ResponseCache cache,
+                   IterativeResolver resolver, ServerMetrics metrics) throws IOException {
+        this(bind, config, cache, resolver, metrics, null, null);
+    }
+
+    /**
+     * @param transfers Serves AXFR and IXFR; null refuses them.
+     * @param secondary The engine's zone copy when it is a secondary, else null.
+     */
+    DnsTcpListener(InetSocketAddress bind, DnsServerConfig config, ResponseCache cache,
+                   IterativeResolver resolver, ServerMetrics metrics,
+                   ZoneTransferServer transfers, SecondaryReplicator secondary) throws IOException {
+        this.transfers = transfers;
+        this.maxConnections = config.getTcpMaxConnections();
+        this.idleTimeoutNanos = config.getTcpIdleTimeoutMillis() * 1_000_000L;
+        this.server = ServerSocketChannel.open();
+        try {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(bind, maxConnections);
+            server.configureBlocking(false);
+            this.selector = Selector.open();
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+
+        AtomicInteger threadIds = new AtomicInteger();
+        this.queryThreads = Executors.newFixedThreadPool(config.getTcpWorkers(), r -> {
+            Thread thread = new Thread(r, "dns-tcp-worker-" + threadIds.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.states = ThreadLocal.withInitial(() -> {
+            QueryContext context = new QueryContext(cache, resolver, metrics);
+            context.maxUdpPayload = 0; // Stream transport: no payload limit
+            if (secondary != null) {
+                context.zones = secondary::current;
+                context.secondary = secondary;
+            }
+            return new QueryState(context);
+        });
+        this.ioThread = new Thread(this::ioLoop, "dns-tcp-io");
+        ioThread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        ioThread.start();
+    }
+
+    InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * Drops every connection, answered or not, and stops listening.
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queryThreads.shutdownNow();
+    }
+
+    // --- Statistics ---
+
+    int getConnections() {
+        return connections.get();
+    }
+
+    long getAccepted() {
+        return accepted.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getIdleClosed() {
+        return idleClosed.sum();
+    }
+
+    // --- I/O thread ---
+
+    private void ioLoop() {
+        long sweepNanos = SWEEP_MILLIS * 1_000_000L;
+        long nextSweep = System.nanoTime() + sweepNanos;
+        try {
+            while (running) {
+                selector.select(SWEEP_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            c.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            c.flush();
+                        }
+                    } catch (IOException e) {
+                        LOGGER.debug("TCP connection from {} failed: {}", c.remote, e.toString());
+                        c.close();
+                    }
+                }
+
+                // Connections that query threads have finished something for
+                Connection c;
+                while ((c = ready.poll()) != null) {
+                    try {
+                        c.flush();
+                    } catch (IOException e) {
+                        LOGGER.debug("TCP connection from {} failed: {}", c.remote, e.toString());
+                        c.close();
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - nextSweep >= 0) {
+                    closeIdle(now);
+                    nextSweep = now + sweepNanos;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                LOGGER.error("TCP I/O loop failed", e);
+            }
+        } finally {
+            running = false;
+            closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (connections.get() >= maxConnections) {
+                rejected.increment();
+                closeQuietly(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection c = new Connection(channel);
+                c.key = channel.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                continue;
+            }
+            connections.incrementAndGet();
+            accepted.increment();
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                Connection c = (Connection) attachment;
+                if (c.pending.get() == 0 && now - c.lastActivity > idleTimeoutNanos) {
+                    idleClosed.increment();
+                    c.close();
+                }
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Nothing left to close
+        }
+        closeQuietly(server);
+        closeQuietly(selector);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.debug("Error closing {}", closeable, e);
+        }
+    }
+
+    // --- Query threads ---
+
+    private void answer(Connection c, byte[] query) {
+        QueryContext ctx = states.get().context;
+        ByteBuffer out = states.get().out;
+        ctx.beginPacket();
+        ByteBuffer response = null;
+        boolean streamed = false; // A zone transfer: its messages are queued as they are made
+        try {
+            ByteBuffer in = ByteBuffer.wrap(query);
+            if (ZoneTransferServer.isTransfer(ctx.message.wrap(in))) {
+                streamed = true;
+                response = transfer(c, ctx, in);
+            } else {
+                response = SimpleDnsServer.processQuery(ctx, in, out);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException e) {
+            if (ctx.counters != null) {
+                ctx.counters.onDecodeError();
+            }
+            LOGGER.debug("Malformed TCP query from {}: {}", c.remote, e.toString());
+        } catch (RuntimeException e) {
+            if (ctx.counters != null) {
+                ctx.counters.onDropped();
+            }
+            LOGGER.debug("Error processing TCP query from {}", c.remote, e);
+        }
+
+        if (response != null && ctx.counters != null) {
+            ctx.counters.onResponse(ctx.message.getQuestion().getQType(), response);
+        }
+        if (response != null && !streamed) {
+            ByteBuffer framed = ByteBuffer.allocate(2 + response.remaining());
+            framed.putShort((short) response.remaining()).put(response).flip();
+            c.queue(framed);
+        } else {
+            // Nothing to send, or a transfer whose frames each took a pending slot of their own
+            c.pending.decrementAndGet();
+        }
+        // The I/O thread writes the frame, or re-enables reading if we were at the limit
+        ready.add(c);
+        selector.wakeup();
+    }
+
+    /**
+     * Answers an AXFR or IXFR query on {@code c}, queuing each message as soon as it is
+     * made and waiting whenever the connection is too far behind.
+     *
+     * @return The first message, which is all the metrics look at.
+     */
+    private ByteBuffer transfer(Connection c, QueryContext ctx, ByteBuffer in) {
+        ByteBuffer[] first = new ByteBuffer[1];
+        Consumer<ByteBuffer> out = frame -> {
+            if (first[0] == null) {
+                first[0] = ByteBuffer.wrap(frame.array(), 2, frame.limit() - 2).slice();
+            }
+            c.stream(frame);
+        };
+        if (transfers != null) {
+            transfers.respond(in, out);
+        } else {
+            out.accept(ZoneTransferServer.error(ctx.message, ZoneTransferServer.RCODE_REFUSED));
+        }
+        return first[0];
+    }
+
+    private static final class QueryState {
+        final QueryContext context;
+        final ByteBuffer out = ByteBuffer.allocate(DnsMessageCodec.MAX_MESSAGE_SIZE);
+
+        QueryState(QueryContext context) {
+            this.context = context;
+        }
+    }
+
+    /**
+     * One client connection. Everything but {@link #responses} and {@link #pending}
+     * belongs to the I/O thread.
+     */
+    private final class Connection {
+
+        final SocketChannel channel;
+        final Object remote;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long lastActivity = System.nanoTime();
+        boolean eof;
+        volatile boolean closed;
+
+        // Framed responses waiting to be written, in completion order, and their total size
+        final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        final AtomicLong queuedBytes = new AtomicLong();
+        // Queries read but not yet fully answered (or dropped), plus transfer frames queued
+        final AtomicInteger pending = new AtomicInteger();
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remote = channel.getRemoteAddress();
+        }
+
+        /**
+         * Queues a framed response from a query thread; the caller then tells the I/O thread.
+         */
+        void queue(ByteBuffer frame) {
+            queuedBytes.addAndGet(frame.remaining());
+            responses.add(frame);
+        }
+
+        /**
+         * Queues one message of a zone transfer from a query thread and has the I/O thread
+         * write it, first waiting while more than {@link #STREAM_BACKLOG} bytes are still
+         * unwritten. Each frame holds a pending slot until it is written, so the
+         * connection stays open for the rest.
+         *
+         * @throws UncheckedIOException if the connection closes meanwhile, to end the transfer.
+         */
+        void stream(ByteBuffer frame) {
+            synchronized (this) {
+                try {
+                    while (!closed && queuedBytes.get() > STREAM_BACKLOG) {
+                        wait(SWEEP_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Transfer interrupted"));
+                }
+            }
+            if (closed) {
+                throw new UncheckedIOException(new ClosedChannelException());
+            }
+            pending.incrementAndGet();
+            queue(frame);
+            ready.add(this);
+            selector.wakeup();
+        }
+
+        void read() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                // Client is done sending; finish what it asked for, then close
+                eof = true;
+                if (pending.get() == 0) {
+                    close();
+                } else {
+                    updateInterest();
+                }
+                return;
+            }
+            lastActivity = System.nanoTime();
+
+            // --- Split off every complete 2-byte length-prefixed frame ---
+            in.flip();
+            int needed = 0;
+            while (in.remaining() >= 2) {
+                int length = in.getShort(in.position()) & 0xFFFF;
+                if (in.remaining() < 2 + length) {
+                    needed = 2 + length;
+                    break;
+                }
+                in.position(in.position() + 2);
+                byte[] query = new byte[length];
+                in.get(query);
+                pending.incrementAndGet();
+                try {
+                    queryThreads.execute(() -> answer(this, query));
+                } catch (RejectedExecutionException e) {
+                    pending.decrementAndGet(); // Shutting down
+                }
+            }
+            in.compact();
+            if (needed > in.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            updateInterest();
+        }
+
+        void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            ByteBuffer head;
+            while ((head = responses.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    break; // Socket buffer full; OP_WRITE brings us back
+                }
+                responses.poll();
+                queuedBytes.addAndGet(-head.limit());
+                pending.decrementAndGet();
+                lastActivity = System.nanoTime();
+            }
+            synchronized (this) {
+                notifyAll(); // A transfer may be waiting for the backlog to go down
+            }
+            if (eof && pending.get() == 0) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        /**
+         * Reads only while under the pipelining limit; writes only while something is queued.
+         */
+        private void updateInterest() {
+            int ops = 0;
+            if (!eof && pending.get() < MAX_PENDING) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!responses.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            closeQuietly(channel);
+            connections.decrementAndGet();
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
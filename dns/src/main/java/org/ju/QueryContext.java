@@ -0,0 +1,111 @@
+package org.ju;
+
+import org.ju.metrics.ServerMetrics;
+import org.ju.model.DnsResourceRecord;
+import org.ju.resolver.IterativeResolver;
+import org.ju.util.DnsMessageView;
+import org.ju.util.DnsOptFlyweight;
+import org.ju.util.DnsWireWriter;
+import org.ju.util.Edns;
+import org.ju.zone.ZoneSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Per-worker scratch state for the wire-format query path.
+ * Every field is reused across packets, so a context must never be shared between threads.
+ */
+final class QueryContext {
+
+    final DnsMessageView message = new DnsMessageView();
+    final DnsWireWriter writer = new DnsWireWriter();
+    final StringBuilder nameBuilder = new StringBuilder(255);
+    // The records of a lookup that answer the QTYPE; emptied again once written
+    final List<DnsResourceRecord> answers = new ArrayList<>();
+
+    // Shared between workers; null when the response cache is disabled
+    final ResponseCache cache;
+
+    // Shared; null unless the server runs in recursive mode
+    final IterativeResolver resolver;
+
+    // Where authoritative answers come from: the process-wide store, or a secondary's copy
+    Supplier<ZoneSnapshot> zones = DnsRecordStore::current;
+
+    // Non-null when the engine is a secondary; NOTIFY messages for its zone go here
+    SecondaryReplicator secondary;
+
+    // Shared; null when metrics are disabled
+    final ServerMetrics metrics;
+
+    // This worker's own counters; null when metrics are disabled
+    final ServerMetrics.Shard counters;
+
+    // Largest UDP response we send, whatever a client advertises. 0 on a stream
+    // transport, where the only limit is the response buffer
+    int maxUdpPayload = Edns.DEFAULT_PAYLOAD;
+
+    // Whether the current packet's stages are being timed (see beginPacket)
+    boolean timed;
+    private int untilSample;
+
+    QueryContext(ResponseCache cache) {
+        this(cache, null, null);
+    }
+
+    QueryContext(ResponseCache cache, IterativeResolver resolver, ServerMetrics metrics) {
+        this.cache = cache;
+        this.resolver = resolver;
+        this.metrics = metrics;
+        this.counters = (metrics != null) ? metrics.newShard() : null;
+        this.untilSample = (metrics != null) ? metrics.getSampleInterval() : 0;
+    }
+
+    /**
+     * Called once per packet: counts the query and decides whether to time its stages.
+     */
+    void beginPacket() {
+        if (metrics == null) {
+            return;
+        }
+        counters.onQuery();
+        if (--untilSample == 0) {
+            untilSample = metrics.getSampleInterval();
+            timed = true;
+        } else {
+            timed = false;
+        }
+    }
+
+    /**
+     * How big the response to the current query may be. Call after wrapping {@link #message}.
+     * Over UDP that is 512 bytes, or the size the client advertised up to our cap.
+     */
+    int responseLimit(int capacity) {
+        if (maxUdpPayload == 0) {
+            return capacity;
+        }
+        DnsOptFlyweight opt = message.getOpt();
+        int limit = opt.isPresent() ? Math.min(opt.getUdpPayloadSize(), maxUdpPayload) : Edns.MIN_PAYLOAD;
+        return Math.min(limit, capacity);
+    }
+
+    /**
+     * The payload size we advertise in our own OPT records.
+     */
+    int advertisedPayload() {
+        return maxUdpPayload == 0 ? Edns.DEFAULT_PAYLOAD : maxUdpPayload;
+    }
+
+    /**
+     * Records the time since {@code since} against {@code stage}, and returns now.
+     * Only call while {@link #timed}.
+     */
+    long lap(int stage, long since) {
+        long now = System.nanoTime();
+        metrics.recordStage(stage, now - since);
+        return now;
+    }
+}
@@ -0,0 +1,185 @@
+package org.ju;
+
+import org.ju.util.DnsQuestionFlyweight;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of ready-to-send response bytes, keyed on the normalized question
+ * (lowercased wire-format QNAME + QTYPE + QCLASS).
+ *
+ * The table is a fixed array of 4-way sets, so memory is bounded by
+ * {@code capacity * max response size}. Lookups compare the key against the query
+ * buffer in place and take no locks. Inserts replace an existing entry in the set
+ * using CLOCK (second chance) so recently hit entries survive.
+ *
+ * Every entry remembers the {@link DnsRecordStore#getVersion() store version} it was
+ * built from; once the store changes, older entries are treated as misses.
+ */
+public class ResponseCache {
+
+    private static final int WAYS = 4;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int setMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity Maximum number of cached responses (rounded up to a power of two).
+     */
+    public ResponseCache(int capacity) {
+        if (capacity < WAYS) {
+            throw new IllegalArgumentException("capacity must be >= " + WAYS + ": " + capacity);
+        }
+        int sets = Integer.highestOneBit(capacity / WAYS - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(Math.max(sets, 1) * WAYS);
+        this.setMask = Math.max(sets, 1) - 1;
+    }
+
+    /**
+     * Returns the cached response for {@code question}, or null on a miss. The returned
+     * array is shared and must not be modified; copy it before patching.
+     */
+    public byte[] get(DnsQuestionFlyweight question, long version) {
+        int hash = hash(question);
+        int base = (hash & setMask) * WAYS;
+        for (int i = 0; i < WAYS; i++) {
+            Entry entry = slots.get(base + i);
+            if (entry != null && entry.hash == hash && entry.version == version && entry.matches(question)) {
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                hits.increment();
+                return entry.response;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the bytes between {@code response}'s position and limit as the answer
+     * for {@code question}, built from store {@code version}.
+     */
+    public void put(DnsQuestionFlyweight question, long version, ByteBuffer response) {
+        byte[] bytes = new byte[response.remaining()];
+        response.duplicate().get(bytes);
+        Entry fresh = new Entry(hash(question), version, key(question), bytes);
+
+        int base = (fresh.hash & setMask) * WAYS;
+        // Same question or an empty way first
+        for (int i = 0; i < WAYS; i++) {
+            Entry entry = slots.get(base + i);
+            if (entry == null || (entry.hash == fresh.hash && entry.matches(question))) {
+                slots.set(base + i, fresh);
+                return;
+            }
+        }
+        // CLOCK sweep: clear referenced bits until an unreferenced way turns up
+        for (int sweep = 0; sweep < 2 * WAYS; sweep++) {
+            int i = base + (sweep % WAYS);
+            Entry entry = slots.get(i);
+            if (entry == null || !entry.referenced || entry.version != version) {
+                slots.set(i, fresh);
+                evictions.increment();
+                return;
+            }
+            entry.referenced = false;
+        }
+        slots.set(base, fresh);
+        evictions.increment();
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static int hash(DnsQuestionFlyweight question) {
+        ByteBuffer buffer = question.getBuffer();
+        int end = question.getNameOffset() + question.getNameLength();
+        int h = 0x811C9DC5;
+        for (int i = question.getNameOffset(); i < end; i++) {
+            h = (h ^ toLower(buffer.get(i))) * 0x01000193;
+        }
+        h = (h ^ question.getQType()) * 0x01000193;
+        h = (h ^ question.getQClass()) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    private static byte[] key(DnsQuestionFlyweight question) {
+        ByteBuffer buffer = question.getBuffer();
+        int nameLength = question.getNameLength();
+        byte[] key = new byte[nameLength + 4];
+        for (int i = 0; i < key.length; i++) {
+            byte b = buffer.get(question.getNameOffset() + i);
+            // Only the name is case-insensitive, never QTYPE/QCLASS
+            key[i] = (i < nameLength) ? (byte) toLower(b) : b;
+        }
+        return key;
+    }
+
+    private static int toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? b + 32 : b;
+    }
+
+    private static final class Entry {
+        final int hash;
+        final long version;
+        final byte[] key;        // Lowercased QNAME + QTYPE + QCLASS, as on the wire
+        final byte[] response;
+        volatile boolean referenced;
+
+        Entry(int hash, long version, byte[] key, byte[] response) {
+            this.hash = hash;
+            this.version = version;
+            this.key = key;
+            this.response = response;
+        }
+
+        boolean matches(DnsQuestionFlyweight question) {
+            if (question.getNameLength() + 4 != key.length) {
+                return false;
+            }
+            ByteBuffer buffer = question.getBuffer();
+            int offset = question.getNameOffset();
+            int nameLength = question.getNameLength();
+            for (int i = 0; i < nameLength; i++) {
+                if (toLower(buffer.get(offset + i)) != key[i]) {
+                    return false;
+                }
+            }
+            for (int i = nameLength; i < key.length; i++) {
+                if (buffer.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.ju;
+
+import org.ju.util.DnsHeaderFlyweight;
+import org.ju.util.DnsQuestionFlyweight;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Response rate limiting (RRL) for UDP: caps how many responses of one kind a client
+ * network receives per second, so queries sent with a spoofed victim address come back
+ * to the victim as a trickle rather than an amplified flood.
+ *
+ * Buckets are keyed on the client's network prefix (/24 for IPv4, /56 for IPv6) and the
+ * kind of response: answer, referral, NXDOMAIN or anything else. Each bucket is a token
+ * bucket kept as a single long (GCRA): 32 bits of key fingerprint and the 32-bit
+ * "theoretical arrival time" of the next response in ~1 µs ticks. Checking a key is a
+ * hash, up to four reads and one CAS; it takes no locks and allocates nothing.
+ *
+ * The table is a fixed array of 4-way sets. A key that is not in its set takes an empty
+ * slot or the one that has been quiet longest, so memory never grows and a flood of
+ * distinct prefixes can push buckets out early. A new bucket starts full, so eviction
+ * errs towards answering.
+ *
+ * Limited responses are dropped, except that 1 in {@code slip} goes out truncated
+ * (TC=1, no records): a real client behind a spoofed-upon network can still retry over
+ * TCP, while the truncated reply is no bigger than the query.
+ */
+public class ResponseRateLimiter {
+
+    // --- Verdicts ---
+    public static final int SEND = 0;
+    public static final int DROP = 1;
+    public static final int SLIP = 2;
+
+    // --- Response kinds (part of the key) ---
+    public static final int ANSWER = 0;
+    public static final int REFERRAL = 1;
+    public static final int NXDOMAIN = 2;
+    public static final int OTHER = 3;
+
+    private static final int WAYS = 4;
+    private static final int TICK_SHIFT = 10; // Nanoseconds to ~1 µs ticks
+    private static final int FLAG_TC = 0x0200;
+    private static final int FLAG_AA = 0x0400;
+
+    private final AtomicLongArray slots;
+    private final int setMask;
+    private final int interval;  // Ticks per response
+    private final int tolerance; // How far the bucket may run ahead of now: (burst - 1) responses
+    private final int slip;
+    private final boolean dryRun;
+    private final long epoch = System.nanoTime();
+
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder slipped = new LongAdder();
+
+    /**
+     * @param responsesPerSecond Sustained rate allowed per bucket.
+     * @param burst              Responses allowed back to back; 0 means one second's worth.
+     * @param slip               1 in N limited responses is sent truncated; 0 drops them all.
+     * @param dryRun             Count limited responses but send them anyway.
+     * @param tableSize          Buckets tracked at once (rounded up to a power of two).
+     */
+    public ResponseRateLimiter(int responsesPerSecond, int burst, int slip, boolean dryRun, int tableSize) {
+        if (responsesPerSecond < 1) {
+            throw new IllegalArgumentException("responsesPerSecond must be >= 1: " + responsesPerSecond);
+        }
+        if (tableSize < WAYS) {
+            throw new IllegalArgumentException("tableSize must be >= " + WAYS + ": " + tableSize);
+        }
+        int sets = Math.max(Integer.highestOneBit(tableSize / WAYS - 1) << 1, 1);
+        this.slots = new AtomicLongArray(sets * WAYS);
+        this.setMask = sets - 1;
+        this.interval = (int) Math.max(1, (1_000_000_000L >> TICK_SHIFT) / responsesPerSecond);
+        int b = burst > 0 ? burst : responsesPerSecond;
+        // Kept well inside 2^31 ticks so wrap-around comparisons stay valid
+        this.tolerance = (int) Math.min((long) interval * (b - 1), Integer.MAX_VALUE / 4);
+        this.slip = slip;
+        this.dryRun = dryRun;
+    }
+
+    public ResponseRateLimiter(DnsServerConfig config) {
+        this(config.getRrlResponsesPerSecond(), config.getRrlBurst(), config.getRrlSlip(),
+                config.isRrlDryRun(), config.getRrlTableSize());
+    }
+
+    /**
+     * Decides what to do with {@code response}, about to be sent to {@code client}.
+     *
+     * @return {@link #SEND}, {@link #DROP} or {@link #SLIP}.
+     */
+    public int check(InetAddress client, ByteBuffer response, long nowNanos) {
+        return check(key(client, kind(response)), nowNanos);
+    }
+
+    /**
+     * As {@link #check(InetAddress, ByteBuffer, long)}, for a key from {@link #key}.
+     */
+    public int check(long key, long nowNanos) {
+        long h = mix(key);
+        int fingerprint = (int) (h >>> 32) | 1; // Never 0, so a slot holding 0 is empty
+        int base = ((int) h & setMask) * WAYS;
+        int now = (int) ((nowNanos - epoch) >>> TICK_SHIFT);
+
+        while (true) {
+            int victim = base;
+            long victimValue = slots.get(base);
+            for (int i = 0; i < WAYS; i++) {
+                long value = slots.get(base + i);
+                if (value == 0) {
+                    if (victimValue != 0) {
+                        victim = base + i;
+                        victimValue = 0;
+                    }
+                    continue;
+                }
+                if ((int) (value >>> 32) == fingerprint) {
+                    int tat = (int) value;
+                    int ahead = tat - now; // Wrap-safe
+                    if (ahead > tolerance + interval) {
+                        ahead = 0; // Impossible unless the clock wrapped past an old entry: treat as new
+                    }
+                    if (ahead > tolerance) {
+                        return limited();
+                    }
+                    int next = (ahead > 0 ? tat : now) + interval;
+                    if (slots.compareAndSet(base + i, value, pack(fingerprint, next))) {
+                        return SEND;
+                    }
+                    victim = -1; // Lost a race on this bucket; look again
+                    break;
+                }
+                if (victimValue != 0 && (int) value - (int) victimValue < 0) {
+                    victim = base + i; // Quiet for longer
+                    victimValue = value;
+                }
+            }
+            if (victim >= 0 && slots.compareAndSet(victim, victimValue, pack(fingerprint, now + interval))) {
+                return SEND;
+            }
+        }
+    }
+
+    private int limited() {
+        limited.increment();
+        if (dryRun) {
+            return SEND;
+        }
+        if (slip > 0 && ThreadLocalRandom.current().nextInt(slip) == 0) {
+            slipped.increment();
+            return SLIP;
+        }
+        dropped.increment();
+        return DROP;
+    }
+
+    // --- Keys ---
+
+    /**
+     * The bucket key for a client address and response kind: the /24 or /56 prefix,
+     * the address family and the kind, packed into one long.
+     */
+    public static long key(InetAddress client, int kind) {
+        byte[] a = client.getAddress();
+        long prefix = 0;
+        int family = 0;
+        if (a.length == 4) {
+            prefix = (a[0] & 0xFF) << 16 | (a[1] & 0xFF) << 8 | (a[2] & 0xFF);
+        } else {
+            for (int i = 0; i < 7; i++) {
+                prefix = prefix << 8 | (a[i] & 0xFF);
+            }
+            family = 1;
+        }
+        return prefix << 3 | family << 2 | kind;
+    }
+
+    /**
+     * Classifies a response the same way the metrics do.
+     */
+    public static int kind(ByteBuffer response) {
+        int flags = response.getShort(2) & 0xFFFF;
+        int rcode = flags & 0xF;
+        if (rcode == 3) {
+            return NXDOMAIN;
+        }
+        if (rcode == 0) {
+            if ((response.getShort(6) & 0xFFFF) > 0) {
+                return ANSWER;
+            }
+            if ((response.getShort(8) & 0xFFFF) > 0 && (flags & FLAG_AA) == 0) {
+                return REFERRAL;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Cuts {@code response} down to its header and the echoed question, with TC=1.
+     */
+    public static void slip(ByteBuffer response, DnsQuestionFlyweight question) {
+        response.putShort(2, (short) (response.getShort(2) | FLAG_TC));
+        response.putShort(6, (short) 0);
+        response.putShort(8, (short) 0);
+        response.putShort(10, (short) 0);
+        response.limit(DnsHeaderFlyweight.HEADER_SIZE + question.getEndOffset() - question.getNameOffset());
+    }
+
+    private static long pack(int fingerprint, int tat) {
+        return (long) fingerprint << 32 | (tat & 0xFFFFFFFFL);
+    }
+
+    private static long mix(long key) {
+        // MurmurHash3 finalizer: neighbouring prefixes land in unrelated sets
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    // --- Statistics ---
+
+    /**
+     * Responses over the limit, including those sent anyway in dry-run mode.
+     */
+    public long getLimited() {
+        return limited.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSlipped() {
+        return slipped.sum();
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+}
@@ -0,0 +1,285 @@
+package org.ju;
+
+import org.ju.client.TcpDnsClient;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.zone.SecondaryZone;
+import org.ju.zone.Soa;
+import org.ju.zone.ZoneDiff;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The secondary side of zone transfers: keeps one zone in step with its primary.
+ *
+ * A background thread asks the primary for the zone by IXFR, quoting the serial it
+ * holds, every REFRESH seconds of the zone's SOA (or the configured interval), after
+ * RETRY seconds when that fails, and straight away when a NOTIFY arrives. The first
+ * transfer is a full one and builds a {@link SecondaryZone}; later diffs are applied to
+ * a copy of it while it goes on serving, and the copy replaces it once complete. Every
+ * change is published as a new snapshot of this secondary's own, swapped in atomically
+ * as the store does, so the engine's response cache moves on with it. The
+ * process-wide {@link DnsRecordStore} is left alone, which lets several secondaries
+ * run in one JVM.
+ */
+final class SecondaryReplicator implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecondaryReplicator.class);
+
+    private static final int TIMEOUT_MILLIS = 10_000;
+    private static final long FIRST_RETRY_MILLIS = 1000; // Until there is an SOA to take RETRY from
+
+    private final InetSocketAddress primary;
+    private final String apex;
+    private final int refreshSeconds;
+    private final TcpDnsClient client = new TcpDnsClient(TIMEOUT_MILLIS);
+    private final AtomicReference<ZoneSnapshot> current;
+    private final Thread thread;
+    private volatile SecondaryZone zone;
+    private volatile long publishedSerial = -1;
+    private volatile boolean running;
+
+    private final Object wakeup = new Object();
+    private boolean notified; // Guarded by wakeup
+
+    private final LongAdder fullTransfers = new LongAdder();
+    private final LongAdder incrementalTransfers = new LongAdder();
+    private final LongAdder notifies = new LongAdder();
+
+    SecondaryReplicator(DnsServerConfig config) {
+        this.primary = config.getPrimary();
+        this.apex = ZoneTransferServer.normalize(config.getSecondaryZone());
+        this.refreshSeconds = config.getRefreshSeconds();
+        // Until the first transfer lands there is nothing to serve: queries get SERVFAIL
+        this.current = new AtomicReference<>(new ZoneSnapshot(new ZoneTrie(), 1, "secondary " + apex + " (empty)"));
+        this.thread = new Thread(this::run, "zone-secondary-" + apex);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+    }
+
+    /**
+     * The data this secondary serves. Take it once per query, as with the store's.
+     */
+    ZoneSnapshot current() {
+        return current.get();
+    }
+
+    String getApex() {
+        return apex;
+    }
+
+    /**
+     * Serial of the copy last published, or -1 before the first transfer.
+     */
+    long getSerial() {
+        return publishedSerial;
+    }
+
+    long getFullTransfers() {
+        return fullTransfers.sum();
+    }
+
+    long getIncrementalTransfers() {
+        return incrementalTransfers.sum();
+    }
+
+    long getNotifies() {
+        return notifies.sum();
+    }
+
+    /**
+     * A NOTIFY for our zone came in: check with the primary now rather than at the next
+     * refresh. Safe to call from any thread; never blocks.
+     */
+    void notifyReceived() {
+        notifies.increment();
+        synchronized (wakeup) {
+            notified = true;
+            wakeup.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long waitMillis;
+            try {
+                refresh();
+                waitMillis = refreshMillis();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Refresh of {} from {} failed: {}", apex, primary, e.toString());
+                waitMillis = retryMillis();
+            }
+            synchronized (wakeup) {
+                long deadline = System.currentTimeMillis() + waitMillis;
+                long remaining = waitMillis;
+                while (running && !notified && remaining > 0) {
+                    try {
+                        wakeup.wait(remaining);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                notified = false;
+            }
+        }
+    }
+
+    /**
+     * Brings the copy up to date with the primary, on the calling thread.
+     *
+     * @return Whether anything changed.
+     */
+    boolean refresh() throws IOException {
+        SecondaryZone z = zone;
+        if (z != null) {
+            try {
+                return transfer(z);
+            } catch (IllegalStateException e) {
+                // A diff that does not fit what we hold: start over from a full copy
+                LOGGER.warn("Incremental transfer of {} failed ({}); falling back to AXFR", apex, e.getMessage());
+            }
+        }
+        return transfer(null);
+    }
+
+    /**
+     * One transfer: IXFR from {@code from}'s serial, or AXFR if {@code from} is null.
+     */
+    private boolean transfer(SecondaryZone from) throws IOException {
+        List<DnsResourceRecord> records = fetch(from);
+        DnsResourceRecord soa = records.get(0);
+        long serial = Soa.serial(soa);
+        if (from != null && !Soa.isNewer(serial, from.getSerial())) {
+            return false;
+        }
+        long start = System.nanoTime();
+        if (from != null && records.size() > 2 && records.get(1).getType() == DnsType.SOA) {
+            List<ZoneDiff> diffs = parseDiffs(records);
+            // Queries go on reading the current copy until the updated one is published
+            zone = from.apply(diffs);
+            incrementalTransfers.increment();
+            publish(zone, "IXFR");
+            LOGGER.info("Applied {} diff(s) to {}, now at serial {} ({} us)",
+                    diffs.size(), apex, serial, (System.nanoTime() - start) / 1000);
+        } else {
+            // A full transfer: SOA, the zone's other records, SOA again
+            ZoneTrie trie = new ZoneTrie(records.size());
+            for (int i = 0; i < records.size() - 1; i++) {
+                trie.add(records.get(i));
+            }
+            trie.link();
+            zone = new SecondaryZone(apex, trie);
+            fullTransfers.increment();
+            publish(zone, "AXFR");
+            LOGGER.info("Loaded {} at serial {} by AXFR: {} records ({} ms)",
+                    apex, serial, records.size() - 2, (System.nanoTime() - start) / 1_000_000);
+        }
+        return true;
+    }
+
+    /**
+     * Asks the primary for the zone and returns the records of the whole transfer.
+     */
+    private List<DnsResourceRecord> fetch(SecondaryZone from) throws IOException {
+        int qtype = (from == null) ? DnsType.AXFR : DnsType.IXFR;
+        List<DnsResourceRecord> authority = (from == null)
+                ? Collections.<DnsResourceRecord>emptyList() : List.of(from.getSoa());
+        DnsHeader header = new DnsHeader(ThreadLocalRandom.current().nextInt(0x10000), 0, 1, 0, authority.size(), 0);
+        DnsMessage query = new DnsMessage(header, List.of(new DnsQuestion(apex, qtype, DnsClass.IN)),
+                Collections.<DnsResourceRecord>emptyList(), authority);
+
+        List<DnsMessage> messages = client.transfer(primary, query);
+        int rcode = messages.get(0).getHeader().getFlags() & 0xF;
+        if (rcode != 0) {
+            throw new IOException("Primary " + primary + " refused " + DnsType.toString(qtype) + " of " + apex
+                    + " (RCODE " + rcode + ")");
+        }
+        List<DnsResourceRecord> records = new ArrayList<>();
+        for (DnsMessage message : messages) {
+            records.addAll(message.getAnswers());
+        }
+        if (records.get(0).getType() != DnsType.SOA) {
+            throw new IOException("Transfer of " + apex + " does not start with its SOA");
+        }
+        return records;
+    }
+
+    /**
+     * Splits an incremental transfer (new SOA, then per diff: old SOA, deletions, new
+     * SOA, additions; then the new SOA again) into its diffs.
+     */
+    private static List<ZoneDiff> parseDiffs(List<DnsResourceRecord> records) throws IOException {
+        List<ZoneDiff> diffs = new ArrayList<>();
+        int end = records.size() - 1;
+        int i = 1;
+        while (i < end) {
+            DnsResourceRecord from = records.get(i++);
+            List<DnsResourceRecord> deleted = new ArrayList<>();
+            while (i < end && records.get(i).getType() != DnsType.SOA) {
+                deleted.add(records.get(i++));
+            }
+            if (i >= end) {
+                throw new IOException("Incremental transfer ends inside a diff");
+            }
+            DnsResourceRecord to = records.get(i++);
+            List<DnsResourceRecord> added = new ArrayList<>();
+            while (i < end && records.get(i).getType() != DnsType.SOA) {
+                added.add(records.get(i++));
+            }
+            diffs.add(new ZoneDiff(from, to, deleted, added));
+        }
+        return diffs;
+    }
+
+    private void publish(SecondaryZone z, String how) {
+        String source = how + " of " + apex + " from " + primary;
+        current.updateAndGet(previous -> new ZoneSnapshot(z, previous.getVersion() + 1, source));
+        publishedSerial = z.getSerial();
+    }
+
+    private long refreshMillis() {
+        if (refreshSeconds > 0) {
+            return refreshSeconds * 1000L;
+        }
+        SecondaryZone z = zone;
+        return z != null ? Math.max(1, Soa.refresh(z.getSoa())) * 1000L : FIRST_RETRY_MILLIS;
+    }
+
+    private long retryMillis() {
+        SecondaryZone z = zone;
+        if (z == null) {
+            return FIRST_RETRY_MILLIS;
+        }
+        long retry = Math.max(1, Soa.retry(z.getSoa())) * 1000L;
+        return refreshSeconds > 0 ? Math.min(retry, refreshSeconds * 1000L) : retry;
+    }
+}
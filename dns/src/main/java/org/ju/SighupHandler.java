@@ -0,0 +1,56 @@
+package org.ju;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Runs an action on SIGHUP, the traditional "re-read your config" signal.
+ *
+ * The JDK has no public signal API, only {@code sun.misc.Signal} in jdk.unsupported.
+ * This is the one place that touches it, and only by reflection, so the build does not
+ * depend on it and a JVM without it (or a platform without SIGHUP) still runs: the
+ * handler is simply not installed. Reloads are then triggered by watching the zone file
+ * ({@code --watch}) or through {@link ZoneReloader#requestReload()}.
+ */
+final class SighupHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SighupHandler.class);
+
+    private SighupHandler() {
+    }
+
+    /**
+     * @return Whether the handler was installed.
+     */
+    static boolean install(Runnable action) {
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+            Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(), new Class<?>[]{handlerClass},
+                    (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return objectMethod(proxy, method, args);
+                        }
+                        action.run(); // handle(Signal), the only other method
+                        return null;
+                    });
+            Object hup = signalClass.getConstructor(String.class).newInstance("HUP");
+            signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, hup, handler);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            LOGGER.warn("Cannot install SIGHUP handler ({}); use --watch to reload on change", e.toString());
+            return false;
+        }
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals": return proxy == args[0];
+            case "hashCode": return System.identityHashCode(proxy);
+            default: return "SighupHandler";
+        }
+    }
+}
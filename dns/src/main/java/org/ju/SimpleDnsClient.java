@@ -1,24 +1,61 @@
 package org.ju;
 
+import org.ju.client.AsyncDnsClient;
 import org.ju.model.*;
-import org.ju.util.DnsMessageCodec;
-
+import org.ju.resolver.BulkResolver;
+import org.ju.resolver.DnsTransport;
+import org.ju.resolver.IterativeResolver;
+import org.ju.resolver.Resolution;
+import org.ju.resolver.ResolverCache;
+import org.ju.util.DnsLabelEncoder;
+
+import java.io.*;
 import java.net.*;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.Scanner;
 
+/**
+ * Resolves names against the simulated hierarchy, either one at a time at a prompt or,
+ * given any options, in bulk from a file or stdin:
+ * <pre>
+ * SimpleDnsClient --bulk names.txt --concurrency 256 --format csv --out results.csv
+ * zcat hosts.gz | SimpleDnsClient --bulk - --type AAAA &gt; results.jsonl
+ * </pre>
+ * Options: {@code --bulk FILE|-}, {@code --out FILE} (default stdout), {@code --format
+ * jsonl|csv}, {@code --concurrency N}, {@code --type TYPE}, {@code --root HOST[:PORT]}
+ * (repeatable; default 127.0.0.1:5354), {@code --timeout-ms N} and {@code --cache-size N}.
+ */
 public class SimpleDnsClient {
     private static final int SERVER_PORT = 5354;
-    private static final DnsMessageCodec codec = new DnsMessageCodec();
-    private static final Random random = new Random();
 
     public static void main(String[] args) throws Exception {
-        // if (args.length == 0) {
-        //     System.out.println("Usage: java SimpleDnsClient <domain>");
-        //     return;
-        // }
+        if (args.length > 0) {
+            bulk(args);
+            return;
+        }
+
+        // The resolver does the referral walk; this transport just narrates each step.
+        // Its cache lives for the session, so asking for a name twice costs no queries.
+        AsyncDnsClient udp = new AsyncDnsClient(1, 2000, 0);
+        DnsTransport narrating = (server, query) -> {
+            System.out.println("\n[Step] Querying Server: " + server.getAddress().getHostAddress());
+            DnsMessage response = udp.exchange(server, query);
+            if (response.getAnswers().isEmpty() && !response.getAuthorities().isEmpty()) {
+                DnsResourceRecord nsRecord = response.getAuthorities().get(0);
+                System.out.println("-> STATUS: REFERRAL (Delegation)");
+                System.out.println("   Server doesn't know answer, but referred us to Zone: " + nsRecord.getName());
+            }
+            return response;
+        };
+        // We start by querying the "Root" (which is just our localhost server in this sim)
+        IterativeResolver resolver = new IterativeResolver(narrating,
+                List.of(new InetSocketAddress("127.0.0.1", SERVER_PORT)), SERVER_PORT,
+                new ResolverCache(10_000, 16L * 1024 * 1024));
 
         Scanner scanner = new Scanner(System.in);
         boolean Continue = true;
@@ -32,70 +69,27 @@ public class SimpleDnsClient {
             }
 
             String targetDomain = domain.endsWith(".") ? domain : domain + ".";
-            
-            // We start by querying the "Root" (which is just our localhost server in this sim)
-            String currentNameServerIp = "127.0.0.1"; 
-            boolean resolved = false;
-            int loopLimit = 10; // Prevent infinite loops
-
             System.out.println("--- Starting Iterative Search for: " + targetDomain + " ---");
 
-            try (DatagramSocket socket = new DatagramSocket()) {
-                socket.setSoTimeout(2000);
-
-                while (!resolved && loopLimit > 0) {
-                    System.out.println("\n[Step] Querying Server: " + currentNameServerIp);
-
-                    // 1. Build Query
-                    DnsMessage query = buildQuery(targetDomain);
-                    byte[] qBytes = codec.encode(query);
-
-                    // 2. Send
-                    InetAddress ip = InetAddress.getByName(currentNameServerIp);
-                    DatagramPacket packet = new DatagramPacket(qBytes, qBytes.length, ip, SERVER_PORT);
-                    socket.send(packet);
-
-                    // 3. Receive
-                    byte[] buf = new byte[512];
-                    DatagramPacket responsePacket = new DatagramPacket(buf, buf.length);
-                    try {
-                        socket.receive(responsePacket);
-                    } catch (SocketTimeoutException e) {
-                        System.out.println("timeout.");
-                        break;
-                    }
-
-                    DnsMessage response = codec.decode(responsePacket.getData());
-
-                    // 4. Analyze Response
-                    if (response.getAnswers().size() > 0) {
-                        // --- SUCCESS CASE ---
-                        System.out.println("-> STATUS: FOUND A-RECORD!");
-                        for (DnsResourceRecord ans : response.getAnswers()) {
-                            String ipAddr = InetAddress.getByAddress(ans.getRData()).getHostAddress();
-                            System.out.println("   " + ans.getName() + " maps to " + ipAddr);
-                        }
-                        resolved = true;
-                    } 
-                    else if (response.getAuthorities() != null && !response.getAuthorities().isEmpty()) {
-                        // --- REFERRAL CASE ---
-                        DnsResourceRecord nsRecord = response.getAuthorities().get(0);
-                        String nsIp = InetAddress.getByAddress(nsRecord.getRData()).getHostAddress();
-                        String nsZone = nsRecord.getName();
-                        
-                        System.out.println("-> STATUS: REFERRAL (Delegation)");
-                        System.out.println("   Server doesn't know answer, but referred us to Zone: " + nsZone);
-                        System.out.println("   Next Name Server IP: " + nsIp);
-                        
-                        // UPDATE TARGET IP FOR NEXT LOOP
-                        currentNameServerIp = nsIp; 
-                        
-                    } else {
-                        System.out.println("-> STATUS: NXDOMAIN / No Data");
-                        break;
+            Resolution result = resolver.resolve(targetDomain, DnsType.A);
+            if (result.isFromCache()) {
+                System.out.println("-> Answered from cache, no servers queried");
+            }
+            if (!result.getAnswers().isEmpty()) {
+                System.out.println("-> STATUS: FOUND A-RECORD!");
+                for (DnsResourceRecord ans : result.getAnswers()) {
+                    if (ans.getType() == DnsType.CNAME) {
+                        String target = DnsLabelEncoder.decode(ByteBuffer.wrap(ans.getRData()));
+                        System.out.println("   " + ans.getName() + " is an alias for " + target);
+                    } else if (ans.getType() == DnsType.A || ans.getType() == DnsType.AAAA) {
+                        String ipAddr = InetAddress.getByAddress(ans.getRData()).getHostAddress();
+                        System.out.println("   " + ans.getName() + " maps to " + ipAddr);
                     }
-                    loopLimit--;
                 }
+            } else if (result.getRcode() == Resolution.RCODE_SERVFAIL) {
+                System.out.println("-> STATUS: FAILED (timeout or lame delegation)");
+            } else {
+                System.out.println("-> STATUS: NXDOMAIN / No Data");
             }
 
             while (true) {
@@ -112,12 +106,83 @@ public class SimpleDnsClient {
             }
         }
         scanner.close();
+        udp.close();
 
     }
 
-    private static DnsMessage buildQuery(String domain) {
-        DnsHeader header = new DnsHeader(random.nextInt(0xFFFF), 0x0100, 1, 0, 0, 0);
-        DnsQuestion q = new DnsQuestion(domain, DnsType.A, 1);
-        return new DnsMessage(header, List.of(q), Collections.emptyList(), Collections.emptyList());
+    // --- Bulk mode ---
+
+    private static void bulk(String[] args) throws Exception {
+        String input = null;
+        String output = null;
+        boolean csv = false;
+        int concurrency = 64;
+        int type = DnsType.A;
+        List<InetSocketAddress> roots = new ArrayList<>();
+        int timeoutMillis = 2000;
+        int cacheSize = 100_000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--bulk": input = args[++i]; break;
+                case "--out": output = args[++i]; break;
+                case "--format": csv = parseFormat(args[++i]); break;
+                case "--concurrency": concurrency = Integer.parseInt(args[++i]); break;
+                case "--type": type = parseType(args[++i]); break;
+                case "--root": roots.add(parseAddress(args[++i])); break;
+                case "--timeout-ms": timeoutMillis = Integer.parseInt(args[++i]); break;
+                case "--cache-size": cacheSize = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (input == null) {
+            throw new IllegalArgumentException("--bulk FILE (or - for stdin) is required");
+        }
+        if (roots.isEmpty()) {
+            roots.add(new InetSocketAddress("127.0.0.1", SERVER_PORT));
+        }
+
+        // One socket is enough: the client matches replies by ID, not by thread
+        try (AsyncDnsClient udp = new AsyncDnsClient(1, timeoutMillis, 1);
+             BufferedReader in = input.equals("-")
+                     ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                     : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+             Writer out = new BufferedWriter(output == null
+                     ? new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8)
+                     : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8), 1 << 16)) {
+            IterativeResolver resolver = new IterativeResolver(udp, roots, SERVER_PORT,
+                    new ResolverCache(cacheSize, cacheSize * 512L));
+            BulkResolver bulk = new BulkResolver(resolver).setConcurrency(concurrency).setDefaultType(type)
+                    .setCsv(csv);
+            long start = System.nanoTime();
+            bulk.run(in, out);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("Resolved %d names in %.1f s (%.0f/s), %d failed, %d upstream queries%n",
+                    bulk.getResolved(), seconds, bulk.getResolved() / Math.max(seconds, 1e-9), bulk.getFailed(),
+                    udp.getSent());
+        }
+    }
+
+    private static boolean parseFormat(String format) {
+        switch (format) {
+            case "jsonl": return false;
+            case "csv": return true;
+            default: throw new IllegalArgumentException("Unknown format (jsonl or csv): " + format);
+        }
+    }
+
+    private static int parseType(String mnemonic) {
+        int type = DnsType.fromString(mnemonic);
+        if (type < 0) {
+            throw new IllegalArgumentException("Unknown type: " + mnemonic);
+        }
+        return type;
+    }
+
+    private static InetSocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(hostAndPort, SERVER_PORT);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
     }
-}
\ No newline at end of file
+}
@@ -1,95 +1,505 @@
 package org.ju;
 
+import org.ju.metrics.ServerMetrics;
 import org.ju.model.*;
-import org.ju.util.DnsMessageCodec;
+import org.ju.resolver.Resolution;
+import org.ju.util.DnsHeaderFlyweight;
+import org.ju.util.DnsMessageView;
+import org.ju.util.DnsOptFlyweight;
+import org.ju.util.DnsQuestionFlyweight;
+import org.ju.util.DnsWireWriter;
+import org.ju.util.Edns;
+import org.ju.zone.Soa;
+import org.ju.zone.ZoneSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class SimpleDnsServer {
 
-    // private static final Logger LOGGER = LoggerFactory.getLogger(SimpleDnsServer.class);
-    private static final int DNS_PORT = 5354;
-    private static final DnsMessageCodec codec = new DnsMessageCodec();
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimpleDnsServer.class);
 
-    public static void main(String[] args) {
-        // LOGGER.info("Starting Iterative DNS Server (Root/TLD/Auth Simulator) on port {}...", DNS_PORT);
+    public static void main(String[] args) throws Exception {
+        DnsServerConfig config = DnsServerConfig.fromArgs(args);
+        LOGGER.info("Starting Iterative DNS Server (Root/TLD/Auth Simulator): {}", config);
 
-        try (DatagramSocket socket = new DatagramSocket(DNS_PORT)) {
-            while (true) {
-                byte[] inBuffer = new byte[512];
-                DatagramPacket inPacket = new DatagramPacket(inBuffer, inBuffer.length);
-                socket.receive(inPacket);
-
-                try {
-                    DnsMessage query = codec.decode(inPacket.getData());
-                    DnsMessage response = processQuery(query);
-                    byte[] outBuffer = codec.encode(response);
-
-                    DatagramPacket outPacket = new DatagramPacket(outBuffer, outBuffer.length, inPacket.getAddress(), inPacket.getPort());
-                    socket.send(outPacket);
-                } catch (Exception e) {
-                    // LOGGER.error("Error processing packet", e);
-                }
+        if (config.getZoneImage() != null || config.getZoneFile() != null) {
+            ZoneReloader reloader = new ZoneReloader(config);
+            reloader.reloadNow();
+            reloader.installSignalHandler();
+            if (config.isWatchZone()) {
+                reloader.watch();
             }
-        } catch (IOException e) {
-            // LOGGER.error("Server error", e);
+            Runtime.getRuntime().addShutdownHook(new Thread(reloader::close));
         }
+
+        DnsServerEngine engine = new DnsServerEngine(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(engine::stop));
+        engine.start();
+
+        // Worker threads are daemons, so park the main thread until shutdown
+        Thread.currentThread().join();
     }
 
-    private static DnsMessage processQuery(DnsMessage query) {
+    // Outcomes of looking a name up in the zone store
+    static final int RESULT_ANSWER = 0;
+    static final int RESULT_REFERRAL = 1;
+    static final int RESULT_NXDOMAIN = 2;
+    static final int RESULT_WILDCARD = 3; // An answer synthesized from a "*" owner
+    static final int RESULT_NODATA = 4;   // The name exists, but owns nothing of the QTYPE
+
+    private static final int FLAG_AA = 0x0400; // Authoritative Answer
+    private static final int FLAG_RD = 0x0100; // Recursion Desired, copied from the query
+    private static final int FLAG_RA = 0x0080; // Recursion Available, set when running recursive
+
+    static DnsMessage processQuery(DnsMessage query) {
         DnsQuestion question = query.getQuestions().get(0);
         String requestedDomain = question.getQName();
         
-        // LOGGER.info("Received Query for: {}", requestedDomain);
+        LOGGER.debug("Received Query for: {}", requestedDomain);
 
         // Look for the best match in our "Zone" store
-        List<DnsResourceRecord> foundRecords = DnsRecordStore.findClosestMatch(requestedDomain);
+        ZoneSnapshot zone = DnsRecordStore.current();
+        List<DnsResourceRecord> foundRecords = zone.findAnswer(requestedDomain);
 
         List<DnsResourceRecord> answers = new ArrayList<>();
-        List<DnsResourceRecord> authorities = new ArrayList<>(); // For NS records
-        int flags = 0x8000; // QR=1 (Response)
-        int rcode = 0;
-
-        if (foundRecords != null && !foundRecords.isEmpty()) {
-            // Check what kind of records we found
-            DnsResourceRecord firstRec = foundRecords.get(0);
-
-            if (firstRec.getName().equals(requestedDomain) && firstRec.getType() == DnsType.A) {
-                // 1. Exact Match (A Record) -> We are Authoritative
-                answers.addAll(foundRecords);
-                flags |= 0x0400; // AA=1 (Authoritative Answer)
-                // LOGGER.info("  -> Found Exact A-Record match.");
-            } 
-            else if (firstRec.getType() == DnsType.NS) {
-                // 2. Found NS Record -> We are delegating (Referral)
-                authorities.addAll(foundRecords);
-                // AA flag is NOT set because we are referring, not answering.
-                // LOGGER.info("  -> Found Referral (NS) for zone: {}", firstRec.getName());
-            } 
-            else {
-                // 3. Found something else (unlikely in this sim)
-                rcode = 3; // NXDOMAIN
+        List<DnsResourceRecord> authorities = new ArrayList<>(); // NS records, or the SOA of a negative answer
+        List<DnsResourceRecord> additionals = new ArrayList<>(); // Glue, and our OPT
+
+        List<DnsResourceRecord> selected = new ArrayList<>();
+        int result = classify(requestedDomain, question.getQType(), foundRecords, selected);
+        if (result == RESULT_ANSWER) {
+            answers.addAll(selected);
+        } else if (result == RESULT_WILDCARD) {
+            String wildcard = foundRecords.get(0).getName();
+            for (DnsResourceRecord r : selected) {
+                answers.add(!r.getName().equals(wildcard) ? r : new DnsResourceRecord(requestedDomain,
+                        r.getType(), r.getRClass(), r.getTtl(), r.getRdLength(), r.getRData()));
+            }
+        } else if (result == RESULT_REFERRAL) {
+            // The delegation, then the glue the zone holds for its nameservers
+            for (DnsResourceRecord r : foundRecords) {
+                (r.getType() == DnsType.NS ? authorities : additionals).add(r);
+            }
+        }
+        DnsResourceRecord soa = isNegative(result) ? negativeSoa(enclosingSoa(zone, requestedDomain)) : null;
+        if (soa != null) {
+            authorities.add(soa);
+        }
+        int flags = responseFlags(result, soa) | (query.getHeader().getFlags() & FLAG_RD);
+
+        // An EDNS query gets an OPT record back
+        if (query.getOpt() != null) {
+            additionals.add(Edns.opt(Edns.DEFAULT_PAYLOAD));
+        }
+
+        DnsHeader header = new DnsHeader(query.getHeader().getId(), flags, 1, answers.size(), authorities.size(),
+                additionals.size());
+        return new DnsMessage(header, List.of(question), answers, authorities, additionals);
+    }
+
+    /**
+     * Wire-format twin of {@link #processQuery(DnsMessage)}: reads the query through
+     * flyweights and writes the response straight into {@code response}. Only the header,
+     * the question and the OPT record are ever parsed, and the zone is searched with the
+     * QNAME's own bytes, so the path allocates nothing per packet beyond the RRset the
+     * store hands back. A response cache hit skips the lookup and encode entirely.
+     *
+     * @return {@code response}, flipped and ready to send.
+     */
+    static ByteBuffer processQuery(QueryContext ctx, ByteBuffer query, ByteBuffer response) {
+        long t = ctx.timed ? System.nanoTime() : 0;
+        DnsMessageView message = ctx.message.wrap(query);
+        DnsHeaderFlyweight queryHeader = message.getHeader();
+        if (queryHeader.getQdCount() < 1) {
+            throw new IllegalArgumentException("Query has no question");
+        }
+        DnsQuestionFlyweight question = message.getQuestion();
+        if (((queryHeader.getFlags() >>> 11) & 0xF) == ZoneTransferServer.OPCODE_NOTIFY) {
+            return processNotify(ctx, queryHeader.getId(), question, response);
+        }
+        DnsOptFlyweight opt = message.getOpt();
+        int rd = queryHeader.getFlags() & FLAG_RD;
+        if (ctx.timed) {
+            t = ctx.lap(ServerMetrics.STAGE_DECODE, t);
+        }
+        // Room for the records; our OPT, if the client sent one, goes after them
+        int limit = ctx.responseLimit(response.capacity()) - (opt.isPresent() ? Edns.OPT_SIZE : 0);
+        if (opt.isPresent() && opt.getVersion() > Edns.VERSION) {
+            return badVersion(ctx, queryHeader.getId(), rd, question, response);
+        }
+        if (ctx.resolver != null && rd != 0) {
+            return processRecursive(ctx, queryHeader.getId(), question, response, limit, t);
+        }
+        int ra = (ctx.resolver != null) ? FLAG_RA : 0;
+        if (ctx.secondary != null) {
+            // A secondary holds one zone, and nothing at all until its first transfer lands
+            if (!question.isAtOrBelow(ctx.secondary.getApex())) {
+                return error(ctx, queryHeader.getId(), rd | ra, ZoneTransferServer.RCODE_REFUSED, question, response);
+            }
+            if (ctx.secondary.getSerial() < 0) {
+                return error(ctx, queryHeader.getId(), rd | ra, Resolution.RCODE_SERVFAIL, question, response);
+            }
+        }
+
+        // One snapshot for the whole query: the version and the lookup always agree
+        ZoneSnapshot zone = ctx.zones.get();
+        long version = zone.getVersion();
+        if (ctx.cache != null) {
+            byte[] cached = ctx.cache.get(question, version);
+            // Entries are stored whole and without OPT; one that does not fit this
+            // client's limit is rebuilt so it gets truncated properly
+            if (cached != null && cached.length <= limit) {
+                if (ctx.timed) {
+                    t = ctx.lap(ServerMetrics.STAGE_LOOKUP, t);
+                }
+                patchCachedResponse(cached, question, queryHeader.getId(), rd, response);
+                appendOpt(ctx, response);
+                if (ctx.timed) {
+                    ctx.lap(ServerMetrics.STAGE_ENCODE, t);
+                }
+                return response;
+            }
+        }
+
+        // Keyed on the QNAME bytes in the packet: no String on the authoritative path.
+        // CNAME chains and wildcards were resolved when the zone was loaded.
+        List<DnsResourceRecord> foundRecords = zone.findAnswer(query, question.getNameOffset());
+
+        List<DnsResourceRecord> answers = ctx.answers;
+        int result = classify(question, foundRecords, answers);
+        // Negative answers are rare enough (and cached) to afford a second walk for the SOA
+        DnsResourceRecord soa = isNegative(result)
+                ? negativeSoa(enclosingSoa(zone, query, question.getNameOffset())) : null;
+        if (ctx.timed) {
+            t = ctx.lap(ServerMetrics.STAGE_LOOKUP, t);
+        }
+        DnsWireWriter writer = ctx.writer.wrap(response, queryHeader.getId(), responseFlags(result, soa) | rd | ra,
+                limit);
+        writer.question(question);
+        if (result == RESULT_REFERRAL) {
+            // A referral's glue follows its NS records; losing it to truncation does not set TC
+            for (int i = 0; i < foundRecords.size(); i++) {
+                DnsResourceRecord record = foundRecords.get(i);
+                writer.record(record.getType() == DnsType.NS ? DnsWireWriter.AUTHORITY : DnsWireWriter.ADDITIONAL,
+                        record);
             }
         } else {
-            // 4. Totally Unknown
-            // LOGGER.info("  -> No record found.");
-            rcode = 3; // NXDOMAIN
+            // Records of the wildcard itself are answered under the QNAME, which the question holds
+            String wildcard = (result == RESULT_WILDCARD) ? foundRecords.get(0).getName() : null;
+            for (int i = 0; i < answers.size(); i++) {
+                DnsResourceRecord record = answers.get(i);
+                boolean synthesized = wildcard != null && record.getName().equals(wildcard);
+                writer.record(DnsWireWriter.ANSWER, record, synthesized ? DnsHeaderFlyweight.HEADER_SIZE : -1);
+            }
+            if (soa != null) {
+                writer.record(DnsWireWriter.AUTHORITY, soa);
+            }
         }
+        answers.clear();
+        writer.finish();
 
-        flags |= (rcode & 0xF);
+        // A truncated response is only right for this client's limit, so keep it out of the cache
+        if (ctx.cache != null && !writer.isTruncated()) {
+            ctx.cache.put(question, version, response);
+        }
+        appendOpt(ctx, response);
+        if (ctx.timed) {
+            ctx.lap(ServerMetrics.STAGE_ENCODE, t);
+        }
+        return response;
+    }
 
-        DnsHeader header = new DnsHeader(query.getHeader().getId(), flags, 1, answers.size(), authorities.size(), 0);
-        
-        // Note: We pass 'authorities' list to the DnsMessage constructor now
-        // You might need to update DnsMessage constructor to accept Authority list if you haven't yet.
-        // Assuming DnsMessage constructor: (header, questions, answers, authorities, additionals)
-        // If your DnsMessage only accepts answers, update DnsMessage.java (see below).
-        return new DnsMessage(header, List.of(question), answers, authorities);
+    /**
+     * Recursive mode: answers the question through the resolver instead of the local zone.
+     * The resolver keeps its own TTL-aware cache, so these responses bypass the
+     * response cache (whose entries only expire on zone reloads).
+     */
+    private static ByteBuffer processRecursive(QueryContext ctx, int id, DnsQuestionFlyweight question,
+                                               ByteBuffer response, int limit, long t) {
+        ctx.nameBuilder.setLength(0);
+        String name = question.appendName(ctx.nameBuilder).toString();
+        Resolution resolution = ctx.resolver.resolve(name, question.getQType());
+        if (ctx.timed) {
+            t = ctx.lap(ServerMetrics.STAGE_LOOKUP, t);
+        }
+
+        DnsWireWriter writer = ctx.writer.wrap(response, id, 0x8000 | FLAG_RD | FLAG_RA | resolution.getRcode(), limit);
+        writer.question(question);
+        List<DnsResourceRecord> answers = resolution.getAnswers();
+        for (int i = 0; i < answers.size(); i++) {
+            writer.record(DnsWireWriter.ANSWER, answers.get(i));
+        }
+        writer.finish();
+        appendOpt(ctx, response);
+        if (ctx.timed) {
+            ctx.lap(ServerMetrics.STAGE_ENCODE, t);
+        }
+        return response;
+    }
+
+    /**
+     * NOTIFY (RFC 1996): a secondary acknowledges one for its zone and checks with its
+     * primary straight away; anyone else answers NOTAUTH, or NOTIMP if not a secondary.
+     */
+    private static ByteBuffer processNotify(QueryContext ctx, int id, DnsQuestionFlyweight question,
+                                            ByteBuffer response) {
+        int rcode = ZoneTransferServer.RCODE_NOTIMP;
+        if (ctx.secondary != null) {
+            rcode = ZoneTransferServer.RCODE_NOTAUTH;
+            if (question.getQType() == DnsType.SOA && question.nameEquals(ctx.secondary.getApex())) {
+                ctx.secondary.notifyReceived();
+                rcode = 0;
+            }
+        }
+        int flags = 0x8000 | (ZoneTransferServer.OPCODE_NOTIFY << 11) | rcode;
+        return ctx.writer.wrap(response, id, flags).question(question).finish();
+    }
+
+    /**
+     * A response with no records and {@code rcode}, for a query this server cannot answer
+     * from data; never cached, as the reason is not tied to a snapshot.
+     */
+    private static ByteBuffer error(QueryContext ctx, int id, int flags, int rcode, DnsQuestionFlyweight question,
+                                    ByteBuffer response) {
+        ctx.writer.wrap(response, id, 0x8000 | flags | rcode).question(question).finish();
+        appendOpt(ctx, response);
+        return response;
+    }
+
+    /**
+     * We only speak EDNS version 0: anything newer gets BADVERS and no data (RFC 6891 §6.1.3).
+     */
+    private static ByteBuffer badVersion(QueryContext ctx, int id, int rd, DnsQuestionFlyweight question,
+                                         ByteBuffer response) {
+        // BADVERS is 16: nothing in the header's 4 RCODE bits, 1 in the OPT's upper 8
+        ctx.writer.wrap(response, id, 0x8000 | rd).question(question).finish();
+        Edns.append(response, ctx.advertisedPayload(), Edns.RCODE_BADVERS >>> 4);
+        return response;
+    }
+
+    /**
+     * Answers an EDNS query with an OPT record of our own.
+     */
+    private static void appendOpt(QueryContext ctx, ByteBuffer response) {
+        if (ctx.message.getOpt().isPresent()) {
+            Edns.append(response, ctx.advertisedPayload(), 0);
+        }
+    }
+
+    /**
+     * Copies a cached response into {@code response} and makes it answer this query:
+     * new transaction ID, the query's RD bit, and the QNAME exactly as the client
+     * spelled it (cache keys are case-insensitive, but clients may check the echo).
+     */
+    private static ByteBuffer patchCachedResponse(byte[] cached, DnsQuestionFlyweight question,
+                                                  int id, int rd, ByteBuffer response) {
+        response.clear();
+        response.put(cached);
+        response.putShort(0, (short) id);
+        response.putShort(2, (short) ((response.getShort(2) & ~FLAG_RD) | rd));
+
+        ByteBuffer query = question.getBuffer();
+        int offset = question.getNameOffset();
+        for (int i = 0; i < question.getNameLength(); i++) {
+            response.put(DnsHeaderFlyweight.HEADER_SIZE + i, query.get(offset + i));
+        }
+        response.flip();
+        return response;
+    }
+
+    /**
+     * Decides how to answer {@code requestedDomain} given what the store found for it, and
+     * puts the records that answer {@code qtype} into {@code answers}.
+     */
+    static int classify(String requestedDomain, int qtype, List<DnsResourceRecord> foundRecords,
+                        List<DnsResourceRecord> answers) {
+        boolean exact = foundRecords != null && !foundRecords.isEmpty()
+                && foundRecords.get(0).getName().equalsIgnoreCase(requestedDomain);
+        return classify(exact, qtype, foundRecords, answers);
+    }
+
+    /**
+     * As {@link #classify(String, int, List, List)}, comparing owner names with the QNAME in place.
+     */
+    static int classify(DnsQuestionFlyweight question, List<DnsResourceRecord> foundRecords,
+                        List<DnsResourceRecord> answers) {
+        boolean exact = foundRecords != null && !foundRecords.isEmpty()
+                && question.nameEquals(foundRecords.get(0).getName());
+        return classify(exact, question.getQType(), foundRecords, answers);
+    }
+
+    /**
+     * @param exact Whether the records found are the QNAME's own, rather than those of a
+     *              wildcard or an ancestor (the closest encloser of a name that does not exist).
+     */
+    private static int classify(boolean exact, int qtype, List<DnsResourceRecord> foundRecords,
+                                List<DnsResourceRecord> answers) {
+        if (foundRecords == null) {
+            // Totally Unknown
+            return RESULT_NXDOMAIN;
+        }
+        if (foundRecords.isEmpty()) {
+            // An empty non-terminal: the name exists, with nothing of any type
+            return RESULT_NODATA;
+        }
+        String owner = foundRecords.get(0).getName();
+        if (isDelegation(foundRecords, owner)) {
+            // NS without SOA: a zone cut at or above the name -> We are delegating (Referral)
+            return RESULT_REFERRAL;
+        }
+        boolean wildcard = !exact && isWildcard(owner);
+        if (!exact && !wildcard) {
+            // Only an ancestor has records: the name does not exist
+            return RESULT_NXDOMAIN;
+        }
+        select(foundRecords, qtype, answers);
+        if (answers.isEmpty()) {
+            return RESULT_NODATA;
+        }
+        // Exact Match -> We are Authoritative; a wildcard's records go out under the name asked for
+        return wildcard ? RESULT_WILDCARD : RESULT_ANSWER;
+    }
+
+    /**
+     * Picks the records of {@code qtype} (every record for ANY) from the first owner in
+     * {@code foundRecords}. If it has none but a CNAME, the CNAME is the answer and the
+     * search moves on to the next owner, which is where the store put the records of the
+     * name the CNAME points to; and so on down the chain.
+     */
+    private static void select(List<DnsResourceRecord> foundRecords, int qtype, List<DnsResourceRecord> answers) {
+        int i = 0;
+        while (i < foundRecords.size()) {
+            String owner = foundRecords.get(i).getName();
+            DnsResourceRecord cname = null;
+            boolean matched = false;
+            for (; i < foundRecords.size() && foundRecords.get(i).getName().equalsIgnoreCase(owner); i++) {
+                DnsResourceRecord record = foundRecords.get(i);
+                if (qtype == DnsType.ANY || record.getType() == qtype) {
+                    answers.add(record);
+                    matched = true;
+                } else if (record.getType() == DnsType.CNAME) {
+                    cname = record;
+                }
+            }
+            if (matched || cname == null) {
+                return;
+            }
+            answers.add(cname);
+        }
+    }
+
+    /**
+     * Whether the records {@code owner} heads {@code foundRecords} with mark a delegation:
+     * NS records, but not the SOA that would make it the apex of a zone of ours.
+     */
+    private static boolean isDelegation(List<DnsResourceRecord> foundRecords, String owner) {
+        boolean ns = false;
+        for (int i = 0; i < foundRecords.size() && foundRecords.get(i).getName().equalsIgnoreCase(owner); i++) {
+            int type = foundRecords.get(i).getType();
+            if (type == DnsType.SOA) {
+                return false;
+            }
+            ns |= type == DnsType.NS;
+        }
+        return ns;
+    }
+
+    private static boolean isNegative(int result) {
+        return result == RESULT_NODATA || result == RESULT_NXDOMAIN;
+    }
+
+    /**
+     * The SOA of the zone {@code name} falls in: the first one on the way up from the
+     * closest owner of records to the root, or null if no zone of ours holds the name.
+     */
+    static DnsResourceRecord enclosingSoa(ZoneSnapshot zone, String name) {
+        while (true) {
+            List<DnsResourceRecord> rrset = zone.findClosestMatch(name);
+            DnsResourceRecord soa = Soa.find(rrset);
+            if (soa != null || rrset == null || rrset.isEmpty()) {
+                return soa;
+            }
+            String owner = rrset.get(0).getName();
+            int dot = owner.indexOf('.');
+            if (dot < 0 || dot == owner.length() - 1) {
+                return null; // The root, or a single label: nothing above it to look at
+            }
+            name = owner.substring(dot + 1);
+        }
+    }
+
+    /**
+     * As {@link #enclosingSoa(ZoneSnapshot, String)}, for an uncompressed wire-format
+     * name: each step up moves the offset to a shorter suffix of the same name.
+     */
+    static DnsResourceRecord enclosingSoa(ZoneSnapshot zone, ByteBuffer buffer, int nameOffset) {
+        int offset = nameOffset;
+        while (true) {
+            List<DnsResourceRecord> rrset = zone.findClosestMatch(buffer, offset);
+            DnsResourceRecord soa = Soa.find(rrset);
+            if (soa != null || rrset == null || rrset.isEmpty()) {
+                return soa;
+            }
+            // Keep as many labels as the owner's parent has
+            int keep = labelCount(rrset.get(0).getName()) - 1;
+            if (keep < 0) {
+                return null;
+            }
+            int labels = 0;
+            for (int o = offset; buffer.get(o) != 0; o += 1 + (buffer.get(o) & 0xFF)) {
+                labels++;
+            }
+            for (int skip = labels - keep; skip > 0; skip--) {
+                offset += 1 + (buffer.get(offset) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * {@code soa} as the authority section of a negative answer carries it: with the
+     * lower of its own TTL and its MINIMUM (RFC 2308 §3).
+     */
+    private static DnsResourceRecord negativeSoa(DnsResourceRecord soa) {
+        if (soa == null || soa.getTtl() <= Soa.minimum(soa)) {
+            return soa;
+        }
+        return new DnsResourceRecord(soa.getName(), soa.getType(), soa.getRClass(), Soa.minimum(soa),
+                soa.getRdLength(), soa.getRData());
+    }
+
+    private static int labelCount(String name) {
+        int count = name.endsWith(".") ? 0 : 1;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '.') {
+                count++;
+            }
+        }
+        return name.equals(".") ? 0 : count;
+    }
+
+    static boolean isWildcard(String owner) {
+        return owner.length() >= 2 && owner.charAt(0) == '*' && owner.charAt(1) == '.';
+    }
+
+    /**
+     * @param soa The SOA going into the authority section of a negative answer, if any:
+     *            an NXDOMAIN with one comes from a zone of ours, so it is authoritative.
+     */
+    private static int responseFlags(int result, DnsResourceRecord soa) {
+        int flags = 0x8000; // QR=1 (Response)
+        if (result == RESULT_ANSWER || result == RESULT_WILDCARD || result == RESULT_NODATA) {
+            flags |= FLAG_AA;
+        } else if (result == RESULT_NXDOMAIN) {
+            flags |= 3; // RCODE=3 (NXDOMAIN)
+            if (soa != null) {
+                flags |= FLAG_AA;
+            }
+        }
+        // AA flag is NOT set for referrals because we are referring, not answering.
+        return flags;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package org.ju;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hot reload of the configured zone source (master file or compiled image).
+ *
+ * Reloads run on a single background thread: the new data is built completely and then
+ * published with {@link DnsRecordStore#publish}, so serving never pauses and queries in
+ * flight finish against the snapshot they started with. Requests that arrive while a
+ * reload is queued are coalesced into it. A reload that fails keeps the old data.
+ *
+ * Triggers: {@link #requestReload()}, a file watcher ({@link #watch()}) and SIGHUP
+ * ({@link #installSignalHandler()}).
+ */
+public class ZoneReloader implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZoneReloader.class);
+
+    // Editors and copy tools fire several events per save; wait for them to settle
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private final Path source;
+    private final boolean image;
+    private final String origin;
+    private final boolean verifyImage;
+    private final boolean compact;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "zone-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile WatchService watchService;
+
+    public ZoneReloader(DnsServerConfig config) {
+        if (config.getZoneImage() != null) {
+            this.source = Paths.get(config.getZoneImage());
+            this.image = true;
+        } else if (config.getZoneFile() != null) {
+            this.source = Paths.get(config.getZoneFile());
+            this.image = false;
+        } else {
+            throw new IllegalArgumentException("No zone file or zone image configured");
+        }
+        this.origin = config.getZoneOrigin();
+        this.verifyImage = config.isVerifyZoneImage();
+        this.compact = config.isCompactStore();
+    }
+
+    /**
+     * Builds and publishes a new snapshot on the calling thread.
+     */
+    public void reloadNow() throws IOException {
+        if (image) {
+            DnsRecordStore.loadZoneImage(source, verifyImage);
+        } else {
+            DnsRecordStore.loadZoneFile(source, origin, compact);
+        }
+    }
+
+    /**
+     * Queues a reload on the background thread. Returns immediately.
+     */
+    public void requestReload() {
+        if (!pending.compareAndSet(false, true)) {
+            return; // One is already queued and will pick up the latest file
+        }
+        executor.execute(() -> {
+            pending.set(false);
+            try {
+                reloadNow();
+            } catch (Exception e) {
+                LOGGER.error("Reload of {} failed; still serving the previous snapshot", source, e);
+            }
+        });
+    }
+
+    /**
+     * Starts watching the source file's directory and reloads whenever the file changes.
+     */
+    public void watch() throws IOException {
+        Path dir = source.toAbsolutePath().getParent();
+        Path fileName = source.getFileName();
+        WatchService service = FileSystems.getDefault().newWatchService();
+        dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+                    boolean changed = touches(key, fileName);
+                    key.reset();
+                    // Swallow the burst of follow-up events before reloading once
+                    WatchKey more;
+                    while ((more = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        changed |= touches(more, fileName);
+                        more.reset();
+                    }
+                    if (changed) {
+                        LOGGER.info("{} changed on disk, reloading", source);
+                        requestReload();
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Shutting down
+            }
+        }, "zone-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Watching {} for changes", source);
+    }
+
+    /**
+     * Reloads on SIGHUP where the JVM lets us handle it (see {@link SighupHandler}); where
+     * it does not, this logs a warning and reloads need the watcher or {@link #requestReload()}.
+     */
+    public void installSignalHandler() {
+        SighupHandler.install(() -> {
+            LOGGER.info("SIGHUP received, reloading {}", source);
+            requestReload();
+        });
+    }
+
+    @Override
+    public void close() {
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing watch service", e);
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private static boolean touches(WatchKey key, Path fileName) {
+        boolean match = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (fileName.equals(event.context())) {
+                match = true;
+            }
+        }
+        return match;
+    }
+}
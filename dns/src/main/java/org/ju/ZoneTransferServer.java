@@ -0,0 +1,344 @@
+package org.ju;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsMessageCodec;
+import org.ju.util.DnsMessageView;
+import org.ju.util.DnsQuestionFlyweight;
+import org.ju.util.DnsRecordFlyweight;
+import org.ju.util.DnsWireWriter;
+import org.ju.zone.Soa;
+import org.ju.zone.ZoneDiff;
+import org.ju.zone.ZoneIndex;
+import org.ju.zone.ZoneJournal;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The primary side of zone transfers: AXFR (RFC 5936) and IXFR (RFC 1995) over TCP, and
+ * NOTIFY (RFC 1996) to secondaries whenever a zone's serial moves.
+ *
+ * A zone is any owner name with an SOA record. A publication made by applying a diff
+ * ({@link DnsRecordStore#apply}) has that diff journaled as it is; one loaded whole is
+ * compared with the one it replaced, zone by zone, and the difference goes into that
+ * zone's {@link ZoneJournal}. IXFR is answered from the journal, or with a full
+ * transfer for a secondary older than the journal reaches. Responses are streamed a
+ * message at a time, so a transfer never holds more than one message of the zone.
+ * Only {@link ZoneTrie}-backed data can be transferred; compact and mapped stores
+ * answer REFUSED.
+ */
+final class ZoneTransferServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZoneTransferServer.class);
+
+    static final int OPCODE_NOTIFY = 4;
+
+    static final int RCODE_NOTIMP = 4;
+    static final int RCODE_REFUSED = 5;
+    static final int RCODE_NOTAUTH = 9;
+
+    private static final int FLAGS = 0x8400; // QR=1, AA=1
+    private static final int NOTIFY_ATTEMPTS = 3;
+    private static final int NOTIFY_TIMEOUT_MILLIS = 1000;
+
+    private final DnsServerConfig config;
+    private final Map<String, ZoneJournal> journals = new ConcurrentHashMap<>();
+    private final BiConsumer<ZoneSnapshot, ZoneSnapshot> listener = this::published;
+    private final ExecutorService notifier = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "dns-notify");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ZoneTransferServer(DnsServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Starts journaling publications. Changes published before this are only
+     * available by AXFR.
+     */
+    void start() {
+        DnsRecordStore.addPublishListener(listener);
+    }
+
+    @Override
+    public void close() {
+        DnsRecordStore.removePublishListener(listener);
+        notifier.shutdownNow();
+    }
+
+    /**
+     * Whether {@code message} (already wrapped around a query) asks for a zone transfer.
+     */
+    static boolean isTransfer(DnsMessageView message) {
+        if (message.getHeader().getQdCount() < 1) {
+            return false;
+        }
+        int qtype = message.getQuestion().getQType();
+        return qtype == DnsType.AXFR || qtype == DnsType.IXFR;
+    }
+
+    /**
+     * Answers an AXFR or IXFR query, handing {@code out} each message as a length-prefixed
+     * TCP frame as soon as it is full. {@code out} may block, to hold the transfer to the
+     * pace of the connection; each frame is its own buffer and can be queued as it is.
+     */
+    void respond(ByteBuffer query, Consumer<ByteBuffer> out) {
+        DnsMessageView message = new DnsMessageView().wrap(query);
+        DnsQuestionFlyweight question = message.getQuestion();
+        int id = message.getHeader().getId();
+        String apex = normalize(question.appendName(new StringBuilder()).toString());
+
+        ZoneIndex index = DnsRecordStore.current().getIndex();
+        if (!(index instanceof ZoneTrie)) {
+            out.accept(error(message, RCODE_REFUSED));
+            return;
+        }
+        ZoneTrie trie = (ZoneTrie) index;
+        DnsResourceRecord soa = Soa.find(trie.get(apex));
+        if (soa == null) {
+            out.accept(error(message, RCODE_NOTAUTH));
+            return;
+        }
+        long serial = Soa.serial(soa);
+        TransferWriter writer = new TransferWriter(id, question, out);
+
+        if (question.getQType() == DnsType.IXFR) {
+            long clientSerial = clientSerial(message);
+            if (clientSerial >= 0 && !Soa.isNewer(serial, clientSerial)) {
+                // Already up to date: the SOA alone says so
+                writer.add(soa);
+                writer.finish();
+                return;
+            }
+            ZoneJournal journal = journals.get(apex);
+            List<ZoneDiff> diffs = (journal != null && clientSerial >= 0) ? journal.since(clientSerial) : null;
+            // The journal and the snapshot are read separately; only use diffs that end where it is
+            if (diffs != null && !diffs.isEmpty() && diffs.get(diffs.size() - 1).getToSerial() == serial) {
+                writer.add(soa);
+                for (ZoneDiff diff : diffs) {
+                    writer.add(diff.getOldSoa());
+                    diff.getDeleted().forEach(writer::add);
+                    writer.add(diff.getNewSoa());
+                    diff.getAdded().forEach(writer::add);
+                }
+                writer.add(soa);
+                writer.finish();
+                LOGGER.debug("IXFR of {} from {} to {}: {} diff(s)", apex, clientSerial, serial, diffs.size());
+                return;
+            }
+            // Too far behind the journal: a full transfer in AXFR form (RFC 1995 §4)
+        }
+
+        writer.add(soa);
+        trie.forEachRRset(apex, rrset -> {
+            for (DnsResourceRecord r : rrset) {
+                if (r.getType() != DnsType.SOA) {
+                    writer.add(r);
+                }
+            }
+        });
+        writer.add(soa);
+        writer.finish();
+        LOGGER.debug("Full transfer of {} at serial {}", apex, serial);
+    }
+
+    /**
+     * A one-message transfer response with no records and the given RCODE.
+     */
+    static ByteBuffer error(DnsMessageView message, int rcode) {
+        ByteBuffer response = ByteBuffer.allocate(512); // Header and question
+        new DnsWireWriter().wrap(response, message.getHeader().getId(), 0x8000 | rcode)
+                .question(message.getQuestion()).finish();
+        return frame(response);
+    }
+
+    /**
+     * Journal entries for the zone at {@code apex}; null if none were recorded.
+     */
+    ZoneJournal getJournal(String apex) {
+        return journals.get(normalize(apex));
+    }
+
+    // --- Journaling and NOTIFY ---
+
+    private synchronized void published(ZoneSnapshot previous, ZoneSnapshot next) {
+        if (!(next.getIndex() instanceof ZoneTrie)) {
+            return;
+        }
+        ZoneTrie after = (ZoneTrie) next.getIndex();
+        ZoneTrie before = (previous != null && previous.getIndex() instanceof ZoneTrie)
+                ? (ZoneTrie) previous.getIndex() : null;
+        List<String> changed = new ArrayList<>();
+        if (next.getChanges() != null) {
+            // Made by editing the previous snapshot: the diffs are known already
+            for (ZoneDiff diff : next.getChanges()) {
+                String apex = normalize(diff.getNewSoa().getName());
+                journal(apex, diff);
+                changed.add(apex);
+            }
+            notifySecondaries(changed);
+            return;
+        }
+        for (String apex : apexes(after)) {
+            DnsResourceRecord soa = Soa.find(after.get(apex));
+            DnsResourceRecord oldSoa = (before != null) ? Soa.find(before.get(apex)) : null;
+            if (oldSoa != null && Soa.serial(oldSoa) == Soa.serial(soa)) {
+                continue;
+            }
+            ZoneDiff diff = (before != null) ? ZoneDiff.between(before, after, apex) : null;
+            if (diff != null) {
+                journal(apex, diff);
+            }
+            changed.add(apex);
+        }
+        notifySecondaries(changed);
+    }
+
+    private void journal(String apex, ZoneDiff diff) {
+        journals.computeIfAbsent(apex, a -> new ZoneJournal(config.getJournalSize())).append(diff);
+        LOGGER.info("Journaled {} for {}", diff, apex);
+    }
+
+    private void notifySecondaries(List<String> changed) {
+        // Read at every change, so secondaries can be added while the primary runs
+        List<InetSocketAddress> targets = config.getNotifyTargets();
+        if (!changed.isEmpty() && !targets.isEmpty()) {
+            notifier.execute(() -> changed.forEach(apex -> sendNotify(apex, targets)));
+        }
+    }
+
+    /**
+     * Tells each of {@code targets} that {@code apex} has changed, retrying a few times
+     * for the ones that do not acknowledge.
+     */
+    private static void sendNotify(String apex, List<InetSocketAddress> targets) {
+        ByteBuffer message = ByteBuffer.allocate(512);
+        int id = ThreadLocalRandom.current().nextInt(0x10000);
+        new DnsWireWriter().wrap(message, id, (OPCODE_NOTIFY << 11) | 0x0400)
+                .question(apex, DnsType.SOA, DnsClass.IN).finish();
+        byte[] request = new byte[message.remaining()];
+        message.get(request);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(NOTIFY_TIMEOUT_MILLIS);
+            byte[] reply = new byte[512];
+            for (InetSocketAddress target : targets) {
+                boolean acknowledged = false;
+                for (int attempt = 1; attempt <= NOTIFY_ATTEMPTS && !acknowledged; attempt++) {
+                    socket.send(new DatagramPacket(request, request.length, target));
+                    try {
+                        DatagramPacket packet = new DatagramPacket(reply, reply.length);
+                        do {
+                            socket.receive(packet);
+                        } while (!target.equals(packet.getSocketAddress())
+                                || ByteBuffer.wrap(reply).getShort(0) != (short) id);
+                        acknowledged = true;
+                    } catch (SocketTimeoutException e) {
+                        LOGGER.debug("No NOTIFY acknowledgement from {} (attempt {})", target, attempt);
+                    }
+                }
+                if (!acknowledged) {
+                    LOGGER.warn("Secondary {} did not acknowledge NOTIFY for {}", target, apex);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not send NOTIFY for {}: {}", apex, e.toString());
+        }
+    }
+
+    private static List<String> apexes(ZoneTrie trie) {
+        List<String> apexes = new ArrayList<>();
+        trie.forEachRRset(rrset -> {
+            DnsResourceRecord soa = Soa.find(rrset);
+            if (soa != null) {
+                apexes.add(normalize(soa.getName()));
+            }
+        });
+        return apexes;
+    }
+
+    /**
+     * The serial of the SOA record an IXFR query carries in its authority section, or -1.
+     */
+    private static long clientSerial(DnsMessageView message) {
+        if (message.getCount(DnsWireWriter.AUTHORITY) < 1) {
+            return -1;
+        }
+        DnsRecordFlyweight record = message.getRecord(DnsWireWriter.AUTHORITY, 0, new DnsRecordFlyweight());
+        if (record.getType() != DnsType.SOA || record.getRdLength() < 20) {
+            return -1;
+        }
+        return Soa.serial(message.getBuffer(), record.getRDataOffset(), record.getRdLength());
+    }
+
+    static String normalize(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower : lower + '.';
+    }
+
+    private static ByteBuffer frame(ByteBuffer message) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + message.remaining());
+        frame.putShort((short) message.remaining()).put(message).flip();
+        return frame;
+    }
+
+    /**
+     * Packs records into as few messages as fit, each up to the 65535 bytes a TCP frame
+     * can carry, and sends each one on as soon as the next record does not fit. Only the
+     * first message repeats the question (RFC 5936 §2.2).
+     */
+    private static final class TransferWriter {
+
+        private final int id;
+        private final Consumer<ByteBuffer> out;
+        private final DnsWireWriter writer = new DnsWireWriter();
+        private final ByteBuffer message = ByteBuffer.allocate(DnsMessageCodec.MAX_MESSAGE_SIZE);
+
+        TransferWriter(int id, DnsQuestionFlyweight question, Consumer<ByteBuffer> out) {
+            this.id = id;
+            this.out = out;
+            writer.wrap(message, id, FLAGS).question(question);
+        }
+
+        void add(DnsResourceRecord record) {
+            writer.record(DnsWireWriter.ANSWER, record);
+            if (writer.isTruncated()) {
+                // The writer rolled the record back: send what fits and start the next message
+                flush();
+                writer.wrap(message, id, FLAGS).record(DnsWireWriter.ANSWER, record);
+            }
+        }
+
+        void finish() {
+            flush();
+        }
+
+        private void flush() {
+            writer.getHeader().setFlags(FLAGS); // Clear the TC bit the rollback set
+            out.accept(frame(writer.finish()));
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package org.ju.client;
+
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsResourceRecord;
+import org.ju.resolver.DnsTransport;
+import org.ju.util.DnsMessageCodec;
+import org.ju.util.DnsQuestionFlyweight;
+import org.ju.util.Edns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking UDP DNS client that keeps many queries in flight over a few sockets.
+ *
+ * Every query gets a random transaction ID that is free on its socket, so two queries
+ * in flight on one socket never share an ID. A response is only accepted if its ID,
+ * source address and question all match the query; anything else (late, spoofed or
+ * stray) is dropped. Unanswered queries are resent with the same ID up to
+ * {@code retries} times, then fail with a {@link SocketTimeoutException}.
+ *
+ * The blocking {@link #exchange} retries a truncated (TC=1) answer over TCP.
+ *
+ * Sending happens on the caller's thread; receiving, retries and timeouts run on one
+ * I/O thread, which is also where futures complete. Use the *Async variants of the
+ * {@link CompletableFuture} callbacks for anything slow.
+ */
+public class AsyncDnsClient implements DnsTransport, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDnsClient.class);
+
+    private static final int MAX_RESPONSE_SIZE = 65535;
+    private static final int ID_SPACE = 1 << 16;
+    // How many random IDs to try on one socket before moving to the next
+    private static final int ID_PROBES = 32;
+
+    // Timing wheel: 10 ms ticks, 1024 buckets (~10 s per revolution)
+    private static final long TICK_NANOS = 10_000_000L;
+    private static final int WHEEL_SIZE = 1024;
+
+    private static final int FLAG_TC = 0x0200;
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final TcpDnsClient tcp;
+    private final long timeoutNanos;
+    private final int retries;
+
+    private final Selector selector;
+    private final DatagramChannel[] channels;
+    private final List<AtomicReferenceArray<Pending>> inFlight = new ArrayList<>();
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final List<Queue<Pending>> wheel;
+    private final Thread ioThread;
+    private volatile boolean running = true;
+    private volatile int ednsPayloadSize = Edns.DEFAULT_PAYLOAD;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder retransmits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public AsyncDnsClient() throws IOException {
+        this(1, 2000, 2);
+    }
+
+    /**
+     * @param sockets       Number of local sockets; each carries up to 65536 queries in flight.
+     * @param timeoutMillis Time to wait for each attempt.
+     * @param retries       Resends after the first attempt times out.
+     */
+    @SuppressWarnings("unchecked")
+    public AsyncDnsClient(int sockets, long timeoutMillis, int retries) throws IOException {
+        if (sockets < 1 || timeoutMillis < 1 || retries < 0) {
+            throw new IllegalArgumentException("sockets and timeoutMillis must be >= 1, retries >= 0");
+        }
+        this.timeoutNanos = timeoutMillis * 1_000_000L;
+        this.retries = retries;
+        this.tcp = new TcpDnsClient((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+        this.wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+
+        this.selector = Selector.open();
+        this.channels = new DatagramChannel[sockets];
+        try {
+            for (int i = 0; i < sockets; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels[i] = channel;
+                channel.bind(null);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, i);
+                inFlight.add(new AtomicReferenceArray<>(ID_SPACE));
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+
+        this.ioThread = new Thread(this::ioLoop, "dns-client-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    // --- API ---
+
+    /**
+     * Sends a recursive (RD=1) query for (name, type, IN).
+     */
+    public CompletableFuture<DnsMessage> query(InetSocketAddress server, String name, int type) {
+        DnsHeader header = new DnsHeader(0, 0x0100, 1, 0, 0, 0);
+        return send(server, new DnsMessage(header, Collections.singletonList(new DnsQuestion(name, type, 1)),
+                Collections.<DnsResourceRecord>emptyList(), Collections.<DnsResourceRecord>emptyList()));
+    }
+
+    /**
+     * Sends {@code query}. Its header ID is ignored; the client picks one. Unless the
+     * query has its own OPT record, one advertising {@link #setEdnsPayloadSize} is added.
+     */
+    public CompletableFuture<DnsMessage> send(InetSocketAddress server, DnsMessage query) {
+        return send(server, codec.encode(withOpt(query)));
+    }
+
+    /**
+     * Sends an already encoded query. The first two bytes (the ID) are overwritten in a
+     * private copy, so the same array can be reused for many sends.
+     */
+    public CompletableFuture<DnsMessage> send(InetSocketAddress server, byte[] query) {
+        CompletableFuture<DnsMessage> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        DnsQuestionFlyweight question;
+        try {
+            question = new DnsQuestionFlyweight().wrap(ByteBuffer.wrap(query), 12);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new IllegalArgumentException("Query has no valid question", e));
+            return future;
+        }
+
+        Pending p = new Pending(server, query.clone(), question.getEndOffset(), future);
+        if (!register(p)) {
+            future.completeExceptionally(new IOException("Too many queries in flight"));
+            return future;
+        }
+        p.wire[0] = (byte) (p.id >> 8);
+        p.wire[1] = (byte) p.id;
+        p.deadline = System.nanoTime() + timeoutNanos;
+        schedule(p);
+        transmit(p);
+        if (!running && release(p)) {
+            // Raced with close(), which may already have swept the ID table
+            future.completeExceptionally(new ClosedChannelException());
+        }
+        return future;
+    }
+
+    /**
+     * Blocking form for {@link DnsTransport} users such as the resolver. A truncated
+     * answer is asked for again over TCP.
+     */
+    @Override
+    public DnsMessage exchange(InetSocketAddress server, DnsMessage query) throws IOException {
+        DnsMessage response;
+        try {
+            response = send(server, query).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + server);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+        if ((response.getHeader().getFlags() & FLAG_TC) != 0) {
+            return tcp.exchange(server, query);
+        }
+        return response;
+    }
+
+    /**
+     * Non-blocking form of {@link #exchange}. The TCP retry of a truncated answer runs
+     * off the I/O thread.
+     */
+    @Override
+    public CompletableFuture<DnsMessage> exchangeAsync(InetSocketAddress server, DnsMessage query) {
+        return send(server, query).thenCompose(response -> {
+            if ((response.getHeader().getFlags() & FLAG_TC) == 0) {
+                return CompletableFuture.completedFuture(response);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return tcp.exchange(server, query);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Fails every query still in flight and releases the sockets.
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * UDP payload size advertised through EDNS(0) in queries sent as messages; 0 sends
+     * plain queries, which servers answer within 512 bytes.
+     */
+    public AsyncDnsClient setEdnsPayloadSize(int ednsPayloadSize) {
+        if (ednsPayloadSize != 0 && (ednsPayloadSize < Edns.MIN_PAYLOAD || ednsPayloadSize > MAX_RESPONSE_SIZE)) {
+            throw new IllegalArgumentException("ednsPayloadSize must be 0 or between 512 and 65535");
+        }
+        this.ednsPayloadSize = ednsPayloadSize;
+        return this;
+    }
+
+    // --- Statistics ---
+
+    public int getInFlight() {
+        return pendingCount.get();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getRetransmits() {
+        return retransmits.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Responses dropped because they matched no query in flight.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // --- ID allocation ---
+
+    private boolean register(Pending p) {
+        int first = Math.floorMod(nextChannel.getAndIncrement(), channels.length);
+        for (int c = 0; c < channels.length; c++) {
+            int channel = (first + c) % channels.length;
+            AtomicReferenceArray<Pending> ids = inFlight.get(channel);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int probe = 0; probe < ID_PROBES; probe++) {
+                int id = random.nextInt(ID_SPACE);
+                p.channel = channel;
+                p.id = id;
+                if (ids.compareAndSet(id, null, p)) {
+                    pendingCount.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Frees the query's ID. Only the thread that wins this gets to complete the future.
+     */
+    private boolean release(Pending p) {
+        if (inFlight.get(p.channel).compareAndSet(p.id, p, null)) {
+            pendingCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void transmit(Pending p) {
+        try {
+            // A full socket buffer sends nothing; the retry timer covers that like a lost packet
+            channels[p.channel].send(ByteBuffer.wrap(p.wire), p.server);
+            sent.increment();
+        } catch (IOException e) {
+            if (release(p)) {
+                p.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void schedule(Pending p) {
+        // The bucket after the deadline's tick, so the query is already due when it is swept
+        wheel.get((int) ((p.deadline / TICK_NANOS + 1) & (WHEEL_SIZE - 1))).add(p);
+    }
+
+    // --- I/O thread ---
+
+    private void ioLoop() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(MAX_RESPONSE_SIZE);
+        DnsQuestionFlyweight question = new DnsQuestionFlyweight();
+        long tick = System.nanoTime() / TICK_NANOS;
+        try {
+            while (running) {
+                selector.select(TICK_NANOS / 1_000_000L);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    int channel = (Integer) key.attachment();
+                    SocketAddress from;
+                    buf.clear();
+                    while ((from = channels[channel].receive(buf)) != null) {
+                        buf.flip();
+                        onResponse(channel, from, buf, question);
+                        buf.clear();
+                    }
+                }
+                long now = System.nanoTime();
+                for (long t = tick + 1; t <= now / TICK_NANOS; t++) {
+                    expire(wheel.get((int) (t & (WHEEL_SIZE - 1))), now);
+                }
+                tick = now / TICK_NANOS;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                LOGGER.error("DNS client I/O loop failed", e);
+            }
+        } finally {
+            running = false;
+            closeChannels();
+            failAll();
+        }
+    }
+
+    private void onResponse(int channel, SocketAddress from, ByteBuffer buf, DnsQuestionFlyweight question) {
+        if (buf.remaining() < 12) {
+            dropped.increment();
+            return;
+        }
+        int id = buf.getShort(0) & 0xFFFF;
+        Pending p = inFlight.get(channel).get(id);
+        if (p == null || !p.server.equals(from) || !sameQuestion(p, buf, question)) {
+            dropped.increment();
+            return;
+        }
+        if (!release(p)) {
+            return;
+        }
+        received.increment();
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        try {
+            p.future.complete(codec.decode(bytes));
+        } catch (RuntimeException e) {
+            p.future.completeExceptionally(new IOException("Malformed response from " + from, e));
+        }
+    }
+
+    private DnsMessage withOpt(DnsMessage query) {
+        int payload = ednsPayloadSize;
+        if (payload == 0 || query.getOpt() != null) {
+            return query;
+        }
+        List<DnsResourceRecord> additionals = new ArrayList<>(query.getAdditionals());
+        additionals.add(Edns.opt(payload));
+        return new DnsMessage(query.getHeader(), query.getQuestions(), query.getAnswers(),
+                query.getAuthorities(), additionals);
+    }
+
+    /**
+     * Case-insensitive QNAME, and exact QTYPE/QCLASS, against the bytes we sent.
+     */
+    private static boolean sameQuestion(Pending p, ByteBuffer response, DnsQuestionFlyweight question) {
+        try {
+            question.wrap(response, 12);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        if (question.getEndOffset() != p.questionEnd) {
+            return false;
+        }
+        for (int i = 12; i < p.questionEnd; i++) {
+            int a = p.wire[i] & 0xFF;
+            int b = response.get(i) & 0xFF;
+            if (a != b && toLower(a) != toLower(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expire(Queue<Pending> bucket, long now) {
+        int n = bucket.size();
+        for (int i = 0; i < n; i++) {
+            Pending p = bucket.poll();
+            if (p == null) {
+                break;
+            }
+            if (p.future.isDone()) {
+                continue;
+            }
+            if (p.deadline - now > 0) {
+                bucket.add(p); // Due on a later revolution
+            } else if (p.attempts <= retries) {
+                p.attempts++;
+                p.deadline = now + timeoutNanos;
+                retransmits.increment();
+                schedule(p);
+                transmit(p);
+            } else if (release(p)) {
+                timeouts.increment();
+                p.future.completeExceptionally(new SocketTimeoutException(
+                        "No response from " + p.server + " after " + p.attempts + " attempt(s)"));
+            }
+        }
+    }
+
+    private void failAll() {
+        for (AtomicReferenceArray<Pending> ids : inFlight) {
+            for (int id = 0; id < ID_SPACE; id++) {
+                Pending p = ids.get(id);
+                if (p != null && release(p)) {
+                    p.future.completeExceptionally(new ClosedChannelException());
+                }
+            }
+        }
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Error closing channel", e);
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.debug("Error closing selector", e);
+        }
+    }
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + 32 : c;
+    }
+
+    /**
+     * One query in flight. {@code attempts} and {@code deadline} are only touched by the
+     * I/O thread once the query is scheduled.
+     */
+    private static final class Pending {
+        final InetSocketAddress server;
+        final byte[] wire;
+        final int questionEnd;
+        final CompletableFuture<DnsMessage> future;
+        int channel;
+        int id;
+        int attempts = 1;
+        volatile long deadline;
+
+        Pending(InetSocketAddress server, byte[] wire, int questionEnd, CompletableFuture<DnsMessage> future) {
+            this.server = server;
+            this.wire = wire;
+            this.questionEnd = questionEnd;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.ju.client;
+
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.resolver.DnsTransport;
+import org.ju.util.DnsMessageCodec;
+import org.ju.zone.Soa;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Blocking DNS over TCP, mainly for retrying answers that came back truncated over UDP.
+ * Each call opens its own connection; {@link #exchangeAll} pipelines several queries
+ * on one connection and accepts the responses in any order.
+ */
+public class TcpDnsClient implements DnsTransport {
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final int timeoutMillis;
+
+    public TcpDnsClient(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public DnsMessage exchange(InetSocketAddress server, DnsMessage query) throws IOException {
+        return exchangeAll(server, Collections.singletonList(query)).get(0);
+    }
+
+    /**
+     * Writes every query before reading any response (RFC 7766 §6.2.1.1).
+     *
+     * @return Responses in the order of {@code queries}. IDs must be distinct.
+     */
+    public List<DnsMessage> exchangeAll(InetSocketAddress server, List<DnsMessage> queries) throws IOException {
+        Map<Integer, Integer> slots = new HashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            if (slots.put(queries.get(i).getHeader().getId(), i) != null) {
+                throw new IllegalArgumentException("Duplicate query ID " + queries.get(i).getHeader().getId());
+            }
+        }
+
+        try (Socket socket = new Socket()) {
+            socket.connect(server, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            for (DnsMessage query : queries) {
+                byte[] wire = codec.encode(query);
+                out.writeShort(wire.length);
+                out.write(wire);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DnsMessage[] responses = new DnsMessage[queries.size()];
+            for (int received = 0; received < responses.length; received++) {
+                byte[] wire = new byte[in.readUnsignedShort()];
+                in.readFully(wire);
+                DnsMessage response = codec.decode(wire);
+                Integer slot = slots.remove(response.getHeader().getId());
+                if (slot == null) {
+                    throw new IOException("Unexpected response ID " + response.getHeader().getId() + " from " + server);
+                }
+                responses[slot] = response;
+            }
+            return Arrays.asList(responses);
+        }
+    }
+
+    /**
+     * Sends an AXFR or IXFR query and reads the transfer that answers it, which may span
+     * many messages (RFC 5936 §2.2). Reading stops at the SOA that closes the transfer,
+     * or after the first message if that is an error or holds nothing but the SOA (an
+     * IXFR client that is already up to date).
+     *
+     * @return Every message of the transfer, in order.
+     */
+    public List<DnsMessage> transfer(InetSocketAddress server, DnsMessage query) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(server, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            byte[] wire = codec.encode(query);
+            out.writeShort(wire.length);
+            out.write(wire);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            List<DnsMessage> messages = new ArrayList<>();
+            long serial = -1;
+            int records = 0;
+            int closingSoas = 0;
+            int needed = 2; // SOA ... SOA
+            while (true) {
+                wire = new byte[in.readUnsignedShort()];
+                in.readFully(wire);
+                DnsMessage response = codec.decode(wire);
+                if (response.getHeader().getId() != query.getHeader().getId()) {
+                    throw new IOException("Unexpected response ID " + response.getHeader().getId() + " from " + server);
+                }
+                messages.add(response);
+                if ((response.getHeader().getFlags() & 0xF) != 0) {
+                    return messages;
+                }
+                for (DnsResourceRecord r : response.getAnswers()) {
+                    records++;
+                    if (r.getType() != DnsType.SOA) {
+                        continue;
+                    }
+                    long s = Soa.serial(r);
+                    if (records == 1) {
+                        serial = s;
+                    } else if (records == 2 && s != serial) {
+                        // Incremental: the new serial also ends the last diff's additions
+                        needed = 3;
+                    }
+                    if (s == serial) {
+                        closingSoas++;
+                    }
+                }
+                if (records == 0) {
+                    throw new IOException("Transfer from " + server + " does not start with an SOA");
+                }
+                if (closingSoas >= needed || (records == 1 && query.getQuestions().get(0).getQType() == DnsType.IXFR)) {
+                    return messages;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.ju.metrics;
+
+import org.ju.model.DnsType;
+import org.ju.util.LatencyHistogram;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Always-on server instrumentation.
+ *
+ * Counters are striped per worker: each worker thread gets its own {@link Shard} and
+ * bumps plain longs in it, with no atomics and no shared cache lines, and readers sum
+ * the shards when they scrape. Sums can lag a packet or two behind but never lose
+ * counts. Per-stage latencies go into shared {@link LatencyHistogram}s, but only for
+ * one query in every {@code sampleInterval}: four clock reads per packet would cost
+ * more than all the counters together. Other components (caches, the resolver) can
+ * publish their own numbers through {@link #register}.
+ *
+ * Exposed in Prometheus text format ({@link #writePrometheus}) and through JMX
+ * ({@link ServerMetricsMBean}).
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    // --- Stages of a query ---
+    public static final int STAGE_DECODE = 0;
+    public static final int STAGE_LOOKUP = 1;
+    public static final int STAGE_ENCODE = 2;
+    public static final int STAGE_SEND = 3;
+    private static final String[] STAGE_NAMES = {"decode", "lookup", "encode", "send"};
+
+    private static final String[] RCODE_NAMES = {
+            "NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED"
+    };
+    private static final int OTHER_QTYPE = 256;
+
+    // --- Slots in a shard's counter array ---
+    private static final int PAD = 16; // Keeps shards of different workers off each other's cache lines
+    private static final int QUERIES = PAD;
+    private static final int DECODE_ERRORS = PAD + 1;
+    private static final int DROPPED = PAD + 2;
+    private static final int ANSWERS = PAD + 3;
+    private static final int REFERRALS = PAD + 4;
+    private static final int NXDOMAINS = PAD + 5;
+    private static final int NODATA = PAD + 6;
+    private static final int TRUNCATED = PAD + 7;
+    private static final int RCODES = PAD + 8;
+    private static final int QTYPES = RCODES + 16;
+    private static final int SLOTS = QTYPES + OTHER_QTYPE + 1 + PAD;
+
+    private final int sampleInterval;
+    private final List<Shard> shards = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+    private final List<External> external = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param sampleInterval Time the stages of one query in this many (1 = every query).
+     */
+    public ServerMetrics(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sampleInterval must be >= 1: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * A new set of counters for one thread. Only that thread may record into it.
+     */
+    public Shard newShard() {
+        Shard shard = new Shard();
+        shards.add(shard);
+        return shard;
+    }
+
+    // --- Recording ---
+
+    public void recordStage(int stage, long nanos) {
+        stages[stage].record(nanos);
+    }
+
+    /**
+     * Publishes a value owned by someone else, read on every scrape.
+     *
+     * @param counter Whether the value only ever goes up (a Prometheus counter) or not (a gauge).
+     */
+    public void register(String name, String help, boolean counter, LongSupplier value) {
+        external.add(new External(name, help, counter, value));
+    }
+
+    // --- Reading ---
+
+    public LatencyHistogram getStageHistogram(int stage) {
+        return stages[stage];
+    }
+
+    public long getRcodeCount(int rcode) {
+        return sum(RCODES + rcode);
+    }
+
+    public long getQtypeCount(int qtype) {
+        return sum(QTYPES + (qtype < OTHER_QTYPE ? qtype : OTHER_QTYPE));
+    }
+
+    @Override
+    public long getQueries() {
+        return sum(QUERIES);
+    }
+
+    @Override
+    public long getDecodeErrors() {
+        return sum(DECODE_ERRORS);
+    }
+
+    @Override
+    public long getDroppedPackets() {
+        return sum(DROPPED);
+    }
+
+    @Override
+    public long getAnswers() {
+        return sum(ANSWERS);
+    }
+
+    @Override
+    public long getReferrals() {
+        return sum(REFERRALS);
+    }
+
+    @Override
+    public long getNxdomains() {
+        return sum(NXDOMAINS);
+    }
+
+    @Override
+    public long getNoData() {
+        return sum(NODATA);
+    }
+
+    @Override
+    public long getTruncated() {
+        return sum(TRUNCATED);
+    }
+
+    @Override
+    public double getDecodeP99Micros() {
+        return stages[STAGE_DECODE].getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getLookupP99Micros() {
+        return stages[STAGE_LOOKUP].getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getEncodeP99Micros() {
+        return stages[STAGE_ENCODE].getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSendP99Micros() {
+        return stages[STAGE_SEND].getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder sb = new StringBuilder(4096);
+        writePrometheus(sb);
+        return sb.toString();
+    }
+
+    // --- Prometheus text exposition format (version 0.0.4) ---
+
+    public void writePrometheus(StringBuilder sb) {
+        counter(sb, "dns_queries_total", "Queries received.", sum(QUERIES));
+        counter(sb, "dns_decode_errors_total", "Packets that could not be parsed as a query.", sum(DECODE_ERRORS));
+        counter(sb, "dns_dropped_packets_total", "Queries that got no response for other reasons.",
+                sum(DROPPED));
+
+        counter(sb, "dns_truncated_responses_total", "Responses sent with TC=1.", sum(TRUNCATED));
+
+        header(sb, "dns_responses_total", "Responses sent, by RCODE.", "counter");
+        for (int rcode = 0; rcode < 16; rcode++) {
+            long n = sum(RCODES + rcode);
+            if (n > 0 || rcode == 0 || rcode == 3) {
+                String name = rcode < RCODE_NAMES.length ? RCODE_NAMES[rcode] : "RCODE" + rcode;
+                sb.append("dns_responses_total{rcode=\"").append(name).append("\"} ").append(n).append('\n');
+            }
+        }
+
+        header(sb, "dns_responses_by_outcome_total", "Responses sent, by outcome.", "counter");
+        outcome(sb, "answer", sum(ANSWERS));
+        outcome(sb, "referral", sum(REFERRALS));
+        outcome(sb, "nxdomain", sum(NXDOMAINS));
+        outcome(sb, "nodata", sum(NODATA));
+
+        header(sb, "dns_queries_by_type_total", "Answered queries, by QTYPE.", "counter");
+        for (int qtype = 0; qtype <= OTHER_QTYPE; qtype++) {
+            long n = sum(QTYPES + qtype);
+            if (n > 0) {
+                sb.append("dns_queries_by_type_total{qtype=\"").append(qtypeName(qtype)).append("\"} ")
+                        .append(n).append('\n');
+            }
+        }
+
+        header(sb, "dns_stage_latency_seconds",
+                "Time per query stage, sampled 1 in " + sampleInterval + " queries.", "summary");
+        for (int stage = 0; stage < stages.length; stage++) {
+            LatencyHistogram h = stages[stage];
+            String label = "stage=\"" + STAGE_NAMES[stage] + "\"";
+            for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                sb.append("dns_stage_latency_seconds{").append(label).append(",quantile=\"").append(q).append("\"} ")
+                        .append(seconds(h.getValueAtPercentile(q * 100))).append('\n');
+            }
+            sb.append("dns_stage_latency_seconds_sum{").append(label).append("} ")
+                    .append(seconds(h.getSum())).append('\n');
+            sb.append("dns_stage_latency_seconds_count{").append(label).append("} ")
+                    .append(h.getCount()).append('\n');
+        }
+
+        for (External e : external) {
+            header(sb, e.name, e.help, e.counter ? "counter" : "gauge");
+            sb.append(e.name).append(' ').append(e.value.getAsLong()).append('\n');
+        }
+    }
+
+    // --- Internals ---
+
+    private long sum(int slot) {
+        long total = 0;
+        for (Shard shard : shards) {
+            total += shard.counts[slot];
+        }
+        return total;
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void outcome(StringBuilder sb, String outcome, long value) {
+        sb.append("dns_responses_by_outcome_total{outcome=\"").append(outcome).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private static String qtypeName(int qtype) {
+        if (qtype == OTHER_QTYPE) {
+            return "other";
+        }
+        String name = DnsType.toString(qtype);
+        return name.startsWith("UNKNOWN") ? "TYPE" + qtype : name;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * One thread's counters. Plain, single-writer longs: readers may see a slightly
+     * stale value, which is fine for monotonic counters.
+     */
+    public static final class Shard {
+
+        private final long[] counts = new long[SLOTS];
+
+        private Shard() {
+        }
+
+        public void onQuery() {
+            counts[QUERIES]++;
+        }
+
+        public void onDecodeError() {
+            counts[DECODE_ERRORS]++;
+        }
+
+        public void onDropped() {
+            counts[DROPPED]++;
+        }
+
+        /**
+         * Counts a response by QTYPE, RCODE and outcome, read from its header.
+         */
+        public void onResponse(int qtype, ByteBuffer response) {
+            int flags = response.getShort(2) & 0xFFFF;
+            int rcode = flags & 0xF;
+            long[] c = counts;
+            c[RCODES + rcode]++;
+            c[QTYPES + (qtype < OTHER_QTYPE ? qtype : OTHER_QTYPE)]++;
+            if ((flags & 0x0200) != 0) {
+                c[TRUNCATED]++;
+            }
+
+            if (rcode == 3) {
+                c[NXDOMAINS]++;
+            } else if (rcode == 0) {
+                if ((response.getShort(6) & 0xFFFF) > 0) {
+                    c[ANSWERS]++;
+                } else if ((response.getShort(8) & 0xFFFF) > 0 && (flags & 0x0400) == 0) {
+                    c[REFERRALS]++; // Authority records without AA: a delegation
+                } else {
+                    c[NODATA]++;
+                }
+            }
+        }
+    }
+
+    private static final class External {
+        final String name;
+        final String help;
+        final boolean counter;
+        final LongSupplier value;
+
+        External(String name, String help, boolean counter, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.counter = counter;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.ju.metrics;
+
+/**
+ * JMX view of {@link ServerMetrics}, registered by the engine as
+ * {@code org.ju:type=DnsServer,port=<port>}.
+ */
+public interface ServerMetricsMBean {
+
+    long getQueries();
+
+    long getDecodeErrors();
+
+    long getDroppedPackets();
+
+    long getAnswers();
+
+    long getReferrals();
+
+    long getNxdomains();
+
+    long getNoData();
+
+    long getTruncated();
+
+    double getDecodeP99Micros();
+
+    double getLookupP99Micros();
+
+    double getEncodeP99Micros();
+
+    double getSendP99Micros();
+
+    /**
+     * Everything, in the same text format the HTTP endpoint serves.
+     */
+    String getPrometheusText();
+}
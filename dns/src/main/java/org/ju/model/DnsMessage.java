@@ -15,16 +15,28 @@ public class DnsMessage {
     // NEW: The Authority Section (used for Referrals/NS records)
     private final List<DnsResourceRecord> authorities;
 
+    // The Additional Section: glue, and the EDNS(0) OPT pseudo-record
+    private final List<DnsResourceRecord> additionals;
+
     // Updated Constructor to accept authorities
     public DnsMessage(DnsHeader header, 
                       List<DnsQuestion> questions, 
                       List<DnsResourceRecord> answers, 
                       List<DnsResourceRecord> authorities) {
+        this(header, questions, answers, authorities, null);
+    }
+
+    public DnsMessage(DnsHeader header,
+                      List<DnsQuestion> questions,
+                      List<DnsResourceRecord> answers,
+                      List<DnsResourceRecord> authorities,
+                      List<DnsResourceRecord> additionals) {
         this.header = header;
         this.questions = questions;
         this.answers = answers;
         // If null is passed, use an empty list to avoid NullPointerExceptions
         this.authorities = (authorities != null) ? authorities : Collections.emptyList();
+        this.additionals = (additionals != null) ? additionals : Collections.emptyList();
     }
 
     // --- Getters ---
@@ -46,6 +58,22 @@ public class DnsMessage {
         return authorities;
     }
 
+    public List<DnsResourceRecord> getAdditionals() {
+        return additionals;
+    }
+
+    /**
+     * The OPT pseudo-record from the additional section, or null if the message has none.
+     */
+    public DnsResourceRecord getOpt() {
+        for (DnsResourceRecord record : additionals) {
+            if (record.getType() == DnsType.OPT) {
+                return record;
+            }
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         return "DnsMessage{\n" +
@@ -53,6 +81,7 @@ public class DnsMessage {
                 "  questions=" + questions + "\n" +
                 "  answers=" + answers + "\n" +
                 "  authorities=" + authorities + "\n" +
+                "  additionals=" + additionals + "\n" +
                 '}';
     }
 }
\ No newline at end of file
@@ -9,6 +9,10 @@ public class DnsType {
     public static final int MX = 15;    // Mail Exchange
     public static final int TXT = 16;   // Text Record
     public static final int AAAA = 28;  // Host Address (IPv6)
+    public static final int OPT = 41;   // EDNS(0) pseudo-record (RFC 6891)
+    public static final int IXFR = 251; // Incremental zone transfer (RFC 1995), QTYPE only
+    public static final int AXFR = 252; // Full zone transfer (RFC 5936), QTYPE only
+    public static final int ANY = 255;  // Every type the name owns, QTYPE only
 
     public static String toString(int type) {
         switch (type) {
@@ -20,7 +24,34 @@ public class DnsType {
             case MX: return "MX";
             case TXT: return "TXT";
             case AAAA: return "AAAA";
+            case OPT: return "OPT";
+            case IXFR: return "IXFR";
+            case AXFR: return "AXFR";
+            case ANY: return "ANY";
             default: return "UNKNOWN (" + type + ")";
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Parses a mnemonic such as "AAAA" (case-insensitive).
+     *
+     * @return The type code, or -1 if the mnemonic is not known.
+     */
+    public static int fromString(String mnemonic) {
+        switch (mnemonic.toUpperCase()) {
+            case "A": return A;
+            case "NS": return NS;
+            case "CNAME": return CNAME;
+            case "SOA": return SOA;
+            case "PTR": return PTR;
+            case "MX": return MX;
+            case "TXT": return TXT;
+            case "AAAA": return AAAA;
+            case "OPT": return OPT;
+            case "IXFR": return IXFR;
+            case "AXFR": return AXFR;
+            case "ANY": return ANY;
+            default: return -1;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.ju.perf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A UDP nameserver stand-in for the simulations: holds each query for a while, then
+ * relays it to the real server and the answer back. The resolver sees one server per
+ * proxy.
+ *
+ * The spec is a delay in milliseconds, to which up to 10% jitter is added ("40"), or
+ * "dead" to drop every query; "5@0.2" also drops 20% of queries.
+ */
+final class DelayProxy implements Closeable {
+
+    private final InetSocketAddress backend;
+    private final int delayMillis; // -1 drops everything
+    private final double loss;
+    private final DatagramSocket socket;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4, r -> {
+        Thread thread = new Thread(r, "delay-proxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread receiver;
+
+    DelayProxy(InetSocketAddress backend, String spec) throws SocketException {
+        this.backend = backend;
+        int at = spec.indexOf('@');
+        String delay = (at < 0) ? spec : spec.substring(0, at);
+        this.delayMillis = delay.equals("dead") ? -1 : Integer.parseInt(delay);
+        this.loss = (at < 0) ? 0 : Double.parseDouble(spec.substring(at + 1));
+        this.socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+        this.receiver = new Thread(this::receive, "delay-proxy-" + spec);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[4096];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                return; // Closed
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (delayMillis < 0 || random.nextDouble() < loss) {
+                continue;
+            }
+            byte[] query = new byte[packet.getLength()];
+            System.arraycopy(buffer, 0, query, 0, query.length);
+            InetSocketAddress client = (InetSocketAddress) packet.getSocketAddress();
+            long delayMicros = delayMillis * 1000L + random.nextLong(delayMillis * 100L + 1);
+            scheduler.schedule(() -> relay(query, client), delayMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void relay(byte[] query, InetSocketAddress client) {
+        try (DatagramSocket out = new DatagramSocket()) {
+            out.setSoTimeout(1000);
+            out.send(new DatagramPacket(query, query.length, backend));
+            byte[] buffer = new byte[4096];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            out.receive(response);
+            socket.send(new DatagramPacket(buffer, response.getLength(), client));
+        } catch (IOException e) {
+            // Lost on the way, as UDP may be
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,239 @@
+package org.ju.perf;
+
+import org.ju.client.AsyncDnsClient;
+import org.ju.model.DnsMessage;
+import org.ju.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * dnsperf-style load generator.
+ *
+ * Open loop ({@code --qps N}): query i is due at start + i/N whether or not earlier
+ * queries have been answered, and its latency is measured from that due time rather
+ * than from when it actually went out. A stalled server therefore shows up as latency
+ * for every query it delayed, instead of silently slowing the generator down
+ * (coordinated omission). Closed loop ({@code --qps 0}): keeps {@code --concurrency}
+ * queries outstanding and measures the highest rate the server sustains.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * DnsPerf --server 127.0.0.1:5354 --qps 20000 --duration 30 --names names.txt --zipf 1.1 --miss-ratio 0.05
+ * DnsPerf --server 127.0.0.1:5354 --qps 0 --concurrency 200 --queries queries.txt --out report.json
+ * </pre>
+ */
+public class DnsPerf {
+
+    private InetSocketAddress server = new InetSocketAddress("127.0.0.1", 5354);
+    private int qps = 1000;
+    private int concurrency = 100;
+    private double durationSeconds = 10;
+    private long timeoutMillis = 1000;
+    private int retries = 0;
+    private int sockets = 1;
+    private String label;
+
+    // --- Setters ---
+
+    public DnsPerf setServer(InetSocketAddress server) {
+        this.server = server;
+        return this;
+    }
+
+    /**
+     * Target rate for an open-loop run; 0 switches to closed loop.
+     */
+    public DnsPerf setQps(int qps) {
+        this.qps = qps;
+        return this;
+    }
+
+    /**
+     * Outstanding queries in closed-loop mode.
+     */
+    public DnsPerf setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public DnsPerf setDurationSeconds(double durationSeconds) {
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+
+    /**
+     * A query unanswered after this long is resent, or counts as lost once out of retries.
+     */
+    public DnsPerf setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Resends of an unanswered query, as a stub resolver would; 0 (the default) for none.
+     * Latency still counts from the first send.
+     */
+    public DnsPerf setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    public DnsPerf setSockets(int sockets) {
+        this.sockets = sockets;
+        return this;
+    }
+
+    /**
+     * Free-form tag copied into the report, e.g. a build or commit id.
+     */
+    public DnsPerf setLabel(String label) {
+        this.label = label;
+        return this;
+    }
+
+    /**
+     * Sends queries from {@code mix} for the configured duration, waits for the last
+     * answers (or their timeouts) and reports.
+     */
+    public LoadReport run(QueryMix mix) throws IOException, InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLongArray rcodes = new AtomicLongArray(16);
+        LongAdder lost = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long sent = 0;
+
+        boolean openLoop = qps > 0;
+        Semaphore window = openLoop ? null : new Semaphore(concurrency);
+        long durationNanos = (long) (durationSeconds * 1e9);
+
+        try (AsyncDnsClient client = new AsyncDnsClient(sockets, timeoutMillis, retries)) {
+            long start = System.nanoTime();
+            long end = start + durationNanos;
+            while (true) {
+                long due;
+                if (openLoop) {
+                    due = start + (long) (sent * 1e9 / qps);
+                    if (due - end >= 0) {
+                        break;
+                    }
+                    // Park until the query is due; if we are behind, send at once and let the
+                    // latency (measured from 'due') show it
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    if (System.nanoTime() - end >= 0) {
+                        break;
+                    }
+                    if (!window.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                        continue;
+                    }
+                    due = System.nanoTime();
+                }
+
+                final long intended = due;
+                client.send(server, mix.next()).whenComplete((DnsMessage response, Throwable error) -> {
+                    if (error == null) {
+                        latency.record(System.nanoTime() - intended);
+                        rcodes.incrementAndGet(response.getHeader().getFlags() & 0xF);
+                    } else if (error instanceof SocketTimeoutException) {
+                        lost.increment();
+                    } else {
+                        errors.increment();
+                    }
+                    if (window != null) {
+                        window.release();
+                    }
+                });
+                sent++;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            // Drain: every outstanding query either answers or times out
+            long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis * (retries + 1))
+                    + 100_000_000L;
+            while (client.getInFlight() > 0 && System.nanoTime() - drainUntil < 0) {
+                Thread.sleep(5);
+            }
+
+            long[] counts = new long[rcodes.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = rcodes.get(i);
+            }
+            return new LoadReport(label, openLoop ? "open-loop" : "closed-loop", qps,
+                    openLoop ? 0 : concurrency, elapsed, sent, latency.getCount(), lost.sum(), errors.sum(),
+                    counts, latency);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        DnsPerf perf = new DnsPerf();
+        String queries = null;
+        String namesFile = null;
+        int syntheticNames = 10_000;
+        String zone = "example.com.";
+        double zipf = 1.0;
+        double missRatio = 0;
+        String out = null;
+        long seed = 42;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--server": perf.setServer(parseAddress(args[++i])); break;
+                case "--qps": perf.setQps(Integer.parseInt(args[++i])); break;
+                case "--concurrency": perf.setConcurrency(Integer.parseInt(args[++i])); break;
+                case "--duration": perf.setDurationSeconds(Double.parseDouble(args[++i])); break;
+                case "--timeout": perf.setTimeoutMillis(Long.parseLong(args[++i])); break;
+                case "--retries": perf.setRetries(Integer.parseInt(args[++i])); break;
+                case "--sockets": perf.setSockets(Integer.parseInt(args[++i])); break;
+                case "--label": perf.setLabel(args[++i]); break;
+                case "--queries": queries = args[++i]; break;
+                case "--names": namesFile = args[++i]; break;
+                case "--synthetic-names": syntheticNames = Integer.parseInt(args[++i]); break;
+                case "--zone": zone = args[++i]; break;
+                case "--zipf": zipf = Double.parseDouble(args[++i]); break;
+                case "--miss-ratio": missRatio = Double.parseDouble(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        QueryMix mix;
+        if (queries != null) {
+            mix = QueryMix.fromFile(Paths.get(queries));
+        } else {
+            List<String> names = (namesFile != null)
+                    ? QueryMix.readNames(Paths.get(namesFile))
+                    : QueryMix.syntheticNames(syntheticNames, zone);
+            mix = QueryMix.zipf(names, zipf, missRatio, zone, seed);
+        }
+
+        String json = perf.run(mix).toJson();
+        if (out != null) {
+            Files.write(Paths.get(out), (json + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.println(json);
+    }
+
+    private static InetSocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(hostAndPort, 53);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon),
+                Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+}
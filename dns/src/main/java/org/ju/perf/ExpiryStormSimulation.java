@@ -0,0 +1,239 @@
+package org.ju.perf;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.resolver.DnsTransport;
+import org.ju.resolver.IterativeResolver;
+import org.ju.resolver.Resolution;
+import org.ju.resolver.ResolverCache;
+import org.ju.util.LatencyHistogram;
+
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Resolver latency while a whole cache's worth of answers expires at once, with
+ * prefetch, miss coalescing and serve-stale all off, each on alone, and all on.
+ *
+ * Runs in-process against a simulated upstream that answers every name with TTL
+ * {@code --ttl} after {@code --upstream-ms}. Each run loads all {@code --names} at once,
+ * so they expire together every TTL, then resolves a Zipf mix open-loop at {@code --qps}
+ * from {@code --threads} client threads for {@code --duration} seconds. Latency is
+ * counted from when each query was due, so a stalled client does not hide the queries
+ * queued behind it.
+ *
+ * Every configuration runs twice. The "storm" scenario has a healthy upstream. In the
+ * "outage" scenario the upstream goes dark for {@code --outage-ms} halfway through:
+ * every query then fails after {@code --timeout-ms}. Prints one JSON line per run.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * ExpiryStormSimulation --names 5000 --ttl 2 --qps 20000 --duration 12 --upstream-ms 30
+ * </pre>
+ */
+public class ExpiryStormSimulation {
+
+    private static final InetSocketAddress UPSTREAM = new InetSocketAddress("127.0.0.1", 53);
+    private static final double PREFETCH_FRACTION = 0.2;
+    private static final int PREFETCH_THREADS = 4;
+    private static final long STALE_SECONDS = 3600;
+
+    public static void main(String[] args) throws Exception {
+        int names = 200;
+        long ttl = 2;
+        double duration = 6;
+        int qps = 10_000;
+        int threads = 64;
+        int upstreamMillis = 20;
+        int timeoutMillis = 500;
+        int outageMillis = 2000;
+        double exponent = 1.0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--names": names = Integer.parseInt(args[++i]); break;
+                case "--ttl": ttl = Long.parseLong(args[++i]); break;
+                case "--duration": duration = Double.parseDouble(args[++i]); break;
+                case "--qps": qps = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--upstream-ms": upstreamMillis = Integer.parseInt(args[++i]); break;
+                case "--timeout-ms": timeoutMillis = Integer.parseInt(args[++i]); break;
+                case "--outage-ms": outageMillis = Integer.parseInt(args[++i]); break;
+                case "--exponent": exponent = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<String> hosts = QueryMix.syntheticNames(names, "example.test.");
+
+        String[] runs = {"none", "prefetch", "coalesce", "stale", "all"};
+        for (int outage : new int[]{0, outageMillis}) {
+            for (String run : runs) {
+                run(run, outage, hosts, ttl, duration, qps, threads, upstreamMillis, timeoutMillis, exponent);
+            }
+        }
+    }
+
+    /**
+     * One configuration ("none", "prefetch", "coalesce", "stale" or "all") against a fresh
+     * upstream and cache.
+     */
+    private static void run(String run, int outageMillis, List<String> hosts, long ttl, double duration, int qps,
+                            int threads, int upstreamMillis, int timeoutMillis, double exponent)
+            throws InterruptedException {
+        boolean all = run.equals("all");
+        Upstream upstream = new Upstream(ttl, upstreamMillis, timeoutMillis);
+        ResolverCache cache = new ResolverCache(hosts.size() * 2, 1L << 30,
+                (all || run.equals("stale")) ? STALE_SECONDS : 0);
+        IterativeResolver resolver = new IterativeResolver(upstream, Collections.singletonList(UPSTREAM), 53, cache)
+                .setCoalescing(all || run.equals("coalesce"));
+        ExecutorService prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS);
+        if (all || run.equals("prefetch")) {
+            resolver.setPrefetch(PREFETCH_FRACTION, prefetcher);
+        }
+        try {
+            warm(resolver, hosts, threads);
+            Result result = load(resolver, hosts, exponent, qps, threads, duration, upstream, outageMillis);
+            LatencyHistogram latency = result.latency;
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"scenario\":\"%s\",\"run\":\"%s\",\"queries\":%d,\"p50_us\":%d,\"p99_us\":%d,"
+                            + "\"p999_us\":%d,\"max_us\":%d,\"servfail\":%d,\"stale\":%d,\"upstream_queries\":%d,"
+                            + "\"prefetches\":%d,\"coalesced\":%d}",
+                    outageMillis > 0 ? "outage" : "storm", run, latency.getCount(),
+                    latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000,
+                    latency.getValueAtPercentile(99.9) / 1000, latency.getMax() / 1000,
+                    result.servfail.sum(), result.stale.sum(), upstream.queries.sum(),
+                    resolver.getPrefetches(), resolver.getCoalesced()));
+        } finally {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads every host, in parallel so the answers all expire within a short window.
+     */
+    private static void warm(IterativeResolver resolver, List<String> hosts, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (String host : hosts) {
+            pool.execute(() -> resolver.resolve(host, DnsType.A));
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Resolves a Zipf mix of {@code hosts} open-loop, with an upstream outage in the
+     * middle of the run.
+     */
+    private static Result load(IterativeResolver resolver, List<String> hosts, double exponent, int qps,
+                               int threads, double duration, Upstream upstream, int outageMillis)
+            throws InterruptedException {
+        double[] cdf = new double[hosts.size()];
+        double total = 0;
+        for (int k = 0; k < cdf.length; k++) {
+            total += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < cdf.length; k++) {
+            cdf[k] /= total;
+        }
+        SplittableRandom random = new SplittableRandom(1);
+        Result result = new Result();
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        long count = (long) (qps * duration);
+        long intervalNanos = 1_000_000_000L / qps;
+        if (outageMillis > 0) {
+            long outageStart = start + (long) (duration * 1e9 / 2) - outageMillis * 500_000L;
+            upstream.outage(outageStart, outageStart + outageMillis * 1_000_000L);
+        }
+        for (long i = 0; i < count; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String name = hosts.get(QueryMix.rank(cdf, random.nextDouble()));
+            clients.execute(() -> {
+                Resolution r = resolver.resolve(name, DnsType.A);
+                result.latency.record(System.nanoTime() - due);
+                if (r.getRcode() == Resolution.RCODE_SERVFAIL) {
+                    result.servfail.increment();
+                } else if (r.isStale()) {
+                    result.stale.increment();
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.MINUTES);
+        return result;
+    }
+
+    private static final class Result {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder servfail = new LongAdder();
+        final LongAdder stale = new LongAdder();
+    }
+
+    /**
+     * Authoritative for every name: answers with one A record after a fixed delay, or
+     * times out while in an outage.
+     */
+    private static final class Upstream implements DnsTransport {
+
+        private final long ttl;
+        private final int delayMillis;
+        private final int timeoutMillis;
+        private volatile long outageFrom = Long.MAX_VALUE;
+        private volatile long outageUntil = Long.MAX_VALUE;
+        final LongAdder queries = new LongAdder();
+
+        Upstream(long ttl, int delayMillis, int timeoutMillis) {
+            this.ttl = ttl;
+            this.delayMillis = delayMillis;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        void outage(long fromNanos, long untilNanos) {
+            outageFrom = fromNanos;
+            outageUntil = untilNanos;
+        }
+
+        @Override
+        public DnsMessage exchange(InetSocketAddress server, DnsMessage query) throws SocketTimeoutException {
+            queries.increment();
+            long now = System.nanoTime();
+            boolean dark = now - outageFrom >= 0 && now - outageUntil < 0;
+            sleep(dark ? timeoutMillis : delayMillis);
+            if (dark) {
+                throw new SocketTimeoutException("Simulated outage");
+            }
+            String name = query.getQuestions().get(0).getQName();
+            DnsResourceRecord a = new DnsResourceRecord(name, DnsType.A, DnsClass.IN, ttl, 4,
+                    new byte[]{10, 0, 0, 1});
+            DnsHeader header = new DnsHeader(query.getHeader().getId(), 0x8400, 1, 1, 0, 0);
+            return new DnsMessage(header, query.getQuestions(), List.of(a),
+                    Collections.<DnsResourceRecord>emptyList());
+        }
+
+        private static void sleep(int millis) throws SocketTimeoutException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketTimeoutException("Interrupted");
+            }
+        }
+    }
+}
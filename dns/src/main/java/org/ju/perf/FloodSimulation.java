@@ -0,0 +1,152 @@
+package org.ju.perf;
+
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+import org.ju.ResponseRateLimiter;
+import org.ju.model.DnsType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Legitimate clients' latency while one network floods the server, with response rate
+ * limiting off and then on.
+ *
+ * Starts an engine in-process for each run. Flood threads send the same query as fast
+ * as {@code --flood-pps} allows from {@code --flood-source} (127.0.1.1 by default, a
+ * different /24 than the clients), never reading the answers, as a reflection attack
+ * would. Meanwhile {@link DnsPerf} measures open-loop latency for a small query mix
+ * from 127.0.0.1, a single network too, so {@code --legit-qps} should stay under
+ * {@code --rrl-rate}. Prints one JSON line per run.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * FloodSimulation --duration 10 --flood-pps 50000 --legit-qps 500 --rrl-rate 1000
+ * </pre>
+ */
+public class FloodSimulation {
+
+    public static void main(String[] args) throws Exception {
+        double duration = 5;
+        int floodPps = 20_000;
+        int floodThreads = 1;
+        String floodSource = "127.0.1.1";
+        int legitQps = 500;
+        int workers = 1;
+        int rrlRate = 1000; // Above the clients' own rate: only the flood should hit it
+        int rrlSlip = 2;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--duration": duration = Double.parseDouble(args[++i]); break;
+                case "--flood-pps": floodPps = Integer.parseInt(args[++i]); break;
+                case "--flood-threads": floodThreads = Integer.parseInt(args[++i]); break;
+                case "--flood-source": floodSource = args[++i]; break;
+                case "--legit-qps": legitQps = Integer.parseInt(args[++i]); break;
+                case "--workers": workers = Integer.parseInt(args[++i]); break;
+                case "--rrl-rate": rrlRate = Integer.parseInt(args[++i]); break;
+                case "--rrl-slip": rrlSlip = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        for (int rate : new int[]{0, rrlRate}) {
+            DnsServerConfig config = new DnsServerConfig()
+                    .setBindAddress("127.0.0.1").setPort(0).setWorkers(workers)
+                    .setRrlResponsesPerSecond(rate).setRrlSlip(rrlSlip);
+            DnsServerEngine engine = new DnsServerEngine(config);
+            engine.start();
+            try {
+                InetSocketAddress server = engine.getLocalAddress();
+                Flood flood = new Flood(server, new InetSocketAddress(floodSource, 0), floodPps, floodThreads);
+                flood.start();
+                LoadReport legit;
+                try {
+                    QueryMix mix = QueryMix.zipf(List.of("www.example.com.", "mail.example.com.", "www.google.com."),
+                            1.0, 0, "example.com.", 1);
+                    legit = new DnsPerf().setServer(server).setQps(legitQps).setDurationSeconds(duration)
+                            .setLabel(rate > 0 ? "rrl-" + rate + "/s" : "rrl-off").run(mix);
+                } finally {
+                    flood.stop();
+                }
+
+                ResponseRateLimiter rrl = engine.getRateLimiter();
+                System.out.println("{\"flood_sent\":" + flood.sent.sum() +
+                        ",\"rrl_dropped\":" + (rrl != null ? rrl.getDropped() : 0) +
+                        ",\"rrl_slipped\":" + (rrl != null ? rrl.getSlipped() : 0) +
+                        ",\"server_dropped\":" + engine.getMetrics().getDroppedPackets() +
+                        ",\"legit\":" + legit.toJson() + "}");
+            } finally {
+                engine.stop();
+            }
+        }
+    }
+
+    /**
+     * Paced senders of one fixed query; responses are left unread.
+     */
+    private static final class Flood {
+
+        private static final int BATCH = 64; // Packets between pacing checks
+
+        private final InetSocketAddress server;
+        private final InetSocketAddress source;
+        private final int ppsPerThread;
+        private final Thread[] threads;
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder sent = new LongAdder();
+
+        Flood(InetSocketAddress server, InetSocketAddress source, int pps, int threadCount) {
+            this.server = server;
+            this.source = source;
+            this.ppsPerThread = Math.max(1, pps / threadCount);
+            this.threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                threads[i] = new Thread(this::send, "flood-" + i);
+                threads[i].setDaemon(true);
+            }
+        }
+
+        void start() {
+            for (Thread thread : threads) {
+                thread.start();
+            }
+        }
+
+        void stop() throws InterruptedException {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        private void send() {
+            byte[] query = QueryMix.encode("www.example.com.", DnsType.A);
+            ByteBuffer packet = ByteBuffer.wrap(query);
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                channel.bind(source);
+                long start = System.nanoTime();
+                long count = 0;
+                while (running.get()) {
+                    for (int i = 0; i < BATCH; i++) {
+                        packet.rewind();
+                        channel.send(packet, server);
+                    }
+                    count += BATCH;
+                    sent.add(BATCH);
+                    long wait = start + (long) (count * 1e9 / ppsPerThread) - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Flood from " + source + " failed", e);
+            }
+        }
+    }
+}
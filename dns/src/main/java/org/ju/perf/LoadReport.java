@@ -0,0 +1,131 @@
+package org.ju.perf;
+
+import org.ju.util.LatencyHistogram;
+
+/**
+ * Result of one {@link DnsPerf} run, printable as a single JSON object so runs from
+ * different builds can be diffed or fed to a regression check.
+ */
+public class LoadReport {
+
+    private static final String[] RCODE_NAMES = {
+            "NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED"
+    };
+
+    private final String label;
+    private final String mode;
+    private final int targetQps;
+    private final int concurrency;
+    private final double durationSeconds;
+    private final long sent;
+    private final long responses;
+    private final long lost;
+    private final long errors;
+    private final long[] rcodes;
+    private final LatencyHistogram latency;
+
+    LoadReport(String label, String mode, int targetQps, int concurrency, double durationSeconds,
+               long sent, long responses, long lost, long errors, long[] rcodes, LatencyHistogram latency) {
+        this.label = label;
+        this.mode = mode;
+        this.targetQps = targetQps;
+        this.concurrency = concurrency;
+        this.durationSeconds = durationSeconds;
+        this.sent = sent;
+        this.responses = responses;
+        this.lost = lost;
+        this.errors = errors;
+        this.rcodes = rcodes;
+        this.latency = latency;
+    }
+
+    // --- Getters ---
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getResponses() {
+        return responses;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getRcodeCount(int rcode) {
+        return rcodes[rcode];
+    }
+
+    public double getAchievedQps() {
+        return durationSeconds > 0 ? responses / durationSeconds : 0;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append('{');
+        if (label != null) {
+            sb.append("\"label\":\"").append(escape(label)).append("\",");
+        }
+        sb.append("\"mode\":\"").append(mode).append('"');
+        sb.append(",\"target_qps\":").append(targetQps);
+        sb.append(",\"concurrency\":").append(concurrency);
+        sb.append(",\"duration_s\":").append(round(durationSeconds));
+        sb.append(",\"sent\":").append(sent);
+        sb.append(",\"responses\":").append(responses);
+        sb.append(",\"lost\":").append(lost);
+        sb.append(",\"errors\":").append(errors);
+        sb.append(",\"loss_pct\":").append(sent == 0 ? 0 : round(100.0 * lost / sent));
+        sb.append(",\"achieved_qps\":").append(round(getAchievedQps()));
+
+        sb.append(",\"rcodes\":{");
+        boolean first = true;
+        for (int rcode = 0; rcode < rcodes.length; rcode++) {
+            if (rcodes[rcode] == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            String name = rcode < RCODE_NAMES.length ? RCODE_NAMES[rcode] : "RCODE" + rcode;
+            sb.append('"').append(name).append("\":").append(rcodes[rcode]);
+        }
+        sb.append('}');
+
+        sb.append(",\"latency_us\":{");
+        sb.append("\"mean\":").append(round(latency.getMean() / 1000.0));
+        sb.append(",\"p50\":").append(micros(50));
+        sb.append(",\"p90\":").append(micros(90));
+        sb.append(",\"p99\":").append(micros(99));
+        sb.append(",\"p99.9\":").append(micros(99.9));
+        sb.append(",\"max\":").append(round(latency.getMax() / 1000.0));
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private double micros(double percentile) {
+        return round(latency.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
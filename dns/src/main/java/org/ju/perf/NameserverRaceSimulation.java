@@ -0,0 +1,152 @@
+package org.ju.perf;
+
+import org.ju.DnsRecordStore;
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+import org.ju.client.AsyncDnsClient;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.resolver.IterativeResolver;
+import org.ju.resolver.Resolution;
+import org.ju.resolver.ResolverCache;
+import org.ju.util.LatencyHistogram;
+import org.ju.zone.ZoneTrie;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolution latency when a zone's nameservers differ wildly in speed, with the servers
+ * tried in referral order (as SimpleDnsClient does) and then ranked by RTT and hedged.
+ *
+ * One authoritative engine serves {@code --names} hosts with TTL 0, so nothing is
+ * cached and every resolution goes upstream. In front of it sit one UDP proxy per entry
+ * of {@code --delays}: each adds that many milliseconds (plus up to 10% jitter) before
+ * passing a query on, or drops every query for "dead". An entry like "5@0.2" also drops
+ * 20% of queries. The resolver sees the proxies as the zone's servers. In the in-order
+ * run they come in a fresh random order for every resolution, as a referral's NS
+ * records would; the ranked run keeps one resolver, and so what it learned, throughout.
+ * {@code --clients} threads resolve {@code --queries} names in all, closed-loop, over
+ * an upstream client that times out after {@code --timeout-ms}. Prints one JSON line
+ * per run.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * NameserverRaceSimulation --delays 2,40,250,dead,5@0.2 --queries 5000 --clients 16
+ * </pre>
+ */
+public class NameserverRaceSimulation {
+
+    public static void main(String[] args) throws Exception {
+        int names = 10_000;
+        String delays = "2,40,250,dead";
+        int queries = 2000;
+        int clients = 8;
+        int timeoutMillis = 2000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--names": names = Integer.parseInt(args[++i]); break;
+                case "--delays": delays = args[++i]; break;
+                case "--queries": queries = Integer.parseInt(args[++i]); break;
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--timeout-ms": timeoutMillis = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<String> hosts = QueryMix.syntheticNames(names, "example.test.");
+        DnsRecordStore.publish(zone(hosts), "nameserver-race");
+
+        DnsServerEngine backend = new DnsServerEngine(new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0)
+                .setWorkers(2).setResponseCacheSize(0).setTcpEnabled(false).setMetricsEnabled(false));
+        backend.start();
+        List<DelayProxy> proxies = new ArrayList<>();
+        try {
+            List<InetSocketAddress> servers = new ArrayList<>();
+            for (String spec : delays.split(",")) {
+                DelayProxy proxy = new DelayProxy(backend.getLocalAddress(), spec.trim());
+                proxies.add(proxy);
+                servers.add(proxy.getAddress());
+            }
+            for (boolean selection : new boolean[]{false, true}) {
+                try (AsyncDnsClient upstream = new AsyncDnsClient(1, timeoutMillis, 0)) {
+                    run(upstream, selection, servers, hosts, queries, clients);
+                }
+            }
+        } finally {
+            for (DelayProxy proxy : proxies) {
+                proxy.close();
+            }
+            backend.stop();
+        }
+    }
+
+    private static void run(AsyncDnsClient upstream, boolean selection, List<InetSocketAddress> servers,
+                            List<String> hosts, int queries, int clients) throws InterruptedException {
+        ResolverCache cache = new ResolverCache(1000, 1 << 20);
+        IterativeResolver shared = new IterativeResolver(upstream, servers, 53, cache);
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder servfail = new LongAdder();
+        LongAdder upstreamQueries = new LongAdder();
+        AtomicLong remaining = new AtomicLong(queries);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        for (int c = 0; c < clients; c++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (remaining.getAndDecrement() > 0) {
+                    IterativeResolver resolver = shared;
+                    if (!selection) {
+                        List<InetSocketAddress> order = new ArrayList<>(servers);
+                        Collections.shuffle(order, random);
+                        resolver = new IterativeResolver(upstream, order, 53, cache).setServerSelection(false);
+                    }
+                    String name = hosts.get(random.nextInt(hosts.size()));
+                    long start = System.nanoTime();
+                    Resolution r = resolver.resolve(name, DnsType.A);
+                    latency.record(System.nanoTime() - start);
+                    upstreamQueries.add(r.getUpstreamQueries());
+                    if (r.getRcode() != Resolution.RCODE_NOERROR) {
+                        servfail.increment();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+
+        StringBuilder srtt = new StringBuilder();
+        for (InetSocketAddress server : servers) {
+            long nanos = shared.getNameservers().getSrttNanos(server);
+            srtt.append(srtt.length() == 0 ? "" : ",").append(nanos < 0 ? -1 : nanos / 1000);
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "{\"run\":\"%s\",\"resolutions\":%d,\"p50_us\":%d,\"p90_us\":%d,\"p99_us\":%d,\"p999_us\":%d,"
+                        + "\"max_us\":%d,\"failed\":%d,\"upstream_per_resolution\":%.3f,\"hedges\":%d,"
+                        + "\"srtt_us\":[%s]}",
+                selection ? "ranked-hedged" : "in-order", latency.getCount(), latency.getValueAtPercentile(50) / 1000,
+                latency.getValueAtPercentile(90) / 1000, latency.getValueAtPercentile(99) / 1000,
+                latency.getValueAtPercentile(99.9) / 1000, latency.getMax() / 1000, servfail.sum(),
+                (double) upstreamQueries.sum() / Math.max(1, latency.getCount()), shared.getHedges(), srtt));
+    }
+
+    /**
+     * Every host at 10.0.0.1, with TTL 0 so the resolver has to ask each time.
+     */
+    private static ZoneTrie zone(List<String> hosts) {
+        ZoneTrie trie = new ZoneTrie(hosts.size());
+        for (String host : hosts) {
+            trie.add(new DnsResourceRecord(host, DnsType.A, DnsClass.IN, 0, 4, new byte[]{10, 0, 0, 1}));
+        }
+        trie.link();
+        return trie;
+    }
+}
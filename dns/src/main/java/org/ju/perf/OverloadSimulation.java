@@ -0,0 +1,197 @@
+package org.ju.perf;
+
+import org.ju.AdmissionQueue;
+import org.ju.DnsRecordStore;
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.resolver.IterativeResolver;
+import org.ju.zone.ZoneTrie;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goodput of a recursive engine offered more queries than it can answer, with admission
+ * control off (the kernel's socket buffer is the only queue) and on.
+ *
+ * An authoritative engine serves {@code --names} hosts behind a {@link DelayProxy} that
+ * adds {@code --upstream-ms} to every query sent to it. The engine under test resolves
+ * through the proxy with {@code --workers} workers. Clients ask for a Zipf mix of the
+ * hosts, all cached beforehand, except that {@code --miss-ratio} of the queries go to
+ * random names that always miss. Like stub resolvers, clients wait {@code --timeout-ms}
+ * and retry {@code --retries} times.
+ *
+ * Capacity is measured first, closed-loop. Then each load in {@code --loads}, given as a
+ * multiple of capacity, is offered open-loop for {@code --duration} seconds to a fresh
+ * engine with each setting. Goodput counts the answers that reached a client before it
+ * gave up. Prints one JSON line per run.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * OverloadSimulation --workers 4 --upstream-ms 50 --miss-ratio 0.2 --loads 0.5,1,2,3
+ * </pre>
+ */
+public class OverloadSimulation {
+
+    private static final String ZONE = "example.test.";
+    private static final int WARM_THREADS = 64;
+
+    public static void main(String[] args) throws Exception {
+        int names = 1000;
+        int upstreamMillis = 50;
+        int workers = 4;
+        double missRatio = 0.2;
+        int timeoutMillis = 1000;
+        int retries = 2;
+        double duration = 10;
+        String loads = "0.5,1,2";
+        int maxAgeMillis = new DnsServerConfig().getAdmissionMaxAgeMillis();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--names": names = Integer.parseInt(args[++i]); break;
+                case "--upstream-ms": upstreamMillis = Integer.parseInt(args[++i]); break;
+                case "--workers": workers = Integer.parseInt(args[++i]); break;
+                case "--miss-ratio": missRatio = Double.parseDouble(args[++i]); break;
+                case "--timeout-ms": timeoutMillis = Integer.parseInt(args[++i]); break;
+                case "--retries": retries = Integer.parseInt(args[++i]); break;
+                case "--duration": duration = Double.parseDouble(args[++i]); break;
+                case "--loads": loads = args[++i]; break;
+                case "--max-queue-age": maxAgeMillis = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<String> hosts = QueryMix.syntheticNames(names, ZONE);
+        DnsRecordStore.publish(zone(hosts), "overload-simulation");
+
+        DnsServerEngine backend = new DnsServerEngine(local(2).setResponseCacheSize(0));
+        backend.start();
+        try (DelayProxy upstream = new DelayProxy(backend.getLocalAddress(), Integer.toString(upstreamMillis))) {
+            Setup setup = new Setup(upstream.getAddress(), hosts, workers, missRatio, timeoutMillis, retries,
+                    maxAgeMillis);
+
+            // --- Capacity: as fast as the engine answers, a bounded number in flight ---
+            DnsServerEngine engine = setup.engine(true);
+            LoadReport closed;
+            try {
+                closed = new DnsPerf().setServer(engine.getLocalAddress()).setQps(0).setConcurrency(workers * 16)
+                        .setDurationSeconds(Math.max(3, duration / 2)).setTimeoutMillis(timeoutMillis)
+                        .run(setup.mix());
+            } finally {
+                engine.stop();
+            }
+            double capacity = closed.getAchievedQps();
+            System.out.println(String.format(Locale.ROOT, "{\"run\":\"capacity\",\"qps\":%.0f,\"p50_us\":%d}",
+                    capacity, closed.getLatency().getValueAtPercentile(50) / 1000));
+
+            // --- Open loop at multiples of capacity ---
+            for (String load : loads.split(",")) {
+                double multiple = Double.parseDouble(load.trim());
+                for (boolean admission : new boolean[]{false, true}) {
+                    run(setup, admission, multiple, (int) Math.max(1, Math.round(capacity * multiple)), duration);
+                }
+            }
+        } finally {
+            backend.stop();
+        }
+    }
+
+    private static void run(Setup setup, boolean admission, double multiple, int qps, double duration)
+            throws IOException, InterruptedException {
+        DnsServerEngine engine = setup.engine(admission);
+        try {
+            LoadReport report = new DnsPerf().setServer(engine.getLocalAddress()).setQps(qps)
+                    .setDurationSeconds(duration).setTimeoutMillis(setup.timeoutMillis).setRetries(setup.retries)
+                    .run(setup.mix());
+            AdmissionQueue queue = engine.getAdmissionQueue();
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"run\":\"%s\",\"load\":%.2f,\"offered_qps\":%d,\"goodput_qps\":%.0f,\"answered\":%.3f,"
+                            + "\"hits\":%d,\"misses\":%d,\"servfail\":%d,\"p50_us\":%d,\"p99_us\":%d,"
+                            + "\"shed_full\":%d,\"shed_displaced\":%d,\"shed_expired\":%d}",
+                    admission ? "admission" : "kernel-queue", multiple, qps,
+                    report.getResponses() / duration, (double) report.getResponses() / Math.max(1, report.getSent()),
+                    report.getRcodeCount(0), report.getRcodeCount(3), report.getRcodeCount(2),
+                    report.getLatency().getValueAtPercentile(50) / 1000,
+                    report.getLatency().getValueAtPercentile(99) / 1000,
+                    queue != null ? queue.getShedFull() : 0, queue != null ? queue.getShedDisplaced() : 0,
+                    queue != null ? queue.getShedExpired() : 0));
+        } finally {
+            engine.stop();
+        }
+    }
+
+    private static DnsServerConfig local(int workers) {
+        return new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(workers)
+                .setTcpEnabled(false).setMetricsEnabled(false);
+    }
+
+    /**
+     * Every host at 10.0.0.1 for an hour, so once cached it stays cached.
+     */
+    private static ZoneTrie zone(List<String> hosts) {
+        ZoneTrie trie = new ZoneTrie(hosts.size());
+        for (String host : hosts) {
+            trie.add(new DnsResourceRecord(host, DnsType.A, DnsClass.IN, 3600, 4, new byte[]{10, 0, 0, 1}));
+        }
+        trie.link();
+        return trie;
+    }
+
+    /**
+     * What every run shares: the upstream, the names and the clients' behaviour.
+     */
+    private static final class Setup {
+
+        final InetSocketAddress upstream;
+        final List<String> hosts;
+        final int workers;
+        final double missRatio;
+        final int timeoutMillis;
+        final int retries;
+        final int maxAgeMillis;
+        private long seed;
+
+        Setup(InetSocketAddress upstream, List<String> hosts, int workers, double missRatio, int timeoutMillis,
+              int retries, int maxAgeMillis) {
+            this.upstream = upstream;
+            this.hosts = hosts;
+            this.workers = workers;
+            this.missRatio = missRatio;
+            this.timeoutMillis = timeoutMillis;
+            this.retries = retries;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        QueryMix mix() {
+            return QueryMix.zipf(hosts, 1.0, missRatio, ZONE, ++seed);
+        }
+
+        /**
+         * A fresh recursive engine with every host already in its cache.
+         */
+        DnsServerEngine engine(boolean admission) throws IOException, InterruptedException {
+            DnsServerConfig config = local(workers).setRecursive(true)
+                    .addRootServer(upstream.getHostString() + ":" + upstream.getPort())
+                    .setAdmissionQueueSize(admission ? new DnsServerConfig().getAdmissionQueueSize() : 0)
+                    .setAdmissionMaxAgeMillis(maxAgeMillis);
+            DnsServerEngine engine = new DnsServerEngine(config);
+            engine.start();
+
+            IterativeResolver resolver = engine.getResolver();
+            ExecutorService pool = Executors.newFixedThreadPool(WARM_THREADS);
+            for (String host : hosts) {
+                pool.execute(() -> resolver.resolve(host, DnsType.A));
+            }
+            pool.shutdown();
+            pool.awaitTermination(5, TimeUnit.MINUTES);
+            return engine;
+        }
+    }
+}
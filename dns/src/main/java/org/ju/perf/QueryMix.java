@@ -0,0 +1,157 @@
+package org.ju.perf;
+
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsMessageCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Source of encoded queries for {@link DnsPerf}. Queries are encoded once up front,
+ * so producing the next one costs a random draw and nothing else. Not thread-safe.
+ */
+public abstract class QueryMix {
+
+    private static final DnsMessageCodec CODEC = new DnsMessageCodec();
+
+    /**
+     * The next query to send, in wire format with RD=1. The client overwrites the ID in
+     * its own copy, so callers must not rely on the array staying untouched.
+     */
+    public abstract byte[] next();
+
+    /**
+     * Replays a dnsperf-style file of {@code name [type]} lines in order, wrapping around.
+     * Blank lines and lines starting with '#' or ';' are skipped; the type defaults to A.
+     */
+    public static QueryMix fromFile(Path file) throws IOException {
+        List<byte[]> queries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                int type = DnsType.A;
+                if (fields.length > 1) {
+                    type = DnsType.fromString(fields[1]);
+                    if (type < 0) {
+                        throw new IOException(file + ":" + lineNo + ": unknown type " + fields[1]);
+                    }
+                }
+                queries.add(encode(fields[0], type));
+            }
+        }
+        if (queries.isEmpty()) {
+            throw new IOException(file + ": no queries");
+        }
+        byte[][] all = queries.toArray(new byte[0][]);
+        return new QueryMix() {
+            private int next;
+
+            @Override
+            public byte[] next() {
+                byte[] query = all[next];
+                next = (next + 1 == all.length) ? 0 : next + 1;
+                return query;
+            }
+        };
+    }
+
+    /**
+     * Draws names with Zipf-distributed popularity (rank k has weight 1/k^exponent), and
+     * replaces a {@code missRatio} fraction of queries with a random, never-repeating
+     * label under {@code missZone} to defeat caches the way a random-subdomain flood does.
+     */
+    public static QueryMix zipf(List<String> names, double exponent, double missRatio, String missZone, long seed) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No names to query");
+        }
+        byte[][] queries = new byte[names.size()][];
+        double[] cdf = new double[names.size()];
+        double total = 0;
+        for (int k = 0; k < names.size(); k++) {
+            queries[k] = encode(names.get(k), DnsType.A);
+            total += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < cdf.length; k++) {
+            cdf[k] /= total;
+        }
+        String suffix = missZone.endsWith(".") ? missZone : missZone + ".";
+        SplittableRandom random = new SplittableRandom(seed);
+
+        return new QueryMix() {
+            @Override
+            public byte[] next() {
+                if (missRatio > 0 && random.nextDouble() < missRatio) {
+                    return encode(Long.toHexString(random.nextLong()) + "." + suffix, DnsType.A);
+                }
+                return queries[rank(cdf, random.nextDouble())];
+            }
+        };
+    }
+
+    /**
+     * {@code count} synthetic names {@code host0.<zone>}, {@code host1.<zone>}, ...
+     */
+    public static List<String> syntheticNames(int count, String zone) {
+        String suffix = zone.endsWith(".") ? zone : zone + ".";
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("host" + i + "." + suffix);
+        }
+        return names;
+    }
+
+    /**
+     * First field of every non-comment line, e.g. a list of names or a simple zone dump.
+     */
+    public static List<String> readNames(Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#") && !line.startsWith(";")) {
+                names.add(line.split("\\s+")[0]);
+            }
+        }
+        return names;
+    }
+
+    // Smallest k with cdf[k] >= u
+    static int rank(double[] cdf, double u) {
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    static byte[] encode(String name, int type) {
+        String qname = name.endsWith(".") ? name : name + ".";
+        DnsHeader header = new DnsHeader(0, 0x0100, 1, 0, 0, 0);
+        return CODEC.encode(new DnsMessage(header, Collections.singletonList(new DnsQuestion(qname, type, 1)),
+                Collections.<DnsResourceRecord>emptyList(), Collections.<DnsResourceRecord>emptyList()));
+    }
+}
@@ -0,0 +1,219 @@
+package org.ju.perf;
+
+import org.ju.DnsRecordStore;
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.zone.ZoneDiff;
+import org.ju.zone.ZoneTrie;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * How long a primary's zone takes to reach its secondaries, all on loopback.
+ *
+ * Starts one primary serving {@code --names} hosts under {@code --zone} and
+ * {@code --secondaries} secondaries, which load the zone by AXFR. Then, for each of
+ * {@code --rounds}, the primary applies a diff that moves {@code --changes} hosts to a
+ * new address under a new serial, as a dynamic update would, and the secondaries are
+ * NOTIFYed and catch up by IXFR.
+ * Convergence is timed from the outside, as a client of an anycast address would see
+ * it: from the moment of the change until every secondary answers with the new data.
+ * Meanwhile {@link DnsPerf} queries the first secondary at {@code --qps}, to show that
+ * serving carries on while diffs are applied. Prints one JSON line per phase.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * ReplicationSimulation --names 500000 --secondaries 4 --rounds 10 --changes 100
+ * </pre>
+ */
+public class ReplicationSimulation {
+
+    private static final long TIMEOUT_MILLIS = 120_000;
+
+    public static void main(String[] args) throws Exception {
+        int names = 100_000;
+        int secondaries = 3;
+        int rounds = 5;
+        int changes = 10;
+        int qps = 2000;
+        String zone = "example.test.";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--names": names = Integer.parseInt(args[++i]); break;
+                case "--secondaries": secondaries = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--changes": changes = Integer.parseInt(args[++i]); break;
+                case "--qps": qps = Integer.parseInt(args[++i]); break;
+                case "--zone": zone = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<String> hosts = QueryMix.syntheticNames(names, zone);
+
+        DnsRecordStore.publish(zone(zone, hosts, 1, 0, 0), "replication-simulation");
+        DnsServerConfig primaryConfig = local().setTransfersAllowed(true).setJournalSize(Math.max(1, rounds));
+        List<DnsServerEngine> engines = new ArrayList<>();
+        try {
+            DnsServerEngine primary = start(primaryConfig, engines);
+
+            // --- Full transfers ---
+            long start = System.nanoTime();
+            List<InetSocketAddress> copies = new ArrayList<>();
+            for (int i = 0; i < secondaries; i++) {
+                DnsServerConfig config = local().setPrimary(primary.getLocalAddress()).setSecondaryZone(zone)
+                        .setRefreshSeconds(3600); // Only NOTIFY should trigger the incremental rounds
+                InetSocketAddress copy = start(config, engines).getLocalAddress();
+                primaryConfig.addNotifyTarget(copy);
+                copies.add(copy);
+            }
+            String last = hosts.get(names - 1);
+            System.out.println("{\"phase\":\"axfr\",\"names\":" + names + ",\"secondaries\":" + secondaries
+                    + ",\"converged_ms\":" + converge(copies, last, address(0), start) + "}");
+
+            // --- Incremental transfers, with queries running against a secondary ---
+            // Every diff is built up front, so only the publications overlap the load
+            ZoneDiff[] diffs = new ZoneDiff[rounds + 1];
+            for (int round = 1; round <= rounds; round++) {
+                List<DnsResourceRecord> deleted = new ArrayList<>();
+                List<DnsResourceRecord> added = new ArrayList<>();
+                for (int i = 0; i < changes; i++) {
+                    deleted.add(host(hosts.get(i), round - 1));
+                    added.add(host(hosts.get(i), round));
+                }
+                diffs[round] = new ZoneDiff(soa(zone, round), soa(zone, round + 1), deleted, added);
+            }
+            System.gc();
+            AtomicReference<LoadReport> load = new AtomicReference<>();
+            double loadSeconds = Math.max(1, rounds * 0.5);
+            QueryMix mix = QueryMix.zipf(hosts, 1.0, 0, zone, 1);
+            DnsPerf perf = new DnsPerf().setServer(copies.get(0)).setQps(qps).setDurationSeconds(loadSeconds)
+                    .setLabel("during-ixfr");
+            Thread queries = new Thread(() -> {
+                try {
+                    load.set(perf.run(mix));
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "replication-load");
+            queries.start();
+
+            for (int round = 1; round <= rounds; round++) {
+                start = System.nanoTime();
+                DnsRecordStore.apply(diffs[round], "replication-round-" + round);
+                long publishMillis = (System.nanoTime() - start) / 1_000_000; // Includes journaling the diff
+                System.out.println("{\"phase\":\"ixfr\",\"round\":" + round + ",\"changes\":" + changes
+                        + ",\"publish_ms\":" + publishMillis
+                        + ",\"converged_ms\":" + converge(copies, hosts.get(changes - 1), address(round), start) + "}");
+            }
+            queries.join();
+            System.out.println("{\"phase\":\"serving\",\"load\":" + load.get().toJson() + "}");
+        } finally {
+            for (DnsServerEngine engine : engines) {
+                engine.stop();
+            }
+        }
+    }
+
+    private static DnsServerConfig local() {
+        return new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1).setTcpWorkers(1);
+    }
+
+    private static DnsServerEngine start(DnsServerConfig config, List<DnsServerEngine> engines) throws IOException {
+        DnsServerEngine engine = new DnsServerEngine(config);
+        engine.start();
+        engines.add(engine);
+        return engine;
+    }
+
+    /**
+     * Polls every server for {@code name} until all of them answer {@code expected}.
+     *
+     * @return Milliseconds from {@code startNanos} until the slowest one did.
+     */
+    private static long converge(List<InetSocketAddress> servers, String name, byte[] expected, long startNanos)
+            throws IOException {
+        byte[] query = QueryMix.encode(name, DnsType.A);
+        byte[] response = new byte[512];
+        long slowest = 0;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(100);
+            for (InetSocketAddress server : servers) {
+                while (!answers(socket, server, query, response, expected)) {
+                    if ((System.nanoTime() - startNanos) / 1_000_000 > TIMEOUT_MILLIS) {
+                        throw new IllegalStateException(server + " never answered " + name + " with the new data");
+                    }
+                }
+                slowest = System.nanoTime() - startNanos;
+            }
+        }
+        return slowest / 1_000_000;
+    }
+
+    private static boolean answers(DatagramSocket socket, InetSocketAddress server, byte[] query, byte[] response,
+                                   byte[] expected) throws IOException {
+        socket.send(new DatagramPacket(query, query.length, server));
+        DatagramPacket packet = new DatagramPacket(response, response.length);
+        try {
+            socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        // A single A record, whose address ends the packet
+        ByteBuffer message = ByteBuffer.wrap(response, 0, packet.getLength());
+        if (packet.getLength() < 16 || (message.getShort(6) & 0xFFFF) != 1) {
+            return false;
+        }
+        int end = packet.getLength();
+        for (int i = 0; i < 4; i++) {
+            if (response[end - 4 + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The zone at {@code serial}: the first {@code changed} hosts at 10.1.x.y for
+     * {@code generation}, the rest at 10.0.0.0.
+     */
+    private static ZoneTrie zone(String apex, List<String> hosts, long serial, int changed, int generation) {
+        ZoneTrie trie = new ZoneTrie(hosts.size() + 1);
+        trie.add(soa(apex, serial));
+        for (int i = 0; i < hosts.size(); i++) {
+            trie.add(host(hosts.get(i), i < changed ? generation : 0));
+        }
+        trie.link();
+        return trie;
+    }
+
+    private static DnsResourceRecord soa(String apex, long serial) {
+        ByteBuffer rdata = ByteBuffer.allocate(512);
+        DnsLabelEncoder.encode("ns1." + apex, rdata);
+        DnsLabelEncoder.encode("hostmaster." + apex, rdata);
+        rdata.putInt((int) serial).putInt(3600).putInt(600).putInt(86400).putInt(300);
+        byte[] soa = new byte[rdata.position()];
+        rdata.flip();
+        rdata.get(soa);
+        return new DnsResourceRecord(apex, DnsType.SOA, DnsClass.IN, 3600, soa.length, soa);
+    }
+
+    private static DnsResourceRecord host(String name, int generation) {
+        return new DnsResourceRecord(name, DnsType.A, DnsClass.IN, 300, 4, address(generation));
+    }
+
+    private static byte[] address(int generation) {
+        return new byte[]{10, (byte) (generation == 0 ? 0 : 1), (byte) (generation >>> 8), (byte) generation};
+    }
+}
@@ -0,0 +1,109 @@
+package org.ju.perf;
+
+import org.ju.DnsRecordStore;
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.zone.ZoneTrie;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Throughput of an authoritative engine as workers are added: one run per worker count
+ * in {@code --workers}, each with the workers sharing one socket and, with
+ * {@code --reuseport}, each on a socket of its own.
+ *
+ * The engine serves {@code --names} hosts, with admission control off so each worker
+ * loops on its socket directly and the response cache off so every query is encoded.
+ * DnsPerf drives it closed-loop from {@code --sockets} client sockets with
+ * {@code --concurrency} queries in flight for {@code --duration} seconds. Prints one JSON
+ * line per run, with its speedup over the first run of the same socket layout.
+ *
+ * Client and server share the machine, so past the number of cores the workers compete
+ * with the load generator and the curve flattens: read the numbers next to
+ * {@code "cores"}.
+ *
+ * Usage, e.g.:
+ * <pre>
+ * WorkerScalingSimulation --workers 1,2,4 --reuseport --duration 10
+ * </pre>
+ */
+public class WorkerScalingSimulation {
+
+    private static final String ZONE = "example.test.";
+
+    public static void main(String[] args) throws Exception {
+        int names = 10_000;
+        String workerCounts = "1,2,4";
+        boolean reusePort = false;
+        int concurrency = 256;
+        int sockets = 4;
+        double duration = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--names": names = Integer.parseInt(args[++i]); break;
+                case "--workers": workerCounts = args[++i]; break;
+                case "--reuseport": reusePort = true; break;
+                case "--concurrency": concurrency = Integer.parseInt(args[++i]); break;
+                case "--sockets": sockets = Integer.parseInt(args[++i]); break;
+                case "--duration": duration = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<String> hosts = QueryMix.syntheticNames(names, ZONE);
+        DnsRecordStore.publish(zone(hosts), "worker-scaling-simulation");
+
+        // Warm-up, so the first measured run is not the one that pays for the JIT
+        run(hosts, 1, false, concurrency, sockets, Math.max(2, duration / 2));
+
+        for (boolean ownSockets : reusePort ? new boolean[]{false, true} : new boolean[]{false}) {
+            double baseline = 0;
+            for (String count : workerCounts.split(",")) {
+                int workers = Integer.parseInt(count.trim());
+                LoadReport report = run(hosts, workers, ownSockets, concurrency, sockets, duration);
+                double qps = report.getAchievedQps();
+                if (baseline == 0) {
+                    baseline = qps;
+                }
+                System.out.println(String.format(Locale.ROOT,
+                        "{\"layout\":\"%s\",\"workers\":%d,\"cores\":%d,\"qps\":%.0f,\"speedup\":%.2f,"
+                                + "\"p50_us\":%d,\"p99_us\":%d,\"lost\":%d}",
+                        ownSockets ? "reuseport" : "shared-socket", workers,
+                        Runtime.getRuntime().availableProcessors(), qps, qps / baseline,
+                        report.getLatency().getValueAtPercentile(50) / 1000,
+                        report.getLatency().getValueAtPercentile(99) / 1000,
+                        report.getSent() - report.getResponses()));
+            }
+        }
+    }
+
+    private static LoadReport run(List<String> hosts, int workers, boolean reusePort, int concurrency,
+                                  int sockets, double duration) throws IOException, InterruptedException {
+        DnsServerEngine engine = new DnsServerEngine(new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0)
+                .setWorkers(workers).setReusePort(reusePort).setAdmissionQueueSize(0).setResponseCacheSize(0)
+                .setTcpEnabled(false).setMetricsEnabled(false));
+        engine.start();
+        try {
+            return new DnsPerf().setServer(engine.getLocalAddress()).setQps(0).setConcurrency(concurrency)
+                    .setSockets(sockets).setDurationSeconds(duration).run(QueryMix.zipf(hosts, 1.0, 0, ZONE, workers));
+        } finally {
+            engine.stop();
+        }
+    }
+
+    /**
+     * Every host at 10.0.0.1.
+     */
+    private static ZoneTrie zone(List<String> hosts) {
+        ZoneTrie trie = new ZoneTrie(hosts.size());
+        for (String host : hosts) {
+            trie.add(new DnsResourceRecord(host, DnsType.A, DnsClass.IN, 3600, 4, new byte[]{10, 0, 0, 1}));
+        }
+        trie.link();
+        return trie;
+    }
+}
@@ -0,0 +1,298 @@
+package org.ju.resolver;
+
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves a stream of names, one per line, with a fixed number of resolutions in
+ * flight, and writes one result per name as a JSON line or a CSV row.
+ *
+ * Each of {@code concurrency} workers takes the next line straight from the reader,
+ * resolves it and writes its result, so nothing is queued in between and memory stays
+ * flat however long the input is. Results come out in the order they finish, not the
+ * order of the input. Blank lines and lines starting with '#' are skipped; a line may
+ * name a type after the name ("example.com AAAA"), otherwise the default type is used.
+ *
+ * The workers share one {@link IterativeResolver}, and with it its cache and what it
+ * has learned about nameservers, so a list of names under a few zones pays for each
+ * referral only once.
+ */
+public class BulkResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkResolver.class);
+
+    public static final String CSV_HEADER = "name,type,rcode,latency_us,referrals,queries,cached,answers";
+
+    private static final String[] RCODE_NAMES = {"NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED"};
+
+    private final IterativeResolver resolver;
+    private int concurrency = 64;
+    private int defaultType = DnsType.A;
+    private boolean csv;
+
+    private final LongAdder resolved = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public BulkResolver(IterativeResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    // --- Setters ---
+
+    /**
+     * Resolutions in flight at once, each on a thread of its own.
+     */
+    public BulkResolver setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Type asked for on lines that do not name one.
+     */
+    public BulkResolver setDefaultType(int defaultType) {
+        this.defaultType = defaultType;
+        return this;
+    }
+
+    /**
+     * CSV rows (with a header line) instead of JSON Lines.
+     */
+    public BulkResolver setCsv(boolean csv) {
+        this.csv = csv;
+        return this;
+    }
+
+    // --- Getters ---
+
+    /**
+     * Names resolved so far, failures included.
+     */
+    public long getResolved() {
+        return resolved.sum();
+    }
+
+    /**
+     * Names that came back SERVFAIL or could not be resolved at all.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    // --- Running ---
+
+    /**
+     * Resolves every name in {@code in} and writes the results to {@code out}, returning
+     * once the input is exhausted and every result written. {@code out} is flushed but not
+     * closed.
+     */
+    public void run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        if (csv) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+        }
+        AtomicReference<IOException> error = new AtomicReference<>();
+        Thread[] workers = new Thread[concurrency];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(() -> work(in, out, error), "bulk-resolver-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread worker : workers) {
+                worker.interrupt(); // Each stops after the name it is on
+            }
+            throw e;
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        out.flush();
+    }
+
+    private void work(BufferedReader in, Writer out, AtomicReference<IOException> error) {
+        StringBuilder line = new StringBuilder(256);
+        try {
+            while (error.get() == null && !Thread.currentThread().isInterrupted()) {
+                String input;
+                synchronized (in) {
+                    input = in.readLine();
+                }
+                if (input == null) {
+                    return;
+                }
+                input = input.trim();
+                if (input.isEmpty() || input.charAt(0) == '#') {
+                    continue;
+                }
+                line.setLength(0);
+                resolve(input, line);
+                synchronized (out) {
+                    out.append(line);
+                }
+            }
+        } catch (IOException e) {
+            error.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Resolves one input line and appends its result, newline included, to {@code line}.
+     */
+    void resolve(String input, StringBuilder line) {
+        String name = input;
+        int type = defaultType;
+        int space = indexOfWhitespace(input);
+        if (space > 0) {
+            name = input.substring(0, space);
+            type = DnsType.fromString(input.substring(space).trim());
+        }
+        if (!name.endsWith(".")) {
+            name = name + ".";
+        }
+
+        Resolution resolution = null;
+        long start = System.nanoTime();
+        if (type > 0) {
+            try {
+                resolution = resolver.resolve(name, type);
+            } catch (RuntimeException e) {
+                // Malformed names and the like: report them, do not stop the run
+                LOGGER.debug("Could not resolve {}: {}", name, e.toString());
+            }
+        }
+        long latencyMicros = (System.nanoTime() - start) / 1000;
+        resolved.increment();
+        int rcode = (resolution != null) ? resolution.getRcode() : 1; // FORMERR for what we could not ask
+        if (rcode != Resolution.RCODE_NOERROR && rcode != Resolution.RCODE_NXDOMAIN) {
+            failed.increment();
+        }
+
+        if (csv) {
+            appendCsv(line, name).append(',');
+            appendCsv(line, type > 0 ? DnsType.toString(type) : input.substring(space).trim()).append(',');
+            line.append(rcodeName(rcode)).append(',').append(latencyMicros).append(',');
+            if (resolution != null) {
+                line.append(resolution.getReferrals()).append(',').append(resolution.getUpstreamQueries())
+                        .append(',').append(resolution.isFromCache()).append(',');
+                StringBuilder answers = new StringBuilder();
+                for (DnsResourceRecord record : resolution.getAnswers()) {
+                    answers.append(answers.length() == 0 ? "" : " ").append(rdata(record));
+                }
+                appendCsv(line, answers.toString());
+            } else {
+                line.append("0,0,false,");
+            }
+        } else {
+            line.append("{\"name\":");
+            appendJson(line, name);
+            line.append(",\"type\":");
+            appendJson(line, type > 0 ? DnsType.toString(type) : input.substring(space).trim());
+            line.append(",\"rcode\":\"").append(rcodeName(rcode)).append("\",\"latency_us\":").append(latencyMicros);
+            if (resolution != null) {
+                line.append(",\"referrals\":").append(resolution.getReferrals())
+                        .append(",\"queries\":").append(resolution.getUpstreamQueries())
+                        .append(",\"cached\":").append(resolution.isFromCache());
+                if (resolution.isStale()) {
+                    line.append(",\"stale\":true");
+                }
+                line.append(",\"answers\":[");
+                List<DnsResourceRecord> answers = resolution.getAnswers();
+                for (int i = 0; i < answers.size(); i++) {
+                    line.append(i == 0 ? "{" : ",{").append("\"type\":\"")
+                            .append(DnsType.toString(answers.get(i).getType())).append("\",\"ttl\":")
+                            .append(answers.get(i).getTtl()).append(",\"data\":");
+                    appendJson(line, rdata(answers.get(i)));
+                    line.append('}');
+                }
+                line.append(']');
+            }
+            line.append('}');
+        }
+        line.append('\n');
+    }
+
+    // --- Formatting ---
+
+    private static String rcodeName(int rcode) {
+        return rcode < RCODE_NAMES.length ? RCODE_NAMES[rcode] : "RCODE" + rcode;
+    }
+
+    /**
+     * Record data in presentation form for the types a lookup usually ends in, else hex.
+     */
+    private static String rdata(DnsResourceRecord record) {
+        byte[] rdata = record.getRData();
+        switch (record.getType()) {
+            case DnsType.A:
+            case DnsType.AAAA:
+                try {
+                    return InetAddress.getByAddress(rdata).getHostAddress();
+                } catch (UnknownHostException e) {
+                    break; // Wrong length; show the bytes
+                }
+            case DnsType.CNAME:
+            case DnsType.NS:
+            case DnsType.PTR:
+                return DnsLabelEncoder.decode(ByteBuffer.wrap(rdata));
+            default:
+                break;
+        }
+        StringBuilder hex = new StringBuilder(rdata.length * 2);
+        for (byte b : rdata) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static StringBuilder appendJson(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    private static StringBuilder appendCsv(StringBuilder sb, String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return sb.append(s);
+        }
+        return sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+    }
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
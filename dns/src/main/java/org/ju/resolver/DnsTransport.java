@@ -0,0 +1,37 @@
+package org.ju.resolver;
+
+import org.ju.model.DnsMessage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends one query to one server and waits for the matching response.
+ */
+public interface DnsTransport {
+
+    /**
+     * @throws java.net.SocketTimeoutException if the server does not answer in time.
+     */
+    DnsMessage exchange(InetSocketAddress server, DnsMessage query) throws IOException;
+
+    /**
+     * Starts the same exchange without waiting for it, so a caller can have several
+     * servers in flight at once. This default spends a thread on every call; transports
+     * that can do better should override it.
+     */
+    default CompletableFuture<DnsMessage> exchangeAsync(InetSocketAddress server, DnsMessage query) {
+        CompletableFuture<DnsMessage> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(exchange(server, query));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, "dns-exchange");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+}
@@ -0,0 +1,573 @@
+package org.ju.resolver;
+
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsQuestion;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves names by walking referrals down from the root, the way SimpleDnsClient does
+ * by hand, with every answer, negative answer and delegation cached in a
+ * {@link ResolverCache}. A warm lookup costs no upstream queries at all, and a cold
+ * lookup below a known zone starts at that zone's servers rather than the root.
+ *
+ * Three optional behaviours keep popular names from falling off a latency cliff when
+ * they expire:
+ * <ul>
+ *   <li>Prefetch: a hit on an answer with less than a given fraction of its TTL left
+ *       refreshes it in the background, so a name asked for often enough never
+ *       actually expires.</li>
+ *   <li>Coalescing: concurrent misses on the same question wait for one walk instead
+ *       of each sending their own.</li>
+ *   <li>Serve-stale (RFC 8767): when the walk fails, an expired answer still in the
+ *       cache's stale window is returned instead of SERVFAIL.</li>
+ * </ul>
+ * Prefetch and coalescing are off until set; serve-stale is up to the cache.
+ *
+ * A zone's servers are tried fastest first, as ranked by a {@link NameserverSelector}
+ * from the round-trip times seen so far. If the one asked has not answered within its
+ * adaptive timeout, the next one is asked as well, and the first usable answer wins; a
+ * server that fails or answers SERVFAIL makes way for the next at once. Servers that
+ * keep failing are backed off. With server selection turned off, the servers are tried
+ * one at a time in referral order, each waited out for the transport's full timeout.
+ *
+ * Thread-safe; the cache is shared and the transport must be safe for concurrent use.
+ * Set the options before the first resolution.
+ */
+public class IterativeResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IterativeResolver.class);
+
+    // Referral chains longer than this are treated as a loop
+    private static final int MAX_REFERRALS = 10;
+
+    // Used for negative answers that carry no SOA to take a TTL from
+    private static final long DEFAULT_NEGATIVE_TTL = 60;
+
+    // How deep lookups of glueless nameservers' addresses may nest
+    private static final int MAX_GLUELESS_DEPTH = 3;
+
+    // Backstop on waiting for a reply once every candidate has been asked; the
+    // transport's own timeout normally ends the wait well before this
+    private static final long REPLY_BACKSTOP_NANOS = 30_000_000_000L;
+
+    private final DnsTransport transport;
+    private final List<InetSocketAddress> rootServers;
+    private final int nameserverPort;
+    private final ResolverCache cache;
+    private final NameserverSelector selector = new NameserverSelector();
+
+    private boolean serverSelection = true;
+    private double prefetchFraction; // 0 = no prefetch
+    private Executor prefetchExecutor;
+    private boolean coalescing;
+
+    // Walks in progress for misses, by question; other misses on it join these
+    private final ConcurrentHashMap<String, CompletableFuture<Resolution>> inflight = new ConcurrentHashMap<>();
+
+    // Questions being refreshed ahead. Kept apart: a miss must not queue behind a prefetch
+    private final Set<String> prefetching = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+
+    /**
+     * @param rootServers    Where to start when nothing useful is cached.
+     * @param nameserverPort Port to use for servers learned from referrals (53 in the real
+     *                       world; the simulator's port when pointing at a local hierarchy).
+     */
+    public IterativeResolver(DnsTransport transport, List<InetSocketAddress> rootServers,
+                             int nameserverPort, ResolverCache cache) {
+        if (rootServers.isEmpty()) {
+            throw new IllegalArgumentException("At least one root server is required");
+        }
+        this.transport = transport;
+        this.rootServers = new ArrayList<>(rootServers);
+        this.nameserverPort = nameserverPort;
+        this.cache = cache;
+    }
+
+    public ResolverCache getCache() {
+        return cache;
+    }
+
+    public NameserverSelector getNameservers() {
+        return selector;
+    }
+
+    /**
+     * Whether to rank servers by RTT and hedge slow ones (the default), rather than try
+     * them in referral order.
+     */
+    public IterativeResolver setServerSelection(boolean serverSelection) {
+        this.serverSelection = serverSelection;
+        return this;
+    }
+
+    /**
+     * Refreshes answers hit with less than {@code fraction} of their TTL left, on
+     * {@code executor}. A fraction of 0 turns prefetching off.
+     */
+    public IterativeResolver setPrefetch(double fraction, Executor executor) {
+        if (fraction < 0 || fraction >= 1) {
+            throw new IllegalArgumentException("Prefetch fraction must be in [0, 1): " + fraction);
+        }
+        if (fraction > 0 && executor == null) {
+            throw new IllegalArgumentException("Prefetching needs an executor");
+        }
+        this.prefetchFraction = fraction;
+        this.prefetchExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Whether concurrent misses on one question share a single walk.
+     */
+    public IterativeResolver setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    /**
+     * Background refreshes started by hits near expiry.
+     */
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    /**
+     * Misses answered by another caller's walk of the same question.
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Queries sent to a further server because the one before was slow to answer.
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * Resolves (name, type). Never throws for DNS-level failures: unreachable or lame
+     * servers come back as SERVFAIL, which is not cached.
+     */
+    public Resolution resolve(String name, int type) {
+        String qname = ResolverCache.normalize(name);
+        ResolverCache.Answer cached = cache.getAnswer(qname, type);
+        if (cached != null) {
+            if (prefetchFraction > 0 && !cached.isStale() && cached.isNearExpiry(prefetchFraction)) {
+                prefetch(qname, type);
+            }
+            return new Resolution(cached.getRcode(), cached.getRecords(), 0, true, cached.isStale());
+        }
+        if (!coalescing) {
+            return orStale(qname, type, walk(qname, type, 0));
+        }
+
+        String key = qname + '/' + type;
+        CompletableFuture<Resolution> mine = new CompletableFuture<>();
+        CompletableFuture<Resolution> leader = inflight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            Resolution shared;
+            try {
+                shared = leader.join();
+            } catch (RuntimeException e) {
+                shared = servfail(0);
+            }
+            // Someone else did the work: it cost this caller no queries
+            return orStale(qname, type, new Resolution(shared.getRcode(), shared.getAnswers(), 0,
+                    shared.isFromCache(), shared.isStale()));
+        }
+        try {
+            Resolution resolution = orStale(qname, type, walk(qname, type, 0));
+            mine.complete(resolution);
+            return resolution;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Starts a background walk for (qname, type) unless one is already running.
+     */
+    private void prefetch(String qname, int type) {
+        String key = qname + '/' + type;
+        if (!prefetching.add(key)) {
+            return;
+        }
+        try {
+            prefetchExecutor.execute(() -> {
+                try {
+                    walk(qname, type, 0);
+                } finally {
+                    prefetching.remove(key);
+                }
+            });
+            prefetches.increment();
+        } catch (RejectedExecutionException e) {
+            // Too busy to refresh ahead: the entry will simply expire
+            prefetching.remove(key);
+        }
+    }
+
+    /**
+     * {@code resolution}, or whatever the cache still holds in place of a SERVFAIL.
+     */
+    private Resolution orStale(String qname, int type, Resolution resolution) {
+        if (resolution.getRcode() != Resolution.RCODE_SERVFAIL) {
+            return resolution;
+        }
+        ResolverCache.Answer stale = cache.getStaleAnswer(qname, type);
+        if (stale == null) {
+            return resolution;
+        }
+        return new Resolution(stale.getRcode(), stale.getRecords(), resolution.getUpstreamQueries(), true,
+                stale.isStale(), resolution.getReferrals());
+    }
+
+    private Resolution resolve(String name, int type, int depth) {
+        String qname = ResolverCache.normalize(name);
+
+        ResolverCache.Answer cached = cache.getAnswer(qname, type);
+        if (cached != null) {
+            return new Resolution(cached.getRcode(), cached.getRecords(), 0, true);
+        }
+        return walk(qname, type, depth);
+    }
+
+    /**
+     * Walks referrals for (qname, type) without looking at the cached answer, from the
+     * deepest delegation known.
+     */
+    private Resolution walk(String qname, int type, int depth) {
+        ResolverCache.Delegation delegation = cache.findDelegation(qname);
+        String zone = (delegation != null) ? delegation.getZone() : ".";
+        List<InetSocketAddress> servers = (delegation != null) ? delegation.getServers() : rootServers;
+
+        int queries = 0;
+        for (int hop = 0; hop <= MAX_REFERRALS; hop++) {
+            Attempt attempt = serverSelection && servers.size() > 1
+                    ? race(servers, qname, type) : inOrder(servers, qname, type);
+            queries += attempt.queries;
+            DnsMessage response = attempt.response;
+            if (response == null) {
+                return servfail(queries, hop);
+            }
+
+            int rcode = response.getHeader().getFlags() & 0xF;
+            List<DnsResourceRecord> answers = response.getAnswers();
+            if (rcode == Resolution.RCODE_NOERROR && !answers.isEmpty()) {
+                cache.putAnswer(qname, type, answers);
+                return new Resolution(rcode, answers, queries, false, false, hop);
+            }
+            if (rcode == Resolution.RCODE_NXDOMAIN) {
+                cache.putNegative(qname, type, rcode, negativeTtl(response));
+                return new Resolution(rcode, Collections.<DnsResourceRecord>emptyList(), queries, false, false, hop);
+            }
+            if (rcode != Resolution.RCODE_NOERROR) {
+                return servfail(queries, hop);
+            }
+
+            List<DnsResourceRecord> ns = nsRecords(response.getAuthorities());
+            if (ns.isEmpty()) {
+                // NOERROR, no answer, no referral: the name exists but has no data of this type
+                cache.putNegative(qname, type, rcode, negativeTtl(response));
+                return new Resolution(rcode, Collections.<DnsResourceRecord>emptyList(), queries, false, false, hop);
+            }
+
+            // --- Referral: only follow it if it moves us closer to the name ---
+            String cut = ResolverCache.normalize(ns.get(0).getName());
+            if (!isStrictlyBelow(cut, zone) || !isAtOrBelow(qname, cut)) {
+                LOGGER.debug("Lame referral to {} while resolving {} from {}", cut, qname, zone);
+                return servfail(queries, hop);
+            }
+            List<InetSocketAddress> next = glueAddresses(ns, response.getAdditionals());
+            if (next.isEmpty()) {
+                // No glue: look the nameservers up ourselves, one extra resolution per hop
+                queries += lookUpNameservers(ns, depth, next);
+            }
+            if (next.isEmpty()) {
+                return servfail(queries, hop);
+            }
+            cache.putDelegation(cut, next, minTtl(ns));
+            zone = cut;
+            servers = next;
+        }
+        LOGGER.debug("Too many referrals resolving {}", qname);
+        return servfail(queries, MAX_REFERRALS);
+    }
+
+    // --- Asking a zone's servers ---
+
+    /**
+     * Asks {@code servers} one at a time until one answers usably.
+     */
+    private Attempt inOrder(List<InetSocketAddress> servers, String qname, int type) {
+        Attempt attempt = new Attempt();
+        for (InetSocketAddress server : servers) {
+            attempt.queries++;
+            long start = System.nanoTime();
+            try {
+                DnsMessage response = transport.exchange(server, buildQuery(qname, type));
+                attempt.response = response;
+                if (isUsable(response)) {
+                    selector.success(server, System.nanoTime() - start);
+                    break;
+                }
+                selector.failure(server);
+            } catch (IOException e) {
+                selector.failure(server);
+                LOGGER.debug("No answer from {} for {}: {}", server, qname, e.toString());
+            }
+        }
+        return attempt;
+    }
+
+    /**
+     * Asks the best-ranked server, and the next each time the last one asked is slower
+     * than its timeout or fails. Returns the first usable answer, else the last unusable
+     * one, else none.
+     */
+    private Attempt race(List<InetSocketAddress> servers, String qname, int type) {
+        List<InetSocketAddress> ranked = selector.rank(servers);
+        LinkedBlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        Attempt attempt = new Attempt();
+        int next = 0;
+        int outstanding = 0;
+        long hedgeAt = 0;
+        try {
+            while (true) {
+                if (outstanding == 0 || (next < ranked.size() && System.nanoTime() - hedgeAt >= 0)) {
+                    if (next == ranked.size()) {
+                        return attempt; // Everyone asked, nobody left to wait for
+                    }
+                    if (outstanding > 0) {
+                        hedges.increment();
+                    }
+                    InetSocketAddress server = ranked.get(next++);
+                    ask(server, qname, type, replies);
+                    attempt.queries++;
+                    outstanding++;
+                    hedgeAt = System.nanoTime() + selector.timeoutNanos(server);
+                }
+                long wait = (next < ranked.size()) ? hedgeAt - System.nanoTime() : REPLY_BACKSTOP_NANOS;
+                Reply reply = replies.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (reply == null) {
+                    if (next == ranked.size()) {
+                        return attempt;
+                    }
+                    continue; // Time to hedge
+                }
+                outstanding--;
+                if (reply.response != null) {
+                    attempt.response = reply.response;
+                    if (isUsable(reply.response)) {
+                        return attempt;
+                    }
+                }
+                hedgeAt = System.nanoTime(); // A failure: no reason to wait before the next
+
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return attempt;
+        }
+    }
+
+    /**
+     * Sends one query; its outcome goes to the selector and then to {@code replies}.
+     */
+    private void ask(InetSocketAddress server, String qname, int type, LinkedBlockingQueue<Reply> replies) {
+        long start = System.nanoTime();
+        transport.exchangeAsync(server, buildQuery(qname, type)).whenComplete((response, error) -> {
+            if (error == null && isUsable(response)) {
+                selector.success(server, System.nanoTime() - start);
+            } else {
+                selector.failure(server);
+                if (error != null) {
+                    LOGGER.debug("No answer from {} for {}: {}", server, qname, error.toString());
+                }
+            }
+            replies.add(new Reply(error == null ? response : null));
+        });
+    }
+
+    /**
+     * An answer worth acting on: NOERROR (data, no data or a referral) or NXDOMAIN.
+     * Anything else says more about the server than about the name.
+     */
+    private static boolean isUsable(DnsMessage response) {
+        int rcode = response.getHeader().getFlags() & 0xF;
+        return rcode == Resolution.RCODE_NOERROR || rcode == Resolution.RCODE_NXDOMAIN;
+    }
+
+    private static final class Attempt {
+        DnsMessage response;
+        int queries;
+    }
+
+    private static final class Reply {
+        final DnsMessage response; // Null if the exchange failed
+
+        Reply(DnsMessage response) {
+            this.response = response;
+        }
+    }
+
+    // --- Internals ---
+
+    private static Resolution servfail(int queries) {
+        return servfail(queries, 0);
+    }
+
+    private static Resolution servfail(int queries, int referrals) {
+        return new Resolution(Resolution.RCODE_SERVFAIL, Collections.<DnsResourceRecord>emptyList(), queries, false,
+                false, referrals);
+    }
+
+    private static DnsMessage buildQuery(String qname, int type) {
+        // RD=0: we do the recursion ourselves
+        DnsHeader header = new DnsHeader(ThreadLocalRandom.current().nextInt(0x10000), 0, 1, 0, 0, 0);
+        return new DnsMessage(header, Collections.singletonList(new DnsQuestion(qname, type, 1)),
+                Collections.<DnsResourceRecord>emptyList(), Collections.<DnsResourceRecord>emptyList());
+    }
+
+    private static List<DnsResourceRecord> nsRecords(List<DnsResourceRecord> authorities) {
+        List<DnsResourceRecord> ns = new ArrayList<>();
+        for (DnsResourceRecord r : authorities) {
+            if (r.getType() == DnsType.NS) {
+                ns.add(r);
+            }
+        }
+        return ns;
+    }
+
+    /**
+     * Server addresses for a referral, from the A and AAAA glue in its additional section
+     * that belongs to one of the NS targets. Anything else there is ignored.
+     */
+    private List<InetSocketAddress> glueAddresses(List<DnsResourceRecord> ns, List<DnsResourceRecord> additionals) {
+        List<InetSocketAddress> servers = new ArrayList<>(ns.size());
+        for (DnsResourceRecord r : ns) {
+            String target = nameserver(r);
+            if (target == null) {
+                continue;
+            }
+            for (DnsResourceRecord glue : additionals) {
+                if (ResolverCache.normalize(glue.getName()).equals(target)) {
+                    addAddress(glue, servers);
+                }
+            }
+        }
+        return servers;
+    }
+
+    /**
+     * Resolves the A records of glueless NS targets into {@code servers}, stopping at the
+     * first that has any.
+     *
+     * @return The number of upstream queries it took.
+     */
+    private int lookUpNameservers(List<DnsResourceRecord> ns, int depth, List<InetSocketAddress> servers) {
+        int queries = 0;
+        if (depth < MAX_GLUELESS_DEPTH) {
+            for (DnsResourceRecord r : ns) {
+                String target = nameserver(r);
+                if (target == null) {
+                    continue;
+                }
+                Resolution lookup = resolve(target, DnsType.A, depth + 1);
+                queries += lookup.getUpstreamQueries();
+                for (DnsResourceRecord address : lookup.getAnswers()) {
+                    addAddress(address, servers);
+                }
+                if (!servers.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        return queries;
+    }
+
+    private void addAddress(DnsResourceRecord r, List<InetSocketAddress> servers) {
+        if ((r.getType() == DnsType.A && r.getRdLength() == 4) || (r.getType() == DnsType.AAAA && r.getRdLength() == 16)) {
+            try {
+                servers.add(new InetSocketAddress(InetAddress.getByAddress(r.getRData()), nameserverPort));
+            } catch (IOException e) {
+                // Not reachable for a 4 or 16 byte address
+            }
+        }
+    }
+
+    /**
+     * The normalized host name an NS record points at, or null if its rdata is not a name.
+     * Servers compress that name against the rest of their response; {@link org.ju.util.DnsMessageCodec}
+     * expands it while decoding, so the RDATA stands on its own here.
+     */
+    private static String nameserver(DnsResourceRecord ns) {
+        try {
+            return ResolverCache.normalize(DnsLabelEncoder.decode(ByteBuffer.wrap(ns.getRData())));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * RFC 2308: a negative answer lives for min(SOA TTL, SOA MINIMUM) when the server
+     * sent its SOA, otherwise for a conservative default.
+     */
+    private static long negativeTtl(DnsMessage response) {
+        for (DnsResourceRecord r : response.getAuthorities()) {
+            if (r.getType() == DnsType.SOA && r.getRdLength() >= 20) {
+                // MINIMUM is always the last 32-bit field of the rdata
+                long minimum = ByteBuffer.wrap(r.getRData()).getInt(r.getRdLength() - 4) & 0xFFFFFFFFL;
+                return Math.min(r.getTtl(), minimum);
+            }
+        }
+        return DEFAULT_NEGATIVE_TTL;
+    }
+
+    private static long minTtl(List<DnsResourceRecord> records) {
+        long ttl = Long.MAX_VALUE;
+        for (DnsResourceRecord r : records) {
+            ttl = Math.min(ttl, r.getTtl());
+        }
+        return ttl;
+    }
+
+    private static boolean isAtOrBelow(String name, String zone) {
+        return ".".equals(zone) || name.equals(zone) || name.endsWith("." + zone);
+    }
+
+    private static boolean isStrictlyBelow(String name, String zone) {
+        return !name.equals(zone) && isAtOrBelow(name, zone);
+    }
+}
@@ -0,0 +1,177 @@
+package org.ju.resolver;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * What the resolver has learned about each nameserver's speed and health, used to pick
+ * which of a zone's servers to ask first and how long to wait before asking another.
+ *
+ * Round-trip times are smoothed the way TCP does it (RFC 6298): SRTT moves 1/8 of the
+ * way to each sample, RTTVAR 1/4, and the hedge timeout is SRTT + 4 * RTTVAR within
+ * fixed bounds. Servers never heard from sort first, so each gets tried once. A server
+ * that fails {@link #FAILURES_BEFORE_BACKOFF} times in a row is backed off for a period
+ * that doubles with every further failure; backed-off servers sort last and are only
+ * used when nothing else is left. One answer ends the back-off.
+ *
+ * Thread-safe.
+ */
+public class NameserverSelector {
+
+    static final int FAILURES_BEFORE_BACKOFF = 3;
+    static final long MIN_TIMEOUT_NANOS = 20_000_000L;       // Below this a hedge is mostly wasted
+    static final long MAX_TIMEOUT_NANOS = 2_000_000_000L;
+    static final long INITIAL_TIMEOUT_NANOS = 400_000_000L;  // For a server with no samples yet
+    static final long BASE_BACKOFF_NANOS = 1_000_000_000L;
+    static final long MAX_BACKOFF_NANOS = 60_000_000_000L;
+
+    // Cap on servers tracked; past it, new servers are ranked but not remembered
+    private static final int MAX_SERVERS = 10_000;
+
+    private final ConcurrentHashMap<InetSocketAddress, Stats> servers = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+
+    public NameserverSelector() {
+        this(System::nanoTime);
+    }
+
+    NameserverSelector(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * {@code candidates} best first: untried servers, then by SRTT, then servers that
+     * have only ever failed, then the backed-off ones.
+     */
+    public List<InetSocketAddress> rank(List<InetSocketAddress> candidates) {
+        long now = nanoClock.getAsLong();
+        List<InetSocketAddress> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingLong(server -> score(server, now)));
+        return ranked;
+    }
+
+    /**
+     * How long to wait on {@code server} before also asking the next candidate.
+     */
+    public long timeoutNanos(InetSocketAddress server) {
+        Stats stats = servers.get(server);
+        if (stats == null) {
+            return INITIAL_TIMEOUT_NANOS;
+        }
+        synchronized (stats) {
+            if (stats.srtt < 0) {
+                return INITIAL_TIMEOUT_NANOS;
+            }
+            return Math.max(MIN_TIMEOUT_NANOS, Math.min(MAX_TIMEOUT_NANOS, stats.srtt + 4 * stats.rttvar));
+        }
+    }
+
+    /**
+     * {@code server} answered after {@code rttNanos}.
+     */
+    public void success(InetSocketAddress server, long rttNanos) {
+        Stats stats = stats(server);
+        if (stats == null) {
+            return;
+        }
+        synchronized (stats) {
+            if (stats.srtt < 0) {
+                stats.srtt = rttNanos;
+                stats.rttvar = rttNanos / 2;
+            } else {
+                stats.rttvar += (Math.abs(stats.srtt - rttNanos) - stats.rttvar) / 4;
+                stats.srtt += (rttNanos - stats.srtt) / 8;
+            }
+            stats.failures = 0;
+        }
+    }
+
+    /**
+     * {@code server} timed out or gave an unusable answer.
+     */
+    public void failure(InetSocketAddress server) {
+        Stats stats = stats(server);
+        if (stats == null) {
+            return;
+        }
+        synchronized (stats) {
+            stats.failures++;
+            if (stats.failures >= FAILURES_BEFORE_BACKOFF) {
+                int doublings = Math.min(stats.failures - FAILURES_BEFORE_BACKOFF, 16);
+                stats.backoffUntil = nanoClock.getAsLong()
+                        + Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << doublings);
+            }
+        }
+    }
+
+    /**
+     * Whether {@code server} is currently backed off.
+     */
+    public boolean isBackedOff(InetSocketAddress server) {
+        Stats stats = servers.get(server);
+        if (stats == null) {
+            return false;
+        }
+        synchronized (stats) {
+            return stats.failures >= FAILURES_BEFORE_BACKOFF && nanoClock.getAsLong() - stats.backoffUntil < 0;
+        }
+    }
+
+    /**
+     * Smoothed RTT of {@code server} in nanoseconds, or -1 if it has never answered.
+     */
+    public long getSrttNanos(InetSocketAddress server) {
+        Stats stats = servers.get(server);
+        if (stats == null) {
+            return -1;
+        }
+        synchronized (stats) {
+            return stats.srtt;
+        }
+    }
+
+    public int size() {
+        return servers.size();
+    }
+
+    // --- Internals ---
+
+    private Stats stats(InetSocketAddress server) {
+        Stats stats = servers.get(server);
+        if (stats == null && servers.size() < MAX_SERVERS) {
+            stats = servers.computeIfAbsent(server, s -> new Stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Lower is better: -1 for untried servers, then the SRTT of those that answer, then
+     * those that have only ever failed, then the backed-off ones.
+     */
+    private long score(InetSocketAddress server, long now) {
+        Stats stats = servers.get(server);
+        if (stats == null) {
+            return -1;
+        }
+        synchronized (stats) {
+            if (stats.failures >= FAILURES_BEFORE_BACKOFF && now - stats.backoffUntil < 0) {
+                return Long.MAX_VALUE - (stats.backoffUntil - now); // The soonest back is the least bad
+            }
+            if (stats.srtt < 0) {
+                return stats.failures > 0 ? Long.MAX_VALUE / 2 + stats.failures : -1;
+            }
+            return stats.srtt;
+        }
+    }
+
+    private static final class Stats {
+        long srtt = -1; // Nanoseconds; -1 until the first answer
+        long rttvar;
+        int failures;   // In a row
+        long backoffUntil;
+    }
+}
@@ -0,0 +1,87 @@
+package org.ju.resolver;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.util.List;
+
+/**
+ * Outcome of {@link IterativeResolver#resolve}: a response code, the answer records
+ * (empty for NXDOMAIN, NODATA and failures) and how much work it took.
+ */
+public final class Resolution {
+
+    public static final int RCODE_NOERROR = 0;
+    public static final int RCODE_SERVFAIL = 2;
+    public static final int RCODE_NXDOMAIN = 3;
+
+    private final int rcode;
+    private final List<DnsResourceRecord> answers;
+    private final int upstreamQueries;
+    private final boolean fromCache;
+    private final boolean stale;
+    private final int referrals;
+
+    Resolution(int rcode, List<DnsResourceRecord> answers, int upstreamQueries, boolean fromCache) {
+        this(rcode, answers, upstreamQueries, fromCache, false, 0);
+    }
+
+    Resolution(int rcode, List<DnsResourceRecord> answers, int upstreamQueries, boolean fromCache, boolean stale) {
+        this(rcode, answers, upstreamQueries, fromCache, stale, 0);
+    }
+
+    Resolution(int rcode, List<DnsResourceRecord> answers, int upstreamQueries, boolean fromCache, boolean stale,
+               int referrals) {
+        this.rcode = rcode;
+        this.answers = answers;
+        this.upstreamQueries = upstreamQueries;
+        this.fromCache = fromCache;
+        this.stale = stale;
+        this.referrals = referrals;
+    }
+
+    public int getRcode() {
+        return rcode;
+    }
+
+    public List<DnsResourceRecord> getAnswers() {
+        return answers;
+    }
+
+    /**
+     * Queries sent to other servers to produce this result; 0 for a cache hit.
+     */
+    public int getUpstreamQueries() {
+        return upstreamQueries;
+    }
+
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * An expired answer served because the upstreams could not be reached (RFC 8767).
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Referrals followed on the way to this result; 0 when it came from the cache or the
+     * first server asked was authoritative.
+     */
+    public int getReferrals() {
+        return referrals;
+    }
+
+    @Override
+    public String toString() {
+        return "Resolution{" +
+                "rcode=" + rcode +
+                ", answers=" + answers +
+                ", upstreamQueries=" + upstreamQueries +
+                ", fromCache=" + fromCache +
+                ", stale=" + stale +
+                ", referrals=" + referrals +
+                '}';
+    }
+}
@@ -0,0 +1,540 @@
+package org.ju.resolver;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * TTL-honouring cache behind {@link IterativeResolver}. It holds three kinds of entry:
+ * positive answers (an RRset), negative answers (NXDOMAIN or NODATA, RFC 2308) and
+ * delegations (the servers for a zone cut), so a warm resolver skips straight to the
+ * deepest zone it already knows about.
+ *
+ * Bounded both by entry count and by an estimate of the bytes held. When either limit
+ * is exceeded one thread sweeps a small sample of entries with a clock hand over the
+ * map, dropping expired entries first and then whichever sampled entry expires soonest.
+ * Readers never block.
+ *
+ * With a stale window (RFC 8767) an expired answer is kept that much longer. It is no
+ * longer a hit, but {@link #getStaleAnswer} still hands it out for when the upstreams
+ * cannot be reached. Once it has, the entry is served stale as an ordinary hit for
+ * {@link #STALE_TTL_SECONDS}, so an outage costs one failed attempt per name every
+ * 30 seconds rather than one per query. Stale entries are the first to go when room is
+ * needed.
+ */
+public class ResolverCache {
+
+    // Pseudo-type under which delegations are stored
+    private static final int DELEGATION = -1;
+
+    // Upper bound on how long anything is kept, whatever the TTL says
+    static final long MAX_TTL_SECONDS = 86400;
+
+    // TTL on stale answers, and how long one is served before upstreams are tried again
+    // (RFC 8767's failure recheck timer)
+    static final long STALE_TTL_SECONDS = 30;
+    private static final long STALE_TTL_NANOS = STALE_TTL_SECONDS * 1_000_000_000L;
+
+    private static final int EVICTION_SAMPLE = 16;
+
+    // Rough per-object overheads for the byte estimate
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int RECORD_OVERHEAD = 64;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long staleNanos;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private Iterator<Entry> hand; // Only touched by the thread holding 'evicting'
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+
+    public ResolverCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, 0);
+    }
+
+    /**
+     * @param staleSeconds How long past expiry answers stay available to
+     *                     {@link #getStaleAnswer}; 0 drops them on expiry.
+     */
+    public ResolverCache(int maxEntries, long maxBytes, long staleSeconds) {
+        this(maxEntries, maxBytes, staleSeconds, System::nanoTime);
+    }
+
+    ResolverCache(int maxEntries, long maxBytes, LongSupplier nanoClock) {
+        this(maxEntries, maxBytes, 0, nanoClock);
+    }
+
+    ResolverCache(int maxEntries, long maxBytes, long staleSeconds, LongSupplier nanoClock) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        if (staleSeconds < 0) {
+            throw new IllegalArgumentException("staleSeconds must not be negative: " + staleSeconds);
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.staleNanos = staleSeconds * 1_000_000_000L;
+        this.nanoClock = nanoClock;
+    }
+
+    // --- Answers ---
+
+    /**
+     * Returns the cached answer for (name, type), or null if there is none or it expired.
+     * Record TTLs in the result are counted down by the time spent in the cache. An
+     * expired answer recently handed out by {@link #getStaleAnswer} is returned again,
+     * marked stale, until it is time to retry the upstreams.
+     */
+    public Answer getAnswer(String name, int type) {
+        long now = nanoClock.getAsLong();
+        String key = key(name, type);
+        Entry entry = live(key, now);
+        if (entry == null) {
+            Entry stale = entries.get(key);
+            if (stale != null && now - stale.recheckAt < 0) {
+                staleHits.increment();
+                return stale(stale);
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return fresh(entry, now);
+    }
+
+    /**
+     * Whether {@link #getAnswer} would return something for (name, type) right now. Counts
+     * neither a hit nor a miss and drops nothing, so it can be asked before deciding how
+     * urgently to resolve a query.
+     */
+    public boolean hasAnswer(String name, int type) {
+        return isAnswer(entries.get(key(name, type)));
+    }
+
+    /**
+     * As {@link #hasAnswer(String, int)}, for the name and type {@code probe} was last
+     * wrapped around; no key String is built, so a caller that reuses the probe and the
+     * name's buffer (e.g. for a QNAME read off the wire) allocates nothing.
+     */
+    public boolean hasAnswer(Probe probe) {
+        return isAnswer(entries.get(probe));
+    }
+
+    private boolean isAnswer(Entry entry) {
+        if (entry == null || entry.servers != null) {
+            return false;
+        }
+        long now = nanoClock.getAsLong();
+        return now - entry.expiresAt < 0 || now - entry.recheckAt < 0;
+    }
+
+    /**
+     * For when the upstreams cannot be reached: returns an expired answer still inside
+     * the stale window, with every TTL set to {@link #STALE_TTL_SECONDS}, or null. An
+     * answer that someone else refreshed in the meantime is returned as it is.
+     */
+    public Answer getStaleAnswer(String name, int type) {
+        String key = key(name, type);
+        Entry entry = entries.get(key);
+        long now = nanoClock.getAsLong();
+        if (entry == null || entry.servers != null) {
+            return null;
+        }
+        if (now - entry.expiresAt < 0) {
+            return fresh(entry, now);
+        }
+        if (now - entry.expiresAt - staleNanos >= 0) {
+            remove(key, entry);
+            return null;
+        }
+        staleHits.increment();
+        entry.recheckAt = now + STALE_TTL_NANOS;
+        return stale(entry);
+    }
+
+    /**
+     * Caches a positive answer for the lowest TTL in {@code records}.
+     */
+    public void putAnswer(String name, int type, List<DnsResourceRecord> records) {
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException("Use putNegative for empty answers");
+        }
+        long ttl = Long.MAX_VALUE;
+        int size = ENTRY_OVERHEAD + name.length() * 2;
+        for (DnsResourceRecord r : records) {
+            ttl = Math.min(ttl, r.getTtl());
+            size += RECORD_OVERHEAD + r.getName().length() * 2 + r.getRdLength();
+        }
+        put(key(name, type), new Entry(0, new ArrayList<>(records), null, now(), ttl, size));
+    }
+
+    /**
+     * Caches "no such name" ({@code rcode} 3) or "name exists, no data of this type" (0).
+     */
+    public void putNegative(String name, int type, int rcode, long ttlSeconds) {
+        put(key(name, type), new Entry(rcode, Collections.<DnsResourceRecord>emptyList(), null,
+                now(), ttlSeconds, ENTRY_OVERHEAD + name.length() * 2));
+    }
+
+    // --- Delegations ---
+
+    /**
+     * Remembers that {@code servers} are authoritative for {@code zone}.
+     */
+    public void putDelegation(String zone, List<InetSocketAddress> servers, long ttlSeconds) {
+        int size = ENTRY_OVERHEAD + zone.length() * 2 + servers.size() * RECORD_OVERHEAD;
+        put(key(zone, DELEGATION), new Entry(0, Collections.<DnsResourceRecord>emptyList(),
+                new ArrayList<>(servers), now(), ttlSeconds, size));
+    }
+
+    /**
+     * Finds the deepest cached, unexpired zone cut at or above {@code name}, or null.
+     */
+    public Delegation findDelegation(String name) {
+        String n = normalize(name);
+        int start = 0;
+        while (true) {
+            String zone = (start >= n.length()) ? "." : n.substring(start);
+            Entry entry = live(zone + '/' + DELEGATION, nanoClock.getAsLong());
+            if (entry != null) {
+                return new Delegation(zone, entry.servers);
+            }
+            if (start >= n.length()) {
+                return null;
+            }
+            int dot = n.indexOf('.', start);
+            start = (dot < 0) ? n.length() : dot + 1;
+        }
+    }
+
+    // --- Housekeeping ---
+
+    public void clear() {
+        entries.clear();
+        bytes.set(0);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Estimated bytes held by cached entries.
+     */
+    public long byteSize() {
+        return bytes.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Answers handed out by {@link #getStaleAnswer}.
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    // --- Internals ---
+
+    private long now() {
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * The unexpired entry under {@code key}, or null. Expired entries are dropped unless
+     * they are answers still inside the stale window.
+     */
+    private Entry live(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (now - entry.expiresAt >= 0) {
+            if (entry.servers != null || now - entry.expiresAt - staleNanos >= 0) {
+                remove(key, entry);
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    private static Answer fresh(Entry entry, long now) {
+        long elapsed = (now - entry.storedAt) / 1_000_000_000L;
+        List<DnsResourceRecord> records = new ArrayList<>(entry.records.size());
+        for (DnsResourceRecord r : entry.records) {
+            records.add(new DnsResourceRecord(r.getName(), r.getType(), r.getRClass(),
+                    Math.max(0, r.getTtl() - elapsed), r.getRdLength(), r.getRData()));
+        }
+        return new Answer(entry.rcode, records, entry.expiresAt - now, entry.expiresAt - entry.storedAt, false);
+    }
+
+    private static Answer stale(Entry entry) {
+        List<DnsResourceRecord> records = new ArrayList<>(entry.records.size());
+        for (DnsResourceRecord r : entry.records) {
+            records.add(new DnsResourceRecord(r.getName(), r.getType(), r.getRClass(),
+                    STALE_TTL_SECONDS, r.getRdLength(), r.getRData()));
+        }
+        return new Answer(entry.rcode, records, 0, entry.expiresAt - entry.storedAt, true);
+    }
+
+    private void put(String key, Entry entry) {
+        if (entry.expiresAt == entry.storedAt) {
+            return; // TTL 0: usable for this answer only, never cached
+        }
+        entry.key = key;
+        Entry previous = entries.put(key, entry);
+        bytes.addAndGet(entry.bytes - (previous != null ? previous.bytes : 0));
+        if (entries.size() > maxEntries || bytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes.addAndGet(-entry.bytes);
+        }
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return; // Someone else is already making room
+        }
+        try {
+            while (entries.size() > maxEntries || bytes.get() > maxBytes) {
+                long now = nanoClock.getAsLong();
+                Entry victim = null;
+                for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                    if (hand == null || !hand.hasNext()) {
+                        hand = entries.values().iterator();
+                        if (!hand.hasNext()) {
+                            return;
+                        }
+                    }
+                    Entry candidate = hand.next();
+                    if (now - candidate.expiresAt >= 0) {
+                        remove(candidate.key, candidate);
+                    } else if (victim == null || candidate.expiresAt - victim.expiresAt < 0) {
+                        victim = candidate;
+                    }
+                }
+                if (victim != null) {
+                    remove(victim.key, victim);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static String key(String name, int type) {
+        return normalize(name) + '/' + type;
+    }
+
+    /**
+     * Lowercase, fully qualified form used for keys and zone comparisons.
+     */
+    static String normalize(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower : lower + '.';
+    }
+
+    private static final class Entry {
+        final int rcode;
+        final List<DnsResourceRecord> records;
+        final List<InetSocketAddress> servers;
+        final long storedAt;
+        final long expiresAt;
+        final int bytes;
+        String key;
+        volatile long recheckAt; // Served stale as a hit until then; past once expired
+
+        Entry(int rcode, List<DnsResourceRecord> records, List<InetSocketAddress> servers,
+              long storedAt, long ttlSeconds, int bytes) {
+            this.rcode = rcode;
+            this.records = records;
+            this.servers = servers;
+            this.storedAt = storedAt;
+            this.expiresAt = storedAt + Math.min(Math.max(ttlSeconds, 0), MAX_TTL_SECONDS) * 1_000_000_000L;
+            this.bytes = bytes;
+            this.recheckAt = expiresAt;
+        }
+    }
+
+    /**
+     * Stands in for the key of a (name, type) pair in lookups that must not allocate one:
+     * it hashes like the key String and equals it, comparing case-insensitively in place.
+     * Only the map's get() ever sees a probe, and it calls the probe's equals, not the
+     * String's. Not thread-safe; keep one per thread.
+     */
+    public static final class Probe {
+
+        private CharSequence name;
+        private int length; // Of the name without its trailing dot
+        private int type;
+        private int hash;
+
+        /**
+         * Points this probe at {@code name}, which must not change until the lookup is
+         * done, and {@code type} (not negative).
+         */
+        public Probe wrap(CharSequence name, int type) {
+            int end = name.length();
+            this.name = name;
+            this.length = (end > 0 && name.charAt(end - 1) == '.') ? end - 1 : end;
+            this.type = type;
+            int h = 0;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + Character.toLowerCase(name.charAt(i));
+            }
+            h = 31 * (31 * h + '.') + '/';
+            for (int unit = unit(type); unit > 0; unit /= 10) {
+                h = 31 * h + ('0' + type / unit % 10);
+            }
+            this.hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof String)) {
+                return false;
+            }
+            String key = (String) o;
+            int unit = unit(type);
+            int digits = 1;
+            while (unit >= 10) {
+                unit /= 10;
+                digits++;
+            }
+            if (key.length() != length + 2 + digits) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key.charAt(i) != Character.toLowerCase(name.charAt(i))) {
+                    return false;
+                }
+            }
+            if (key.charAt(length) != '.' || key.charAt(length + 1) != '/') {
+                return false;
+            }
+            int i = length + 2;
+            for (unit = unit(type); unit > 0; unit /= 10) {
+                if (key.charAt(i++) != '0' + type / unit % 10) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The place value of the leading digit of {@code value}.
+         */
+        private static int unit(int value) {
+            int unit = 1;
+            while (value / unit >= 10) {
+                unit *= 10;
+            }
+            return unit;
+        }
+    }
+
+    /**
+     * A cached answer. Negative answers have no records.
+     */
+    public static final class Answer {
+        private final int rcode;
+        private final List<DnsResourceRecord> records;
+        private final long remainingNanos;
+        private final long ttlNanos;
+        private final boolean stale;
+
+        Answer(int rcode, List<DnsResourceRecord> records, long remainingNanos, long ttlNanos, boolean stale) {
+            this.rcode = rcode;
+            this.records = records;
+            this.remainingNanos = remainingNanos;
+            this.ttlNanos = ttlNanos;
+            this.stale = stale;
+        }
+
+        public int getRcode() {
+            return rcode;
+        }
+
+        public List<DnsResourceRecord> getRecords() {
+            return records;
+        }
+
+        public boolean isNegative() {
+            return records.isEmpty();
+        }
+
+        /**
+         * An expired answer, served because the upstreams could not be reached.
+         */
+        public boolean isStale() {
+            return stale;
+        }
+
+        /**
+         * Whether less than {@code fraction} of the TTL the answer was cached with is left.
+         */
+        public boolean isNearExpiry(double fraction) {
+            return remainingNanos < fraction * ttlNanos;
+        }
+    }
+
+    /**
+     * A cached zone cut and the servers to ask about names below it.
+     */
+    public static final class Delegation {
+        private final String zone;
+        private final List<InetSocketAddress> servers;
+
+        Delegation(String zone, List<InetSocketAddress> servers) {
+            this.zone = zone;
+            this.servers = servers;
+        }
+
+        public String getZone() {
+            return zone;
+        }
+
+        public List<InetSocketAddress> getServers() {
+            return servers;
+        }
+    }
+}
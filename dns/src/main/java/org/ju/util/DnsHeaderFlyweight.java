@@ -0,0 +1,95 @@
+package org.ju.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free view over the 12-byte DNS header at the start of a buffer.
+ * Reads and writes go straight to the wrapped buffer using absolute offsets, so the
+ * buffer's position and limit are never touched. One instance can be re-wrapped
+ * around every packet a worker handles.
+ */
+public class DnsHeaderFlyweight {
+
+    public static final int HEADER_SIZE = 12;
+
+    private static final int ID_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 2;
+    private static final int QDCOUNT_OFFSET = 4;
+    private static final int ANCOUNT_OFFSET = 6;
+    private static final int NSCOUNT_OFFSET = 8;
+    private static final int ARCOUNT_OFFSET = 10;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Points this view at a new message. The header is assumed to start at index 0.
+     */
+    public DnsHeaderFlyweight wrap(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Message shorter than a DNS header: " + buffer.limit());
+        }
+        this.buffer = buffer;
+        return this;
+    }
+
+    // --- Getters ---
+
+    public int getId() {
+        return getUnsignedShort(ID_OFFSET);
+    }
+
+    public int getFlags() {
+        return getUnsignedShort(FLAGS_OFFSET);
+    }
+
+    public int getQdCount() {
+        return getUnsignedShort(QDCOUNT_OFFSET);
+    }
+
+    public int getAnCount() {
+        return getUnsignedShort(ANCOUNT_OFFSET);
+    }
+
+    public int getNsCount() {
+        return getUnsignedShort(NSCOUNT_OFFSET);
+    }
+
+    public int getArCount() {
+        return getUnsignedShort(ARCOUNT_OFFSET);
+    }
+
+    // --- Setters ---
+
+    public DnsHeaderFlyweight setId(int id) {
+        return putUnsignedShort(ID_OFFSET, id);
+    }
+
+    public DnsHeaderFlyweight setFlags(int flags) {
+        return putUnsignedShort(FLAGS_OFFSET, flags);
+    }
+
+    public DnsHeaderFlyweight setQdCount(int count) {
+        return putUnsignedShort(QDCOUNT_OFFSET, count);
+    }
+
+    public DnsHeaderFlyweight setAnCount(int count) {
+        return putUnsignedShort(ANCOUNT_OFFSET, count);
+    }
+
+    public DnsHeaderFlyweight setNsCount(int count) {
+        return putUnsignedShort(NSCOUNT_OFFSET, count);
+    }
+
+    public DnsHeaderFlyweight setArCount(int count) {
+        return putUnsignedShort(ARCOUNT_OFFSET, count);
+    }
+
+    private int getUnsignedShort(int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private DnsHeaderFlyweight putUnsignedShort(int offset, int value) {
+        buffer.putShort(offset, (short) value);
+        return this;
+    }
+}
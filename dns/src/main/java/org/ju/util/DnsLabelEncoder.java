@@ -6,8 +6,9 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
- * A utility class to handle DNS label encoding (compression is not supported).
+ * A utility class to handle DNS label encoding.
  * This converts between "www.example.com" and the (3)www(7)example(3)com(0) format.
+ * Encoding here never compresses (see {@link DnsNameCompressor}); decoding follows pointers.
  */
 public class DnsLabelEncoder {
 
@@ -51,56 +52,104 @@ public class DnsLabelEncoder {
     }
 
     /**
-     * Decodes a DNS label-encoded name from a ByteBuffer.
-     * NOTE: This is a simple decoder and does NOT support compression pointers (0xC0).
+     * Encodes a domain name straight into {@code out} without any intermediate
+     * arrays or strings. Produces the same bytes as {@link #encode(String)}.
      *
-     * @param buffer The ByteBuffer containing the DNS message.
+     * @param domainName The domain name (e.g., "www.example.com.").
+     * @param out        The buffer to write into, at its current position.
+     */
+    public static void encode(String domainName, ByteBuffer out) {
+        int end = domainName.length();
+        // Remove trailing dot if present (this also turns "." into the empty root name)
+        if (end > 0 && domainName.charAt(end - 1) == '.') {
+            end--;
+        }
+
+        int start = 0;
+        while (start < end) {
+            int dot = domainName.indexOf('.', start);
+            if (dot == -1 || dot > end) {
+                dot = end;
+            }
+            int length = dot - start;
+            if (length > 63) {
+                throw new IllegalArgumentException("Label is too long: " + domainName.substring(start, dot));
+            }
+            out.put((byte) length);
+            for (int i = start; i < dot; i++) {
+                out.put((byte) domainName.charAt(i));
+            }
+            start = dot + 1;
+        }
+        // Write the null terminator (root label)
+        out.put((byte) 0);
+    }
+
+    /**
+     * Decodes a DNS label-encoded name from a ByteBuffer, following compression
+     * pointers (0xC0). Pointers must point strictly backwards, which rules out loops,
+     * and every jump is bounds-checked against the buffer's limit.
+     * Offsets are absolute, so the message must start at index 0 of the buffer.
+     *
+     * @param buffer The ByteBuffer containing the DNS message, positioned at the name.
+     *               On return it is positioned just after the name (or its first pointer).
      * @return The decoded domain name (e.g., "www.example.com.").
      */
     public static String decode(ByteBuffer buffer) {
         StringBuilder sb = new StringBuilder();
+        int limit = buffer.limit();
+        int pos = buffer.position();
+        int resumeAt = -1;   // Where the caller continues once we have jumped
+        int wireLength = 0;
+
         while (true) {
+            if (pos >= limit) {
+                throw new IllegalArgumentException("Name runs past end of message at offset " + pos);
+            }
             // Read the length byte. & 0xFF treats it as unsigned.
-            int length = buffer.get() & 0xFF;
+            int length = buffer.get(pos) & 0xFF;
 
             // Check for the null terminator (end of name)
             if (length == 0) {
+                pos++;
                 break;
             }
 
-            // Check for compression pointer (not supported, but good to detect)
             if ((length & 0xC0) == 0xC0) {
-                // We're not handling compression. We must skip the pointer.
-                // A pointer is 2 bytes, so read the next byte to advance the buffer.
-                buffer.get(); // Skip the second byte of the pointer
-                // Ideally, you'd decode the pointer, but for this simple
-                // server, we'll stop decoding this name here.
-                // In a real client, you'd get the pointer offset and jump.
-                // For our server's *responses*, we never use compression.
-                // For our client's *requests*, we never use compression.
-                // So, we only fail if a remote server sent us a compressed
-                // response, which is outside our client's simple scope.
-                
-                // Let's just break for now.
-                // A full implementation would be:
-                // int offset = ((length & 0x3F) << 8) | (buffer.get() & 0xFF);
-                // long oldPos = buffer.position();
-                // buffer.position(offset);
-                // sb.append(decode(buffer)); // Recursive call
-                // buffer.position(oldPos);
-                // break;
-                
-                // For simplicity, we just stop.
-                throw new UnsupportedOperationException("DNS compression pointers (0xC0) are not supported.");
-
+                // Compression pointer: 14-bit offset to an earlier occurrence of the rest of the name
+                if (pos + 1 >= limit) {
+                    throw new IllegalArgumentException("Truncated compression pointer at offset " + pos);
+                }
+                int target = ((length & 0x3F) << 8) | (buffer.get(pos + 1) & 0xFF);
+                if (target >= pos) {
+                    throw new IllegalArgumentException("Compression pointer at offset " + pos
+                            + " does not point backwards (" + target + ")");
+                }
+                if (resumeAt < 0) {
+                    resumeAt = pos + 2;
+                }
+                pos = target;
+                continue;
+            }
+            if ((length & 0xC0) != 0) {
+                throw new IllegalArgumentException("Unsupported label type 0x" + Integer.toHexString(length));
             }
 
             // Read the label
-            byte[] labelBytes = new byte[length];
-            buffer.get(labelBytes);
-            sb.append(new String(labelBytes, StandardCharsets.US_ASCII));
+            wireLength += length + 1;
+            if (wireLength > 255) {
+                throw new IllegalArgumentException("Name is longer than 255 bytes");
+            }
+            if (pos + 1 + length > limit) {
+                throw new IllegalArgumentException("Label runs past end of message at offset " + pos);
+            }
+            for (int i = 0; i < length; i++) {
+                sb.append((char) (buffer.get(pos + 1 + i) & 0xFF));
+            }
             sb.append(".");
+            pos += 1 + length;
         }
+        buffer.position(resumeAt >= 0 ? resumeAt : pos);
 
         // If the name was empty (just a null terminator), it's the root.
         if (sb.length() == 0) {
@@ -109,4 +158,4 @@ public class DnsLabelEncoder {
 
         return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -2,15 +2,38 @@ package org.ju.util;
 
 import org.ju.model.*;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Object-model codec: turns wire bytes into a {@link DnsMessage} tree and back.
+ * Convenient for tools and tests; the server's hot path uses the allocation-free
+ * {@link DnsHeaderFlyweight} / {@link DnsQuestionFlyweight} / {@link DnsWireWriter} instead.
+ */
 public class DnsMessageCodec {
 
+    public static final int MAX_MESSAGE_SIZE = 65535; // Largest message a TCP frame can carry
+
     private static final int DNS_BUFFER_SIZE = 512;
+    private static final int FLAG_TC = 0x0200;
+
+    private final boolean compress;
+
+    public DnsMessageCodec() {
+        this(true);
+    }
+
+    /**
+     * @param compress Whether {@link #encode} should compress names (RFC 1035 §4.1.4).
+     */
+    public DnsMessageCodec(boolean compress) {
+        this.compress = compress;
+    }
 
     public DnsMessage decode(byte[] data) {
         ByteBuffer buffer = ByteBuffer.wrap(data);
@@ -47,9 +70,13 @@ public class DnsMessageCodec {
             authorities.add(decodeRecord(buffer));
         }
 
-        // We still ignore Additional records (arCount) for now
-        
-        return new DnsMessage(header, questions, answers, authorities);
+        // --- 5. Parse Additionals (glue, EDNS OPT) ---
+        List<DnsResourceRecord> additionals = new ArrayList<>(arCount);
+        for (int i = 0; i < arCount; i++) {
+            additionals.add(decodeRecord(buffer));
+        }
+
+        return new DnsMessage(header, questions, answers, authorities, additionals);
     }
 
     // Helper to decode a single Resource Record (used for both Answers and Authorities)
@@ -59,16 +86,92 @@ public class DnsMessageCodec {
         int rClass = buffer.getShort() & 0xFFFF;
         long ttl = buffer.getInt() & 0xFFFFFFFFL;
         int rdLength = buffer.getShort() & 0xFFFF;
-        byte[] rData = new byte[rdLength];
-        buffer.get(rData);
-        return new DnsResourceRecord(name, type, rClass, ttl, rdLength, rData);
+        byte[] rData;
+        switch (type) {
+            case DnsType.NS:
+            case DnsType.CNAME:
+            case DnsType.PTR:
+                rData = expandNames(buffer, type, rdLength, 0, 1);
+                break;
+            case DnsType.MX:
+                rData = expandNames(buffer, type, rdLength, 2, 1); // Preference, then exchange
+                break;
+            case DnsType.SOA:
+                rData = expandNames(buffer, type, rdLength, 0, 2); // MNAME, RNAME, then the counters
+                break;
+            default:
+                rData = new byte[rdLength];
+                buffer.get(rData);
+        }
+        return new DnsResourceRecord(name, type, rClass, ttl, rData.length, rData);
+    }
+
+    /**
+     * Reads RDATA made of {@code prefix} fixed bytes, {@code names} domain names and then
+     * more fixed bytes, and returns it with the names written out in full. Servers may
+     * compress these names against anything earlier in the message (RFC 1035 §4.1.4), so
+     * the bytes alone mean nothing once the record leaves it. Leaves {@code buffer} just
+     * after the RDATA.
+     */
+    private static byte[] expandNames(ByteBuffer buffer, int type, int rdLength, int prefix, int names) {
+        int start = buffer.position();
+        int end = start + rdLength;
+        if (end > buffer.limit() || rdLength < prefix) {
+            throw new IllegalArgumentException(DnsType.toString(type) + " RDATA runs past end of message at offset "
+                    + start);
+        }
+        ByteBuffer expanded = ByteBuffer.allocate(rdLength + names * 255);
+        expanded.put(buffer.array(), buffer.arrayOffset() + start, prefix);
+        buffer.position(start + prefix);
+        for (int i = 0; i < names; i++) {
+            DnsLabelEncoder.encode(DnsLabelEncoder.decode(buffer), expanded);
+            if (buffer.position() > end) {
+                throw new IllegalArgumentException(DnsType.toString(type) + " RDATA at offset " + start
+                        + " is longer than its RDLENGTH");
+            }
+        }
+        expanded.put(buffer.array(), buffer.arrayOffset() + buffer.position(), end - buffer.position());
+        buffer.position(end);
+        return Arrays.copyOf(expanded.array(), expanded.position());
     }
 
+    /**
+     * Encodes {@code message} in full, up to the 65535 bytes a TCP frame can carry.
+     */
     public byte[] encode(DnsMessage message) {
-        ByteBuffer buffer = ByteBuffer.allocate(DNS_BUFFER_SIZE);
+        return encode(message, MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Encodes {@code message} in at most {@code maxSize} bytes (512 for plain UDP).
+     * If the records do not all fit, the message is cut after the last whole record
+     * and TC is set, so the receiver knows to retry over TCP.
+     */
+    public byte[] encode(DnsMessage message, int maxSize) {
+        if (maxSize < DnsHeaderFlyweight.HEADER_SIZE || maxSize > MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException("maxSize must be between 12 and 65535: " + maxSize);
+        }
+        // Nearly every message fits a classic UDP payload; only go bigger for those that do not
+        if (maxSize > DNS_BUFFER_SIZE) {
+            ByteBuffer small = ByteBuffer.allocate(DNS_BUFFER_SIZE);
+            if (encode(message, small)) {
+                return toArray(small);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(maxSize);
+        encode(message, buffer);
+        return toArray(buffer);
+    }
+
+    /**
+     * @return false if the message had to be truncated to fit {@code buffer}.
+     */
+    private boolean encode(DnsMessage message, ByteBuffer buffer) {
         buffer.order(ByteOrder.BIG_ENDIAN);
 
         DnsHeader header = message.getHeader();
+        // Suffix table for this message only
+        DnsNameCompressor compressor = compress ? new DnsNameCompressor().reset(buffer) : null;
 
         // --- 1. Write Header ---
         buffer.putShort((short) header.getId());
@@ -77,38 +180,86 @@ public class DnsMessageCodec {
         // Use the actual list sizes for counts
         buffer.putShort((short) message.getAnswers().size());      // anCount
         buffer.putShort((short) message.getAuthorities().size());  // nsCount (Updated)
-        buffer.putShort((short) header.getArCount());
+        buffer.putShort((short) message.getAdditionals().size());  // arCount
 
         // --- 2. Write Questions ---
         for (DnsQuestion question : message.getQuestions()) {
-            buffer.put(DnsLabelEncoder.encode(question.getQName()));
+            writeName(buffer, compressor, question.getQName());
             buffer.putShort((short) question.getQType());
             buffer.putShort((short) question.getQClass());
         }
 
         // --- 3. Write Answers ---
-        for (DnsResourceRecord record : message.getAnswers()) {
-            encodeRecord(buffer, record);
+        int answers = encodeRecords(buffer, compressor, message.getAnswers());
+        if (answers < message.getAnswers().size()) {
+            return truncate(buffer, answers, 0);
         }
-        
+
         // --- 4. Write Authorities (NEW) ---
-        for (DnsResourceRecord record : message.getAuthorities()) {
-            encodeRecord(buffer, record);
+        int authorities = encodeRecords(buffer, compressor, message.getAuthorities());
+        if (authorities < message.getAuthorities().size()) {
+            return truncate(buffer, answers, authorities);
+        }
+
+        // --- 5. Write Additionals ---
+        // Only extra data: whatever does not fit is left out without setting TC (RFC 2181 §9)
+        int additionals = encodeRecords(buffer, compressor, message.getAdditionals());
+        if (additionals < message.getAdditionals().size()) {
+            buffer.putShort(10, (short) additionals);
+            buffer.flip();
+            return false;
         }
 
         buffer.flip();
+        return true;
+    }
+
+    /**
+     * Writes as many of {@code records} as fit, rolling back a partly written one.
+     */
+    private int encodeRecords(ByteBuffer buffer, DnsNameCompressor compressor, List<DnsResourceRecord> records) {
+        for (int i = 0; i < records.size(); i++) {
+            int start = buffer.position();
+            try {
+                encodeRecord(buffer, compressor, records.get(i));
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                return i;
+            }
+        }
+        return records.size();
+    }
+
+    private static boolean truncate(ByteBuffer buffer, int answers, int authorities) {
+        buffer.putShort(2, (short) (buffer.getShort(2) | FLAG_TC));
+        buffer.putShort(6, (short) answers);
+        buffer.putShort(8, (short) authorities);
+        buffer.putShort(10, (short) 0);
+        buffer.flip();
+        return false;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
         byte[] result = new byte[buffer.remaining()];
         buffer.get(result);
         return result;
     }
 
     // Helper to write a record
-    private void encodeRecord(ByteBuffer buffer, DnsResourceRecord record) {
-        buffer.put(DnsLabelEncoder.encode(record.getName()));
+    private void encodeRecord(ByteBuffer buffer, DnsNameCompressor compressor, DnsResourceRecord record) {
+        writeName(buffer, compressor, record.getName());
         buffer.putShort((short) record.getType());
         buffer.putShort((short) record.getRClass());
         buffer.putInt((int) record.getTtl());
         buffer.putShort((short) record.getRdLength());
         buffer.put(record.getRData());
     }
-}
\ No newline at end of file
+
+    private void writeName(ByteBuffer buffer, DnsNameCompressor compressor, String name) {
+        if (compressor != null) {
+            compressor.writeName(name);
+        } else {
+            DnsLabelEncoder.encode(name, buffer);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.ju.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lazy, allocation-free view of a whole received message.
+ *
+ * wrap() reads nothing but the header. Each section is located the first time something
+ * in it (or after it) is asked for, by skipping the records in front of it, and its
+ * offset is remembered until the next wrap(). A server that only looks at the first
+ * question therefore never walks the rest of the packet, and nothing is copied out of
+ * the buffer. Use {@link DnsMessageCodec#decode} when the full object form is needed.
+ *
+ * Sections are numbered as in {@link DnsWireWriter}.
+ */
+public class DnsMessageView {
+
+    private final DnsHeaderFlyweight header = new DnsHeaderFlyweight();
+    private final DnsQuestionFlyweight question = new DnsQuestionFlyweight();
+    private final DnsQuestionFlyweight skipQuestion = new DnsQuestionFlyweight();
+    private final DnsRecordFlyweight skip = new DnsRecordFlyweight();
+    private final DnsOptFlyweight opt = new DnsOptFlyweight();
+    private final int[] sectionOffsets = new int[5]; // QUESTION..ADDITIONAL, then the end; 0 = not located yet
+    private ByteBuffer buffer;
+    private boolean questionParsed;
+    private boolean optParsed;
+
+    /**
+     * Points this view at the message in {@code buffer} (from index 0 to its limit).
+     */
+    public DnsMessageView wrap(ByteBuffer buffer) {
+        header.wrap(buffer);
+        this.buffer = buffer;
+        sectionOffsets[DnsWireWriter.QUESTION] = DnsHeaderFlyweight.HEADER_SIZE;
+        for (int i = DnsWireWriter.ANSWER; i < sectionOffsets.length; i++) {
+            sectionOffsets[i] = 0;
+        }
+        questionParsed = false;
+        optParsed = false;
+        return this;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public DnsHeaderFlyweight getHeader() {
+        return header;
+    }
+
+    /**
+     * The first question, parsed on first use.
+     *
+     * @throws IllegalArgumentException If the message has no question or it is malformed.
+     */
+    public DnsQuestionFlyweight getQuestion() {
+        if (!questionParsed) {
+            if (header.getQdCount() < 1) {
+                throw new IllegalArgumentException("Message has no question");
+            }
+            question.wrap(buffer, DnsHeaderFlyweight.HEADER_SIZE);
+            questionParsed = true;
+        }
+        return question;
+    }
+
+    /**
+     * The message's OPT record, looked for in the additional section on first use.
+     */
+    public DnsOptFlyweight getOpt() {
+        if (!optParsed) {
+            // Skips answers and authorities itself; only the question needs locating
+            opt.wrap(buffer, header, getSectionOffset(DnsWireWriter.ANSWER));
+            optParsed = true;
+        }
+        return opt;
+    }
+
+    /**
+     * Offset of the first entry of {@code section}, or of the end of the message for
+     * {@code ADDITIONAL + 1}.
+     */
+    public int getSectionOffset(int section) {
+        if (section < DnsWireWriter.QUESTION || section > DnsWireWriter.ADDITIONAL + 1) {
+            throw new IllegalArgumentException("No such section: " + section);
+        }
+        int known = section;
+        while (sectionOffsets[known] == 0) {
+            known--;
+        }
+        // Walk forward from the last section we know, remembering each one we pass
+        for (int s = known; s < section; s++) {
+            int pos = sectionOffsets[s];
+            int count = getCount(s);
+            for (int i = 0; i < count; i++) {
+                if (s == DnsWireWriter.QUESTION) {
+                    pos = (i == 0 ? getQuestion() : skipQuestion.wrap(buffer, pos)).getEndOffset();
+                } else {
+                    pos = skip.wrap(buffer, pos).getEndOffset();
+                }
+            }
+            sectionOffsets[s + 1] = pos;
+        }
+        return sectionOffsets[section];
+    }
+
+    /**
+     * Points {@code into} at record {@code index} of {@code section} (answer, authority or
+     * additional). Costs a walk over the records before it in that section.
+     */
+    public DnsRecordFlyweight getRecord(int section, int index, DnsRecordFlyweight into) {
+        if (section < DnsWireWriter.ANSWER || section > DnsWireWriter.ADDITIONAL) {
+            throw new IllegalArgumentException("Not a record section: " + section);
+        }
+        if (index < 0 || index >= getCount(section)) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + getCount(section));
+        }
+        int pos = getSectionOffset(section);
+        for (int i = 0; i < index; i++) {
+            pos = skip.wrap(buffer, pos).getEndOffset();
+        }
+        return into.wrap(buffer, pos);
+    }
+
+    public int getCount(int section) {
+        switch (section) {
+            case DnsWireWriter.QUESTION: return header.getQdCount();
+            case DnsWireWriter.ANSWER: return header.getAnCount();
+            case DnsWireWriter.AUTHORITY: return header.getNsCount();
+            case DnsWireWriter.ADDITIONAL: return header.getArCount();
+            default: throw new IllegalArgumentException("No such section: " + section);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.ju.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RFC 1035 §4.1.4 name compression for a single message being written.
+ *
+ * The suffix table is just the buffer offsets of every label written so far. To write
+ * a new name we look for the longest suffix of it that already appears in the message
+ * and replace that suffix with a 2-byte pointer. Each entry keeps a hash of its
+ * suffix, so only candidates with the same hash are compared against the bytes already
+ * in the buffer; a full table costs a scan of ints rather than of names, which matters
+ * for the thousands of distinct names in a zone transfer message. Nothing is allocated
+ * per name.
+ */
+public class DnsNameCompressor {
+
+    // Pointers only have 14 bits of offset
+    private static final int MAX_POINTER_OFFSET = 0x3FFF;
+    private static final int MAX_ENTRIES = 128;
+    private static final int MAX_HOPS = 64;
+
+    private final int[] offsets = new int[MAX_ENTRIES];
+    private final int[] hashes = new int[MAX_ENTRIES]; // Of the suffix starting at offsets[i]
+    private int size;
+    private ByteBuffer buffer;
+
+    /**
+     * Clears the suffix table and starts tracking names written into {@code buffer}.
+     * Offsets are absolute, so the message must start at index 0.
+     */
+    public DnsNameCompressor reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.size = 0;
+        return this;
+    }
+
+    /**
+     * Writes {@code domainName} at the buffer's position, compressing against earlier names.
+     */
+    public void writeName(String domainName) {
+        int end = domainName.length();
+        // Remove trailing dot if present (this also turns "." into the empty root name)
+        if (end > 0 && domainName.charAt(end - 1) == '.') {
+            end--;
+        }
+
+        int start = 0;
+        while (start < end) {
+            int match = find(domainName, start, end);
+            if (match >= 0) {
+                buffer.putShort((short) (0xC000 | match));
+                return;
+            }
+
+            int dot = domainName.indexOf('.', start);
+            if (dot == -1 || dot > end) {
+                dot = end;
+            }
+            int length = dot - start;
+            if (length > 63) {
+                throw new IllegalArgumentException("Label is too long: " + domainName.substring(start, dot));
+            }
+            remember(buffer.position(), hash(domainName, start, end));
+            buffer.put((byte) length);
+            for (int i = start; i < dot; i++) {
+                buffer.put((byte) domainName.charAt(i));
+            }
+            start = dot + 1;
+        }
+        buffer.put((byte) 0);
+    }
+
+    /**
+     * Adds the labels of a name that was copied into the buffer by other means
+     * (e.g. a question echoed verbatim) so later names can point at it.
+     */
+    public void registerName(int offset) {
+        int pos = offset;
+        int length;
+        while ((length = buffer.get(pos) & 0xFF) != 0 && (length & 0xC0) == 0) {
+            if (size < MAX_ENTRIES && pos <= MAX_POINTER_OFFSET) {
+                remember(pos, hash(pos));
+            }
+            pos += 1 + length;
+        }
+    }
+
+    private void remember(int offset, int hash) {
+        if (size < MAX_ENTRIES && offset <= MAX_POINTER_OFFSET) {
+            offsets[size] = offset;
+            hashes[size++] = hash;
+        }
+    }
+
+    private int find(String name, int start, int end) {
+        int hash = hash(name, start, end);
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] == hash && matches(offsets[i], name, start, end)) {
+                return offsets[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Case-insensitive hash of name[start, end), dots included.
+     */
+    private static int hash(String name, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + toLower((byte) name.charAt(i));
+        }
+        return h;
+    }
+
+    /**
+     * The same hash for the wire name at {@code pos}, following pointers.
+     */
+    private int hash(int pos) {
+        int h = 0;
+        boolean first = true;
+        int hops = 0;
+        while (true) {
+            int length = buffer.get(pos) & 0xFF;
+            if ((length & 0xC0) == 0xC0) {
+                if (++hops > MAX_HOPS) {
+                    return h;
+                }
+                pos = ((length & 0x3F) << 8) | (buffer.get(pos + 1) & 0xFF);
+                continue;
+            }
+            if (length == 0) {
+                return h;
+            }
+            if (!first) {
+                h = 31 * h + '.';
+            }
+            first = false;
+            for (int k = 1; k <= length; k++) {
+                h = 31 * h + toLower(buffer.get(pos + k));
+            }
+            pos += 1 + length;
+        }
+    }
+
+    /**
+     * Does the wire name at {@code pos} equal name[start, end)? Labels are compared
+     * ASCII case-insensitively, as DNS names are.
+     */
+    private boolean matches(int pos, String name, int start, int end) {
+        int i = start;
+        int hops = 0;
+        while (true) {
+            int length = buffer.get(pos) & 0xFF;
+            if ((length & 0xC0) == 0xC0) {
+                if (++hops > MAX_HOPS) {
+                    return false;
+                }
+                pos = ((length & 0x3F) << 8) | (buffer.get(pos + 1) & 0xFF);
+                continue;
+            }
+            if (length == 0) {
+                return i >= end;
+            }
+            if (i >= end) {
+                return false;
+            }
+            int dot = name.indexOf('.', i);
+            if (dot == -1 || dot > end) {
+                dot = end;
+            }
+            if (dot - i != length) {
+                return false;
+            }
+            for (int k = 0; k < length; k++) {
+                if (toLower(buffer.get(pos + 1 + k)) != toLower((byte) name.charAt(i + k))) {
+                    return false;
+                }
+            }
+            pos += 1 + length;
+            i = dot + 1;
+        }
+    }
+
+    private static int toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? b + 32 : b;
+    }
+}
@@ -0,0 +1,68 @@
+package org.ju.util;
+
+import org.ju.model.DnsType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free view of the EDNS(0) OPT record in a received message, if it has one.
+ * wrap() skips the answer and authority records (normally none in a query) and scans
+ * the additional section; the fields are copied out, so the view stays valid after the
+ * buffer is reused.
+ */
+public class DnsOptFlyweight {
+
+    private final DnsRecordFlyweight record = new DnsRecordFlyweight();
+    private boolean present;
+    private int udpPayloadSize;
+    private int version;
+    private boolean dnssecOk;
+
+    /**
+     * @param offset First byte after the question section.
+     */
+    public DnsOptFlyweight wrap(ByteBuffer buffer, DnsHeaderFlyweight header, int offset) {
+        present = false;
+        udpPayloadSize = Edns.MIN_PAYLOAD;
+        version = 0;
+        dnssecOk = false;
+
+        int before = header.getAnCount() + header.getNsCount();
+        int total = before + header.getArCount();
+        int pos = offset;
+        for (int i = 0; i < total; i++) {
+            record.wrap(buffer, pos);
+            if (i >= before && record.getType() == DnsType.OPT) {
+                present = true;
+                udpPayloadSize = Math.max(Edns.MIN_PAYLOAD, record.getRClass());
+                long ttl = record.getTtl();
+                version = (int) (ttl >>> 16) & 0xFF;
+                dnssecOk = (ttl & 0x8000) != 0;
+                break;
+            }
+            pos = record.getEndOffset();
+        }
+        return this;
+    }
+
+    // --- Getters ---
+
+    public boolean isPresent() {
+        return present;
+    }
+
+    /**
+     * What the sender can receive over UDP: its advertised size, or 512 without OPT.
+     */
+    public int getUdpPayloadSize() {
+        return udpPayloadSize;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isDnssecOk() {
+        return dnssecOk;
+    }
+}
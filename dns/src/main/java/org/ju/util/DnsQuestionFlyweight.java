@@ -0,0 +1,149 @@
+package org.ju.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free view over one entry of the question section.
+ * wrap() walks the QNAME labels once to find where the fixed fields start; after that
+ * every accessor is a plain absolute read from the wrapped buffer.
+ */
+public class DnsQuestionFlyweight {
+
+    private ByteBuffer buffer;
+    private int nameOffset;
+    private int nameLength;   // Bytes of the encoded QNAME, including the root label
+
+    /**
+     * Points this view at the question that starts at {@code offset}.
+     */
+    public DnsQuestionFlyweight wrap(ByteBuffer buffer, int offset) {
+        int limit = buffer.limit();
+        int pos = offset;
+        while (true) {
+            if (pos >= limit) {
+                throw new IllegalArgumentException("QNAME runs past end of message");
+            }
+            int length = buffer.get(pos) & 0xFF;
+            if (length == 0) {
+                pos++;
+                break;
+            }
+            if ((length & 0xC0) != 0) {
+                throw new IllegalArgumentException("Compressed or extended label in QNAME at offset " + pos);
+            }
+            pos += 1 + length;
+        }
+        if (pos + 4 > limit) {
+            throw new IllegalArgumentException("Question runs past end of message");
+        }
+        this.buffer = buffer;
+        this.nameOffset = offset;
+        this.nameLength = pos - offset;
+        return this;
+    }
+
+    // --- Getters ---
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getNameOffset() {
+        return nameOffset;
+    }
+
+    public int getNameLength() {
+        return nameLength;
+    }
+
+    public int getQType() {
+        return buffer.getShort(nameOffset + nameLength) & 0xFFFF;
+    }
+
+    public int getQClass() {
+        return buffer.getShort(nameOffset + nameLength + 2) & 0xFFFF;
+    }
+
+    /**
+     * Offset of the first byte after this question (the next section or question).
+     */
+    public int getEndOffset() {
+        return nameOffset + nameLength + 4;
+    }
+
+    /**
+     * Whether the QNAME is {@code name} (presentation form, trailing dot optional),
+     * compared ASCII case-insensitively without building a String.
+     */
+    public boolean nameEquals(CharSequence name) {
+        return nameEquals(nameOffset, name);
+    }
+
+    /**
+     * Whether the QNAME is {@code name} or lies below it, compared as
+     * {@link #nameEquals} does.
+     */
+    public boolean isAtOrBelow(CharSequence name) {
+        int pos = nameOffset;
+        while (!nameEquals(pos, name)) {
+            int length = buffer.get(pos) & 0xFF;
+            if (length == 0) {
+                return false;
+            }
+            pos += 1 + length;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the labels from {@code pos} to the end of the QNAME spell {@code name}.
+     */
+    private boolean nameEquals(int pos, CharSequence name) {
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '.') {
+            end--;
+        }
+        int i = 0;
+        int length;
+        while ((length = buffer.get(pos++) & 0xFF) != 0) {
+            if (i > 0) {
+                if (i >= end || name.charAt(i) != '.') {
+                    return false;
+                }
+                i++;
+            }
+            if (i + length > end) {
+                return false;
+            }
+            for (int k = 0; k < length; k++) {
+                if (toLower(buffer.get(pos++) & 0xFF) != toLower(name.charAt(i++))) {
+                    return false;
+                }
+            }
+        }
+        return i == end;
+    }
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + 32 : c;
+    }
+
+    /**
+     * Appends the QNAME in presentation form ("www.example.com.", or "." for the root),
+     * matching what {@link DnsLabelEncoder#decode} returns.
+     */
+    public StringBuilder appendName(StringBuilder sb) {
+        int pos = nameOffset;
+        int length;
+        while ((length = buffer.get(pos++) & 0xFF) != 0) {
+            for (int i = 0; i < length; i++) {
+                sb.append((char) (buffer.get(pos++) & 0xFF));
+            }
+            sb.append('.');
+        }
+        if (nameLength == 1) {
+            sb.append('.');
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,82 @@
+package org.ju.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free view over one resource record in the answer, authority or
+ * additional section. The owner name is left in place; use {@link #getRDataOffset()}
+ * and {@link #getRdLength()} to read the rdata directly from the buffer.
+ */
+public class DnsRecordFlyweight {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int fixedOffset;  // Offset of TYPE, just past the owner name
+
+    /**
+     * Points this view at the record that starts at {@code offset}.
+     */
+    public DnsRecordFlyweight wrap(ByteBuffer buffer, int offset) {
+        int limit = buffer.limit();
+        int pos = offset;
+        while (true) {
+            if (pos >= limit) {
+                throw new IllegalArgumentException("Owner name runs past end of message");
+            }
+            int length = buffer.get(pos) & 0xFF;
+            if (length == 0) {
+                pos++;
+                break;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                // A pointer always ends the name
+                pos += 2;
+                break;
+            }
+            pos += 1 + length;
+        }
+        if (pos + 10 > limit) {
+            throw new IllegalArgumentException("Record header runs past end of message");
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.fixedOffset = pos;
+        if (getEndOffset() > limit) {
+            throw new IllegalArgumentException("RDATA runs past end of message");
+        }
+        return this;
+    }
+
+    // --- Getters ---
+
+    public int getNameOffset() {
+        return offset;
+    }
+
+    public int getType() {
+        return buffer.getShort(fixedOffset) & 0xFFFF;
+    }
+
+    public int getRClass() {
+        return buffer.getShort(fixedOffset + 2) & 0xFFFF;
+    }
+
+    public long getTtl() {
+        return buffer.getInt(fixedOffset + 4) & 0xFFFFFFFFL;
+    }
+
+    public int getRdLength() {
+        return buffer.getShort(fixedOffset + 8) & 0xFFFF;
+    }
+
+    public int getRDataOffset() {
+        return fixedOffset + 10;
+    }
+
+    /**
+     * Offset of the first byte after this record.
+     */
+    public int getEndOffset() {
+        return getRDataOffset() + getRdLength();
+    }
+}
@@ -0,0 +1,159 @@
+package org.ju.util;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a DNS message section by section straight into a caller-supplied buffer.
+ * The section counts in the header are patched in as records are added, so no
+ * intermediate lists or byte arrays are needed. Owner names are compressed against
+ * names already in the message. Sections must be written in wire order: questions,
+ * answers, authorities, additionals.
+ *
+ * A record that does not fit before the buffer's limit is rolled back and the message
+ * is truncated there: every later record is skipped, and TC is set unless only
+ * additional data was lost (RFC 2181 §9).
+ */
+public class DnsWireWriter {
+
+    public static final int QUESTION = 0;
+    public static final int ANSWER = 1;
+    public static final int AUTHORITY = 2;
+    public static final int ADDITIONAL = 3;
+
+    private static final int FLAG_TC = 0x0200;
+
+    private final DnsHeaderFlyweight header = new DnsHeaderFlyweight();
+    private final DnsNameCompressor compressor = new DnsNameCompressor();
+    private final int[] counts = new int[4];
+    private ByteBuffer buffer;
+    private int section;
+    private boolean truncated;
+
+    /**
+     * Starts a new message at index 0 of {@code buffer}, writing an empty header.
+     */
+    public DnsWireWriter wrap(ByteBuffer buffer, int id, int flags) {
+        return wrap(buffer, id, flags, buffer.capacity());
+    }
+
+    /**
+     * As {@link #wrap(ByteBuffer, int, int)}, but truncating at {@code maxSize} bytes.
+     */
+    public DnsWireWriter wrap(ByteBuffer buffer, int id, int flags, int maxSize) {
+        buffer.clear();
+        buffer.limit(maxSize);
+        for (int i = 0; i < DnsHeaderFlyweight.HEADER_SIZE; i++) {
+            buffer.put((byte) 0);
+        }
+        this.buffer = buffer;
+        this.section = QUESTION;
+        this.truncated = false;
+        counts[QUESTION] = counts[ANSWER] = counts[AUTHORITY] = counts[ADDITIONAL] = 0;
+        header.wrap(buffer).setId(id).setFlags(flags);
+        compressor.reset(buffer);
+        return this;
+    }
+
+    public DnsHeaderFlyweight getHeader() {
+        return header;
+    }
+
+    /**
+     * Copies a question verbatim from another message, e.g. to echo it in a response.
+     */
+    public DnsWireWriter question(DnsQuestionFlyweight question) {
+        enterSection(QUESTION);
+        ByteBuffer src = question.getBuffer();
+        int end = question.getEndOffset();
+        int nameOffset = buffer.position();
+        for (int i = question.getNameOffset(); i < end; i++) {
+            buffer.put(src.get(i));
+        }
+        compressor.registerName(nameOffset);
+        header.setQdCount(++counts[QUESTION]);
+        return this;
+    }
+
+    public DnsWireWriter question(String qName, int qType, int qClass) {
+        enterSection(QUESTION);
+        compressor.writeName(qName);
+        buffer.putShort((short) qType);
+        buffer.putShort((short) qClass);
+        header.setQdCount(++counts[QUESTION]);
+        return this;
+    }
+
+    public DnsWireWriter record(int section, DnsResourceRecord record) {
+        return record(section, record, -1);
+    }
+
+    /**
+     * As {@link #record(int, DnsResourceRecord)}, but with the owner written as a pointer
+     * to the name already at {@code ownerOffset} in this message, e.g. the question's at
+     * 12, for a record synthesized from a wildcard. A negative offset writes the record's
+     * own name.
+     */
+    public DnsWireWriter record(int section, DnsResourceRecord record, int ownerOffset) {
+        if (section < ANSWER || section > ADDITIONAL) {
+            throw new IllegalArgumentException("Not a record section: " + section);
+        }
+        enterSection(section);
+        if (truncated) {
+            return this;
+        }
+        int start = buffer.position();
+        try {
+            if (ownerOffset >= 0) {
+                buffer.putShort((short) (0xC000 | ownerOffset));
+            } else {
+                compressor.writeName(record.getName());
+            }
+            buffer.putShort((short) record.getType());
+            buffer.putShort((short) record.getRClass());
+            buffer.putInt((int) record.getTtl());
+            buffer.putShort((short) record.getRdLength());
+            buffer.put(record.getRData());
+        } catch (BufferOverflowException e) {
+            // Nothing is written after this point, so names the compressor registered
+            // past 'start' are never pointed at
+            buffer.position(start);
+            truncated = true;
+            if (section != ADDITIONAL) {
+                header.setFlags(header.getFlags() | FLAG_TC);
+            }
+            return this;
+        }
+        counts[section]++;
+        switch (section) {
+            case ANSWER: header.setAnCount(counts[ANSWER]); break;
+            case AUTHORITY: header.setNsCount(counts[AUTHORITY]); break;
+            default: header.setArCount(counts[ADDITIONAL]); break;
+        }
+        return this;
+    }
+
+    /**
+     * Whether a record has been dropped because it did not fit.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Flips the buffer so it is ready to be sent.
+     */
+    public ByteBuffer finish() {
+        buffer.flip();
+        return buffer;
+    }
+
+    private void enterSection(int next) {
+        if (next < section) {
+            throw new IllegalStateException("Sections must be written in order");
+        }
+        section = next;
+    }
+}
@@ -0,0 +1,56 @@
+package org.ju.util;
+
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * EDNS(0) (RFC 6891). A client puts an OPT pseudo-record in the additional section to
+ * say how big a UDP response it can take; without one, responses stay within 512 bytes.
+ *
+ * OPT wire layout: root owner name, TYPE 41, CLASS = UDP payload size, TTL = extended
+ * RCODE (8 bits) | version (8 bits) | DO bit and zeros (16 bits), then RDLENGTH and options.
+ */
+public final class Edns {
+
+    public static final int VERSION = 0;
+    public static final int OPT_SIZE = 11;          // An OPT record without options
+    public static final int MIN_PAYLOAD = 512;      // Advertised sizes below this mean 512
+    public static final int DEFAULT_PAYLOAD = 1232; // Fits a 1280-byte IPv6 MTU without fragmenting
+    public static final int RCODE_BADVERS = 16;     // Extended RCODE: unsupported EDNS version
+
+    private Edns() {
+    }
+
+    /**
+     * An OPT record advertising {@code udpPayloadSize}, for the object model.
+     */
+    public static DnsResourceRecord opt(int udpPayloadSize) {
+        return new DnsResourceRecord(".", DnsType.OPT, udpPayloadSize, 0, 0, new byte[0]);
+    }
+
+    /**
+     * The UDP payload size a received OPT record advertises, never below 512.
+     */
+    public static int payloadSize(DnsResourceRecord opt) {
+        return Math.max(MIN_PAYLOAD, opt.getRClass());
+    }
+
+    /**
+     * Appends an OPT record to a finished message and bumps ARCOUNT. The buffer
+     * must hold {@link #OPT_SIZE} bytes past its limit; the limit moves past the OPT.
+     *
+     * @param extendedRcode Upper 8 bits of the 12-bit RCODE (the header holds the rest).
+     */
+    public static void append(ByteBuffer message, int udpPayloadSize, int extendedRcode) {
+        int end = message.limit();
+        message.limit(end + OPT_SIZE);
+        message.put(end, (byte) 0);                          // Root owner name
+        message.putShort(end + 1, (short) DnsType.OPT);
+        message.putShort(end + 3, (short) udpPayloadSize);   // CLASS carries the payload size
+        message.putInt(end + 5, extendedRcode << 24);        // Version 0, no flags
+        message.putShort(end + 9, (short) 0);                // No options
+        message.putShort(10, (short) (message.getShort(10) + 1));
+    }
+}
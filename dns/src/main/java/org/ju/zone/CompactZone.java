@@ -0,0 +1,168 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Zone data held in a handful of primitive arrays instead of one object graph per record.
+ *
+ * Owner names are interned once in a {@link ZoneTrie} used purely as a name table: each
+ * name is a dense integer id, and its labels are shared with every name below it. Every
+ * record is four ints (type and class, TTL, rdata offset, next record of the same owner)
+ * and its rdata lives in one shared byte arena behind a 2-byte length. An owner's RRset
+ * is a chain of record indexes starting at {@code heads[id]}, kept in insertion order.
+ *
+ * So a record costs 18 bytes plus its rdata, against ~200 for a {@link DnsResourceRecord}
+ * with its own name String, rdata array and list slot.
+ * {@link DnsResourceRecord} objects are only created at the API boundary, for the RRset
+ * a lookup returns; their owner names come back lowercased.
+ *
+ * Like {@link ZoneTrie}, writes are not thread-safe; once built and safely published
+ * the zone can be read from any number of threads.
+ */
+public class CompactZone implements ZoneIndex {
+
+    // records[r * STRIDE + ...]
+    private static final int STRIDE = 4;
+    private static final int TYPE_CLASS = 0; // type << 16 | class
+    private static final int TTL = 1;        // Unsigned 32 bits
+    private static final int RDATA = 2;      // Offset of the 2-byte length in rdata[]
+    private static final int NEXT = 3;       // Next record of the same owner, or -1
+
+    private final ZoneTrie names;
+
+    // --- Per-name data, indexed by name id ---
+    private int[] heads = new int[16]; // First record + 1, 0 = no records
+    private int[] tails = new int[16]; // Last record, for appending in order
+
+    private int[] records;
+    private int recordCount;
+
+    private byte[] rdata;
+    private int rdataSize;
+
+    private int nameCount;
+
+    public CompactZone() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedNames Sizing hint to avoid regrowing while loading large zones.
+     */
+    public CompactZone(int expectedNames) {
+        int names = Math.max(16, expectedNames);
+        this.names = new ZoneTrie(names);
+        this.records = new int[names * STRIDE];
+        this.rdata = new byte[names * 8];
+    }
+
+    /**
+     * Appends {@code record} to its owner's RRset. Only its fields are kept, not the object.
+     */
+    public void add(DnsResourceRecord record) {
+        int node = names.intern(record.getName());
+        byte[] data = record.getRData();
+        if (data.length > 0xFFFF) {
+            throw new IllegalArgumentException("RDATA is too long for " + record.getName());
+        }
+        if (node >= heads.length) {
+            int capacity = Math.max(heads.length * 2, node + 1);
+            heads = Arrays.copyOf(heads, capacity);
+            tails = Arrays.copyOf(tails, capacity);
+        }
+        if ((recordCount + 1) * STRIDE > records.length) {
+            records = Arrays.copyOf(records, Math.max(records.length * 2, 16 * STRIDE));
+        }
+        if (rdataSize + 2 + data.length > rdata.length) {
+            rdata = Arrays.copyOf(rdata, Math.max(rdata.length * 2, rdataSize + 2 + data.length));
+        }
+
+        int r = recordCount++;
+        int base = r * STRIDE;
+        records[base + TYPE_CLASS] = record.getType() << 16 | (record.getRClass() & 0xFFFF);
+        records[base + TTL] = (int) record.getTtl();
+        records[base + RDATA] = rdataSize;
+        records[base + NEXT] = -1;
+        rdata[rdataSize++] = (byte) (data.length >>> 8);
+        rdata[rdataSize++] = (byte) data.length;
+        System.arraycopy(data, 0, rdata, rdataSize, data.length);
+        rdataSize += data.length;
+
+        if (heads[node] == 0) {
+            heads[node] = r + 1;
+            nameCount++;
+        } else {
+            records[tails[node] * STRIDE + NEXT] = r;
+        }
+        tails[node] = r;
+    }
+
+    /**
+     * Records owned by exactly {@code name}, or null.
+     */
+    public List<DnsResourceRecord> get(CharSequence name) {
+        int node = names.findNode(name);
+        return (node >= 0 && owns(node)) ? materialize(node) : null;
+    }
+
+    @Override
+    public List<DnsResourceRecord> findClosestMatch(CharSequence name) {
+        int node = names.closestNode(name, heads);
+        return owns(node) ? materialize(node) : null;
+    }
+
+    @Override
+    public List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset) {
+        int node = names.closestNode(buffer, nameOffset, heads);
+        return owns(node) ? materialize(node) : null;
+    }
+
+    @Override
+    public int size() {
+        return nameCount;
+    }
+
+    public int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Releases the spare capacity left by growing. Call once loading is done; adding
+     * more records afterwards still works.
+     */
+    public CompactZone trimToSize() {
+        names.trimToSize();
+        int nodes = names.nodeCount();
+        heads = Arrays.copyOf(heads, Math.min(heads.length, nodes));
+        tails = Arrays.copyOf(tails, heads.length);
+        records = Arrays.copyOf(records, recordCount * STRIDE);
+        rdata = Arrays.copyOf(rdata, rdataSize);
+        return this;
+    }
+
+    // --- Internals ---
+
+    private boolean owns(int node) {
+        return node < heads.length && heads[node] != 0;
+    }
+
+    private List<DnsResourceRecord> materialize(int node) {
+        String owner = names.nameOf(node);
+        List<DnsResourceRecord> rrset = new ArrayList<>(2);
+        for (int r = heads[node] - 1; r >= 0; r = records[r * STRIDE + NEXT]) {
+            int base = r * STRIDE;
+            int typeClass = records[base + TYPE_CLASS];
+            int offset = records[base + RDATA];
+            int length = (rdata[offset] & 0xFF) << 8 | (rdata[offset + 1] & 0xFF);
+            byte[] data = Arrays.copyOfRange(rdata, offset + 2, offset + 2 + length);
+            rrset.add(new DnsResourceRecord(owner, typeClass >>> 16, typeClass & 0xFFFF,
+                    records[base + TTL] & 0xFFFFFFFFL, length, data));
+        }
+        return rrset;
+    }
+}
@@ -0,0 +1,107 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One serial of a zone copied from a primary, kept up to date by IXFR.
+ *
+ * Like any published index it never changes: {@link #apply} edits a copy of the trie
+ * and returns it as a new SecondaryZone, for the caller to publish in a single snapshot
+ * swap. Queries take no lock and never wait for an update, a run of diffs that fails
+ * part way leaves nothing half applied, and every update is a new snapshot version, so
+ * the response cache moves on with it. The copy shares the trie's pages and copies only
+ * those the diff writes to, and only the names the diff touches, the chains and glue
+ * that reach them and the wildcards above them are relinked: an update costs about the
+ * size of the diff, not of the zone.
+ */
+public final class SecondaryZone implements ZoneIndex {
+
+    private final String apex;
+    private final ZoneTrie trie;
+    private final DnsResourceRecord soa;
+    private final long serial;
+
+    /**
+     * @param trie The zone as a full transfer delivered it, already linked. The
+     *             secondary owns it from now on and must be the only one to see it.
+     */
+    public SecondaryZone(String apex, ZoneTrie trie) {
+        DnsResourceRecord soa = Soa.find(trie.get(apex));
+        if (soa == null) {
+            throw new IllegalArgumentException("No SOA record at " + apex);
+        }
+        this.apex = apex;
+        this.trie = trie;
+        this.soa = soa;
+        this.serial = Soa.serial(soa);
+    }
+
+    /**
+     * As {@link #apply(List)}, for one diff.
+     */
+    public SecondaryZone apply(ZoneDiff diff) {
+        return apply(List.of(diff));
+    }
+
+    /**
+     * The zone with {@code diffs} applied in order, relinked where they reach (CNAME
+     * chains, glue, wildcards). This zone is left as it was and can go on serving until the result
+     * is published.
+     *
+     * @throws IllegalStateException if the diffs do not run on from this zone's serial;
+     *         nothing has changed then.
+     */
+    public SecondaryZone apply(List<ZoneDiff> diffs) {
+        long at = serial;
+        for (ZoneDiff diff : diffs) {
+            if (diff.getFromSerial() != at) {
+                throw new IllegalStateException("Diff " + diff + " does not apply to serial " + at);
+            }
+            at = diff.getToSerial();
+        }
+        return new SecondaryZone(apex, trie.apply(diffs));
+    }
+
+    public String getApex() {
+        return apex;
+    }
+
+    public long getSerial() {
+        return serial;
+    }
+
+    /**
+     * The SOA record at the apex.
+     */
+    public DnsResourceRecord getSoa() {
+        return soa;
+    }
+
+    @Override
+    public List<DnsResourceRecord> findClosestMatch(CharSequence name) {
+        return trie.findClosestMatch(name);
+    }
+
+    @Override
+    public List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset) {
+        return trie.findClosestMatch(buffer, nameOffset);
+    }
+
+    @Override
+    public List<DnsResourceRecord> findAnswer(CharSequence name) {
+        return trie.findAnswer(name);
+    }
+
+    @Override
+    public List<DnsResourceRecord> findAnswer(ByteBuffer buffer, int nameOffset) {
+        return trie.findAnswer(buffer, nameOffset);
+    }
+
+    @Override
+    public int size() {
+        return trie.size();
+    }
+}
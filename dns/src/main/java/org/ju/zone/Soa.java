@@ -0,0 +1,77 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the fixed fields of SOA records. They are the last 20 bytes of the RDATA
+ * (SERIAL, REFRESH, RETRY, EXPIRE, MINIMUM), after the two names, so they can be found
+ * from the end without decoding MNAME and RNAME.
+ */
+public final class Soa {
+
+    private Soa() {
+    }
+
+    /**
+     * The SOA record in {@code rrset}, or null (also for a null list).
+     */
+    public static DnsResourceRecord find(List<DnsResourceRecord> rrset) {
+        if (rrset == null) {
+            return null;
+        }
+        for (int i = 0; i < rrset.size(); i++) {
+            if (rrset.get(i).getType() == DnsType.SOA && rrset.get(i).getRdLength() >= 20) {
+                return rrset.get(i);
+            }
+        }
+        return null;
+    }
+
+    public static long serial(DnsResourceRecord soa) {
+        return field(soa, 20);
+    }
+
+    /**
+     * How often a secondary should check for a new serial, in seconds.
+     */
+    public static long refresh(DnsResourceRecord soa) {
+        return field(soa, 16);
+    }
+
+    /**
+     * How long a secondary waits after a failed refresh before it tries again, in seconds.
+     */
+    public static long retry(DnsResourceRecord soa) {
+        return field(soa, 12);
+    }
+
+    /**
+     * TTL for negative answers from this zone, in seconds (RFC 2308 §4).
+     */
+    public static long minimum(DnsResourceRecord soa) {
+        return field(soa, 4);
+    }
+
+    /**
+     * The serial of an SOA record in a message, from its RDATA's offset and length.
+     */
+    public static long serial(ByteBuffer buffer, int rdataOffset, int rdLength) {
+        return buffer.getInt(rdataOffset + rdLength - 20) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Serial number arithmetic (RFC 1982): whether {@code a} is newer than {@code b},
+     * allowing for the 32-bit counter wrapping.
+     */
+    public static boolean isNewer(long a, long b) {
+        return a != b && (int) (a - b) > 0;
+    }
+
+    private static long field(DnsResourceRecord soa, int fromEnd) {
+        return ByteBuffer.wrap(soa.getRData()).getInt(soa.getRdLength() - fromEnd) & 0xFFFFFFFFL;
+    }
+}
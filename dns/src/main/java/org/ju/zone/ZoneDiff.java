@@ -0,0 +1,144 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The change from one serial of a zone to the next: the records deleted and the records
+ * added, as an IXFR carries them (RFC 1995). The two SOA records bracket the change and
+ * are not part of either list.
+ */
+public final class ZoneDiff {
+
+    private final DnsResourceRecord oldSoa;
+    private final DnsResourceRecord newSoa;
+    private final List<DnsResourceRecord> deleted;
+    private final List<DnsResourceRecord> added;
+
+    public ZoneDiff(DnsResourceRecord oldSoa, DnsResourceRecord newSoa,
+                    List<DnsResourceRecord> deleted, List<DnsResourceRecord> added) {
+        this.oldSoa = oldSoa;
+        this.newSoa = newSoa;
+        this.deleted = Collections.unmodifiableList(deleted);
+        this.added = Collections.unmodifiableList(added);
+    }
+
+    /**
+     * Compares the zone at {@code apex} in two tries, record by record.
+     *
+     * @return The diff, or null if either trie has no SOA at the apex or the serial has
+     *         not moved forward.
+     */
+    public static ZoneDiff between(ZoneTrie before, ZoneTrie after, String apex) {
+        DnsResourceRecord oldSoa = Soa.find(before.get(apex));
+        DnsResourceRecord newSoa = Soa.find(after.get(apex));
+        if (oldSoa == null || newSoa == null || !Soa.isNewer(Soa.serial(newSoa), Soa.serial(oldSoa))) {
+            return null;
+        }
+        Set<Key> was = keys(before, apex);
+        Set<Key> is = keys(after, apex);
+        List<DnsResourceRecord> deleted = new ArrayList<>();
+        for (Key key : was) {
+            if (!is.contains(key)) {
+                deleted.add(key.record);
+            }
+        }
+        List<DnsResourceRecord> added = new ArrayList<>();
+        for (Key key : is) {
+            if (!was.contains(key)) {
+                added.add(key.record);
+            }
+        }
+        return new ZoneDiff(oldSoa, newSoa, deleted, added);
+    }
+
+    // --- Getters ---
+
+    public long getFromSerial() {
+        return Soa.serial(oldSoa);
+    }
+
+    public long getToSerial() {
+        return Soa.serial(newSoa);
+    }
+
+    public DnsResourceRecord getOldSoa() {
+        return oldSoa;
+    }
+
+    public DnsResourceRecord getNewSoa() {
+        return newSoa;
+    }
+
+    public List<DnsResourceRecord> getDeleted() {
+        return deleted;
+    }
+
+    public List<DnsResourceRecord> getAdded() {
+        return added;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneDiff{" +
+                getFromSerial() + " -> " + getToSerial() +
+                ", deleted=" + deleted.size() +
+                ", added=" + added.size() +
+                '}';
+    }
+
+    private static Set<Key> keys(ZoneTrie trie, String apex) {
+        Set<Key> keys = new LinkedHashSet<>();
+        trie.forEachRRset(apex, rrset -> {
+            for (DnsResourceRecord r : rrset) {
+                if (r.getType() != DnsType.SOA) {
+                    keys.add(new Key(r));
+                }
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * A record compared as a zone holds it: owner (case-insensitively), type, class,
+     * TTL and RDATA. A TTL change is a delete and an add, as in any IXFR.
+     */
+    private static final class Key {
+        final DnsResourceRecord record;
+        final String owner;
+        final int hash;
+
+        Key(DnsResourceRecord record) {
+            this.record = record;
+            String name = record.getName().toLowerCase(Locale.ROOT);
+            this.owner = name.endsWith(".") ? name : name + '.';
+            this.hash = ((owner.hashCode() * 31 + record.getType()) * 31 + (int) record.getTtl()) * 31
+                    + Arrays.hashCode(record.getRData());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            DnsResourceRecord r = other.record;
+            return hash == other.hash && owner.equals(other.owner) && record.getType() == r.getType()
+                    && record.getRClass() == r.getRClass() && record.getTtl() == r.getTtl()
+                    && Arrays.equals(record.getRData(), r.getRData());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package org.ju.zone;
+
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Streaming RFC 1035 master-file loader.
+ *
+ * Loading runs as a three stage pipeline:
+ * <ol>
+ *   <li>read: the calling thread streams the file line by line, joins parenthesised
+ *       continuations, strips comments, applies $ORIGIN / $TTL / $INCLUDE and resolves
+ *       blank owners. Entries are batched into chunks.</li>
+ *   <li>parse: chunks are parsed into {@link DnsResourceRecord}s (TTL, class, type and
+ *       wire-format rdata) on a pool of worker threads.</li>
+ *   <li>index: the calling thread hands finished chunks to the sink in file order.</li>
+ * </ol>
+ * Only a bounded number of chunks are in flight, so memory use does not depend on the
+ * size of the file. Any malformed line fails the whole load with a
+ * {@link ZoneParseException} naming its file and line.
+ */
+public class ZoneFileLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZoneFileLoader.class);
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_INCLUDE_DEPTH = 16;
+
+    private final int threads;
+
+    public ZoneFileLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Number of parser threads.
+     */
+    public ZoneFileLoader(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Loads {@code file}, passing every record to {@code sink} in file order.
+     * The sink is only ever called from the calling thread.
+     *
+     * @param origin Initial $ORIGIN (absolute, e.g. "example.com."), or null if the file sets its own.
+     */
+    public ZoneLoadStats load(Path file, String origin, Consumer<DnsResourceRecord> sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "zone-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            ZoneLoadStats stats = new Run(pool, sink).execute(file, origin);
+            LOGGER.info("Loaded {}: {}", file, stats);
+            return stats;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * State for a single load: the reader's directive state plus the in-flight chunks.
+     */
+    private final class Run {
+
+        private final ExecutorService pool;
+        private final Consumer<DnsResourceRecord> sink;
+        private final ArrayDeque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+
+        private List<Entry> chunk = new ArrayList<>(CHUNK_SIZE);
+        private String origin;
+        private long defaultTtl = -1;
+        private String lastOwner;
+        private String lastOwnerOrigin;
+
+        private long records;
+        private long parseNanos;
+        private long indexNanos;
+        private long drainNanos;
+
+        Run(ExecutorService pool, Consumer<DnsResourceRecord> sink) {
+            this.pool = pool;
+            this.sink = sink;
+        }
+
+        ZoneLoadStats execute(Path file, String initialOrigin) throws IOException {
+            long start = System.nanoTime();
+            origin = (initialOrigin == null) ? null : absolute(initialOrigin, ".");
+            try {
+                read(file, 0);
+                flush();
+                while (!inFlight.isEmpty()) {
+                    drainOne();
+                }
+            } finally {
+                for (Future<ParsedChunk> future : inFlight) {
+                    future.cancel(true);
+                }
+            }
+            long total = System.nanoTime() - start;
+            return new ZoneLoadStats(records, threads, total - drainNanos, parseNanos, indexNanos, total);
+        }
+
+        // --- Stage 1: read ---
+
+        private void read(Path file, int depth) throws IOException {
+            String fileName = file.toString();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                StringBuilder logical = new StringBuilder();
+                int lineNo = 0;
+                int startLine = 0;
+                int balance = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNo++;
+                    if (balance == 0) {
+                        logical.setLength(0);
+                        startLine = lineNo;
+                    } else {
+                        logical.append(' ');
+                    }
+                    balance = stripLine(line, logical, balance, fileName, lineNo);
+                    if (balance == 0) {
+                        entry(logical, file, startLine, depth);
+                    }
+                }
+                if (balance > 0) {
+                    throw new ZoneParseException(fileName, startLine, "Unterminated '('");
+                }
+            }
+        }
+
+        /**
+         * Appends {@code line} without its comment, turning parentheses into spaces.
+         *
+         * @return The parenthesis nesting after this line.
+         */
+        private int stripLine(String line, StringBuilder out, int balance, String file, int lineNo)
+                throws ZoneParseException {
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    out.append(c);
+                    if (c == '\\' && i + 1 < line.length()) {
+                        out.append(line.charAt(++i));
+                    } else if (c == '"') {
+                        quoted = false;
+                    }
+                } else if (c == ';') {
+                    break;
+                } else if (c == '"') {
+                    quoted = true;
+                    out.append(c);
+                } else if (c == '(') {
+                    balance++;
+                    out.append(' ');
+                } else if (c == ')') {
+                    if (--balance < 0) {
+                        throw new ZoneParseException(file, lineNo, "Unbalanced ')'");
+                    }
+                    out.append(' ');
+                } else {
+                    out.append(c);
+                }
+            }
+            if (quoted) {
+                throw new ZoneParseException(file, lineNo, "Unterminated quoted string");
+            }
+            return balance;
+        }
+
+        private void entry(StringBuilder logical, Path file, int lineNo, int depth) throws IOException {
+            String text = logical.toString();
+            if (text.trim().isEmpty()) {
+                return;
+            }
+            String fileName = file.toString();
+
+            if (text.charAt(0) == '$') {
+                directive(text.trim().split("\\s+"), file, lineNo, depth);
+                return;
+            }
+
+            String owner;
+            String ownerOrigin;
+            String rest;
+            if (Character.isWhitespace(text.charAt(0))) {
+                // Blank owner: same as the previous record
+                if (lastOwner == null) {
+                    throw new ZoneParseException(fileName, lineNo, "No previous owner name to inherit");
+                }
+                owner = lastOwner;
+                ownerOrigin = lastOwnerOrigin;
+                rest = text;
+            } else {
+                int end = 0;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+                    end++;
+                }
+                owner = text.substring(0, end);
+                ownerOrigin = origin;
+                rest = text.substring(end);
+                lastOwner = owner;
+                lastOwnerOrigin = ownerOrigin;
+            }
+
+            chunk.add(new Entry(fileName, lineNo, origin, defaultTtl, owner, ownerOrigin, rest));
+            if (chunk.size() == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        private void directive(String[] tokens, Path file, int lineNo, int depth) throws IOException {
+            String fileName = file.toString();
+            try {
+                switch (tokens[0].toUpperCase()) {
+                    case "$ORIGIN":
+                        requireArgs(tokens, 2, 2);
+                        origin = absolute(tokens[1], origin);
+                        break;
+                    case "$TTL":
+                        requireArgs(tokens, 2, 2);
+                        defaultTtl = parseTtl(tokens[1]);
+                        break;
+                    case "$INCLUDE":
+                        requireArgs(tokens, 2, 3);
+                        if (depth + 1 > MAX_INCLUDE_DEPTH) {
+                            throw new IllegalArgumentException("$INCLUDE nested deeper than " + MAX_INCLUDE_DEPTH);
+                        }
+                        Path included = file.resolveSibling(tokens[1]);
+                        // The included file gets its own origin; ours is restored afterwards
+                        String savedOrigin = origin;
+                        if (tokens.length == 3) {
+                            origin = absolute(tokens[2], origin);
+                        }
+                        try {
+                            read(included, depth + 1);
+                        } catch (NoSuchFileException e) {
+                            throw new IllegalArgumentException("$INCLUDE file not found: " + included);
+                        } finally {
+                            origin = savedOrigin;
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown directive " + tokens[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ZoneParseException(fileName, lineNo, e.getMessage());
+            }
+        }
+
+        // --- Stage 2: parse (on the pool) ---
+
+        private void flush() throws IOException {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            final List<Entry> entries = chunk;
+            chunk = new ArrayList<>(CHUNK_SIZE);
+            inFlight.add(pool.submit(() -> parseChunk(entries)));
+            // Bound the pipeline: wait for the oldest chunk once enough are queued
+            while (inFlight.size() > threads * 2) {
+                drainOne();
+            }
+        }
+
+        // --- Stage 3: index ---
+
+        private void drainOne() throws IOException {
+            long start = System.nanoTime();
+            ParsedChunk parsed;
+            try {
+                parsed = inFlight.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading zone", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            parseNanos += parsed.nanos;
+
+            long indexStart = System.nanoTime();
+            for (DnsResourceRecord record : parsed.records) {
+                sink.accept(record);
+            }
+            records += parsed.records.size();
+            long end = System.nanoTime();
+            indexNanos += end - indexStart;
+            drainNanos += end - start;
+        }
+    }
+
+    // --- Entry parsing ---
+
+    private static ParsedChunk parseChunk(List<Entry> entries) throws ZoneParseException {
+        long start = System.nanoTime();
+        List<DnsResourceRecord> records = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            records.add(parseEntry(entry));
+        }
+        return new ParsedChunk(records, System.nanoTime() - start);
+    }
+
+    static DnsResourceRecord parseEntry(Entry entry) throws ZoneParseException {
+        try {
+            List<String> tokens = tokenize(entry.rest);
+            int i = 0;
+            long ttl = -1;
+
+            // [TTL] [class] or [class] [TTL], both optional
+            for (int k = 0; k < 2 && i < tokens.size(); k++) {
+                String token = tokens.get(i);
+                if (Character.isDigit(token.charAt(0))) {
+                    ttl = parseTtl(token);
+                    i++;
+                } else if (token.equalsIgnoreCase("IN")) {
+                    i++;
+                } else if (token.equalsIgnoreCase("CH") || token.equalsIgnoreCase("HS")
+                        || token.equalsIgnoreCase("CS")) {
+                    throw new IllegalArgumentException("Unsupported class " + token);
+                } else {
+                    break;
+                }
+            }
+            if (i >= tokens.size()) {
+                throw new IllegalArgumentException("Missing record type");
+            }
+            int type = DnsType.fromString(tokens.get(i));
+            if (type < 0) {
+                throw new IllegalArgumentException("Unknown record type " + tokens.get(i));
+            }
+            i++;
+            if (ttl < 0) {
+                ttl = entry.defaultTtl;
+            }
+            if (ttl < 0) {
+                throw new IllegalArgumentException("No TTL given and no $TTL in effect");
+            }
+
+            String name = absolute(entry.owner, entry.ownerOrigin);
+            byte[] rData = encodeRData(type, tokens.subList(i, tokens.size()), entry.origin);
+            return new DnsResourceRecord(name, type, DnsClass.IN, ttl, rData.length, rData);
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            throw new ZoneParseException(entry.file, entry.line, e.getMessage());
+        }
+    }
+
+    private static byte[] encodeRData(int type, List<String> args, String origin) throws UnknownHostException {
+        switch (type) {
+            case DnsType.A:
+                requireRData(args, 1, "A");
+                return parseIpv4(args.get(0));
+            case DnsType.AAAA:
+                requireRData(args, 1, "AAAA");
+                if (args.get(0).indexOf(':') < 0) {
+                    throw new IllegalArgumentException("Invalid IPv6 address " + args.get(0));
+                }
+                // A literal containing ':' is parsed locally, never resolved
+                return InetAddress.getByName(args.get(0)).getAddress();
+            case DnsType.NS:
+            case DnsType.CNAME:
+            case DnsType.PTR:
+                requireRData(args, 1, DnsType.toString(type));
+                return DnsLabelEncoder.encode(absolute(args.get(0), origin));
+            case DnsType.MX: {
+                requireRData(args, 2, "MX");
+                byte[] exchange = DnsLabelEncoder.encode(absolute(args.get(1), origin));
+                return ByteBuffer.allocate(2 + exchange.length)
+                        .putShort((short) parseUnsigned(args.get(0), 0xFFFF))
+                        .put(exchange)
+                        .array();
+            }
+            case DnsType.SOA: {
+                requireRData(args, 7, "SOA");
+                byte[] mName = DnsLabelEncoder.encode(absolute(args.get(0), origin));
+                byte[] rName = DnsLabelEncoder.encode(absolute(args.get(1), origin));
+                ByteBuffer buffer = ByteBuffer.allocate(mName.length + rName.length + 20);
+                buffer.put(mName).put(rName);
+                buffer.putInt((int) parseUnsigned(args.get(2), 0xFFFFFFFFL)); // serial
+                for (int k = 3; k < 7; k++) {
+                    buffer.putInt((int) parseTtl(args.get(k)));                 // refresh, retry, expire, minimum
+                }
+                return buffer.array();
+            }
+            case DnsType.TXT: {
+                if (args.isEmpty()) {
+                    throw new IllegalArgumentException("TXT needs at least one string");
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (String text : args) {
+                    byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+                    if (bytes.length > 255) {
+                        throw new IllegalArgumentException("TXT string longer than 255 bytes");
+                    }
+                    out.write(bytes.length);
+                    out.write(bytes, 0, bytes.length);
+                }
+                return out.toByteArray();
+            }
+            default:
+                throw new IllegalArgumentException("No rdata parser for " + DnsType.toString(type));
+        }
+    }
+
+    // --- Lexical helpers ---
+
+    /**
+     * Splits on whitespace. A token in double quotes keeps its spaces and has the
+     * quotes removed; inside quotes {@code \X} is X and {@code \DDD} is a decimal byte.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            StringBuilder token = new StringBuilder();
+            if (c == '"') {
+                i++;
+                while (i < n && text.charAt(i) != '"') {
+                    char q = text.charAt(i++);
+                    if (q == '\\' && i < n) {
+                        if (i + 2 < n && Character.isDigit(text.charAt(i))
+                                && Character.isDigit(text.charAt(i + 1)) && Character.isDigit(text.charAt(i + 2))) {
+                            int value = Integer.parseInt(text.substring(i, i + 3));
+                            if (value > 255) {
+                                throw new IllegalArgumentException("Escape \\" + value + " is out of range");
+                            }
+                            q = (char) value;
+                            i += 3;
+                        } else {
+                            q = text.charAt(i++);
+                        }
+                    }
+                    token.append(q);
+                }
+                i++; // closing quote
+            } else {
+                while (i < n && !Character.isWhitespace(text.charAt(i))) {
+                    token.append(text.charAt(i++));
+                }
+            }
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Makes {@code name} absolute: "@" is the origin, a trailing dot means already absolute.
+     */
+    static String absolute(String name, String origin) {
+        if (name.endsWith(".")) {
+            return name;
+        }
+        if (origin == null) {
+            throw new IllegalArgumentException("Relative name '" + name + "' with no $ORIGIN in effect");
+        }
+        if (name.equals("@")) {
+            return origin;
+        }
+        return origin.equals(".") ? name + "." : name + "." + origin;
+    }
+
+    /**
+     * Parses a TTL in seconds, also accepting BIND-style units ("1h30m", "2d").
+     */
+    static long parseTtl(String text) {
+        long total = 0;
+        long current = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                current = (current < 0 ? 0 : current * 10) + (c - '0');
+                if (current > 0xFFFFFFFFL) {
+                    throw new IllegalArgumentException("TTL out of range: " + text);
+                }
+                continue;
+            }
+            if (current < 0) {
+                throw new IllegalArgumentException("Invalid TTL " + text);
+            }
+            switch (Character.toLowerCase(c)) {
+                case 's': total += current; break;
+                case 'm': total += current * 60; break;
+                case 'h': total += current * 3600; break;
+                case 'd': total += current * 86400; break;
+                case 'w': total += current * 604800; break;
+                default: throw new IllegalArgumentException("Invalid TTL " + text);
+            }
+            current = -1;
+        }
+        if (current >= 0) {
+            total += current;
+        }
+        if (text.isEmpty() || total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("TTL out of range: " + text);
+        }
+        return total;
+    }
+
+    private static long parseUnsigned(String text, long max) {
+        long value;
+        try {
+            value = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + text);
+        }
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("Number out of range: " + text);
+        }
+        return value;
+    }
+
+    private static byte[] parseIpv4(String text) {
+        String[] parts = text.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid IPv4 address " + text);
+        }
+        byte[] address = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            if (parts[i].isEmpty() || parts[i].length() > 3) {
+                throw new IllegalArgumentException("Invalid IPv4 address " + text);
+            }
+            address[i] = (byte) parseUnsigned(parts[i], 255);
+        }
+        return address;
+    }
+
+    private static void requireArgs(String[] tokens, int min, int max) {
+        if (tokens.length < min || tokens.length > max) {
+            throw new IllegalArgumentException("Wrong number of arguments to " + tokens[0]);
+        }
+    }
+
+    private static void requireRData(List<String> args, int count, String type) {
+        if (args.size() != count) {
+            throw new IllegalArgumentException(type + " needs " + count + " rdata field(s), got " + args.size());
+        }
+    }
+
+    /**
+     * One logical line, with everything the parser needs from the reader's state.
+     */
+    static final class Entry {
+        final String file;
+        final int line;
+        final String origin;
+        final long defaultTtl;
+        final String owner;
+        final String ownerOrigin;
+        final String rest;
+
+        Entry(String file, int line, String origin, long defaultTtl, String owner, String ownerOrigin, String rest) {
+            this.file = file;
+            this.line = line;
+            this.origin = origin;
+            this.defaultTtl = defaultTtl;
+            this.owner = owner;
+            this.ownerOrigin = ownerOrigin;
+            this.rest = rest;
+        }
+    }
+
+    private static final class ParsedChunk {
+        final List<DnsResourceRecord> records;
+        final long nanos;
+
+        ParsedChunk(List<DnsResourceRecord> records, long nanos) {
+            this.records = records;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only zone served straight out of a memory-mapped image file written by
+ * {@link ZoneImageCompiler}. Nothing is loaded onto the heap at open time: the name
+ * index and the rdata stay in the page cache, so startup is a single mmap() and heap
+ * use does not depend on the size of the zone. Record objects are only created for
+ * the RRset a lookup returns.
+ *
+ * <pre>
+ * Layout (big-endian):
+ *   header   64 bytes   magic, version, counts, section offsets, CRC32 of the rest
+ *   table    slots * 8  open-addressing hash index, entry offset per slot (0 = empty)
+ *   entries             per owner name:
+ *                         u8 nameLength, name (wire format, original case),
+ *                         u16 rrCount, rrCount * (u16 type, u16 class, u32 ttl, u16 rdLength, rdata)
+ * </pre>
+ * The table is keyed on the FNV-1a hash of the lowercased wire-format name.
+ */
+public class ZoneImage implements ZoneIndex {
+
+    static final long MAGIC = 0x444E535A494D4700L;   // "DNSZIMG\0"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    // --- Header field offsets ---
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 8;
+    static final int NAME_COUNT_OFFSET = 12;
+    static final int SLOT_COUNT_OFFSET = 16;
+    static final int TABLE_OFFSET_OFFSET = 24;
+    static final int DATA_OFFSET_OFFSET = 32;
+    static final int FILE_LENGTH_OFFSET = 40;
+    static final int CHECKSUM_OFFSET = 48;
+
+    private final Path path;
+    private final MappedByteBuffer image;
+    private final int nameCount;
+    private final int slotMask;
+    private final int tableOffset;
+
+    private ZoneImage(Path path, MappedByteBuffer image) throws IOException {
+        this.path = path;
+        this.image = image;
+
+        if (image.capacity() < HEADER_SIZE || image.getLong(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException(path + ": not a zone image");
+        }
+        int version = image.getInt(VERSION_OFFSET);
+        if (version != FORMAT_VERSION) {
+            throw new IOException(path + ": unsupported zone image version " + version
+                    + " (expected " + FORMAT_VERSION + ")");
+        }
+        if (image.getLong(FILE_LENGTH_OFFSET) != image.capacity()) {
+            throw new IOException(path + ": zone image is truncated");
+        }
+        int slots = image.getInt(SLOT_COUNT_OFFSET);
+        long table = image.getLong(TABLE_OFFSET_OFFSET);
+        if (Integer.bitCount(slots) != 1 || table + (long) slots * 8 > image.capacity()) {
+            throw new IOException(path + ": corrupt zone image header");
+        }
+        this.nameCount = image.getInt(NAME_COUNT_OFFSET);
+        this.slotMask = slots - 1;
+        this.tableOffset = (int) table;
+    }
+
+    /**
+     * Maps {@code path} and checks its header. With {@code verifyChecksum} the whole
+     * image is also read once to check its CRC32; without it opening costs only the mmap.
+     */
+    public static ZoneImage open(Path path, boolean verifyChecksum) throws IOException {
+        MappedByteBuffer image;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + ": zone images larger than 2 GB are not supported");
+            }
+            // The mapping stays valid after the channel is closed
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ZoneImage zone = new ZoneImage(path, image);
+        if (verifyChecksum) {
+            zone.verify();
+        }
+        return zone;
+    }
+
+    /**
+     * Recomputes the CRC32 over everything after the header.
+     */
+    public void verify() throws IOException {
+        if (checksum(image) != image.getLong(CHECKSUM_OFFSET)) {
+            throw new IOException(path + ": zone image checksum mismatch");
+        }
+    }
+
+    static long checksum(ByteBuffer image) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = image.duplicate();
+        body.position(HEADER_SIZE);
+        crc.update(body);
+        return crc.getValue();
+    }
+
+    @Override
+    public List<DnsResourceRecord> findClosestMatch(CharSequence name) {
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '.') {
+            end--;
+        }
+        // Probe each suffix, longest first, ending with the root
+        int start = 0;
+        while (true) {
+            int entry = find(name, start, end);
+            if (entry >= 0) {
+                return readRRset(entry);
+            }
+            if (start >= end) {
+                return null;
+            }
+            int dot = indexOf(name, '.', start, end);
+            start = (dot < 0) ? end : dot + 1;
+        }
+    }
+
+    @Override
+    public List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset) {
+        // Every suffix of a wire name starts at one of its length bytes
+        int pos = nameOffset;
+        while (true) {
+            int length = buffer.get(pos) & 0xFF;
+            if (length > 63) {
+                throw new IllegalArgumentException("Compressed or malformed name at offset " + pos);
+            }
+            int entry = find(buffer, pos);
+            if (entry >= 0) {
+                return readRRset(entry);
+            }
+            if (length == 0) {
+                return null;
+            }
+            pos += 1 + length;
+        }
+    }
+
+    @Override
+    public int size() {
+        return nameCount;
+    }
+
+    /**
+     * Size of the mapped image in bytes.
+     */
+    public long byteSize() {
+        return image.capacity();
+    }
+
+    // --- Internals ---
+
+    private int find(CharSequence name, int start, int end) {
+        int hash = hashName(name, start, end);
+        int i = hash & slotMask;
+        long entry;
+        while ((entry = image.getLong(tableOffset + i * 8)) != 0) {
+            if (nameEquals((int) entry, name, start, end)) {
+                return (int) entry;
+            }
+            i = (i + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int entry, CharSequence name, int start, int end) {
+        int pos = entry + 1;
+        int i = start;
+        while (true) {
+            int length = image.get(pos) & 0xFF;
+            if (length == 0) {
+                return i >= end;
+            }
+            if (i >= end) {
+                return false;
+            }
+            int dot = indexOf(name, '.', i, end);
+            int labelEnd = (dot < 0) ? end : dot;
+            if (labelEnd - i != length) {
+                return false;
+            }
+            for (int k = 0; k < length; k++) {
+                if (toLower(image.get(pos + 1 + k) & 0xFF) != toLower(name.charAt(i + k))) {
+                    return false;
+                }
+            }
+            pos += 1 + length;
+            i = labelEnd + 1;
+        }
+    }
+
+    private int find(ByteBuffer buffer, int nameOffset) {
+        int hash = hashWire(buffer, nameOffset);
+        int i = hash & slotMask;
+        long entry;
+        while ((entry = image.getLong(tableOffset + i * 8)) != 0) {
+            if (nameEquals((int) entry, buffer, nameOffset)) {
+                return (int) entry;
+            }
+            i = (i + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int entry, ByteBuffer buffer, int nameOffset) {
+        int pos = entry + 1;
+        while (true) {
+            int length = image.get(pos) & 0xFF;
+            if (length != (buffer.get(nameOffset) & 0xFF)) {
+                return false;
+            }
+            if (length == 0) {
+                return true;
+            }
+            for (int k = 1; k <= length; k++) {
+                if (toLower(image.get(pos + k) & 0xFF) != toLower(buffer.get(nameOffset + k) & 0xFF)) {
+                    return false;
+                }
+            }
+            pos += 1 + length;
+            nameOffset += 1 + length;
+        }
+    }
+
+    private List<DnsResourceRecord> readRRset(int entry) {
+        int nameLength = image.get(entry) & 0xFF;
+        String owner = wireToString(entry + 1);
+        int pos = entry + 1 + nameLength;
+        int count = image.getShort(pos) & 0xFFFF;
+        pos += 2;
+
+        List<DnsResourceRecord> records = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            int type = image.getShort(pos) & 0xFFFF;
+            int rClass = image.getShort(pos + 2) & 0xFFFF;
+            long ttl = image.getInt(pos + 4) & 0xFFFFFFFFL;
+            int rdLength = image.getShort(pos + 8) & 0xFFFF;
+            byte[] rData = new byte[rdLength];
+            for (int k = 0; k < rdLength; k++) {
+                rData[k] = image.get(pos + 10 + k);
+            }
+            records.add(new DnsResourceRecord(owner, type, rClass, ttl, rdLength, rData));
+            pos += 10 + rdLength;
+        }
+        return records;
+    }
+
+    private String wireToString(int pos) {
+        StringBuilder sb = new StringBuilder();
+        int length;
+        while ((length = image.get(pos) & 0xFF) != 0) {
+            for (int k = 1; k <= length; k++) {
+                sb.append((char) (image.get(pos + k) & 0xFF));
+            }
+            sb.append('.');
+            pos += 1 + length;
+        }
+        return sb.length() == 0 ? "." : sb.toString();
+    }
+
+    /**
+     * FNV-1a over the lowercased wire form of name[start, end), e.g. (3)www(7)example(3)com(0).
+     * Must agree with {@link #hashWire(byte[])}.
+     */
+    static int hashName(CharSequence name, int start, int end) {
+        int h = 0x811C9DC5;
+        int i = start;
+        while (i < end) {
+            int dot = indexOf(name, '.', i, end);
+            int labelEnd = (dot < 0) ? end : dot;
+            h = (h ^ (labelEnd - i)) * 0x01000193;
+            for (int k = i; k < labelEnd; k++) {
+                h = (h ^ toLower(name.charAt(k))) * 0x01000193;
+            }
+            i = labelEnd + 1;
+        }
+        return (h ^ 0) * 0x01000193;
+    }
+
+    /**
+     * FNV-1a over an uncompressed wire-format name, lowercasing label bytes.
+     */
+    static int hashWire(byte[] wire) {
+        int h = 0x811C9DC5;
+        int pos = 0;
+        int length;
+        while ((length = wire[pos] & 0xFF) != 0) {
+            h = (h ^ length) * 0x01000193;
+            for (int k = 1; k <= length; k++) {
+                h = (h ^ toLower(wire[pos + k] & 0xFF)) * 0x01000193;
+            }
+            pos += 1 + length;
+        }
+        return (h ^ 0) * 0x01000193;
+    }
+
+    /**
+     * As {@link #hashWire(byte[])}, for a name at {@code nameOffset} in {@code buffer}.
+     */
+    static int hashWire(ByteBuffer buffer, int nameOffset) {
+        int h = 0x811C9DC5;
+        int pos = nameOffset;
+        int length;
+        while ((length = buffer.get(pos) & 0xFF) != 0) {
+            h = (h ^ length) * 0x01000193;
+            for (int k = 1; k <= length; k++) {
+                h = (h ^ toLower(buffer.get(pos + k) & 0xFF)) * 0x01000193;
+            }
+            pos += 1 + length;
+        }
+        return (h ^ 0) * 0x01000193;
+    }
+
+    private static int indexOf(CharSequence name, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (name.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + 32 : c & 0xFF;
+    }
+}
@@ -0,0 +1,164 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+import org.ju.util.DnsLabelEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compiles loaded zone data into the binary image format read by {@link ZoneImage}.
+ *
+ * Usage: {@code ZoneImageCompiler <zone-file> <origin|-> <image-file>}
+ */
+public class ZoneImageCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZoneImageCompiler.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: ZoneImageCompiler <zone-file> <origin|-> <image-file>");
+            return;
+        }
+        String origin = "-".equals(args[1]) ? null : args[1];
+        compile(Paths.get(args[0]), origin, Paths.get(args[2]));
+    }
+
+    /**
+     * Loads a master file and writes it out as an image.
+     */
+    public static void compile(Path zoneFile, String origin, Path imageFile) throws IOException {
+        long start = System.nanoTime();
+        ZoneTrie trie = new ZoneTrie((int) Math.min(Files.size(zoneFile) / 32, Integer.MAX_VALUE / 4));
+        new ZoneFileLoader().load(zoneFile, origin, trie::add);
+        long bytes = write(trie, imageFile);
+        LOGGER.info("Compiled {} names into {} ({} bytes) in {} ms",
+                trie.size(), imageFile, bytes, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Writes every RRset in {@code zone} to {@code imageFile}. The image is written to a
+     * temporary file next to the target and moved into place, so a reader never maps
+     * a half-written image.
+     *
+     * An image is a plain name lookup: it keeps no CNAME chains, glue or wildcards
+     * linked in, so a zone with a wildcard name would answer NXDOMAIN where the wildcard
+     * should match, and is refused.
+     *
+     * @return The size of the image in bytes.
+     * @throws IOException also if the zone has a wildcard name.
+     */
+    public static long write(ZoneTrie zone, Path imageFile) throws IOException {
+        String[] wildcard = new String[1];
+        zone.forEachRRset(rrset -> {
+            String name = rrset.get(0).getName();
+            if (wildcard[0] == null && name.startsWith("*.")) {
+                wildcard[0] = name;
+            }
+        });
+        if (wildcard[0] != null) {
+            throw new IOException(imageFile + ": a zone image cannot answer for wildcard " + wildcard[0]
+                    + "; serve this zone from its master file");
+        }
+        int names = zone.size();
+        int slots = Integer.highestOneBit(Math.max(2, names * 2) - 1) << 1;
+        long dataOffset = ZoneImage.HEADER_SIZE + (long) slots * 8;
+
+        // --- Pass 1: lay out the entries and fill the hash table ---
+        long[] table = new long[slots];
+        long[] next = {dataOffset};
+        zone.forEachRRset(rrset -> {
+            byte[] wire = DnsLabelEncoder.encode(rrset.get(0).getName());
+            int i = ZoneImage.hashWire(wire) & (slots - 1);
+            while (table[i] != 0) {
+                i = (i + 1) & (slots - 1);
+            }
+            table[i] = next[0];
+            next[0] += entrySize(wire, rrset);
+        });
+        long fileLength = next[0];
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IOException("Zone image would be " + fileLength + " bytes; the limit is 2 GB");
+        }
+
+        // --- Pass 2: stream table and entries, checksumming as we go ---
+        Path tmp = imageFile.resolveSibling(imageFile.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(ZoneImage.HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            for (long offset : table) {
+                out.writeLong(offset);
+            }
+            IOException[] failure = new IOException[1];
+            zone.forEachRRset(rrset -> {
+                if (failure[0] == null) {
+                    try {
+                        writeEntry(out, rrset);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(ZoneImage.HEADER_SIZE);
+            header.putLong(ZoneImage.MAGIC_OFFSET, ZoneImage.MAGIC);
+            header.putInt(ZoneImage.VERSION_OFFSET, ZoneImage.FORMAT_VERSION);
+            header.putInt(ZoneImage.NAME_COUNT_OFFSET, names);
+            header.putInt(ZoneImage.SLOT_COUNT_OFFSET, slots);
+            header.putLong(ZoneImage.TABLE_OFFSET_OFFSET, ZoneImage.HEADER_SIZE);
+            header.putLong(ZoneImage.DATA_OFFSET_OFFSET, dataOffset);
+            header.putLong(ZoneImage.FILE_LENGTH_OFFSET, fileLength);
+            header.putLong(ZoneImage.CHECKSUM_OFFSET, crc.getValue());
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(tmp, imageFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return fileLength;
+    }
+
+    private static long entrySize(byte[] wire, List<DnsResourceRecord> rrset) {
+        long size = 1 + wire.length + 2;
+        for (DnsResourceRecord record : rrset) {
+            size += 10 + record.getRdLength();
+        }
+        return size;
+    }
+
+    private static void writeEntry(DataOutputStream out, List<DnsResourceRecord> rrset) throws IOException {
+        if (rrset.size() > 0xFFFF) {
+            throw new IOException("Too many records for " + rrset.get(0).getName());
+        }
+        byte[] wire = DnsLabelEncoder.encode(rrset.get(0).getName());
+        out.writeByte(wire.length);
+        out.write(wire);
+        out.writeShort(rrset.size());
+        for (DnsResourceRecord record : rrset) {
+            out.writeShort(record.getType());
+            out.writeShort(record.getRClass());
+            out.writeInt((int) record.getTtl());
+            out.writeShort(record.getRdLength());
+            out.write(record.getRData());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Read side of a zone: what the server needs to answer queries.
+ * Implementations must be safe for concurrent readers.
+ */
+public interface ZoneIndex {
+
+    /**
+     * Closest-encloser lookup: the records of the longest suffix of {@code name}
+     * (including the name itself and the root ".") that owns any records, or null.
+     * Names are matched case-insensitively.
+     */
+    List<DnsResourceRecord> findClosestMatch(CharSequence name);
+
+    /**
+     * As {@link #findClosestMatch(CharSequence)}, for a name in uncompressed wire format
+     * starting at {@code nameOffset} in {@code buffer}, e.g. the QNAME of a received
+     * query. Labels are hashed and compared in place, so the lookup builds no String.
+     */
+    List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset);
+
+    /**
+     * The records to answer {@code name} with. Where the index resolves them ahead of
+     * time, a CNAME owner gets its whole in-zone chain (the CNAMEs, then the records of
+     * the name they end at), and a name that does not exist but lies under a wildcard
+     * gets the wildcard's records, still owned by the "*" name for the caller to answer
+     * under the query name (RFC 4592), and an empty non-terminal (a name with no records
+     * of its own but with names below it) gets an empty list, as it exists (RFC 8020).
+     * Otherwise, and by default, the closest match.
+     */
+    default List<DnsResourceRecord> findAnswer(CharSequence name) {
+        return findClosestMatch(name);
+    }
+
+    /**
+     * As {@link #findAnswer(CharSequence)}, for an uncompressed wire-format name.
+     */
+    default List<DnsResourceRecord> findAnswer(ByteBuffer buffer, int nameOffset) {
+        return findClosestMatch(buffer, nameOffset);
+    }
+
+    /**
+     * Number of distinct owner names holding records.
+     */
+    int size();
+}
@@ -0,0 +1,62 @@
+package org.ju.zone;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The most recent {@link ZoneDiff}s of one zone, oldest first, for answering IXFR.
+ * Only an unbroken run of serials is kept: a diff that does not start where the last
+ * one ended starts the journal over. Thread-safe.
+ */
+public final class ZoneJournal {
+
+    private final int capacity;
+    private final Deque<ZoneDiff> diffs = new ArrayDeque<>();
+
+    /**
+     * @param capacity Diffs kept; older ones are dropped, and a secondary that far
+     *                 behind gets a full transfer instead.
+     */
+    public ZoneJournal(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void append(ZoneDiff diff) {
+        if (!diffs.isEmpty() && diffs.peekLast().getToSerial() != diff.getFromSerial()) {
+            diffs.clear();
+        }
+        diffs.addLast(diff);
+        if (diffs.size() > capacity) {
+            diffs.removeFirst();
+        }
+    }
+
+    /**
+     * The diffs that bring a copy at {@code serial} up to date, in order: empty if it
+     * already is, null if the journal does not reach back that far.
+     */
+    public synchronized List<ZoneDiff> since(long serial) {
+        List<ZoneDiff> result = null;
+        for (ZoneDiff diff : diffs) {
+            if (result == null && diff.getFromSerial() == serial) {
+                result = new ArrayList<>();
+            }
+            if (result != null) {
+                result.add(diff);
+            }
+        }
+        if (result == null && !diffs.isEmpty() && diffs.peekLast().getToSerial() == serial) {
+            return new ArrayList<>();
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return diffs.size();
+    }
+}
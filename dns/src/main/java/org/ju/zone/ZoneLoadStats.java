@@ -0,0 +1,61 @@
+package org.ju.zone;
+
+/**
+ * Record counts and per-phase timings from one {@link ZoneFileLoader#load} call.
+ */
+public class ZoneLoadStats {
+
+    private final long records;
+    private final int threads;
+    private final long readNanos;    // Reading and splitting lines into entries (sequential)
+    private final long parseNanos;   // Parsing entries into records, summed over all workers
+    private final long indexNanos;   // Handing records to the sink (sequential)
+    private final long totalNanos;   // Wall clock for the whole load
+
+    public ZoneLoadStats(long records, int threads, long readNanos, long parseNanos, long indexNanos, long totalNanos) {
+        this.records = records;
+        this.threads = threads;
+        this.readNanos = readNanos;
+        this.parseNanos = parseNanos;
+        this.indexNanos = indexNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    // --- Getters ---
+
+    public long getRecords() {
+        return records;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public long getIndexNanos() {
+        return indexNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneLoadStats{" +
+                "records=" + records +
+                ", threads=" + threads +
+                ", readMs=" + readNanos / 1_000_000 +
+                ", parseMs=" + parseNanos / 1_000_000 +
+                ", indexMs=" + indexNanos / 1_000_000 +
+                ", totalMs=" + totalNanos / 1_000_000 +
+                '}';
+    }
+}
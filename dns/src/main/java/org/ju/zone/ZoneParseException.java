@@ -0,0 +1,28 @@
+package org.ju.zone;
+
+import java.io.IOException;
+
+/**
+ * A zone file could not be parsed. The message always starts with {@code file:line:}.
+ */
+public class ZoneParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String file;
+    private final int line;
+
+    public ZoneParseException(String file, int line, String message) {
+        super(file + ":" + line + ": " + message);
+        this.file = file;
+        this.line = line;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int getLine() {
+        return line;
+    }
+}
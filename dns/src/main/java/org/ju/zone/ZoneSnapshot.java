@@ -0,0 +1,90 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One immutable, published generation of zone data.
+ * A query grabs the current snapshot once and does all of its work against it, so a
+ * reload that swaps in a new snapshot mid-query can never produce a torn answer.
+ */
+public final class ZoneSnapshot {
+
+    private final ZoneIndex index;
+    private final long version;
+    private final String source;
+    private final List<ZoneDiff> changes;
+    private final long publishedAtMillis;
+
+    public ZoneSnapshot(ZoneIndex index, long version, String source) {
+        this(index, version, source, null);
+    }
+
+    /**
+     * @param changes The diffs that made this snapshot out of the one before it, or null
+     *                if its data was loaded whole.
+     */
+    public ZoneSnapshot(ZoneIndex index, long version, String source, List<ZoneDiff> changes) {
+        this.index = index;
+        this.version = version;
+        this.source = source;
+        this.changes = changes;
+        this.publishedAtMillis = System.currentTimeMillis();
+    }
+
+    public List<DnsResourceRecord> findClosestMatch(CharSequence name) {
+        return index.findClosestMatch(name);
+    }
+
+    public List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset) {
+        return index.findClosestMatch(buffer, nameOffset);
+    }
+
+    public List<DnsResourceRecord> findAnswer(CharSequence name) {
+        return index.findAnswer(name);
+    }
+
+    public List<DnsResourceRecord> findAnswer(ByteBuffer buffer, int nameOffset) {
+        return index.findAnswer(buffer, nameOffset);
+    }
+
+    // --- Getters ---
+
+    public ZoneIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Strictly increasing across publications; used to invalidate derived caches.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * The diffs that made this snapshot out of the one it replaced, or null if its data
+     * was loaded whole.
+     */
+    public List<ZoneDiff> getChanges() {
+        return changes;
+    }
+
+    public long getPublishedAtMillis() {
+        return publishedAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneSnapshot{" +
+                "version=" + version +
+                ", source='" + source + '\'' +
+                ", names=" + index.size() +
+                '}';
+    }
+}
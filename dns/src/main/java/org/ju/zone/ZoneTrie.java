@@ -0,0 +1,1297 @@
+package org.ju.zone;
+
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reverse-label trie over zone data ("com" -> "example" -> "www").
+ *
+ * Nodes live in parallel primitive arrays rather than as objects, and all parent/label
+ * -> child edges share one open-addressing hash table, so a node costs a few dozen bytes
+ * and the structure stays compact at tens of millions of names. Labels are stored
+ * lowercased and matched ASCII case-insensitively.
+ *
+ * Lookups walk the query name right to left in a single pass, hashing each label in
+ * place, so they never build substrings. Writes are not thread-safe; once built and
+ * safely published the trie can be read from any number of threads.
+ *
+ * {@link #link()} resolves CNAME chains, wildcards and referral glue once the data is
+ * in, so that {@link #findAnswer} is still one walk at query time.
+ *
+ * Every array is cut into fixed-size pages so that a {@link #copy()} can share them all:
+ * the copy starts with its own page directories only, and copies a page the first time
+ * it writes to it. Editing a copy and {@link #relink() relinking} it costs about what the
+ * edit touches, however large the zone.
+ */
+public class ZoneTrie implements ZoneIndex {
+
+    private static final int ROOT = 0;
+
+    /**
+     * Longest CNAME chain followed at link time; a longer one, or a loop, is answered
+     * with the part before it.
+     */
+    public static final int MAX_CHAIN = 8;
+
+    // Nodes (and edge table slots) per page, and label bytes per arena page. A label is
+    // at most 64 bytes with its length, and never straddles two arena pages.
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE - 1;
+    private static final int ARENA_SHIFT = 16;
+    private static final int ARENA_PAGE = 1 << ARENA_SHIFT;
+    private static final int ARENA_MASK = ARENA_PAGE - 1;
+
+    // --- Per-node data, indexed by node id (page = id >>> PAGE_SHIFT) ---
+    // (parent id << 32) | label offset in labelArena (length byte, then label)
+    private long[][] nodes;
+    private Object[][] values;      // List<DnsResourceRecord> owned by this name, or null; null until add()
+    private int nodeCount;
+
+    private byte[][] labelArena;
+    private int arenaSize;          // Offset of the next label; the rest of a page may be skipped
+
+    // Edge table: (edge hash << 32) | (child node id + 1), 0 means empty. Keeping the
+    // full hash in the slot means a probe almost never touches a node it does not want.
+    private long[][] slots;
+    private int slotMask;
+
+    private int nameCount;
+
+    // Children per node, counted on the first edit that empties a name; null until then
+    private int[][] children;
+
+    // Which pages this trie may write to; the others are shared with the trie it was copied from
+    private boolean[] nodesOwned;
+    private boolean[] valuesOwned;
+    private boolean[] arenaOwned;
+    private boolean[] slotsOwned;
+    private boolean[] childrenOwned;
+
+    // --- Precomputed by link(), indexed by node id; null when there are none ---
+    private Object[][] links;       // Link, or null
+    private boolean[] linksOwned;
+    private boolean linked;
+
+    // Nodes edited (or created by an edit) since the last link
+    private int[] dirty;
+    private int dirtyCount;
+
+    // (node << 32) | owner dependencies found so far, while link() runs
+    private long[] collected;
+    private int collectedCount;
+
+    public ZoneTrie() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedNames Sizing hint to avoid regrowing while loading large zones.
+     */
+    public ZoneTrie(int expectedNames) {
+        int nodes = Math.max(16, expectedNames + 1);
+        this.nodes = new long[pages(nodes, PAGE_SHIFT)][];
+        this.nodes[0] = new long[Math.min(nodes, PAGE)];
+        nodesOwned = owned(this.nodes.length);
+        long arena = (long) nodes * 8;
+        labelArena = new byte[(int) Math.min((arena + ARENA_PAGE - 1) >>> ARENA_SHIFT, 1 << 15)][];
+        labelArena[0] = new byte[(int) Math.min(arena, ARENA_PAGE)];
+        arenaOwned = owned(labelArena.length);
+        newSlots(Integer.highestOneBit(nodes * 2 - 1) << 1);
+        this.nodes[0][ROOT] = (long) -1 << 32;
+        nodeCount = 1;
+    }
+
+    private ZoneTrie(ZoneTrie source) {
+        nodes = source.nodes.clone();
+        nodesOwned = new boolean[nodes.length];
+        if (source.values != null) {
+            values = source.values.clone();
+            valuesOwned = new boolean[values.length];
+        }
+        nodeCount = source.nodeCount;
+        labelArena = source.labelArena.clone();
+        arenaOwned = new boolean[labelArena.length];
+        arenaSize = source.arenaSize;
+        slots = source.slots.clone();
+        slotsOwned = new boolean[slots.length];
+        slotMask = source.slotMask;
+        nameCount = source.nameCount;
+        if (source.children != null) {
+            children = source.children.clone();
+            childrenOwned = new boolean[children.length];
+        }
+        if (source.links != null) {
+            links = source.links.clone();
+            linksOwned = new boolean[links.length];
+        }
+        linked = source.linked;
+    }
+
+    /**
+     * Adds {@code record} under its owner name, creating the path to it as needed.
+     */
+    public void add(DnsResourceRecord record) {
+        int node = insertPath(record.getName());
+        if (values == null) {
+            newValues();
+        }
+        List<DnsResourceRecord> list = rrset(node);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            setRRset(node, list);
+            nameCount++;
+        }
+        list.add(record);
+        // Whatever link() worked out may no longer hold
+        links = null;
+        linksOwned = null;
+        linked = false;
+    }
+
+    /**
+     * Records owned by exactly {@code name}, or null.
+     */
+    public List<DnsResourceRecord> get(CharSequence name) {
+        int node = findNode(name);
+        return (node >= 0 && values != null) ? rrset(node) : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<DnsResourceRecord> findClosestMatch(CharSequence name) {
+        Object[][] values = this.values;
+        if (values == null) {
+            return null;
+        }
+        int node = ROOT;
+        Object best = values[0][ROOT];
+        int end = stripTrailingDot(name);
+        while (end > 0) {
+            int start = labelStart(name, end);
+            node = findChild(node, name, start, end);
+            if (node < 0) {
+                break;
+            }
+            Object rrset = values[node >>> PAGE_SHIFT][node & PAGE_MASK];
+            if (rrset != null) {
+                best = rrset;
+            }
+            end = start - 1;
+        }
+        return (List<DnsResourceRecord>) best;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<DnsResourceRecord> findClosestMatch(ByteBuffer buffer, int nameOffset) {
+        Object[][] values = this.values;
+        if (values == null) {
+            return null;
+        }
+        int node = ROOT;
+        Object best = values[0][ROOT];
+        for (int label = wireLabelCount(buffer, nameOffset) - 1; label >= 0; label--) {
+            node = findChild(node, buffer, wireLabel(buffer, nameOffset, label));
+            if (node < 0) {
+                break;
+            }
+            Object rrset = values[node >>> PAGE_SHIFT][node & PAGE_MASK];
+            if (rrset != null) {
+                best = rrset;
+            }
+        }
+        return (List<DnsResourceRecord>) best;
+    }
+
+    @Override
+    public List<DnsResourceRecord> findAnswer(CharSequence name) {
+        Object[][] values = this.values;
+        if (values == null) {
+            return null;
+        }
+        int node = ROOT;
+        int best = ROOT;
+        int end = stripTrailingDot(name);
+        while (end > 0) {
+            int start = labelStart(name, end);
+            int child = findChild(node, name, start, end);
+            if (child < 0) {
+                return answer(node, best, false);
+            }
+            node = child;
+            if (values[node >>> PAGE_SHIFT][node & PAGE_MASK] != null) {
+                best = node;
+            }
+            end = start - 1;
+        }
+        return answer(node, best, true);
+    }
+
+    @Override
+    public List<DnsResourceRecord> findAnswer(ByteBuffer buffer, int nameOffset) {
+        Object[][] values = this.values;
+        if (values == null) {
+            return null;
+        }
+        int node = ROOT;
+        int best = ROOT;
+        for (int label = wireLabelCount(buffer, nameOffset) - 1; label >= 0; label--) {
+            int child = findChild(node, buffer, wireLabel(buffer, nameOffset, label));
+            if (child < 0) {
+                return answer(node, best, false);
+            }
+            node = child;
+            if (values[node >>> PAGE_SHIFT][node & PAGE_MASK] != null) {
+                best = node;
+            }
+        }
+        return answer(node, best, true);
+    }
+
+    @Override
+    public int size() {
+        return nameCount;
+    }
+
+    /**
+     * Works out every CNAME owner's chain, every delegation's glue and every wildcard's
+     * answer, for {@link #findAnswer}. Call once loading is done; adding records
+     * afterwards drops the results until the next call.
+     *
+     * Chains only follow names in this trie, at most {@link #MAX_CHAIN} links, and stop
+     * short of a loop. Records a wildcard supplies part way along a chain are copied
+     * under the name that led there. Glue is whatever A and AAAA records the trie holds
+     * for the NS targets, appended after the NS records for the additional section.
+     */
+    public void link() {
+        links = null;
+        linksOwned = null;
+        dirtyCount = 0;
+        if (values == null) {
+            linked = false;
+            return;
+        }
+        // Dependencies are gathered as (node, owner) pairs and filed in one pass at the
+        // end, so a name many chains lead to is not re-copied for each of them
+        collected = new long[64];
+        collectedCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            linkNode(node);
+        }
+        long[] pairs = collected;
+        int count = collectedCount;
+        collected = null;
+        Arrays.sort(pairs, 0, count);
+        for (int i = 0, run; i < count; i += run) {
+            int node = (int) (pairs[i] >>> 32);
+            for (run = 1; i + run < count && (int) (pairs[i + run] >>> 32) == node; run++) {
+                // Pairs for one node are adjacent after the sort
+            }
+            int[] dependents = new int[run];
+            int n = 0;
+            for (int j = i; j < i + run; j++) {
+                if (n == 0 || dependents[n - 1] != (int) pairs[j]) {
+                    dependents[n++] = (int) pairs[j];
+                }
+            }
+            Link link = link(node);
+            setLink(node, link != null ? link.answer : null, link != null ? link.wildcard : null,
+                    Arrays.copyOf(dependents, n));
+        }
+        linked = true;
+    }
+
+    /**
+     * Brings the linked answers up to date after {@link #edit}s, visiting only the
+     * edited names and the owners whose chain, glue or wildcard answer reached one of
+     * them when they were last linked. Falls back to {@link #link()} on a trie that was
+     * never linked.
+     */
+    void relink() {
+        if (!linked) {
+            link();
+            return;
+        }
+        int[] affected = new int[Math.max(16, dirtyCount * 2)];
+        int count = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            int node = dirty[i];
+            // A name that appears, or a wildcard that changes, matters to whoever looked
+            // for something below its parent and stopped there
+            int[] own = dependents(node);
+            int[] below = (node != ROOT) ? dependents(parent(node)) : null;
+            int more = 1 + (own != null ? own.length : 0) + (below != null ? below.length : 0);
+            if (count + more > affected.length) {
+                affected = Arrays.copyOf(affected, Math.max(affected.length * 2, count + more));
+            }
+            affected[count++] = node;
+            for (int[] dependents : new int[][]{own, below}) {
+                if (dependents != null) {
+                    System.arraycopy(dependents, 0, affected, count, dependents.length);
+                    count += dependents.length;
+                }
+            }
+        }
+        Arrays.sort(affected, 0, count);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || affected[i] != affected[i - 1]) {
+                linkNode(affected[i]);
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * This trie with {@code diffs} applied in order: each one's SOA replaced, its
+     * records deleted, then its records added. The result is a new trie that shares
+     * all the diffs leave alone and is relinked only where they reach; this one is not
+     * changed and can go on being read. Serials are not checked here.
+     */
+    public ZoneTrie apply(List<ZoneDiff> diffs) {
+        ZoneTrie next = copy();
+        for (ZoneDiff diff : diffs) {
+            next.edit(List.of(diff.getOldSoa()), List.of(diff.getNewSoa()));
+            next.edit(diff.getDeleted(), diff.getAdded());
+        }
+        next.relink();
+        return next;
+    }
+
+    /**
+     * A copy to edit while this trie goes on being read. Only the page directories are
+     * copied; the pages themselves, and the RRset lists in them, are shared until the
+     * copy writes to them, which is safe because {@link #edit} replaces lists rather than
+     * changing them. Edit the copy, then {@link #relink()} it.
+     */
+    ZoneTrie copy() {
+        return new ZoneTrie(this);
+    }
+
+    /**
+     * Visits the record list of every owner name (in node creation order).
+     */
+    public void forEachRRset(Consumer<List<DnsResourceRecord>> action) {
+        if (values == null) {
+            return;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            List<DnsResourceRecord> rrset = rrset(node);
+            if (rrset != null) {
+                action.accept(rrset);
+            }
+        }
+    }
+
+    /**
+     * Visits the record list of every owner name in the zone whose apex is {@code apex}:
+     * the apex and the names below it, short of any that start a zone of their own
+     * with an SOA record. Parents come before their children.
+     */
+    public void forEachRRset(CharSequence apex, Consumer<List<DnsResourceRecord>> action) {
+        int top = findNode(apex);
+        if (top < 0 || values == null) {
+            return;
+        }
+        // A node is created after its parent, so one forward pass sees every parent first
+        boolean[] inZone = new boolean[nodeCount];
+        for (int node = top; node < nodeCount; node++) {
+            List<DnsResourceRecord> rrset = rrset(node);
+            inZone[node] = (node == top) || (inZone[parent(node)] && Soa.find(rrset) == null);
+            if (inZone[node] && rrset != null) {
+                action.accept(rrset);
+            }
+        }
+    }
+
+    /**
+     * Applies a diff: each record in {@code deleted} is removed from its owner (matched on
+     * type, class and RDATA), then {@code added} go in. A name left with no records and
+     * no names below it leaves the tree, and so do the empty names above it that it alone
+     * kept there; its node id is not reused. RRsets are replaced rather than
+     * changed, and pages are copied before they are written, so a {@link #copy()} can be
+     * edited while the trie it came from is read. Linked answers are left as they were
+     * until the next {@link #relink()}.
+     */
+    void edit(List<DnsResourceRecord> deleted, List<DnsResourceRecord> added) {
+        for (DnsResourceRecord record : deleted) {
+            int node = findNode(record.getName());
+            List<DnsResourceRecord> rrset = (node >= 0 && values != null) ? rrset(node) : null;
+            if (rrset == null) {
+                continue;
+            }
+            List<DnsResourceRecord> kept = new ArrayList<>(rrset.size());
+            for (DnsResourceRecord r : rrset) {
+                if (!sameData(r, record)) {
+                    kept.add(r);
+                }
+            }
+            if (kept.size() == rrset.size()) {
+                continue;
+            }
+            if (kept.isEmpty()) {
+                setRRset(node, null);
+                nameCount--;
+                prune(node);
+            } else {
+                setRRset(node, kept);
+            }
+            markDirty(node);
+        }
+        for (DnsResourceRecord record : added) {
+            int created = nodeCount;
+            int node = insertPath(record.getName());
+            for (int n = created; n < nodeCount; n++) {
+                markDirty(n);
+            }
+            if (values == null) {
+                newValues();
+            }
+            List<DnsResourceRecord> rrset = rrset(node);
+            List<DnsResourceRecord> grown = (rrset == null) ? new ArrayList<>(1) : new ArrayList<>(rrset);
+            grown.add(record);
+            setRRset(node, grown);
+            if (rrset == null) {
+                nameCount++;
+            }
+            markDirty(node);
+        }
+    }
+
+    // --- Name table (used on its own by CompactZone) ---
+
+    /**
+     * Id of the node for {@code name}, creating it and its ancestors as needed. Ids are
+     * dense, start at 0 for the root and never change.
+     */
+    int intern(CharSequence name) {
+        return insertPath(name);
+    }
+
+    /**
+     * Id of the node for exactly {@code name}, or -1.
+     */
+    int findNode(CharSequence name) {
+        int node = walk(name);
+        return (node >= 0) ? node : -1;
+    }
+
+    /**
+     * The deepest node on the path to {@code name} with a nonzero entry in {@code marks}
+     * (indexed by node id; shorter than the node count is fine), or the root.
+     */
+    int closestNode(CharSequence name, int[] marks) {
+        int node = ROOT;
+        int best = ROOT;
+        int end = stripTrailingDot(name);
+        while (end > 0) {
+            int start = labelStart(name, end);
+            node = findChild(node, name, start, end);
+            if (node < 0) {
+                break;
+            }
+            if (node < marks.length && marks[node] != 0) {
+                best = node;
+            }
+            end = start - 1;
+        }
+        return best;
+    }
+
+    /**
+     * As {@link #closestNode(CharSequence, int[])}, for an uncompressed wire-format name.
+     */
+    int closestNode(ByteBuffer buffer, int nameOffset, int[] marks) {
+        int node = ROOT;
+        int best = ROOT;
+        for (int label = wireLabelCount(buffer, nameOffset) - 1; label >= 0; label--) {
+            node = findChild(node, buffer, wireLabel(buffer, nameOffset, label));
+            if (node < 0) {
+                break;
+            }
+            if (node < marks.length && marks[node] != 0) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The absolute name of {@code node}, lowercased, e.g. "www.example.com.".
+     */
+    String nameOf(int node) {
+        if (node == ROOT) {
+            return ".";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int n = node; n != ROOT; n = parent(n)) {
+            int offset = labelOffset(n);
+            byte[] page = labelArena[offset >>> ARENA_SHIFT];
+            int at = offset & ARENA_MASK;
+            int length = page[at] & 0xFF;
+            for (int i = 1; i <= length; i++) {
+                sb.append((char) (page[at + i] & 0xFF));
+            }
+            sb.append('.');
+        }
+        return sb.toString();
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Shrinks the node pages and label arena to what is in use; for a trie that is done
+     * growing. The edge table keeps its size so probes stay short.
+     */
+    void trimToSize() {
+        int pages = pages(nodeCount, PAGE_SHIFT);
+        int used = nodeCount - ((pages - 1) << PAGE_SHIFT);
+        nodes = Arrays.copyOf(nodes, pages);
+        nodesOwned = Arrays.copyOf(nodesOwned, pages);
+        nodes[pages - 1] = Arrays.copyOf(nodes[pages - 1], used);
+        nodesOwned[pages - 1] = true;
+        if (values != null) {
+            values = Arrays.copyOf(values, pages);
+            valuesOwned = Arrays.copyOf(valuesOwned, pages);
+            values[pages - 1] = Arrays.copyOf(values[pages - 1], used);
+            valuesOwned[pages - 1] = true;
+        }
+        children = null; // Counted again if ever needed
+        childrenOwned = null;
+        int arenaPages = Math.max(1, pages(arenaSize, ARENA_SHIFT));
+        labelArena = Arrays.copyOf(labelArena, arenaPages);
+        arenaOwned = Arrays.copyOf(arenaOwned, arenaPages);
+        labelArena[arenaPages - 1] = Arrays.copyOf(labelArena[arenaPages - 1],
+                arenaSize - ((arenaPages - 1) << ARENA_SHIFT));
+        arenaOwned[arenaPages - 1] = true;
+    }
+
+    // --- Internals ---
+
+    /**
+     * What {@link #link()} worked out for one node. Replaced, never changed, so that a
+     * copy can share it.
+     */
+    private static final class Link {
+
+        // The node's answer when it differs from its RRset: a CNAME chain, or NS records then glue
+        final Object answer;
+        // For the parent of a "*" node: the answer for the names it covers
+        final Object wildcard;
+        // Owners whose answer depends on this node: chains and glue lookups that reached it,
+        // or stopped here looking for a name below it. May name owners that no longer do.
+        final int[] dependents;
+
+        Link(Object answer, Object wildcard, int[] dependents) {
+            this.answer = answer;
+            this.wildcard = wildcard;
+            this.dependents = dependents;
+        }
+    }
+
+    /**
+     * Answer once the walk has stopped at {@code node}: at the end of the name if
+     * {@code exact}, else at the closest encloser of a name that does not exist.
+     * {@code best} is the deepest node on the way that has records.
+     */
+    @SuppressWarnings("unchecked")
+    private List<DnsResourceRecord> answer(int node, int best, boolean exact) {
+        if (!exact) {
+            Link link = link(node);
+            if (link != null && link.wildcard != null) {
+                return (List<DnsResourceRecord>) link.wildcard;
+            }
+        } else if (best != node && (rrset(best) == null || !isDelegation(rrset(best)))) {
+            // An empty non-terminal: the name exists, as the parent of others, but owns nothing
+            return Collections.emptyList();
+        }
+        Link link = link(best);
+        if (link != null && link.answer != null) {
+            return (List<DnsResourceRecord>) link.answer;
+        }
+        return rrset(best);
+    }
+
+    /**
+     * Works out {@code node}'s own answer and, for a "*" node, its parent's wildcard
+     * answer, noting on every node a lookup reached that {@code node} depends on it.
+     */
+    private void linkNode(int node) {
+        List<DnsResourceRecord> rrset = rrset(node);
+        List<DnsResourceRecord> answer = rrset;
+        if (rrset != null) {
+            answer = resolveChain(node, rrset);
+            if (answer == rrset) {
+                answer = withGlue(node, rrset);
+            }
+        }
+        Link link = link(node);
+        Object own = (answer != rrset) ? answer : null;
+        if (link != null ? link.answer != own : own != null) {
+            setLink(node, own, link != null ? link.wildcard : null, link != null ? link.dependents : null);
+        }
+        if (isWildcard(node)) {
+            int parent = parent(node);
+            Link above = link(parent);
+            if (above != null ? above.wildcard != answer : answer != null) {
+                setLink(parent, above != null ? above.answer : null, answer, above != null ? above.dependents : null);
+            }
+        }
+    }
+
+    /**
+     * Notes that the answer of {@code owner} was worked out from what is (or is not) at
+     * or below {@code node}.
+     */
+    private void depend(int node, int owner) {
+        if (collected != null) {
+            if (collectedCount == collected.length) {
+                collected = Arrays.copyOf(collected, collectedCount * 2);
+            }
+            collected[collectedCount++] = ((long) node << 32) | owner;
+            return;
+        }
+        Link link = link(node);
+        int[] dependents = (link != null) ? link.dependents : null;
+        if (dependents == null) {
+            dependents = new int[]{owner};
+        } else {
+            for (int dependent : dependents) {
+                if (dependent == owner) {
+                    return;
+                }
+            }
+            dependents = Arrays.copyOf(dependents, dependents.length + 1);
+            dependents[dependents.length - 1] = owner;
+        }
+        setLink(node, link != null ? link.answer : null, link != null ? link.wildcard : null, dependents);
+    }
+
+    private int[] dependents(int node) {
+        Link link = link(node);
+        return (link != null) ? link.dependents : null;
+    }
+
+    private Link link(int node) {
+        Object[][] links = this.links;
+        int page = node >>> PAGE_SHIFT;
+        if (links == null || page >= links.length || links[page] == null) {
+            return null;
+        }
+        return (Link) links[page][node & PAGE_MASK];
+    }
+
+    private void setLink(int node, Object answer, Object wildcard, int[] dependents) {
+        int page = node >>> PAGE_SHIFT;
+        if (links == null || page >= links.length) {
+            int pages = nodes.length;
+            links = (links == null) ? new Object[pages][] : Arrays.copyOf(links, pages);
+            linksOwned = (linksOwned == null) ? new boolean[pages] : Arrays.copyOf(linksOwned, pages);
+        }
+        if (links[page] == null) {
+            links[page] = new Object[PAGE];
+            linksOwned[page] = true;
+        }
+        boolean empty = answer == null && wildcard == null && dependents == null;
+        writable(links, linksOwned, page)[node & PAGE_MASK] = empty ? null : new Link(answer, wildcard, dependents);
+    }
+
+    /**
+     * Takes {@code node}, which has just lost its last record, out of the tree if no name
+     * below it keeps it there, then does the same for its parent.
+     */
+    private void prune(int node) {
+        if (children == null) {
+            countChildren();
+        }
+        while (node != ROOT && rrset(node) == null && children[node >>> PAGE_SHIFT][node & PAGE_MASK] == 0) {
+            int parent = parent(node);
+            removeSlot(slotOf(node));
+            writable(children, childrenOwned, parent >>> PAGE_SHIFT)[parent & PAGE_MASK]--;
+            markDirty(node);
+            node = parent;
+        }
+    }
+
+    /**
+     * Fills in {@link #children}: one pass over the nodes, skipping any already pruned.
+     */
+    private void countChildren() {
+        children = new int[nodes.length][];
+        childrenOwned = owned(nodes.length);
+        for (int page = 0; page < nodes.length; page++) {
+            if (nodes[page] != null) {
+                children[page] = new int[nodes[page].length];
+            }
+        }
+        for (int node = 1; node < nodeCount; node++) {
+            if (slotOf(node) >= 0) {
+                int parent = parent(node);
+                children[parent >>> PAGE_SHIFT][parent & PAGE_MASK]++;
+            }
+        }
+    }
+
+    private void markDirty(int node) {
+        if (dirty == null) {
+            dirty = new int[16];
+        } else if (dirtyCount == dirty.length) {
+            dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+        }
+        dirty[dirtyCount++] = node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<DnsResourceRecord> rrset(int node) {
+        return (List<DnsResourceRecord>) values[node >>> PAGE_SHIFT][node & PAGE_MASK];
+    }
+
+    private void setRRset(int node, List<DnsResourceRecord> rrset) {
+        writable(values, valuesOwned, node >>> PAGE_SHIFT)[node & PAGE_MASK] = rrset;
+    }
+
+    /**
+     * Creates the values pages, one for each node page and of the same length.
+     */
+    private void newValues() {
+        values = new Object[nodes.length][];
+        valuesOwned = owned(nodes.length);
+        for (int page = 0; page < nodes.length; page++) {
+            if (nodes[page] != null) {
+                values[page] = new Object[nodes[page].length];
+            }
+        }
+    }
+
+    private int parent(int node) {
+        return (int) (nodes[node >>> PAGE_SHIFT][node & PAGE_MASK] >>> 32);
+    }
+
+    private int labelOffset(int node) {
+        return (int) nodes[node >>> PAGE_SHIFT][node & PAGE_MASK];
+    }
+
+    /**
+     * {@code rrset} itself, or if it holds a CNAME, a new list with the chain that starts there.
+     */
+    private List<DnsResourceRecord> resolveChain(int owner, List<DnsResourceRecord> rrset) {
+        DnsResourceRecord cname = cnameOf(rrset);
+        if (cname == null) {
+            return rrset;
+        }
+        List<DnsResourceRecord> chain = new ArrayList<>(rrset);
+        int[] visited = new int[MAX_CHAIN];
+        visited[0] = owner;
+        for (int links = 1; links < MAX_CHAIN && cname != null; links++) {
+            String target = DnsLabelEncoder.decode(ByteBuffer.wrap(cname.getRData()));
+            int node = walk(target);
+            depend(node >= 0 ? node : -1 - node, owner);
+            List<DnsResourceRecord> next = (node >= 0) ? rrset(node) : null;
+            if (next == null) {
+                // Not an owner name: a wildcard may still cover it
+                node = (node >= 0) ? -1 : wildcardUnder(-1 - node);
+                if (node < 0) {
+                    break;
+                }
+                next = renamed(rrset(node), target);
+            }
+            for (int i = 0; i < links; i++) {
+                if (visited[i] == node) {
+                    return chain;
+                }
+            }
+            visited[links] = node;
+            chain.addAll(next);
+            cname = cnameOf(next);
+        }
+        return chain;
+    }
+
+    /**
+     * Whether {@code rrset} marks a zone cut: NS records without the SOA of an apex.
+     * Names below one are not ours to answer, empty or not.
+     */
+    private static boolean isDelegation(List<DnsResourceRecord> rrset) {
+        boolean ns = false;
+        for (int i = 0; i < rrset.size(); i++) {
+            int type = rrset.get(i).getType();
+            if (type == DnsType.SOA) {
+                return false;
+            }
+            ns |= type == DnsType.NS;
+        }
+        return ns;
+    }
+
+    /**
+     * {@code rrset} followed by the address records of its NS targets, or {@code rrset}
+     * itself if it delegates nowhere we hold addresses for.
+     */
+    private List<DnsResourceRecord> withGlue(int owner, List<DnsResourceRecord> rrset) {
+        List<DnsResourceRecord> answer = rrset;
+        for (int i = 0; i < rrset.size(); i++) {
+            DnsResourceRecord ns = rrset.get(i);
+            if (ns.getType() != DnsType.NS) {
+                continue;
+            }
+            int node;
+            try {
+                node = walk(DnsLabelEncoder.decode(ByteBuffer.wrap(ns.getRData())));
+            } catch (IllegalArgumentException e) {
+                continue; // Not a name: nothing to glue
+            }
+            depend(node >= 0 ? node : -1 - node, owner);
+            List<DnsResourceRecord> addresses = (node >= 0) ? rrset(node) : null;
+            if (addresses == null) {
+                continue;
+            }
+            for (DnsResourceRecord address : addresses) {
+                if (address.getType() == DnsType.A || address.getType() == DnsType.AAAA) {
+                    if (answer == rrset) {
+                        answer = new ArrayList<>(rrset);
+                    }
+                    if (!answer.contains(address)) {
+                        answer.add(address);
+                    }
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * The node for exactly {@code name}, or if there is none, -1 minus the deepest node
+     * on the way to it.
+     */
+    private int walk(CharSequence name) {
+        int node = ROOT;
+        int end = stripTrailingDot(name);
+        while (end > 0) {
+            int start = labelStart(name, end);
+            int child = findChild(node, name, start, end);
+            if (child < 0) {
+                return -1 - node;
+            }
+            node = child;
+            end = start - 1;
+        }
+        return node;
+    }
+
+    /**
+     * The "*" child of {@code node} if it owns records, which then answer for the names
+     * below {@code node} that have no node of their own; or -1.
+     */
+    private int wildcardUnder(int node) {
+        int wildcard = findChild(node, "*", 0, 1);
+        return (wildcard >= 0 && rrset(wildcard) != null) ? wildcard : -1;
+    }
+
+    private boolean isWildcard(int node) {
+        if (node == ROOT) {
+            return false;
+        }
+        int offset = labelOffset(node);
+        byte[] page = labelArena[offset >>> ARENA_SHIFT];
+        int at = offset & ARENA_MASK;
+        return page[at] == 1 && page[at + 1] == '*';
+    }
+
+    private static boolean sameData(DnsResourceRecord a, DnsResourceRecord b) {
+        return a.getType() == b.getType() && a.getRClass() == b.getRClass()
+                && Arrays.equals(a.getRData(), b.getRData());
+    }
+
+    private static DnsResourceRecord cnameOf(List<DnsResourceRecord> rrset) {
+        for (int i = 0; i < rrset.size(); i++) {
+            if (rrset.get(i).getType() == DnsType.CNAME) {
+                return rrset.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static List<DnsResourceRecord> renamed(List<DnsResourceRecord> rrset, String owner) {
+        List<DnsResourceRecord> copies = new ArrayList<>(rrset.size());
+        for (DnsResourceRecord r : rrset) {
+            copies.add(new DnsResourceRecord(owner, r.getType(), r.getRClass(), r.getTtl(), r.getRdLength(), r.getRData()));
+        }
+        return copies;
+    }
+
+    private int insertPath(CharSequence name) {
+        int node = ROOT;
+        int end = stripTrailingDot(name);
+        while (end > 0) {
+            int start = labelStart(name, end);
+            if (end - start > 63) {
+                throw new IllegalArgumentException("Label is too long in: " + name);
+            }
+            int child = findChild(node, name, start, end);
+            node = (child >= 0) ? child : addChild(node, name, start, end);
+            end = start - 1;
+        }
+        return node;
+    }
+
+    private int findChild(int parent, CharSequence name, int start, int end) {
+        int hash = edgeHash(parent, labelHash(name, start, end));
+        long[][] slots = this.slots;
+        int mask = slotMask;
+        int i = hash & mask;
+        long slot;
+        while ((slot = slots[i >>> PAGE_SHIFT][i & PAGE_MASK]) != 0) {
+            if ((int) (slot >>> 32) == hash) {
+                int child = (int) slot - 1;
+                long node = nodes[child >>> PAGE_SHIFT][child & PAGE_MASK];
+                if ((int) (node >>> 32) == parent && labelEquals((int) node, name, start, end)) {
+                    return child;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * As above, for the wire label whose length byte is at {@code labelOffset}.
+     */
+    private int findChild(int parent, ByteBuffer buffer, int labelOffset) {
+        int hash = edgeHash(parent, labelHash(buffer, labelOffset));
+        long[][] slots = this.slots;
+        int mask = slotMask;
+        int i = hash & mask;
+        long slot;
+        while ((slot = slots[i >>> PAGE_SHIFT][i & PAGE_MASK]) != 0) {
+            if ((int) (slot >>> 32) == hash) {
+                int child = (int) slot - 1;
+                long node = nodes[child >>> PAGE_SHIFT][child & PAGE_MASK];
+                if ((int) (node >>> 32) == parent && labelEquals((int) node, buffer, labelOffset)) {
+                    return child;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int addChild(int parent, CharSequence name, int start, int end) {
+        int node = nodeCount;
+        growNodes(node);
+        if ((nodeCount + 1) * 2 > slotMask + 1) {
+            rehash((slotMask + 1) * 2);
+        }
+        int length = end - start;
+        int offset = reserveLabel(length + 1);
+        byte[] page = writable(labelArena, arenaOwned, offset >>> ARENA_SHIFT);
+        int at = offset & ARENA_MASK;
+        page[at++] = (byte) length;
+        for (int i = start; i < end; i++) {
+            page[at++] = (byte) toLower(name.charAt(i));
+        }
+
+        writable(nodes, nodesOwned, node >>> PAGE_SHIFT)[node & PAGE_MASK] =
+                ((long) parent << 32) | (offset & 0xFFFFFFFFL);
+        nodeCount++;
+        insertSlot(node, edgeHash(parent, labelHash(name, start, end)));
+        if (children != null) {
+            writable(children, childrenOwned, parent >>> PAGE_SHIFT)[parent & PAGE_MASK]++;
+        }
+        return node;
+    }
+
+    /**
+     * Makes room for {@code node} in the node pages and, in step, the values and
+     * children pages.
+     */
+    private void growNodes(int node) {
+        int page = node >>> PAGE_SHIFT;
+        if (page == nodes.length) {
+            int pages = nodes.length * 2;
+            nodes = Arrays.copyOf(nodes, pages);
+            nodesOwned = Arrays.copyOf(nodesOwned, pages);
+            if (values != null) {
+                values = Arrays.copyOf(values, pages);
+                valuesOwned = Arrays.copyOf(valuesOwned, pages);
+            }
+            if (children != null) {
+                children = Arrays.copyOf(children, pages);
+                childrenOwned = Arrays.copyOf(childrenOwned, pages);
+            }
+        }
+        int index = node & PAGE_MASK;
+        if (nodes[page] != null && index < nodes[page].length) {
+            return;
+        }
+        int length = (nodes[page] == null) ? PAGE : Math.min(PAGE, Math.max(16, index * 2));
+        nodes[page] = (nodes[page] == null) ? new long[length] : Arrays.copyOf(nodes[page], length);
+        nodesOwned[page] = true;
+        if (values != null) {
+            values[page] = (values[page] == null) ? new Object[length] : Arrays.copyOf(values[page], length);
+            valuesOwned[page] = true;
+        }
+        if (children != null) {
+            children[page] = (children[page] == null) ? new int[length] : Arrays.copyOf(children[page], length);
+            childrenOwned[page] = true;
+        }
+    }
+
+    /**
+     * Offset for {@code size} more bytes of label data, all on one arena page.
+     */
+    private int reserveLabel(int size) {
+        int page = arenaSize >>> ARENA_SHIFT;
+        int at = arenaSize & ARENA_MASK;
+        if (at + size > ARENA_PAGE) {
+            page++;
+            at = 0;
+        }
+        if (page == labelArena.length) {
+            labelArena = Arrays.copyOf(labelArena, labelArena.length * 2);
+            arenaOwned = Arrays.copyOf(arenaOwned, labelArena.length);
+        }
+        if (labelArena[page] == null) {
+            labelArena[page] = new byte[ARENA_PAGE];
+            arenaOwned[page] = true;
+        } else if (at + size > labelArena[page].length) {
+            labelArena[page] = Arrays.copyOf(labelArena[page],
+                    Math.min(ARENA_PAGE, Math.max(labelArena[page].length * 2, at + size)));
+            arenaOwned[page] = true;
+        }
+        int offset = (page << ARENA_SHIFT) | at;
+        arenaSize = offset + size;
+        return offset;
+    }
+
+    private void insertSlot(int node, int hash) {
+        int mask = slotMask;
+        int i = hash & mask;
+        while (slots[i >>> PAGE_SHIFT][i & PAGE_MASK] != 0) {
+            i = (i + 1) & mask;
+        }
+        writable(slots, slotsOwned, i >>> PAGE_SHIFT)[i & PAGE_MASK] = ((long) hash << 32) | (node + 1);
+    }
+
+    /**
+     * Index of the edge table slot that leads to {@code node}, or -1 if it was pruned.
+     */
+    private int slotOf(int node) {
+        int offset = labelOffset(node);
+        byte[] page = labelArena[offset >>> ARENA_SHIFT];
+        int at = offset & ARENA_MASK;
+        int h = 0x811C9DC5;
+        for (int i = at + 1; i <= at + (page[at] & 0xFF); i++) {
+            h = (h ^ (page[i] & 0xFF)) * 0x01000193;
+        }
+        int hash = edgeHash(parent(node), h);
+        long wanted = ((long) hash << 32) | (node + 1);
+        int mask = slotMask;
+        int i = hash & mask;
+        long slot;
+        while ((slot = slots[i >>> PAGE_SHIFT][i & PAGE_MASK]) != 0) {
+            if (slot == wanted) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties slot {@code i}, moving later entries of its probe run back so that none of
+     * them is cut off from where its probe starts.
+     */
+    private void removeSlot(int i) {
+        int mask = slotMask;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long slot = slots[j >>> PAGE_SHIFT][j & PAGE_MASK];
+            if (slot == 0) {
+                break;
+            }
+            int home = (int) (slot >>> 32) & mask;
+            // Stays put if its probe starts after the hole (cyclically) and no later than j
+            if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j)) {
+                continue;
+            }
+            writable(slots, slotsOwned, i >>> PAGE_SHIFT)[i & PAGE_MASK] = slot;
+            i = j;
+        }
+        writable(slots, slotsOwned, i >>> PAGE_SHIFT)[i & PAGE_MASK] = 0;
+    }
+
+    private void newSlots(int capacity) {
+        slots = new long[Math.max(1, capacity >>> PAGE_SHIFT)][];
+        for (int page = 0; page < slots.length; page++) {
+            slots[page] = new long[Math.min(capacity, PAGE)];
+        }
+        slotsOwned = owned(slots.length);
+        slotMask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[][] old = slots;
+        newSlots(capacity);
+        for (long[] page : old) {
+            for (long slot : page) {
+                if (slot != 0) {
+                    insertSlot((int) slot - 1, (int) (slot >>> 32));
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code pages[page]}, copied first if it is still shared with another trie.
+     */
+    private static long[] writable(long[][] pages, boolean[] owned, int page) {
+        if (!owned[page]) {
+            pages[page] = pages[page].clone();
+            owned[page] = true;
+        }
+        return pages[page];
+    }
+
+    private static int[] writable(int[][] pages, boolean[] owned, int page) {
+        if (!owned[page]) {
+            pages[page] = pages[page].clone();
+            owned[page] = true;
+        }
+        return pages[page];
+    }
+
+    private static byte[] writable(byte[][] pages, boolean[] owned, int page) {
+        if (!owned[page]) {
+            pages[page] = pages[page].clone();
+            owned[page] = true;
+        }
+        return pages[page];
+    }
+
+    private static Object[] writable(Object[][] pages, boolean[] owned, int page) {
+        if (!owned[page]) {
+            pages[page] = pages[page].clone();
+            owned[page] = true;
+        }
+        return pages[page];
+    }
+
+    private static boolean[] owned(int pages) {
+        boolean[] owned = new boolean[pages];
+        Arrays.fill(owned, true);
+        return owned;
+    }
+
+    private static int pages(long entries, int shift) {
+        return (int) ((entries + (1 << shift) - 1) >>> shift);
+    }
+
+    private boolean labelEquals(int offset, CharSequence name, int start, int end) {
+        byte[] page = labelArena[offset >>> ARENA_SHIFT];
+        int at = offset & ARENA_MASK;
+        if ((page[at] & 0xFF) != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (page[++at] != (byte) toLower(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean labelEquals(int offset, ByteBuffer buffer, int labelOffset) {
+        byte[] page = labelArena[offset >>> ARENA_SHIFT];
+        int at = offset & ARENA_MASK;
+        int length = buffer.get(labelOffset) & 0xFF;
+        if ((page[at] & 0xFF) != length) {
+            return false;
+        }
+        for (int i = 1; i <= length; i++) {
+            if (page[at + i] != (byte) toLower((char) (buffer.get(labelOffset + i) & 0xFF))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int stripTrailingDot(CharSequence name) {
+        int end = name.length();
+        return (end > 0 && name.charAt(end - 1) == '.') ? end - 1 : end;
+    }
+
+    /**
+     * Start of the label that ends at {@code end} (exclusive), scanning backwards.
+     */
+    private static int labelStart(CharSequence name, int end) {
+        int i = end - 1;
+        while (i >= 0 && name.charAt(i) != '.') {
+            i--;
+        }
+        return i + 1;
+    }
+
+    private static int labelHash(CharSequence name, int start, int end) {
+        int h = 0x811C9DC5;
+        for (int i = start; i < end; i++) {
+            h = (h ^ toLower(name.charAt(i))) * 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * Same hash as the CharSequence form, so wire and presentation names meet in one table.
+     */
+    private static int labelHash(ByteBuffer buffer, int labelOffset) {
+        int h = 0x811C9DC5;
+        int end = labelOffset + 1 + (buffer.get(labelOffset) & 0xFF);
+        for (int i = labelOffset + 1; i < end; i++) {
+            h = (h ^ toLower((char) (buffer.get(i) & 0xFF))) * 0x01000193;
+        }
+        return h;
+    }
+
+    // Wire names run left to right and the trie right to left. Rather than collect the
+    // label offsets somewhere, each one is found again from the start: names have a
+    // handful of labels, and the rescan stays in one cache line.
+
+    private static int wireLabelCount(ByteBuffer buffer, int nameOffset) {
+        int count = 0;
+        int length;
+        while ((length = buffer.get(nameOffset) & 0xFF) != 0) {
+            if (length > 63) {
+                throw new IllegalArgumentException("Compressed or malformed name at offset " + nameOffset);
+            }
+            nameOffset += 1 + length;
+            count++;
+        }
+        return count;
+    }
+
+    private static int wireLabel(ByteBuffer buffer, int nameOffset, int index) {
+        for (int i = 0; i < index; i++) {
+            nameOffset += 1 + (buffer.get(nameOffset) & 0xFF);
+        }
+        return nameOffset;
+    }
+
+    private static int edgeHash(int parent, int labelHash) {
+        int h = labelHash ^ (parent * 0x9E3779B9);
+        return h ^ (h >>> 16);
+    }
+
+    private static int toLower(char c) {
+        return (c >= 'A' && c <= 'Z') ? c + 32 : c & 0xFF;
+    }
+}
@@ -0,0 +1,84 @@
+package org.ju;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ordering and load shedding of the admission queue, on a hand-driven clock.
+ */
+public class AdmissionQueueTest extends TestCase {
+
+    private long now = 1_000_000_000L;
+    private AdmissionQueue queue;
+
+    @Override
+    protected void setUp() {
+        queue = new AdmissionQueue(2, 500, 512, 1, () -> now);
+    }
+
+    public void testCheapQueriesAreTakenFirst() throws Exception {
+        AdmissionQueue.Packet miss = queue.acquire();
+        AdmissionQueue.Packet hit = queue.acquire();
+        assertTrue(queue.offer(miss, false));
+        assertTrue(queue.offer(hit, true));
+
+        assertSame(hit, queue.take());
+        assertSame(miss, queue.take());
+        assertEquals(0, queue.size());
+    }
+
+    public void testFullQueueDropsArrivalsUnlessAMissCanMakeRoom() throws Exception {
+        AdmissionQueue.Packet first = queue.acquire();
+        AdmissionQueue.Packet second = queue.acquire();
+        assertTrue(queue.offer(first, false));
+        assertTrue(queue.offer(second, false));
+
+        AdmissionQueue.Packet late = queue.acquire();
+        assertFalse(queue.offer(late, false));
+        assertEquals(1, queue.getShedFull());
+
+        // A cheap query takes the oldest miss's place
+        assertTrue(queue.offer(late, true));
+        assertEquals(1, queue.getShedDisplaced());
+        assertSame(late, queue.take());
+        assertSame(second, queue.take());
+
+        // With only cheap queries queued there is nothing to displace
+        assertTrue(queue.offer(queue.acquire(), true));
+        assertTrue(queue.offer(queue.acquire(), true));
+        assertFalse(queue.offer(queue.acquire(), true));
+        assertEquals(2, queue.getShedFull());
+        assertEquals(5, queue.getAdmitted());
+    }
+
+    public void testQueriesOlderThanTheMaximumAgeAreShed() throws Exception {
+        AdmissionQueue.Packet old = queue.acquire();
+        assertTrue(queue.offer(old, true));
+        now += 600_000_000L;
+        AdmissionQueue.Packet fresh = queue.acquire();
+        assertTrue(queue.offer(fresh, false));
+
+        assertSame(fresh, queue.take());
+        assertEquals(1, queue.getShedExpired());
+    }
+
+    public void testCloseWakesWaitingWorkers() throws Exception {
+        AtomicReference<Object> taken = new AtomicReference<>("nothing yet");
+        Thread worker = new Thread(() -> {
+            try {
+                taken.set(queue.take());
+            } catch (InterruptedException e) {
+                taken.set(e);
+            }
+        });
+        worker.start();
+        Thread.sleep(50);
+        queue.close();
+        worker.join(2000);
+
+        assertFalse(worker.isAlive());
+        assertNull(taken.get());
+        assertFalse(queue.offer(queue.acquire(), true));
+    }
+}
@@ -0,0 +1,117 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.util.DnsMessageCodec;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CNAME chains, wildcard answers and referral glue, on the wire path and the object path alike.
+ */
+public class AnswerSynthesisTest extends TestCase {
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final QueryContext ctx = new QueryContext(new ResponseCache(64));
+    private final ByteBuffer out = ByteBuffer.allocateDirect(4096);
+    private ZoneSnapshot original;
+
+    @Override
+    protected void setUp() {
+        original = DnsRecordStore.current();
+        ZoneTrie trie = new ZoneTrie();
+        trie.add(cname("ftp.example.com.", "files.example.com."));
+        trie.add(cname("files.example.com.", "www.example.com."));
+        trie.add(new DnsResourceRecord("www.example.com.", DnsType.A, DnsClass.IN, 300, 4, new byte[]{10, 0, 0, 1}));
+        trie.add(new DnsResourceRecord("*.users.example.com.", DnsType.A, DnsClass.IN, 60, 4, new byte[]{10, 0, 0, 2}));
+        trie.add(cname("a.loop.example.com.", "b.loop.example.com."));
+        trie.add(cname("b.loop.example.com.", "a.loop.example.com."));
+        byte[] ns = DnsLabelEncoder.encode("ns1.sub.example.com.");
+        trie.add(new DnsResourceRecord("sub.example.com.", DnsType.NS, DnsClass.IN, 3600, ns.length, ns));
+        trie.add(new DnsResourceRecord("ns1.sub.example.com.", DnsType.A, DnsClass.IN, 3600, 4, new byte[]{10, 9, 9, 9}));
+        trie.link();
+        DnsRecordStore.publish(trie, "synthesis-test");
+    }
+
+    @Override
+    protected void tearDown() {
+        DnsRecordStore.publish(original.getIndex(), original.getSource());
+    }
+
+    public void testWholeChainInOneResponse() {
+        for (DnsMessage response : List.of(wire("FTP.example.com."), object("FTP.example.com."))) {
+            assertEquals(0x0400, response.getHeader().getFlags() & 0x040F); // AA, NOERROR
+            List<DnsResourceRecord> answers = response.getAnswers();
+            assertEquals(3, answers.size());
+            assertEquals(DnsType.CNAME, answers.get(0).getType());
+            assertEquals("files.example.com.", answers.get(1).getName().toLowerCase());
+            assertEquals(DnsType.A, answers.get(2).getType());
+        }
+
+        // A loop is answered with the links up to it, not followed forever
+        DnsMessage loop = wire("a.loop.example.com.");
+        assertEquals(2, loop.getAnswers().size());
+        assertEquals(0, loop.getHeader().getFlags() & 0xF);
+    }
+
+    public void testWildcardAnswersUnderTheQueryName() {
+        for (int i = 0; i < 2; i++) { // The second wire query is a response cache hit
+            for (DnsMessage response : List.of(wire("Alice.users.example.com."), object("Alice.users.example.com."))) {
+                assertEquals(0x0400, response.getHeader().getFlags() & 0x040F);
+                DnsResourceRecord answer = response.getAnswers().get(0);
+                assertEquals("Alice.users.example.com.", answer.getName());
+                assertEquals(60, answer.getTtl());
+                assertEquals(2, answer.getRData()[3]);
+            }
+        }
+        // Only names below the wildcard's parent are covered; the parent exists, empty
+        for (DnsMessage response : List.of(wire("users.example.com."), object("users.example.com."))) {
+            assertEquals(0x0400, response.getHeader().getFlags() & 0x040F); // NODATA
+            assertTrue(response.getAnswers().isEmpty());
+        }
+        assertEquals(3, wire("bob.example.com.").getHeader().getFlags() & 0xF);
+    }
+
+    public void testReferralCarriesGlue() {
+        for (DnsMessage response : List.of(wire("host.sub.example.com."), object("host.sub.example.com."))) {
+            assertEquals(0, response.getHeader().getFlags() & 0x040F); // Not authoritative, NOERROR
+            assertTrue(response.getAnswers().isEmpty());
+            DnsResourceRecord ns = response.getAuthorities().get(0);
+            assertEquals(1, response.getAuthorities().size());
+            assertEquals("ns1.sub.example.com.", DnsLabelEncoder.decode(ByteBuffer.wrap(ns.getRData())));
+            DnsResourceRecord glue = response.getAdditionals().get(0);
+            assertEquals(1, response.getAdditionals().size());
+            assertEquals("ns1.sub.example.com.", glue.getName());
+            assertEquals(9, glue.getRData()[3]);
+        }
+    }
+
+    // --- Helpers ---
+
+    private DnsMessage wire(String name) {
+        ByteBuffer response = SimpleDnsServer.processQuery(ctx, ByteBuffer.wrap(codec.encode(query(name))), out);
+        byte[] bytes = new byte[response.remaining()];
+        response.duplicate().get(bytes);
+        return codec.decode(bytes);
+    }
+
+    private static DnsMessage object(String name) {
+        return SimpleDnsServer.processQuery(query(name));
+    }
+
+    private static DnsMessage query(String name) {
+        return new DnsMessage(new DnsHeader(0x1234, 0, 1, 0, 0, 0),
+                List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    private static DnsResourceRecord cname(String name, String target) {
+        byte[] rData = DnsLabelEncoder.encode(target);
+        return new DnsResourceRecord(name, DnsType.CNAME, DnsClass.IN, 300, rData.length, rData);
+    }
+}
@@ -0,0 +1,68 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.util.DnsMessageCodec;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response sizes with and without name compression across the sample zone data.
+ */
+public class CompressionSizeTest extends TestCase {
+
+    private static final String[] SAMPLE_QUERIES = {
+            "www.example.com.", "mail.example.com.", "www.google.com.", "www.test.org.",
+            "example.com.", "google.com.", "ftp.example.com.", "a.b.c.google.com.", "missing.net."
+    };
+
+    public void testCompressionNeverGrowsResponses() {
+        DnsMessageCodec plain = new DnsMessageCodec(false);
+        DnsMessageCodec compressed = new DnsMessageCodec(true);
+        int plainTotal = 0;
+        int compressedTotal = 0;
+        int repeatsTotal = 0;
+
+        for (String name : SAMPLE_QUERIES) {
+            DnsMessage query = new DnsMessage(new DnsHeader(1, 0x0100, 1, 0, 0, 0),
+                    List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                    Collections.emptyList(), Collections.emptyList());
+            DnsMessage response = SimpleDnsServer.processQuery(query);
+
+            byte[] a = plain.encode(response);
+            byte[] b = compressed.encode(response);
+            // At the least, every owner name that repeats the QNAME shrinks to a 2-byte pointer
+            int repeats = repeatsOfQname(response, name);
+            assertTrue(name + ": saved " + (a.length - b.length) + " bytes, expected " + repeats,
+                    a.length - b.length >= repeats);
+            repeatsTotal += repeats;
+
+            // Both forms must decode to the same message
+            assertEquals(plain.decode(a).toString(), compressed.decode(b).toString());
+            plainTotal += a.length;
+            compressedTotal += b.length;
+        }
+
+        assertTrue("The sample answers should repeat their QNAMEs", repeatsTotal > 0);
+        assertTrue(plainTotal + " bytes uncompressed, " + compressedTotal + " compressed",
+                plainTotal - compressedTotal >= repeatsTotal);
+    }
+
+    /**
+     * Bytes that compressing owner names equal to {@code qname} must save in {@code response}.
+     */
+    private static int repeatsOfQname(DnsMessage response, String qname) {
+        int saved = 0;
+        for (List<DnsResourceRecord> section : List.of(response.getAnswers(), response.getAuthorities(),
+                response.getAdditionals())) {
+            for (DnsResourceRecord record : section) {
+                if (record.getName().equalsIgnoreCase(qname)) {
+                    saved += DnsLabelEncoder.encode(qname).length - 2;
+                }
+            }
+        }
+        return saved;
+    }
+}
@@ -0,0 +1,101 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Start/stop lifecycle and end-to-end answers from the UDP serving engine.
+ */
+public class DnsServerEngineTest extends TestCase {
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+
+    public void testSharedSocketAnswersQueries() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(2));
+        engine.start();
+        try {
+            assertTrue(engine.isRunning());
+            DnsMessage response = query(engine.getLocalAddress(), "www.example.com.");
+            assertEquals(1, response.getAnswers().size());
+            assertEquals("192.168.1.10",
+                    InetAddress.getByAddress(response.getAnswers().get(0).getRData()).getHostAddress());
+            assertEquals(1, engine.getAdmissionQueue().getAdmitted());
+        } finally {
+            engine.stop();
+        }
+        assertFalse(engine.isRunning());
+    }
+
+    public void testWorkersReceiveDirectlyWithoutAdmissionControl() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0)
+                .setWorkers(2).setAdmissionQueueSize(0));
+        engine.start();
+        try {
+            assertNull(engine.getAdmissionQueue());
+            DnsMessage response = query(engine.getLocalAddress(), "www.example.com.");
+            assertEquals(1, response.getAnswers().size());
+        } finally {
+            engine.stop();
+        }
+    }
+
+    public void testReusePortWorkersShareOnePort() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(4).setReusePort(true));
+        engine.start();
+        try {
+            // Different client sockets hash to different workers
+            for (int i = 0; i < 8; i++) {
+                DnsMessage response = query(engine.getLocalAddress(), "www.google.com.");
+                assertEquals(1, response.getAnswers().size());
+            }
+        } finally {
+            engine.stop();
+        }
+    }
+
+    public void testRestartOnSamePort() throws Exception {
+        DnsServerEngine first = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1));
+        first.start();
+        int port = first.getLocalAddress().getPort();
+        first.stop();
+
+        DnsServerEngine second = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(port).setWorkers(1));
+        second.start();
+        try {
+            DnsMessage response = query(second.getLocalAddress(), "unknown.example.");
+            assertEquals(3, response.getHeader().getFlags() & 0xF); // NXDOMAIN
+        } finally {
+            second.stop();
+        }
+    }
+
+    private DnsMessage query(InetSocketAddress server, String name) throws Exception {
+        DnsHeader header = new DnsHeader(0x1234, 0x0100, 1, 0, 0, 0);
+        DnsMessage query = new DnsMessage(header, List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList());
+        byte[] out = codec.encode(query);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(out, out.length, server));
+            byte[] buf = new byte[512];
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            socket.receive(packet);
+            DnsMessage response = codec.decode(buf);
+            assertEquals(0x1234, response.getHeader().getId());
+            return response;
+        }
+    }
+}
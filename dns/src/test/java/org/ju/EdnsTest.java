@@ -0,0 +1,127 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+import org.ju.util.Edns;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * EDNS(0) payload negotiation on the wire path: response sizes, truncation, and
+ * reuse of one context, buffer and response cache across EDNS and plain clients.
+ */
+public class EdnsTest extends TestCase {
+
+    private static final String BIG = "big.example.com.";
+    private static final int BIG_RECORDS = 60; // ~1000 bytes: over 512, under 1232
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final QueryContext ctx = new QueryContext(new ResponseCache(64));
+    private final ByteBuffer out = ByteBuffer.allocateDirect(4096);
+    private ZoneSnapshot original;
+
+    @Override
+    protected void setUp() {
+        original = DnsRecordStore.current();
+        ZoneTrie trie = new ZoneTrie();
+        for (int i = 0; i < BIG_RECORDS; i++) {
+            trie.add(new DnsResourceRecord(BIG, DnsType.A, DnsClass.IN, 300, 4, new byte[]{10, 0, 0, (byte) i}));
+        }
+        trie.add(new DnsResourceRecord("small.example.com.", DnsType.A, DnsClass.IN, 300, 4, new byte[]{10, 1, 1, 1}));
+        DnsRecordStore.publish(trie, "edns-test");
+        ctx.maxUdpPayload = 1232;
+    }
+
+    @Override
+    protected void tearDown() {
+        DnsRecordStore.publish(original.getIndex(), original.getSource());
+    }
+
+    public void testWithoutOptResponsesStayWithin512() {
+        ByteBuffer response = SimpleDnsServer.processQuery(ctx, query(BIG, null), out);
+        assertTrue(response.remaining() <= 512);
+        DnsMessage message = decode(response);
+        assertTrue(isTruncated(message));
+        assertNull(message.getOpt());
+    }
+
+    public void testAdvertisedSizeIsHonouredUpToTheCap() {
+        // Asks for more than the cap: gets the cap, which fits everything
+        ByteBuffer response = SimpleDnsServer.processQuery(ctx, query(BIG, Edns.opt(4096)), out);
+        assertTrue(response.remaining() <= 1232);
+        DnsMessage message = decode(response);
+        assertFalse(isTruncated(message));
+        assertEquals(BIG_RECORDS, message.getAnswers().size());
+        assertEquals(1232, Edns.payloadSize(message.getOpt()));
+
+        // Asks for less than the answer needs: truncated, OPT still last
+        response = SimpleDnsServer.processQuery(ctx, query(BIG, Edns.opt(800)), out);
+        assertTrue(response.remaining() <= 800);
+        message = decode(response);
+        assertTrue(isTruncated(message));
+        assertTrue(message.getAnswers().size() > 30);
+        assertNotNull(message.getOpt());
+
+        // Anything below 512 counts as 512
+        response = SimpleDnsServer.processQuery(ctx, query(BIG, Edns.opt(100)), out);
+        assertTrue(response.remaining() <= 512 && response.remaining() > 400);
+    }
+
+    public void testContextBufferAndCacheAreReusedAcrossClients() {
+        SimpleDnsServer.processQuery(ctx, query(BIG, Edns.opt(1232)), out);
+        assertEquals(0, ctx.cache.getHits());
+
+        // The cached full answer does not fit a plain client: rebuilt and truncated, no OPT.
+        // (The lookup still counts as a hit.)
+        DnsMessage plain = decode(SimpleDnsServer.processQuery(ctx, query(BIG, null), out));
+        assertTrue(isTruncated(plain));
+        assertTrue(plain.getAdditionals().isEmpty());
+
+        // EDNS again: served from the cache with exactly one OPT appended
+        DnsMessage edns = decode(SimpleDnsServer.processQuery(ctx, query(BIG, Edns.opt(1232)), out));
+        assertEquals(2, ctx.cache.getHits());
+        assertEquals(BIG_RECORDS, edns.getAnswers().size());
+        assertEquals(1, edns.getAdditionals().size());
+        assertEquals(DnsType.OPT, edns.getAdditionals().get(0).getType());
+
+        // A small answer cached for an EDNS client carries no OPT to a plain one
+        SimpleDnsServer.processQuery(ctx, query("small.example.com.", Edns.opt(1232)), out);
+        DnsMessage small = decode(SimpleDnsServer.processQuery(ctx, query("small.example.com.", null), out));
+        assertEquals(3, ctx.cache.getHits());
+        assertEquals(1, small.getAnswers().size());
+        assertTrue(small.getAdditionals().isEmpty());
+    }
+
+    public void testUnknownVersionGetsBadvers() {
+        DnsResourceRecord v1 = new DnsResourceRecord(".", DnsType.OPT, 1232, 1L << 16, 0, new byte[0]);
+        DnsMessage message = decode(SimpleDnsServer.processQuery(ctx, query(BIG, v1), out));
+        assertEquals(0, message.getHeader().getFlags() & 0xF);
+        assertTrue(message.getAnswers().isEmpty());
+        assertEquals(Edns.RCODE_BADVERS >>> 4, (int) (message.getOpt().getTtl() >>> 24));
+    }
+
+    // --- Helpers ---
+
+    private ByteBuffer query(String name, DnsResourceRecord opt) {
+        List<DnsResourceRecord> additionals = (opt != null) ? List.of(opt) : Collections.emptyList();
+        DnsMessage query = new DnsMessage(new DnsHeader(0x4242, 0, 1, 0, 0, additionals.size()),
+                List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList(), additionals);
+        return ByteBuffer.wrap(codec.encode(query));
+    }
+
+    private DnsMessage decode(ByteBuffer response) {
+        byte[] bytes = new byte[response.remaining()];
+        response.duplicate().get(bytes);
+        return codec.decode(bytes);
+    }
+
+    private static boolean isTruncated(DnsMessage message) {
+        return (message.getHeader().getFlags() & 0x0200) != 0;
+    }
+}
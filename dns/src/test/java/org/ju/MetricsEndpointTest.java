@@ -0,0 +1,82 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.metrics.ServerMetrics;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import javax.management.ObjectName;
+
+/**
+ * Engine counters end to end, scraped over HTTP and read over JMX.
+ */
+public class MetricsEndpointTest extends TestCase {
+
+    public void testCountersAreExportedOverHttpAndJmx() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(new DnsServerConfig().setBindAddress("127.0.0.1")
+                .setPort(0).setWorkers(1).setMetricsPort(0).setMetricsSampleInterval(1));
+        engine.start();
+        try {
+            InetSocketAddress server = engine.getLocalAddress();
+            query(server, "www.example.com.");
+            query(server, "unknown.example.");
+            try (DatagramSocket socket = new DatagramSocket()) {
+                byte[] garbage = {1, 2, 3};
+                socket.send(new DatagramPacket(garbage, garbage.length, server));
+            }
+            query(server, "www.google.com."); // Also waits until the garbage was handled
+
+            // The last response is counted just after it is sent
+            ServerMetrics metrics = engine.getMetrics();
+            long deadline = System.currentTimeMillis() + 2000;
+            while (metrics.getAnswers() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(4, metrics.getQueries());
+            assertEquals(1, metrics.getDecodeErrors());
+            assertEquals(2, metrics.getAnswers());
+            assertEquals(1, metrics.getNxdomains());
+            assertEquals(3, metrics.getStageHistogram(ServerMetrics.STAGE_LOOKUP).getCount());
+
+            URL url = new URL("http://127.0.0.1:" + engine.getMetricsAddress().getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(body, body.contains("dns_queries_total 4\n"));
+            assertTrue(body, body.contains("dns_responses_total{rcode=\"NXDOMAIN\"} 1\n"));
+            assertTrue(body, body.contains("dns_response_cache_misses_total 3\n"));
+
+            ObjectName name = new ObjectName("org.ju:type=DnsServer,port=" + server.getPort());
+            assertEquals(4L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Queries"));
+        } finally {
+            engine.stop();
+        }
+        assertNull(engine.getMetricsAddress());
+    }
+
+    private static void query(InetSocketAddress server, String name) throws Exception {
+        DnsMessageCodec codec = new DnsMessageCodec();
+        DnsMessage query = new DnsMessage(new DnsHeader(7, 0, 1, 0, 0, 0),
+                List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)), Collections.emptyList(), Collections.emptyList());
+        byte[] out = codec.encode(query);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(out, out.length, server));
+            byte[] buf = new byte[512];
+            socket.receive(new DatagramPacket(buf, buf.length));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+import org.ju.zone.ZoneSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers chosen by QTYPE from a loaded zone file, negative answers with the zone's SOA,
+ * on the wire path and the object path alike.
+ */
+public class QtypeAnswerTest extends TestCase {
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final QueryContext ctx = new QueryContext(new ResponseCache(64));
+    private final ByteBuffer out = ByteBuffer.allocateDirect(4096);
+    private ZoneSnapshot original;
+    private Path zone;
+
+    @Override
+    protected void setUp() throws IOException {
+        original = DnsRecordStore.current();
+        zone = Files.createTempFile("qtype", ".zone");
+        Files.write(zone, List.of(
+                "$ORIGIN example.com.",
+                "$TTL 1h",
+                "@       SOA   ns1 hostmaster 2024010101 7200 3600 1w 300",
+                "@       NS    ns1",
+                "@       MX    10 mail",
+                "ns1     A     192.0.2.1",
+                "mail    A     192.0.2.20",
+                "www     A     192.0.2.10",
+                "www     AAAA  2001:db8::10",
+                "v6      AAAA  2001:db8::6",
+                "txt     TXT   \"hello\"",
+                "a.b.ent A     192.0.2.30",
+                "alias   CNAME www",
+                "*.wild  TXT   \"wild\"",
+                "sub     NS    ns1.sub",
+                "ns1.sub A     192.0.2.53"));
+        DnsRecordStore.loadZoneFile(zone, null);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        DnsRecordStore.publish(original.getIndex(), original.getSource());
+        Files.delete(zone);
+    }
+
+    public void testOnlyRecordsOfTheQtype() {
+        for (DnsMessage response : both("www.example.com.", DnsType.AAAA)) {
+            assertAnswers(response, DnsType.AAAA);
+            assertEquals(16, response.getAnswers().get(0).getRdLength());
+        }
+        for (DnsMessage response : both("www.example.com.", DnsType.A)) {
+            assertAnswers(response, DnsType.A);
+        }
+        for (DnsMessage response : both("v6.example.com.", DnsType.AAAA)) {
+            assertAnswers(response, DnsType.AAAA);
+        }
+        for (DnsMessage response : both("example.com.", DnsType.MX)) {
+            assertAnswers(response, DnsType.MX);
+        }
+        for (DnsMessage response : both("txt.example.com.", DnsType.TXT)) {
+            assertAnswers(response, DnsType.TXT);
+        }
+    }
+
+    public void testApexSoaAndNs() {
+        for (DnsMessage response : both("EXAMPLE.com.", DnsType.SOA)) {
+            assertAnswers(response, DnsType.SOA);
+        }
+        for (DnsMessage response : both("example.com.", DnsType.NS)) {
+            assertAnswers(response, DnsType.NS);
+        }
+        for (DnsMessage response : both("example.com.", DnsType.ANY)) {
+            assertEquals(0x0400, response.getHeader().getFlags() & 0x040F);
+            assertEquals(3, response.getAnswers().size()); // SOA, NS, MX
+        }
+    }
+
+    public void testCnameIsFollowedForTheQtype() {
+        for (DnsMessage response : both("alias.example.com.", DnsType.AAAA)) {
+            assertAnswers(response, DnsType.CNAME, DnsType.AAAA);
+            assertEquals("www.example.com.", response.getAnswers().get(1).getName());
+        }
+        // Asking for the CNAME itself stops there
+        for (DnsMessage response : both("alias.example.com.", DnsType.CNAME)) {
+            assertAnswers(response, DnsType.CNAME);
+        }
+    }
+
+    public void testWildcardAnswersByQtype() {
+        for (DnsMessage response : both("any.wild.example.com.", DnsType.TXT)) {
+            assertAnswers(response, DnsType.TXT);
+            assertEquals("any.wild.example.com.", response.getAnswers().get(0).getName());
+        }
+        for (DnsMessage response : both("any.wild.example.com.", DnsType.A)) {
+            assertNoData(response);
+        }
+    }
+
+    public void testNodataCarriesTheSoa() {
+        for (DnsMessage response : both("www.example.com.", DnsType.MX)) {
+            assertNoData(response);
+        }
+        for (DnsMessage response : both("v6.example.com.", DnsType.A)) {
+            assertNoData(response);
+        }
+    }
+
+    public void testEmptyNonTerminalIsNodata() {
+        for (String name : List.of("ent.example.com.", "b.ent.example.com.")) {
+            for (DnsMessage response : both(name, DnsType.A)) {
+                assertNoData(response);
+            }
+        }
+        for (DnsMessage response : both("a.b.ent.example.com.", DnsType.A)) {
+            assertAnswers(response, DnsType.A);
+        }
+    }
+
+    public void testNxdomainCarriesTheSoa() {
+        for (String name : List.of("missing.example.com.", "a.b.missing.example.com.", "x.www.example.com.")) {
+            for (DnsMessage response : both(name, DnsType.A)) {
+                assertEquals(name, 0x0403, response.getHeader().getFlags() & 0x040F); // AA, NXDOMAIN
+                assertTrue(response.getAnswers().isEmpty());
+                assertSoa(response);
+            }
+        }
+    }
+
+    public void testDelegationIsStillAReferral() {
+        for (DnsMessage response : both("host.sub.example.com.", DnsType.AAAA)) {
+            assertEquals(0, response.getHeader().getFlags() & 0x040F);
+            assertTrue(response.getAnswers().isEmpty());
+            assertEquals(DnsType.NS, response.getAuthorities().get(0).getType());
+            assertEquals("ns1.sub.example.com.", response.getAdditionals().get(0).getName());
+        }
+    }
+
+    public void testCompactStoreRefusesWildcards() {
+        long version = DnsRecordStore.getVersion();
+        try {
+            DnsRecordStore.loadZoneFile(zone, null, true);
+            fail("Expected the wildcard to be refused");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("*.wild.example.com."));
+        }
+        assertEquals(version, DnsRecordStore.getVersion());
+    }
+
+    // --- Helpers ---
+
+    private static void assertAnswers(DnsMessage response, int... types) {
+        assertEquals(0x0400, response.getHeader().getFlags() & 0x040F); // AA, NOERROR
+        List<DnsResourceRecord> answers = response.getAnswers();
+        assertEquals(answers.toString(), types.length, answers.size());
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(types[i], answers.get(i).getType());
+        }
+        assertTrue(response.getAuthorities().isEmpty());
+    }
+
+    private static void assertNoData(DnsMessage response) {
+        assertEquals(0x0400, response.getHeader().getFlags() & 0x040F); // AA, NOERROR
+        assertTrue(response.getAnswers().isEmpty());
+        assertSoa(response);
+    }
+
+    private static void assertSoa(DnsMessage response) {
+        assertEquals(1, response.getAuthorities().size());
+        DnsResourceRecord soa = response.getAuthorities().get(0);
+        assertEquals(DnsType.SOA, soa.getType());
+        assertEquals("example.com.", soa.getName());
+        assertEquals(300, soa.getTtl()); // The SOA's MINIMUM, lower than its TTL
+    }
+
+    private List<DnsMessage> both(String name, int type) {
+        ByteBuffer response = SimpleDnsServer.processQuery(ctx, ByteBuffer.wrap(codec.encode(query(name, type))), out);
+        byte[] bytes = new byte[response.remaining()];
+        response.duplicate().get(bytes);
+        return List.of(codec.decode(bytes), SimpleDnsServer.processQuery(query(name, type)));
+    }
+
+    private static DnsMessage query(String name, int type) {
+        return new DnsMessage(new DnsHeader(0x1234, 0, 1, 0, 0, 0),
+                List.of(new DnsQuestion(name, type, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList());
+    }
+}
@@ -0,0 +1,84 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recursive engine in front of the simulated hierarchy served by an authoritative engine.
+ */
+public class RecursiveModeTest extends TestCase {
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private DnsServerEngine authoritative;
+    private DnsServerEngine recursive;
+
+    @Override
+    protected void setUp() throws Exception {
+        authoritative = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1));
+        authoritative.start();
+        int simPort = authoritative.getLocalAddress().getPort();
+
+        recursive = new DnsServerEngine(new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0)
+                .setWorkers(1).setRecursive(true).setNameserverPort(simPort));
+        recursive.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        recursive.stop();
+        authoritative.stop();
+    }
+
+    public void testRecursionDesiredIsResolvedAndCached() throws Exception {
+        DnsMessage cold = query(recursive.getLocalAddress(), "www.example.com.", 0x0100);
+        assertEquals(0x0080, cold.getHeader().getFlags() & 0x0080); // RA
+        assertEquals(1, cold.getAnswers().size());
+        assertEquals("192.168.1.10",
+                InetAddress.getByAddress(cold.getAnswers().get(0).getRData()).getHostAddress());
+        long misses = recursive.getResolver().getCache().getMisses();
+
+        // Warm: answered by the recursive server alone
+        DnsMessage warm = query(recursive.getLocalAddress(), "www.example.com.", 0x0100);
+        assertEquals(1, warm.getAnswers().size());
+        assertEquals(misses, recursive.getResolver().getCache().getMisses());
+        assertTrue(recursive.getResolver().getCache().getHits() >= 1);
+    }
+
+    public void testNxdomainComesBackWithRa() throws Exception {
+        DnsMessage response = query(recursive.getLocalAddress(), "unknown.example.", 0x0100);
+        assertEquals(3, response.getHeader().getFlags() & 0xF);
+        assertEquals(0x0080, response.getHeader().getFlags() & 0x0080);
+    }
+
+    public void testNoRecursionDesiredIsAnsweredAuthoritatively() throws Exception {
+        DnsMessage response = query(recursive.getLocalAddress(), "www.example.com.", 0);
+        assertEquals(1, response.getAnswers().size());
+        assertEquals(0, recursive.getResolver().getCache().size());
+    }
+
+    private DnsMessage query(InetSocketAddress server, String name, int flags) throws Exception {
+        DnsHeader header = new DnsHeader(0x4321, flags, 1, 0, 0, 0);
+        DnsMessage query = new DnsMessage(header, List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList());
+        byte[] out = codec.encode(query);
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(5000);
+            socket.send(new DatagramPacket(out, out.length, server));
+            byte[] buf = new byte[512];
+            socket.receive(new DatagramPacket(buf, buf.length));
+            DnsMessage response = codec.decode(buf);
+            assertEquals(0x4321, response.getHeader().getId());
+            return response;
+        }
+    }
+}
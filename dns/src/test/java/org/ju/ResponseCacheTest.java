@@ -0,0 +1,73 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsType;
+import org.ju.util.DnsHeaderFlyweight;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.util.DnsQuestionFlyweight;
+import org.ju.util.DnsWireWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire response cache: hit patching, version invalidation and bounded eviction.
+ */
+public class ResponseCacheTest extends TestCase {
+
+    private final QueryContext ctx = new QueryContext(new ResponseCache(64));
+    private final ByteBuffer out = ByteBuffer.allocate(512);
+
+    public void testHitPatchesIdRdAndQNameCase() {
+        ByteBuffer first = SimpleDnsServer.processQuery(ctx, query(0x1111, 0, "www.example.com."), out);
+        byte[] original = new byte[first.remaining()];
+        first.get(original);
+        assertEquals(0, ctx.cache.getHits());
+        assertEquals(1, ctx.cache.getMisses());
+
+        ByteBuffer second = SimpleDnsServer.processQuery(ctx, query(0x2222, 0x0100, "WWW.Example.COM."), out);
+        assertEquals(1, ctx.cache.getHits());
+        assertEquals(original.length, second.remaining());
+
+        DnsHeaderFlyweight header = new DnsHeaderFlyweight().wrap(second);
+        assertEquals(0x2222, header.getId());
+        assertEquals(0x0100, header.getFlags() & 0x0100);
+        assertEquals(1, header.getAnCount());
+        second.position(DnsHeaderFlyweight.HEADER_SIZE);
+        assertEquals("WWW.Example.COM.", DnsLabelEncoder.decode(second));
+    }
+
+    public void testQTypeIsPartOfTheKey() {
+        SimpleDnsServer.processQuery(ctx, query(1, 0, "www.example.com."), out);
+        ByteBuffer q = ByteBuffer.allocate(512);
+        new DnsWireWriter().wrap(q, 2, 0).question("www.example.com.", DnsType.AAAA, DnsClass.IN).finish();
+        SimpleDnsServer.processQuery(ctx, q, out);
+        assertEquals(0, ctx.cache.getHits());
+    }
+
+    public void testStaleVersionMisses() {
+        ResponseCache cache = new ResponseCache(16);
+        ByteBuffer q = query(1, 0, "www.google.com.");
+        DnsQuestionFlyweight question = new DnsQuestionFlyweight().wrap(q, DnsHeaderFlyweight.HEADER_SIZE);
+        cache.put(question, 1, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+        assertNotNull(cache.get(question, 1));
+        assertNull(cache.get(question, 2));
+    }
+
+    public void testCapacityIsBounded() {
+        ResponseCache cache = new ResponseCache(4);
+        for (int i = 0; i < 20; i++) {
+            ByteBuffer q = query(i, 0, "host" + i + ".example.com.");
+            DnsQuestionFlyweight question = new DnsQuestionFlyweight().wrap(q, DnsHeaderFlyweight.HEADER_SIZE);
+            cache.put(question, 0, ByteBuffer.wrap(new byte[]{(byte) i}));
+        }
+        assertEquals(4, cache.capacity());
+        assertEquals(16, cache.getEvictions());
+    }
+
+    private static ByteBuffer query(int id, int flags, String name) {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        return new DnsWireWriter().wrap(buffer, id, flags).question(name, DnsType.A, DnsClass.IN).finish();
+    }
+}
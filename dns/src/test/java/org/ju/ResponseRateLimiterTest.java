@@ -0,0 +1,171 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Token buckets, keying, slip and dry-run, plus an engine under a flood from one network.
+ */
+public class ResponseRateLimiterTest extends TestCase {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    public void testBurstThenSustainedRate() {
+        ResponseRateLimiter rrl = new ResponseRateLimiter(10, 5, 0, false, 1024);
+        long key = key("192.0.2.1", ResponseRateLimiter.ANSWER);
+        long t = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(ResponseRateLimiter.SEND, rrl.check(key, t));
+        }
+        assertEquals(ResponseRateLimiter.DROP, rrl.check(key, t));
+
+        // 10/s: one more token every 100 ms
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(key, t + SECOND / 10 + 1_000_000));
+        assertEquals(ResponseRateLimiter.DROP, rrl.check(key, t + SECOND / 10 + 1_000_000));
+        // Quiet for a while: the whole burst is back, but no more
+        int sent = 0;
+        for (int i = 0; i < 20; i++) {
+            sent += rrl.check(key, t + 10 * SECOND) == ResponseRateLimiter.SEND ? 1 : 0;
+        }
+        assertEquals(5, sent);
+        assertEquals(17, rrl.getDropped());
+    }
+
+    public void testKeyedOnPrefixAndKind() {
+        ResponseRateLimiter rrl = new ResponseRateLimiter(1, 1, 0, false, 1024);
+        long t = System.nanoTime();
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(key("192.0.2.1", ResponseRateLimiter.ANSWER), t));
+        // Same /24: same bucket
+        assertEquals(ResponseRateLimiter.DROP, rrl.check(key("192.0.2.200", ResponseRateLimiter.ANSWER), t));
+        // Another kind of response, or another network: separate buckets
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(key("192.0.2.1", ResponseRateLimiter.NXDOMAIN), t));
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(key("192.0.3.1", ResponseRateLimiter.ANSWER), t));
+        // IPv6 /56
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(key("2001:db8:0:100::1", ResponseRateLimiter.ANSWER), t));
+        assertEquals(ResponseRateLimiter.DROP, rrl.check(key("2001:db8:0:1ff::2", ResponseRateLimiter.ANSWER), t));
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(key("2001:db8:0:200::1", ResponseRateLimiter.ANSWER), t));
+    }
+
+    public void testSlipAndDryRun() {
+        long key = key("192.0.2.1", ResponseRateLimiter.ANSWER);
+        long t = System.nanoTime();
+
+        ResponseRateLimiter slipAll = new ResponseRateLimiter(1, 1, 1, false, 1024);
+        slipAll.check(key, t);
+        assertEquals(ResponseRateLimiter.SLIP, slipAll.check(key, t));
+        assertEquals(1, slipAll.getSlipped());
+
+        ResponseRateLimiter halfSlip = new ResponseRateLimiter(1, 1, 2, false, 1024);
+        halfSlip.check(key, t);
+        for (int i = 0; i < 1000; i++) {
+            halfSlip.check(key, t);
+        }
+        assertEquals(1000, halfSlip.getLimited());
+        assertTrue(halfSlip.getSlipped() > 350 && halfSlip.getSlipped() < 650);
+
+        ResponseRateLimiter dryRun = new ResponseRateLimiter(1, 1, 2, true, 1024);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ResponseRateLimiter.SEND, dryRun.check(key, t));
+        }
+        assertEquals(9, dryRun.getLimited());
+        assertEquals(0, dryRun.getDropped() + dryRun.getSlipped());
+    }
+
+    public void testTableIsBoundedAndEvictsQuietBuckets() {
+        ResponseRateLimiter rrl = new ResponseRateLimiter(1, 1, 0, false, 16);
+        long t = System.nanoTime();
+        long hot = key("192.0.2.1", ResponseRateLimiter.ANSWER);
+        rrl.check(hot, t);
+        assertEquals(ResponseRateLimiter.DROP, rrl.check(hot, t));
+
+        // Thousands of other networks pass through 16 slots; each is new, so each is answered
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(ResponseRateLimiter.SEND, rrl.check((long) i << 3, t + i));
+        }
+        // The hot bucket was pushed out: it starts full again
+        assertEquals(ResponseRateLimiter.SEND, rrl.check(hot, t + 5000));
+    }
+
+    public void testFloodFromOneNetworkLeavesOthersAnswered() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(new DnsServerConfig()
+                .setBindAddress("127.0.0.1").setPort(0).setWorkers(1)
+                .setRrlResponsesPerSecond(5).setRrlBurst(5).setRrlSlip(2));
+        engine.start();
+        try (DatagramSocket flood = new DatagramSocket(new InetSocketAddress("127.0.1.1", 0));
+             DatagramSocket legit = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+            InetSocketAddress server = engine.getLocalAddress();
+            byte[] query = new DnsMessageCodec().encode(new DnsMessage(new DnsHeader(1, 0, 1, 0, 0, 0),
+                    List.of(new DnsQuestion("www.example.com.", DnsType.A, DnsClass.IN)),
+                    Collections.emptyList(), Collections.emptyList()));
+
+            int floodSize = 200;
+            for (int i = 0; i < floodSize; i++) {
+                flood.send(new DatagramPacket(query, query.length, server));
+            }
+            // Every legitimate query is still answered in full
+            legit.setSoTimeout(2000);
+            for (int i = 0; i < 5; i++) {
+                legit.send(new DatagramPacket(query, query.length, server));
+                DnsMessage response = receive(legit);
+                assertEquals(0, response.getHeader().getFlags() & 0x0200);
+                assertEquals(1, response.getAnswers().size());
+            }
+
+            // The flooding network got its burst in full, the rest dropped or slipped
+            flood.setSoTimeout(300);
+            int full = 0;
+            int truncated = 0;
+            while (true) {
+                DnsMessage response;
+                try {
+                    response = receive(flood);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                if ((response.getHeader().getFlags() & 0x0200) != 0) {
+                    assertTrue(response.getAnswers().isEmpty());
+                    assertEquals(1, response.getQuestions().size());
+                    truncated++;
+                } else {
+                    full++;
+                }
+            }
+            ResponseRateLimiter rrl = engine.getRateLimiter();
+            assertTrue("full answers: " + full, full >= 5 && full < 20);
+            assertEquals(rrl.getSlipped(), truncated);
+            assertEquals(floodSize - full, rrl.getLimited());
+            assertEquals(rrl.getLimited(), rrl.getDropped() + rrl.getSlipped());
+            assertTrue(engine.getMetrics().getPrometheusText().contains("dns_rrl_dropped_total"));
+        } finally {
+            engine.stop();
+        }
+    }
+
+    // --- Helpers ---
+
+    private static long key(String address, int kind) {
+        try {
+            return ResponseRateLimiter.key(InetAddress.getByName(address), kind);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static DnsMessage receive(DatagramSocket socket) throws IOException {
+        byte[] buf = new byte[512];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        socket.receive(packet);
+        return new DnsMessageCodec().decode(buf);
+    }
+}
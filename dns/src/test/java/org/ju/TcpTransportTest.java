@@ -0,0 +1,174 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.client.AsyncDnsClient;
+import org.ju.client.TcpDnsClient;
+import org.ju.model.*;
+import org.ju.util.DnsMessageCodec;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Truncation over UDP, the full answer over TCP, pipelining and connection limits.
+ */
+public class TcpTransportTest extends TestCase {
+
+    private static final String BIG = "big.example.com.";
+    private static final int BIG_RECORDS = 60; // ~16 bytes each: well over 512
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private ZoneSnapshot original;
+
+    @Override
+    protected void setUp() {
+        original = DnsRecordStore.current();
+        ZoneTrie trie = new ZoneTrie();
+        for (int i = 0; i < BIG_RECORDS; i++) {
+            trie.add(new DnsResourceRecord(BIG, DnsType.A, DnsClass.IN, 300, 4, new byte[]{10, 0, 0, (byte) i}));
+        }
+        trie.add(new DnsResourceRecord("small.example.com.", DnsType.A, DnsClass.IN, 300, 4, new byte[]{10, 1, 1, 1}));
+        DnsRecordStore.publish(trie, "tcp-test");
+    }
+
+    @Override
+    protected void tearDown() {
+        DnsRecordStore.publish(original.getIndex(), original.getSource());
+    }
+
+    public void testLargeAnswerIsTruncatedOverUdpAndCompleteOverTcp() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1));
+        engine.start();
+        try {
+            InetSocketAddress server = engine.getLocalAddress();
+
+            DnsMessage udp = udpQuery(server, query(7, BIG, 0));
+            assertTrue("TC must be set", (udp.getHeader().getFlags() & 0x0200) != 0);
+            assertTrue(udp.getAnswers().size() > 0 && udp.getAnswers().size() < BIG_RECORDS);
+
+            DnsMessage tcp = new TcpDnsClient(2000).exchange(server, query(8, BIG, 0));
+            assertEquals(0, tcp.getHeader().getFlags() & 0x0200);
+            assertEquals(BIG_RECORDS, tcp.getAnswers().size());
+
+            // Now that TCP has cached the full answer, UDP must still get a truncated one
+            udp = udpQuery(server, query(9, BIG, 0));
+            assertTrue((udp.getHeader().getFlags() & 0x0200) != 0);
+
+            // A client that retries over TCP by itself (without EDNS, so UDP truncates)
+            try (AsyncDnsClient client = new AsyncDnsClient(1, 2000, 0).setEdnsPayloadSize(0)) {
+                assertEquals(BIG_RECORDS, client.exchange(server, query(0, BIG, 0)).getAnswers().size());
+            }
+            assertTrue(engine.getMetrics().getTruncated() >= 3);
+        } finally {
+            engine.stop();
+        }
+    }
+
+    public void testPipelinedQueriesAreAnsweredOutOfOrder() throws Exception {
+        // Recursive queries go to a "root" that never answers, so they are slow
+        try (DatagramSocket silentRoot = new DatagramSocket(0)) {
+            DnsServerEngine engine = new DnsServerEngine(new DnsServerConfig()
+                    .setBindAddress("127.0.0.1").setPort(0).setWorkers(1)
+                    .setRecursive(true).addRootServer("127.0.0.1:" + silentRoot.getLocalPort())
+                    .setResolverTimeoutMillis(300));
+            engine.start();
+            try (Socket socket = new Socket()) {
+                socket.connect(engine.getLocalAddress(), 2000);
+                socket.setSoTimeout(5000);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                writeFrame(out, query(1, "slow.example.", 0x0100)); // RD=1: goes upstream
+                for (int id = 2; id <= 5; id++) {
+                    writeFrame(out, query(id, "small.example.com.", 0)); // Answered locally
+                }
+                out.flush();
+
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    order.add(readFrame(in).getHeader().getId());
+                }
+                assertEquals("slow query answered last: " + order, Integer.valueOf(1), order.get(4));
+                assertTrue(order.containsAll(List.of(2, 3, 4, 5)));
+            } finally {
+                engine.stop();
+            }
+        }
+    }
+
+    public void testConnectionCapAndIdleTimeout() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(new DnsServerConfig()
+                .setBindAddress("127.0.0.1").setPort(0).setWorkers(1)
+                .setTcpMaxConnections(1).setTcpIdleTimeoutMillis(300));
+        engine.start();
+        try (Socket first = new Socket(); Socket second = new Socket()) {
+            first.connect(engine.getLocalAddress(), 2000);
+            first.setSoTimeout(3000);
+            DataOutputStream out = new DataOutputStream(first.getOutputStream());
+            DataInputStream in = new DataInputStream(first.getInputStream());
+            writeFrame(out, query(1, "small.example.com.", 0));
+            out.flush();
+            assertEquals(1, readFrame(in).getAnswers().size());
+
+            // Over the cap: closed straight away
+            second.connect(engine.getLocalAddress(), 2000);
+            second.setSoTimeout(3000);
+            assertEquals(-1, second.getInputStream().read());
+            assertEquals(1, engine.getTcpListener().getRejected());
+
+            // The first one is closed once idle
+            long start = System.nanoTime();
+            assertEquals(-1, first.getInputStream().read());
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= 100);
+            assertEquals(1, engine.getTcpListener().getIdleClosed());
+        } finally {
+            engine.stop();
+        }
+    }
+
+    // --- Helpers ---
+
+    private static DnsMessage query(int id, String name, int flags) {
+        DnsHeader header = new DnsHeader(id, flags, 1, 0, 0, 0);
+        return new DnsMessage(header, List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    private DnsMessage udpQuery(InetSocketAddress server, DnsMessage query) throws IOException {
+        byte[] out = codec.encode(query);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(out, out.length, server));
+            byte[] buf = new byte[512];
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            socket.receive(packet);
+            assertTrue(packet.getLength() <= 512);
+            return codec.decode(buf);
+        } catch (SocketTimeoutException e) {
+            throw new AssertionError("No UDP response", e);
+        }
+    }
+
+    private void writeFrame(DataOutputStream out, DnsMessage message) throws IOException {
+        byte[] wire = codec.encode(message);
+        out.writeShort(wire.length);
+        out.write(wire);
+    }
+
+    private DnsMessage readFrame(DataInputStream in) throws IOException {
+        byte[] wire = new byte[in.readUnsignedShort()];
+        in.readFully(wire);
+        return codec.decode(wire);
+    }
+}
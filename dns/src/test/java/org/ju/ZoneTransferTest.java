@@ -0,0 +1,231 @@
+package org.ju;
+
+import junit.framework.TestCase;
+import org.ju.client.TcpDnsClient;
+import org.ju.model.*;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.util.DnsMessageCodec;
+import org.ju.util.DnsWireWriter;
+import org.ju.zone.ZoneDiff;
+import org.ju.zone.ZoneSnapshot;
+import org.ju.zone.ZoneTrie;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A primary and secondaries on loopback: AXFR, then NOTIFY and IXFR.
+ */
+public class ZoneTransferTest extends TestCase {
+
+    private static final String APEX = "example.test.";
+    private static final int HOSTS = 3000; // Enough for the AXFR to span several messages
+    private static final long WAIT_MILLIS = 10_000;
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+    private final List<DnsServerEngine> engines = new ArrayList<>();
+    private ZoneSnapshot original;
+
+    @Override
+    protected void setUp() {
+        original = DnsRecordStore.current();
+        DnsRecordStore.publish(zone(1, "10.0.0.1"), "transfer-test");
+    }
+
+    @Override
+    protected void tearDown() {
+        for (DnsServerEngine engine : engines) {
+            engine.stop();
+        }
+        DnsRecordStore.publish(original.getIndex(), original.getSource());
+    }
+
+    public void testSecondariesConvergeByAxfrThenIxfr() throws Exception {
+        DnsServerConfig primaryConfig = local().setTransfersAllowed(true);
+        InetSocketAddress primary = start(primaryConfig).getLocalAddress();
+
+        List<DnsServerEngine> secondaries = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // Refresh timers far off: only NOTIFY can bring the second serial over quickly
+            DnsServerEngine secondary = start(local().setPrimary(primary).setSecondaryZone(APEX).setRefreshSeconds(3600));
+            primaryConfig.addNotifyTarget(secondary.getLocalAddress());
+            secondaries.add(secondary);
+        }
+        for (DnsServerEngine secondary : secondaries) {
+            awaitSerial(secondary, 1);
+            assertEquals(1, secondary.getSecondary().getFullTransfers());
+            assertEquals("10.0.0.1", address(secondary.getLocalAddress(), "host2999." + APEX));
+        }
+
+        DnsRecordStore.publish(zone(2, "10.0.0.2"), "transfer-test-2");
+        for (DnsServerEngine secondary : secondaries) {
+            awaitSerial(secondary, 2);
+            SecondaryReplicator copy = secondary.getSecondary();
+            assertTrue(copy.getNotifies() >= 1);
+            assertEquals(1, copy.getFullTransfers());
+            assertEquals(1, copy.getIncrementalTransfers());
+            assertEquals("10.0.0.2", address(secondary.getLocalAddress(), "host7." + APEX));
+            assertEquals("10.0.0.1", address(secondary.getLocalAddress(), "host8." + APEX));
+        }
+
+        // An edit on the primary is journaled as it was made, not found by comparing zones
+        DnsRecordStore.apply(new ZoneDiff(soa(2), soa(3), List.of(host(8, "10.0.0.1")), List.of(host(8, "10.0.0.3"))),
+                "transfer-test-3");
+        for (DnsServerEngine secondary : secondaries) {
+            awaitSerial(secondary, 3);
+            assertEquals(2, secondary.getSecondary().getIncrementalTransfers());
+            assertEquals("10.0.0.2", address(secondary.getLocalAddress(), "host7." + APEX));
+            assertEquals("10.0.0.3", address(secondary.getLocalAddress(), "host8." + APEX));
+        }
+    }
+
+    public void testSecondaryAnswersOnlyItsLoadedZone() throws Exception {
+        // A primary that is not there: the zone never loads
+        InetSocketAddress nowhere;
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            nowhere = new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort());
+        }
+        InetSocketAddress empty = start(local().setPrimary(nowhere).setSecondaryZone(APEX)).getLocalAddress();
+        assertEquals(2, rcode(empty, "host1." + APEX)); // SERVFAIL, not an answer from no data
+        assertEquals(ZoneTransferServer.RCODE_REFUSED, rcode(empty, "www.other.test."));
+
+        InetSocketAddress primary = start(local().setTransfersAllowed(true)).getLocalAddress();
+        DnsServerEngine secondary = start(local().setPrimary(primary).setSecondaryZone(APEX));
+        awaitSerial(secondary, 1);
+        assertEquals(0, rcode(secondary.getLocalAddress(), "host1." + APEX));
+        assertEquals(ZoneTransferServer.RCODE_REFUSED, rcode(secondary.getLocalAddress(), "www.other.test."));
+        assertEquals(ZoneTransferServer.RCODE_REFUSED, rcode(secondary.getLocalAddress(), "test."));
+    }
+
+    public void testTransfersAreRefusedUnlessAllowed() throws Exception {
+        InetSocketAddress closed = start(local()).getLocalAddress();
+        InetSocketAddress open = start(local().setTransfersAllowed(true)).getLocalAddress();
+        TcpDnsClient client = new TcpDnsClient(2000);
+
+        assertEquals(ZoneTransferServer.RCODE_REFUSED, rcode(client.transfer(closed, axfr(1, APEX))));
+        assertEquals(ZoneTransferServer.RCODE_NOTAUTH, rcode(client.transfer(open, axfr(2, "other.test."))));
+        List<DnsMessage> full = client.transfer(open, axfr(3, APEX));
+        int records = 0;
+        for (DnsMessage message : full) {
+            records += message.getAnswers().size();
+        }
+        assertTrue("Expected several messages, got " + full.size(), full.size() > 1);
+        assertEquals(HOSTS + 2, records); // SOA, the hosts, SOA
+    }
+
+    public void testNotifyIsNotImplementedOffASecondary() throws Exception {
+        InetSocketAddress server = start(local()).getLocalAddress();
+        ByteBuffer notify = ByteBuffer.allocate(512);
+        new DnsWireWriter().wrap(notify, 9, ZoneTransferServer.OPCODE_NOTIFY << 11)
+                .question(APEX, DnsType.SOA, DnsClass.IN).finish();
+        byte[] query = new byte[notify.remaining()];
+        notify.get(query);
+        DnsMessage response = codec.decode(udp(server, query));
+        assertEquals(ZoneTransferServer.OPCODE_NOTIFY, (response.getHeader().getFlags() >>> 11) & 0xF);
+        assertEquals(ZoneTransferServer.RCODE_NOTIMP, response.getHeader().getFlags() & 0xF);
+    }
+
+    // --- Helpers ---
+
+    private DnsServerEngine start(DnsServerConfig config) throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(config);
+        engine.start();
+        engines.add(engine);
+        return engine;
+    }
+
+    private static DnsServerConfig local() {
+        return new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1).setTcpWorkers(1);
+    }
+
+    private static void awaitSerial(DnsServerEngine secondary, long serial) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (secondary.getSecondary().getSerial() != serial) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Secondary still at serial " + secondary.getSecondary().getSerial() + ", expected " + serial);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private String address(InetSocketAddress server, String name) throws Exception {
+        DnsHeader header = new DnsHeader(5, 0, 1, 0, 0, 0);
+        byte[] query = codec.encode(new DnsMessage(header, List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.<DnsResourceRecord>emptyList(), null));
+        DnsMessage response = codec.decode(udp(server, query));
+        assertEquals(1, response.getAnswers().size());
+        byte[] ip = response.getAnswers().get(0).getRData();
+        return (ip[0] & 0xFF) + "." + (ip[1] & 0xFF) + "." + (ip[2] & 0xFF) + "." + (ip[3] & 0xFF);
+    }
+
+    private int rcode(InetSocketAddress server, String name) throws Exception {
+        DnsHeader header = new DnsHeader(6, 0, 1, 0, 0, 0);
+        byte[] query = codec.encode(new DnsMessage(header, List.of(new DnsQuestion(name, DnsType.A, DnsClass.IN)),
+                Collections.<DnsResourceRecord>emptyList(), null));
+        return codec.decode(udp(server, query)).getHeader().getFlags() & 0xF;
+    }
+
+    private static byte[] udp(InetSocketAddress server, byte[] query) throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(2000);
+            socket.send(new DatagramPacket(query, query.length, server));
+            byte[] buffer = new byte[4096];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            socket.receive(packet);
+            byte[] response = new byte[packet.getLength()];
+            System.arraycopy(buffer, 0, response, 0, response.length);
+            return response;
+        }
+    }
+
+    private static DnsMessage axfr(int id, String zone) {
+        return new DnsMessage(new DnsHeader(id, 0, 1, 0, 0, 0), List.of(new DnsQuestion(zone, DnsType.AXFR, DnsClass.IN)),
+                Collections.<DnsResourceRecord>emptyList(), null);
+    }
+
+    private static int rcode(List<DnsMessage> transfer) {
+        assertEquals(1, transfer.size());
+        return transfer.get(0).getHeader().getFlags() & 0xF;
+    }
+
+    /**
+     * The test zone at {@code serial}: every host at 10.0.0.1, except that host7 is at
+     * {@code host7}.
+     */
+    private static ZoneTrie zone(long serial, String host7) {
+        ZoneTrie trie = new ZoneTrie(HOSTS + 1);
+        trie.add(soa(serial));
+        for (int i = 0; i < HOSTS; i++) {
+            trie.add(host(i, i == 7 ? host7 : "10.0.0.1"));
+        }
+        trie.link();
+        return trie;
+    }
+
+    private static DnsResourceRecord soa(long serial) {
+        ByteBuffer rdata = ByteBuffer.allocate(512);
+        DnsLabelEncoder.encode("ns1." + APEX, rdata);
+        DnsLabelEncoder.encode("hostmaster." + APEX, rdata);
+        rdata.putInt((int) serial).putInt(3600).putInt(600).putInt(86400).putInt(300);
+        byte[] soa = new byte[rdata.position()];
+        rdata.flip();
+        rdata.get(soa);
+        return new DnsResourceRecord(APEX, DnsType.SOA, DnsClass.IN, 3600, soa.length, soa);
+    }
+
+    private static DnsResourceRecord host(int i, String address) {
+        return new DnsResourceRecord("host" + i + "." + APEX, DnsType.A, DnsClass.IN, 300, 4, ip(address));
+    }
+
+    private static byte[] ip(String address) {
+        String[] octets = address.split("\\.");
+        return new byte[]{(byte) Integer.parseInt(octets[0]), (byte) Integer.parseInt(octets[1]),
+                (byte) Integer.parseInt(octets[2]), (byte) Integer.parseInt(octets[3])};
+    }
+}
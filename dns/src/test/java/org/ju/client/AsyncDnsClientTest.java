@@ -0,0 +1,110 @@
+package org.ju.client;
+
+import junit.framework.TestCase;
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsType;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipelining, ID/question matching, retries and timeouts of the async client.
+ */
+public class AsyncDnsClientTest extends TestCase {
+
+    public void testManyQueriesInFlightOverOneSocket() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1));
+        engine.start();
+        try (AsyncDnsClient client = new AsyncDnsClient(1, 2000, 3)) {
+            List<CompletableFuture<DnsMessage>> futures = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                String name = (i % 2 == 0) ? "www.example.com." : "www.google.com.";
+                futures.add(client.query(engine.getLocalAddress(), name, DnsType.A));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                DnsMessage response = futures.get(i).get(10, TimeUnit.SECONDS);
+                String expected = (i % 2 == 0) ? "www.example.com." : "www.google.com.";
+                assertEquals(expected, response.getQuestions().get(0).getQName());
+                assertEquals(1, response.getAnswers().size());
+            }
+            assertEquals(0, client.getInFlight());
+        } finally {
+            engine.stop();
+        }
+    }
+
+    public void testTimesOutAfterRetries() throws Exception {
+        try (DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             AsyncDnsClient client = new AsyncDnsClient(1, 50, 2)) {
+            CompletableFuture<DnsMessage> future = client.query(
+                    (InetSocketAddress) silent.getLocalSocketAddress(), "www.example.com.", DnsType.A);
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected a timeout");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+            assertEquals(3, client.getSent());
+            assertEquals(2, client.getRetransmits());
+            assertEquals(1, client.getTimeouts());
+            assertEquals(0, client.getInFlight());
+        }
+    }
+
+    public void testResponseForAnotherQuestionIsDropped() throws Exception {
+        // No OPT record, so the question is the last thing in the packet
+        try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             AsyncDnsClient client = new AsyncDnsClient(1, 2000, 0).setEdnsPayloadSize(0)) {
+            server.setSoTimeout(2000);
+            CompletableFuture<DnsMessage> future = client.query(
+                    (InetSocketAddress) server.getLocalSocketAddress(), "www.example.com.", DnsType.A);
+
+            byte[] buf = new byte[512];
+            DatagramPacket query = new DatagramPacket(buf, buf.length);
+            server.receive(query);
+
+            // Same ID, different QTYPE: must not complete the query
+            byte[] wrong = Arrays.copyOf(buf, query.getLength());
+            wrong[2] |= (byte) 0x80;
+            wrong[wrong.length - 3] = (byte) DnsType.AAAA;
+            server.send(new DatagramPacket(wrong, wrong.length, query.getSocketAddress()));
+
+            // Same question with different case in the name: accepted
+            byte[] right = Arrays.copyOf(buf, query.getLength());
+            right[2] |= (byte) 0x80;
+            right[13] = 'W';
+            server.send(new DatagramPacket(right, right.length, query.getSocketAddress()));
+
+            DnsMessage response = future.get(5, TimeUnit.SECONDS);
+            assertEquals(DnsType.A, response.getQuestions().get(0).getQType());
+            assertEquals(1, client.getDropped());
+        }
+    }
+
+    public void testCloseFailsQueriesInFlight() throws Exception {
+        try (DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            AsyncDnsClient client = new AsyncDnsClient(2, 10_000, 0);
+            CompletableFuture<DnsMessage> future = client.query(
+                    (InetSocketAddress) silent.getLocalSocketAddress(), "www.example.com.", DnsType.A);
+            client.close();
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected failure on close");
+            } catch (ExecutionException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.ju.metrics;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outcome classification, summing across shards and the Prometheus text output.
+ */
+public class ServerMetricsTest extends TestCase {
+
+    public void testOutcomesFromResponseHeaders() {
+        ServerMetrics metrics = new ServerMetrics(1);
+        ServerMetrics.Shard first = metrics.newShard();
+        ServerMetrics.Shard second = metrics.newShard();
+        first.onResponse(DnsType.A, header(0x8400, 1, 0));  // AA answer
+        second.onResponse(DnsType.A, header(0x8000, 0, 2));  // Referral
+        first.onResponse(DnsType.AAAA, header(0x8003, 0, 0)); // NXDOMAIN
+        second.onResponse(DnsType.MX, header(0x8400, 0, 1)); // NODATA with SOA
+
+        assertEquals(1, metrics.getAnswers());
+        assertEquals(1, metrics.getReferrals());
+        assertEquals(1, metrics.getNxdomains());
+        assertEquals(1, metrics.getNoData());
+        assertEquals(3, metrics.getRcodeCount(0));
+        assertEquals(2, metrics.getQtypeCount(DnsType.A));
+        assertEquals(1, metrics.getQtypeCount(DnsType.MX));
+    }
+
+    public void testPrometheusText() {
+        ServerMetrics metrics = new ServerMetrics(1);
+        ServerMetrics.Shard counters = metrics.newShard();
+        counters.onQuery();
+        counters.onQuery();
+        counters.onDecodeError();
+        counters.onResponse(DnsType.A, header(0x8400, 1, 0));
+        metrics.recordStage(ServerMetrics.STAGE_LOOKUP, 2_000);
+        metrics.register("dns_test_gauge", "A test value.", false, () -> 42);
+
+        String text = metrics.getPrometheusText();
+        assertTrue(text, text.contains("# TYPE dns_queries_total counter\ndns_queries_total 2\n"));
+        assertTrue(text, text.contains("dns_decode_errors_total 1\n"));
+        assertTrue(text, text.contains("dns_responses_total{rcode=\"NOERROR\"} 1\n"));
+        assertTrue(text, text.contains("dns_queries_by_type_total{qtype=\"A\"} 1\n"));
+        assertTrue(text, text.contains("dns_stage_latency_seconds_count{stage=\"lookup\"} 1\n"));
+        assertTrue(text, text.contains("# TYPE dns_test_gauge gauge\ndns_test_gauge 42\n"));
+    }
+
+    private static ByteBuffer header(int flags, int anCount, int nsCount) {
+        ByteBuffer buf = ByteBuffer.allocate(12);
+        buf.putShort(2, (short) flags);
+        buf.putShort(6, (short) anCount);
+        buf.putShort(8, (short) nsCount);
+        return buf;
+    }
+}
@@ -0,0 +1,80 @@
+package org.ju.perf;
+
+import junit.framework.TestCase;
+import org.ju.DnsServerConfig;
+import org.ju.DnsServerEngine;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Query mixes, and a short open-loop run against a local engine.
+ */
+public class DnsPerfTest extends TestCase {
+
+    public void testZipfFavoursTopRanks() {
+        double[] cdf = new double[1000];
+        double total = 0;
+        for (int k = 0; k < cdf.length; k++) {
+            total += 1.0 / (k + 1);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < cdf.length; k++) {
+            cdf[k] /= total;
+        }
+        assertEquals(0, QueryMix.rank(cdf, 0.0));
+        assertEquals(0, QueryMix.rank(cdf, cdf[0]));
+        assertEquals(1, QueryMix.rank(cdf, cdf[0] + 1e-9));
+        assertEquals(999, QueryMix.rank(cdf, 1.0));
+    }
+
+    public void testMissesAreUniqueNamesUnderTheZone() {
+        QueryMix mix = QueryMix.zipf(List.of("www.example.com."), 1.0, 1.0, "example.com", 7);
+        byte[] a = mix.next();
+        byte[] b = mix.next();
+        assertFalse(Arrays.equals(a, b));
+        String text = new String(a, StandardCharsets.ISO_8859_1);
+        assertTrue(text.contains("example"));
+    }
+
+    public void testQueryFileWrapsAround() throws Exception {
+        Path file = Files.createTempFile("queries", ".txt");
+        try {
+            Files.write(file, List.of("# comment", "www.example.com A", "", "www.google.com AAAA"));
+            QueryMix mix = QueryMix.fromFile(file);
+            byte[] first = mix.next();
+            byte[] second = mix.next();
+            assertFalse(Arrays.equals(first, second));
+            assertTrue(Arrays.equals(first, mix.next()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testOpenLoopRunReports() throws Exception {
+        DnsServerEngine engine = new DnsServerEngine(
+                new DnsServerConfig().setBindAddress("127.0.0.1").setPort(0).setWorkers(1));
+        engine.start();
+        try {
+            InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    engine.getLocalAddress().getPort());
+            LoadReport report = new DnsPerf().setServer(server).setQps(500).setDurationSeconds(0.5)
+                    .setTimeoutMillis(500).setLabel("test")
+                    .run(QueryMix.zipf(List.of("www.example.com.", "unknown.example."), 1.0, 0, "example.com", 1));
+
+            assertEquals(250, report.getSent(), 5);
+            assertEquals(report.getSent(), report.getResponses() + report.getLost() + report.getErrors());
+            assertTrue(report.getRcodeCount(0) > 0);
+            String json = report.toJson();
+            assertTrue(json, json.startsWith("{\"label\":\"test\",\"mode\":\"open-loop\""));
+            assertTrue(json, json.contains("\"p99.9\":"));
+        } finally {
+            engine.stop();
+        }
+    }
+}
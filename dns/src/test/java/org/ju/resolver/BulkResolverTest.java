@@ -0,0 +1,128 @@
+package org.ju.resolver;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk resolution against a scripted root -> example.com hierarchy.
+ */
+public class BulkResolverTest extends TestCase {
+
+    private static final InetSocketAddress ROOT = new InetSocketAddress("10.0.0.1", 53);
+    private static final InetSocketAddress EXAMPLE = new InetSocketAddress("10.0.0.3", 53);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private IterativeResolver resolver;
+
+    @Override
+    protected void setUp() {
+        DnsTransport hierarchy = (server, query) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+                String qname = query.getQuestions().get(0).getQName();
+                int id = query.getHeader().getId();
+                if (server.equals(ROOT)) {
+                    return referral(id);
+                }
+                if (server.equals(EXAMPLE) && qname.startsWith("www")) {
+                    DnsResourceRecord a = new DnsResourceRecord(qname, DnsType.A, DnsClass.IN, 300, 4,
+                            new byte[]{(byte) 192, (byte) 168, 1, 10});
+                    return response(id, 0, List.of(a), Collections.<DnsResourceRecord>emptyList(),
+                            Collections.<DnsResourceRecord>emptyList());
+                }
+                if (server.equals(EXAMPLE)) {
+                    return response(id, 3, Collections.<DnsResourceRecord>emptyList(),
+                            Collections.<DnsResourceRecord>emptyList(), Collections.<DnsResourceRecord>emptyList());
+                }
+                throw new SocketTimeoutException("No route to " + server);
+            } catch (InterruptedException e) {
+                throw new SocketTimeoutException("Interrupted");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+        resolver = new IterativeResolver(hierarchy, Collections.singletonList(ROOT), 53,
+                new ResolverCache(100_000, 1 << 26));
+    }
+
+    public void testJsonLinesCarryReferralsAndAnswers() throws Exception {
+        String out = run(new BulkResolver(resolver).setConcurrency(1),
+                "www.example.com\n\n# a comment\nmissing.example.com.\nwww.example.com\n");
+
+        String[] lines = out.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("{\"name\":\"www.example.com.\",\"type\":\"A\",\"rcode\":\"NOERROR\""));
+        assertTrue(lines[0], lines[0].contains("\"referrals\":1,\"queries\":2,\"cached\":false"));
+        assertTrue(lines[0], lines[0].endsWith("\"answers\":[{\"type\":\"A\",\"ttl\":300,\"data\":\"192.168.1.10\"}]}"));
+        // The delegation is cached by now, so the walk starts at example.com
+        assertTrue(lines[1], lines[1].contains("\"rcode\":\"NXDOMAIN\""));
+        assertTrue(lines[1], lines[1].contains("\"referrals\":0,\"queries\":1"));
+        assertTrue(lines[2], lines[2].contains("\"queries\":0,\"cached\":true"));
+    }
+
+    public void testCsvHasAHeaderAndOneRowPerName() throws Exception {
+        BulkResolver bulk = new BulkResolver(resolver).setConcurrency(2).setCsv(true);
+        String out = run(bulk, "www.example.com\nodd,name.example.com TXT\nwww.example.com BOGUS\n");
+
+        String[] lines = out.split("\n");
+        assertEquals(4, lines.length);
+        assertEquals(BulkResolver.CSV_HEADER, lines[0]);
+        String all = out.substring(out.indexOf('\n') + 1);
+        assertTrue(all, all.contains("www.example.com.,A,NOERROR,"));
+        assertTrue(all, all.contains("\"odd,name.example.com.\",TXT,NXDOMAIN,"));
+        assertTrue(all, all.contains("www.example.com.,BOGUS,FORMERR,"));
+        assertEquals(3, bulk.getResolved());
+        assertEquals(1, bulk.getFailed());
+    }
+
+    public void testConcurrencyIsBounded() throws Exception {
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            names.append("www").append(i).append(".example.com\n");
+        }
+        BulkResolver bulk = new BulkResolver(resolver).setConcurrency(16);
+        String out = run(bulk, names.toString());
+
+        assertEquals(2000, out.split("\n").length);
+        assertEquals(2000, bulk.getResolved());
+        assertEquals(0, bulk.getFailed());
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() <= 16);
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() > 1);
+    }
+
+    private static String run(BulkResolver bulk, String input) throws Exception {
+        StringWriter out = new StringWriter();
+        bulk.run(new BufferedReader(new StringReader(input)), out);
+        return out.toString();
+    }
+
+    private static DnsMessage referral(int id) {
+        byte[] rData = DnsLabelEncoder.encode("ns.example.com.");
+        DnsResourceRecord ns = new DnsResourceRecord("example.com.", DnsType.NS, DnsClass.IN, 3600, rData.length, rData);
+        DnsResourceRecord glue = new DnsResourceRecord("ns.example.com.", DnsType.A, DnsClass.IN, 3600, 4,
+                new byte[]{10, 0, 0, 3});
+        return response(id, 0, Collections.<DnsResourceRecord>emptyList(), List.of(ns), List.of(glue));
+    }
+
+    private static DnsMessage response(int id, int rcode, List<DnsResourceRecord> answers,
+                                       List<DnsResourceRecord> authorities, List<DnsResourceRecord> additionals) {
+        DnsHeader header = new DnsHeader(id, 0x8000 | rcode, 1, answers.size(), authorities.size(), additionals.size());
+        return new DnsMessage(header, Collections.emptyList(), answers, authorities, additionals);
+    }
+}
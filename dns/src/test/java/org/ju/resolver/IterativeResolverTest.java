@@ -0,0 +1,354 @@
+package org.ju.resolver;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsHeader;
+import org.ju.model.DnsMessage;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+import org.ju.util.DnsMessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Referral walking and caching against a scripted root -> com -> example.com hierarchy.
+ */
+public class IterativeResolverTest extends TestCase {
+
+    private static final InetSocketAddress ROOT = new InetSocketAddress("10.0.0.1", 53);
+    private static final InetSocketAddress COM = new InetSocketAddress("10.0.0.2", 53);
+    private static final InetSocketAddress EXAMPLE = new InetSocketAddress("10.0.0.3", 53);
+
+    private final List<InetSocketAddress> asked = Collections.synchronizedList(new ArrayList<>());
+    private IterativeResolver resolver;
+    private DnsTransport hierarchy;
+    private volatile boolean down;
+    private long now = 1_000_000_000L;
+
+    @Override
+    protected void setUp() {
+        hierarchy = (server, query) -> {
+            if (down) {
+                throw new SocketTimeoutException("Upstreams down");
+            }
+            asked.add(server);
+            String qname = query.getQuestions().get(0).getQName();
+            int id = query.getHeader().getId();
+            if (server.equals(ROOT)) {
+                return referral(id, "com.", 10, 0, 0, 2);
+            }
+            if (server.equals(COM)) {
+                return referral(id, "example.com.", 10, 0, 0, 3);
+            }
+            if (server.equals(EXAMPLE)) {
+                if (qname.equals("www.example.com.")) {
+                    return answer(id, qname, 300);
+                }
+                if (qname.equals("short.example.com.")) {
+                    return answer(id, qname, 0);
+                }
+                return response(id, 3, Collections.<DnsResourceRecord>emptyList(),
+                        Collections.<DnsResourceRecord>emptyList());
+            }
+            throw new SocketTimeoutException("No route to " + server);
+        };
+        resolver = new IterativeResolver(hierarchy, Collections.singletonList(ROOT), 53,
+                new ResolverCache(1000, 1 << 20));
+    }
+
+    public void testColdLookupWalksFromTheRoot() {
+        Resolution r = resolver.resolve("www.example.com", DnsType.A);
+        assertEquals(Resolution.RCODE_NOERROR, r.getRcode());
+        assertEquals(1, r.getAnswers().size());
+        assertEquals(3, r.getUpstreamQueries());
+        assertEquals(2, r.getReferrals());
+        assertEquals(List.of(ROOT, COM, EXAMPLE), asked);
+    }
+
+    public void testWarmLookupAsksNobody() {
+        resolver.resolve("www.example.com.", DnsType.A);
+        asked.clear();
+
+        Resolution r = resolver.resolve("WWW.Example.COM.", DnsType.A);
+        assertTrue(r.isFromCache());
+        assertEquals(0, r.getUpstreamQueries());
+        assertEquals(1, r.getAnswers().size());
+        assertTrue(asked.isEmpty());
+    }
+
+    public void testCachedDelegationSkipsRootAndTld() {
+        resolver.resolve("www.example.com.", DnsType.A);
+        asked.clear();
+
+        Resolution r = resolver.resolve("nope.example.com.", DnsType.A);
+        assertEquals(Resolution.RCODE_NXDOMAIN, r.getRcode());
+        assertEquals(List.of(EXAMPLE), asked);
+    }
+
+    public void testNegativeAnswersAreCached() {
+        resolver.resolve("nope.example.com.", DnsType.A);
+        asked.clear();
+
+        Resolution r = resolver.resolve("nope.example.com.", DnsType.A);
+        assertEquals(Resolution.RCODE_NXDOMAIN, r.getRcode());
+        assertTrue(r.isFromCache());
+        assertTrue(asked.isEmpty());
+    }
+
+    public void testZeroTtlIsNotCached() {
+        resolver.resolve("short.example.com.", DnsType.A);
+        asked.clear();
+
+        Resolution r = resolver.resolve("short.example.com.", DnsType.A);
+        assertFalse(r.isFromCache());
+        assertEquals(List.of(EXAMPLE), asked); // Delegation still cached
+    }
+
+    public void testUnreachableServerIsServfailAndNotCached() {
+        IterativeResolver dead = new IterativeResolver((server, query) -> {
+            throw new SocketTimeoutException("down");
+        }, Collections.singletonList(ROOT), 53, new ResolverCache(10, 1 << 16));
+
+        assertEquals(Resolution.RCODE_SERVFAIL, dead.resolve("www.example.com.", DnsType.A).getRcode());
+        assertEquals(0, dead.getCache().size());
+    }
+
+    public void testReferralThatGoesNowhereIsServfail() {
+        // A server that keeps delegating to the same zone would loop forever
+        IterativeResolver lame = new IterativeResolver((server, query) ->
+                referral(query.getHeader().getId(), "com.", 10, 0, 0, 1),
+                Collections.singletonList(ROOT), 53, new ResolverCache(10, 1 << 16));
+
+        Resolution r = lame.resolve("www.example.com.", DnsType.A);
+        assertEquals(Resolution.RCODE_SERVFAIL, r.getRcode());
+        assertEquals(2, r.getUpstreamQueries());
+    }
+
+    public void testGluelessReferralLooksUpTheNameserver() {
+        // example.org. is served from a host under example.com., so .org can give no glue
+        InetSocketAddress org = new InetSocketAddress("10.0.0.4", 53);
+        IterativeResolver resolver = new IterativeResolver((server, query) -> {
+            asked.add(server);
+            String qname = query.getQuestions().get(0).getQName();
+            int id = query.getHeader().getId();
+            if (server.equals(ROOT)) {
+                return qname.endsWith("org.") ? referral(id, "org.", 10, 0, 0, 4) : referral(id, "com.", 10, 0, 0, 2);
+            }
+            if (server.equals(COM)) {
+                return referral(id, "example.com.", 10, 0, 0, 3);
+            }
+            if (server.equals(org)) {
+                return response(id, 0, Collections.<DnsResourceRecord>emptyList(),
+                        List.of(ns("example.org.", "ns.example.com.")));
+            }
+            if (server.equals(EXAMPLE) && qname.equals("ns.example.com.")) {
+                return response(id, 0, List.of(new DnsResourceRecord(qname, DnsType.A, DnsClass.IN, 3600, 4,
+                        new byte[]{10, 0, 0, 3})), Collections.<DnsResourceRecord>emptyList());
+            }
+            if (server.equals(EXAMPLE)) {
+                return answer(id, qname, 300);
+            }
+            throw new SocketTimeoutException("No route to " + server);
+        }, Collections.singletonList(ROOT), 53, new ResolverCache(1000, 1 << 20));
+
+        Resolution r = resolver.resolve("www.example.org.", DnsType.A);
+        assertEquals(Resolution.RCODE_NOERROR, r.getRcode());
+        assertEquals(List.of(ROOT, org, ROOT, COM, EXAMPLE, EXAMPLE), asked);
+        assertEquals(6, r.getUpstreamQueries());
+    }
+
+    public void testHitNearExpiryIsRefreshedAhead() {
+        IterativeResolver resolver = new IterativeResolver(hierarchy, Collections.singletonList(ROOT), 53,
+                new ResolverCache(1000, 1 << 20, () -> now)).setPrefetch(0.5, Runnable::run);
+        resolver.resolve("www.example.com.", DnsType.A);
+        asked.clear();
+
+        now += 100_000_000_000L; // 200 of 300 seconds left: no prefetch yet
+        assertTrue(resolver.resolve("www.example.com.", DnsType.A).isFromCache());
+        assertEquals(0, resolver.getPrefetches());
+
+        now += 100_000_000_000L; // 100 left
+        assertTrue(resolver.resolve("www.example.com.", DnsType.A).isFromCache());
+        assertEquals(1, resolver.getPrefetches());
+        assertEquals(List.of(EXAMPLE), asked);
+        assertEquals(300, resolver.resolve("www.example.com.", DnsType.A).getAnswers().get(0).getTtl());
+    }
+
+    public void testStaleAnswerWhenUpstreamsFail() {
+        IterativeResolver resolver = new IterativeResolver(hierarchy, Collections.singletonList(ROOT), 53,
+                new ResolverCache(1000, 1 << 20, 3600, () -> now));
+        resolver.resolve("www.example.com.", DnsType.A);
+
+        now += 301_000_000_000L;
+        down = true;
+        Resolution r = resolver.resolve("www.example.com.", DnsType.A);
+        assertEquals(Resolution.RCODE_NOERROR, r.getRcode());
+        assertTrue(r.isStale());
+        assertEquals(ResolverCache.STALE_TTL_SECONDS, r.getAnswers().get(0).getTtl());
+
+        // Nothing stale to fall back on: still SERVFAIL
+        assertEquals(Resolution.RCODE_SERVFAIL, resolver.resolve("mail.example.com.", DnsType.A).getRcode());
+    }
+
+    public void testConcurrentMissesShareOneWalk() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IterativeResolver resolver = new IterativeResolver((server, query) -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new SocketTimeoutException("Interrupted");
+            }
+            return hierarchy.exchange(server, query);
+        }, Collections.singletonList(ROOT), 53, new ResolverCache(1000, 1 << 20)).setCoalescing(true);
+
+        List<Resolution> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> results.add(resolver.resolve("www.example.com.", DnsType.A)));
+            threads.add(thread);
+            thread.start();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (resolver.getCoalesced() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(3, resolver.getCoalesced());
+        assertEquals(List.of(ROOT, COM, EXAMPLE), asked);
+        for (Resolution r : results) {
+            assertEquals(1, r.getAnswers().size());
+        }
+    }
+
+    public void testSlowServerIsHedgedAndThenAvoided() throws Exception {
+        // example.com. has two servers; the first listed never answers
+        InetSocketAddress dead = new InetSocketAddress("10.0.0.9", 53);
+        IterativeResolver resolver = new IterativeResolver((server, query) -> {
+            asked.add(server);
+            String qname = query.getQuestions().get(0).getQName();
+            int id = query.getHeader().getId();
+            if (server.equals(ROOT)) {
+                DnsResourceRecord deadGlue = new DnsResourceRecord("ns1.example.com.", DnsType.A, DnsClass.IN, 3600, 4,
+                        new byte[]{10, 0, 0, 9});
+                DnsResourceRecord liveGlue = new DnsResourceRecord("ns2.example.com.", DnsType.A, DnsClass.IN, 3600,
+                        4, new byte[]{10, 0, 0, 3});
+                return response(id, 0, Collections.<DnsResourceRecord>emptyList(),
+                        List.of(ns("example.com.", "ns1.example.com."), ns("example.com.", "ns2.example.com.")),
+                        List.of(deadGlue, liveGlue));
+            }
+            if (server.equals(EXAMPLE)) {
+                return answer(id, qname, 300);
+            }
+            try {
+                Thread.sleep(800);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new SocketTimeoutException("No answer from " + server);
+        }, Collections.singletonList(ROOT), 53, new ResolverCache(1000, 1 << 20));
+
+        long start = System.nanoTime();
+        Resolution r = resolver.resolve("www.example.com.", DnsType.A);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(1, r.getAnswers().size());
+        assertEquals(1, resolver.getHedges());
+        assertTrue("Took " + millis + " ms", millis < 800);
+
+        // Once its failure is in, the dead server goes to the back of the line
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!resolver.getNameservers().rank(List.of(dead, EXAMPLE)).get(0).equals(EXAMPLE)) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        asked.clear();
+        resolver.resolve("mail.example.com.", DnsType.A);
+        assertEquals(List.of(EXAMPLE), asked);
+        assertEquals(1, resolver.getHedges());
+    }
+
+    public void testCompressedReferralIsFollowed() {
+        IterativeResolver wire = new IterativeResolver((server, query) -> {
+            if (server.equals(ROOT)) {
+                asked.add(server);
+                return compressedReferral(query.getHeader().getId(), query.getQuestions().get(0).getQName());
+            }
+            return hierarchy.exchange(server, query);
+        }, Collections.singletonList(ROOT), 53, new ResolverCache(1000, 1 << 20));
+
+        Resolution r = wire.resolve("www.example.com.", DnsType.A);
+        assertEquals(Resolution.RCODE_NOERROR, r.getRcode());
+        assertEquals(1, r.getAnswers().size());
+        assertEquals(List.of(ROOT, EXAMPLE), asked);
+
+        // The delegation went into the cache under the expanded nameserver name
+        asked.clear();
+        assertEquals(Resolution.RCODE_NXDOMAIN, wire.resolve("nope.example.com.", DnsType.A).getRcode());
+        assertEquals(List.of(EXAMPLE), asked);
+    }
+
+    // --- Canned responses ---
+
+    /**
+     * A root referral for {@code qname} (which must start with a 3-letter label) to
+     * example.com, as real servers write it: every name after the question is a
+     * compression pointer, the NS target inside the RDATA included.
+     */
+    private static DnsMessage compressedReferral(int id, String qname) {
+        ByteBuffer wire = ByteBuffer.allocate(512);
+        wire.putShort((short) id).putShort((short) 0x8000).putShort((short) 1).putShort((short) 0)
+                .putShort((short) 1).putShort((short) 1);
+        DnsLabelEncoder.encode(qname, wire);
+        wire.putShort((short) DnsType.A).putShort((short) DnsClass.IN);
+        int example = 12 + 4; // "example.com." inside the QNAME
+        wire.putShort((short) (0xC000 | example)).putShort((short) DnsType.NS).putShort((short) DnsClass.IN)
+                .putInt(3600).putShort((short) 6);
+        int nameserver = wire.position();
+        wire.put((byte) 3).put(new byte[]{'n', 's', '1'}).putShort((short) (0xC000 | example));
+        wire.putShort((short) (0xC000 | nameserver)).putShort((short) DnsType.A).putShort((short) DnsClass.IN)
+                .putInt(3600).putShort((short) 4).put(new byte[]{10, 0, 0, 3});
+        return new DnsMessageCodec().decode(Arrays.copyOf(wire.array(), wire.position()));
+    }
+
+    private static DnsMessage referral(int id, String zone, int a, int b, int c, int d) {
+        String nameserver = "ns." + zone;
+        DnsResourceRecord glue = new DnsResourceRecord(nameserver, DnsType.A, DnsClass.IN, 3600, 4,
+                new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+        return response(id, 0, Collections.<DnsResourceRecord>emptyList(), List.of(ns(zone, nameserver)), List.of(glue));
+    }
+
+    private static DnsResourceRecord ns(String zone, String nameserver) {
+        byte[] rData = DnsLabelEncoder.encode(nameserver);
+        return new DnsResourceRecord(zone, DnsType.NS, DnsClass.IN, 3600, rData.length, rData);
+    }
+
+    private static DnsMessage answer(int id, String name, long ttl) {
+        DnsResourceRecord a = new DnsResourceRecord(name, DnsType.A, DnsClass.IN, ttl, 4,
+                new byte[]{(byte) 192, (byte) 168, 1, 10});
+        return response(id, 0, List.of(a), Collections.<DnsResourceRecord>emptyList());
+    }
+
+    private static DnsMessage response(int id, int rcode, List<DnsResourceRecord> answers,
+                                       List<DnsResourceRecord> authorities) {
+        return response(id, rcode, answers, authorities, Collections.<DnsResourceRecord>emptyList());
+    }
+
+    private static DnsMessage response(int id, int rcode, List<DnsResourceRecord> answers,
+                                       List<DnsResourceRecord> authorities, List<DnsResourceRecord> additionals) {
+        DnsHeader header = new DnsHeader(id, 0x8000 | rcode, 1, answers.size(), authorities.size(), additionals.size());
+        return new DnsMessage(header, Collections.emptyList(), answers, authorities, additionals);
+    }
+}
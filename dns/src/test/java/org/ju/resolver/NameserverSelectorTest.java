@@ -0,0 +1,68 @@
+package org.ju.resolver;
+
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * RTT smoothing, ranking, adaptive timeouts and back-off of the nameserver selector.
+ */
+public class NameserverSelectorTest extends TestCase {
+
+    private static final InetSocketAddress A = new InetSocketAddress("10.0.0.1", 53);
+    private static final InetSocketAddress B = new InetSocketAddress("10.0.0.2", 53);
+    private static final InetSocketAddress C = new InetSocketAddress("10.0.0.3", 53);
+
+    private long now = 1_000_000_000L;
+    private final NameserverSelector selector = new NameserverSelector(() -> now);
+
+    public void testUntriedFirstThenFastest() {
+        selector.success(A, 50_000_000L);
+        selector.success(B, 5_000_000L);
+        assertEquals(List.of(C, B, A), selector.rank(List.of(A, B, C)));
+    }
+
+    public void testTimeoutFollowsTheRtt() {
+        assertEquals(NameserverSelector.INITIAL_TIMEOUT_NANOS, selector.timeoutNanos(A));
+        for (int i = 0; i < 50; i++) {
+            selector.success(A, 30_000_000L);
+            selector.success(B, 1_000_000L);
+            selector.success(C, 5_000_000_000L);
+        }
+        long timeout = selector.timeoutNanos(A);
+        assertTrue("Timeout " + timeout, timeout >= 30_000_000L && timeout < 40_000_000L);
+        assertEquals(NameserverSelector.MIN_TIMEOUT_NANOS, selector.timeoutNanos(B));
+        assertEquals(NameserverSelector.MAX_TIMEOUT_NANOS, selector.timeoutNanos(C));
+    }
+
+    public void testServerThatKeepsFailingIsBackedOff() {
+        selector.success(A, 1_000_000L);
+        selector.success(B, 90_000_000L);
+        selector.failure(A);
+        selector.failure(A);
+        assertFalse(selector.isBackedOff(A));
+        assertEquals(A, selector.rank(List.of(A, B)).get(0));
+
+        selector.failure(A);
+        assertTrue(selector.isBackedOff(A));
+        assertEquals(List.of(B, A), selector.rank(List.of(A, B)));
+
+        // Back after the first period, and off for twice as long on the next failure
+        now += NameserverSelector.BASE_BACKOFF_NANOS;
+        assertFalse(selector.isBackedOff(A));
+        selector.failure(A);
+        now += NameserverSelector.BASE_BACKOFF_NANOS;
+        assertTrue(selector.isBackedOff(A));
+
+        selector.success(A, 1_000_000L);
+        assertFalse(selector.isBackedOff(A));
+        assertEquals(A, selector.rank(List.of(A, B)).get(0));
+    }
+
+    public void testServerThatNeverAnsweredGoesAfterThoseThatDo() {
+        selector.failure(A);
+        selector.success(B, 900_000_000L);
+        assertEquals(List.of(C, B, A), selector.rank(List.of(A, B, C)));
+    }
+}
@@ -0,0 +1,128 @@
+package org.ju.resolver;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TTL expiry, TTL countdown, delegation lookup and the size bounds of the resolver cache.
+ */
+public class ResolverCacheTest extends TestCase {
+
+    private long now = 1_000_000_000L;
+
+    private ResolverCache cache(int maxEntries, long maxBytes) {
+        return new ResolverCache(maxEntries, maxBytes, () -> now);
+    }
+
+    public void testAnswerExpiresAndTtlCountsDown() {
+        ResolverCache cache = cache(100, 1 << 20);
+        cache.putAnswer("www.example.com.", DnsType.A, List.of(record("www.example.com.", 60)));
+
+        now += 20_000_000_000L;
+        ResolverCache.Answer answer = cache.getAnswer("www.example.com.", DnsType.A);
+        assertNotNull(answer);
+        assertEquals(40, answer.getRecords().get(0).getTtl());
+
+        now += 40_000_000_000L;
+        assertNull(cache.getAnswer("www.example.com.", DnsType.A));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.byteSize());
+    }
+
+    public void testTypesAreCachedSeparately() {
+        ResolverCache cache = cache(100, 1 << 20);
+        cache.putNegative("www.example.com.", DnsType.AAAA, 0, 60);
+
+        assertNull(cache.getAnswer("www.example.com.", DnsType.A));
+        assertTrue(cache.getAnswer("www.example.com.", DnsType.AAAA).isNegative());
+    }
+
+    public void testProbeFindsTheSameAnswers() {
+        ResolverCache cache = cache(100, 1 << 20);
+        cache.putAnswer("www.example.com.", DnsType.A, List.of(record("www.example.com.", 60)));
+        cache.putNegative("nx.example.com.", 65535, 3, 60);
+        ResolverCache.Probe probe = new ResolverCache.Probe();
+        StringBuilder name = new StringBuilder();
+
+        for (String spelling : List.of("www.example.com.", "WWW.Example.COM", "www.example.com")) {
+            name.setLength(0);
+            assertTrue(spelling, cache.hasAnswer(probe.wrap(name.append(spelling), DnsType.A)));
+            assertFalse(spelling, cache.hasAnswer(probe.wrap(name, DnsType.AAAA)));
+            assertFalse(spelling, cache.hasAnswer(probe.wrap(name, DnsType.A * 10)));
+        }
+        assertFalse(cache.hasAnswer(probe.wrap("ww.example.com.", DnsType.A)));
+        assertFalse(cache.hasAnswer(probe.wrap("wwww.example.com.", DnsType.A)));
+        assertTrue(cache.hasAnswer(probe.wrap("NX.example.com.", 65535)));
+        assertFalse(cache.hasAnswer(probe.wrap("NX.example.com.", 6553)));
+        assertEquals("www.example.com./1".hashCode(), probe.wrap("WWW.example.com", 1).hashCode());
+
+        now += 61_000_000_000L;
+        assertFalse(cache.hasAnswer(probe.wrap("www.example.com.", DnsType.A)));
+    }
+
+    public void testDeepestDelegationWins() {
+        ResolverCache cache = cache(100, 1 << 20);
+        InetSocketAddress com = new InetSocketAddress("10.0.0.2", 53);
+        InetSocketAddress example = new InetSocketAddress("10.0.0.3", 53);
+        cache.putDelegation("com.", Collections.singletonList(com), 600);
+        cache.putDelegation("example.com.", Collections.singletonList(example), 60);
+
+        assertEquals("example.com.", cache.findDelegation("a.b.example.com.").getZone());
+        assertEquals("com.", cache.findDelegation("other.com").getZone());
+        assertNull(cache.findDelegation("example.org."));
+
+        now += 61_000_000_000L;
+        assertEquals("com.", cache.findDelegation("a.b.example.com.").getZone());
+    }
+
+    public void testExpiredAnswerIsServedStaleOnlyInsideTheWindow() {
+        ResolverCache cache = new ResolverCache(100, 1 << 20, 60, () -> now);
+        cache.putAnswer("www.example.com.", DnsType.A, List.of(record("www.example.com.", 10)));
+        assertFalse(cache.getStaleAnswer("www.example.com.", DnsType.A).isStale()); // Still fresh
+
+        now += 11_000_000_000L;
+        assertNull(cache.getAnswer("www.example.com.", DnsType.A));
+        ResolverCache.Answer stale = cache.getStaleAnswer("www.example.com.", DnsType.A);
+        assertTrue(stale.isStale());
+        assertEquals(ResolverCache.STALE_TTL_SECONDS, stale.getRecords().get(0).getTtl());
+
+        // Served stale from now on, until it is time to try the upstreams again
+        now += 10_000_000_000L;
+        assertTrue(cache.getAnswer("www.example.com.", DnsType.A).isStale());
+        assertEquals(2, cache.getStaleHits());
+        now += 21_000_000_000L;
+        assertNull(cache.getAnswer("www.example.com.", DnsType.A));
+
+        now += 30_000_000_000L;
+        assertNull(cache.getStaleAnswer("www.example.com.", DnsType.A));
+        assertEquals(0, cache.size());
+    }
+
+    public void testEntryBound() {
+        ResolverCache cache = cache(50, 1 << 30);
+        for (int i = 0; i < 500; i++) {
+            cache.putAnswer("host" + i + ".example.com.", DnsType.A, List.of(record("host" + i + ".example.com.", 300)));
+        }
+        assertTrue(cache.size() <= 50);
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    public void testByteBound() {
+        ResolverCache cache = cache(1_000_000, 20_000);
+        for (int i = 0; i < 2000; i++) {
+            cache.putAnswer("host" + i + ".example.com.", DnsType.A, List.of(record("host" + i + ".example.com.", 300)));
+        }
+        assertTrue(cache.byteSize() <= 20_000);
+        assertTrue(cache.size() > 0);
+    }
+
+    private static DnsResourceRecord record(String name, long ttl) {
+        return new DnsResourceRecord(name, DnsType.A, DnsClass.IN, ttl, 4, new byte[]{10, 0, 0, 1});
+    }
+}
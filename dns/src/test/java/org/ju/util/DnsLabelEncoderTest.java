@@ -0,0 +1,74 @@
+package org.ju.util;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pointer following and its loop/bounds protection, plus compressed encoding.
+ */
+public class DnsLabelEncoderTest extends TestCase {
+
+    public void testDecodeFollowsPointer() {
+        // offset 0: (3)www(7)example(3)com(0)   offset 17: (4)mail + pointer to offset 4
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        DnsLabelEncoder.encode("www.example.com.", buffer);
+        int second = buffer.position();
+        buffer.put((byte) 4).put("mail".getBytes()).putShort((short) (0xC000 | 4));
+        int end = buffer.position();
+        buffer.flip();
+
+        buffer.position(second);
+        assertEquals("mail.example.com.", DnsLabelEncoder.decode(buffer));
+        assertEquals(end, buffer.position());
+    }
+
+    public void testSelfPointerRejected() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 'a', (byte) 0xC0, 0});
+        try {
+            DnsLabelEncoder.decode(buffer);
+            fail("Expected pointer loop to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    public void testForwardPointerRejected() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0xC0, 4, 0, 0, 1, 'a', 0});
+        try {
+            DnsLabelEncoder.decode(buffer);
+            fail("Expected forward pointer to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    public void testLabelPastLimitRejected() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{5, 'a', 'b'});
+        try {
+            DnsLabelEncoder.decode(buffer);
+            fail("Expected truncated label to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    public void testCompressorReusesSuffixes() {
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        DnsNameCompressor compressor = new DnsNameCompressor().reset(buffer);
+        compressor.writeName("www.example.com.");
+        int afterFirst = buffer.position();
+        compressor.writeName("MAIL.Example.COM.");   // Suffix match is case-insensitive
+        compressor.writeName("www.example.com.");
+        compressor.writeName("org.");
+
+        // (4)MAIL+ptr, then a bare ptr, then (3)org(0) uncompressed
+        assertEquals(afterFirst + 7 + 2 + 5, buffer.position());
+        buffer.flip();
+        assertEquals("www.example.com.", DnsLabelEncoder.decode(buffer));
+        assertEquals("MAIL.example.com.", DnsLabelEncoder.decode(buffer));
+        assertEquals("www.example.com.", DnsLabelEncoder.decode(buffer));
+        assertEquals("org.", DnsLabelEncoder.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,69 @@
+package org.ju.util;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The lazy view finds the same sections and records as the object codec.
+ */
+public class DnsMessageViewTest extends TestCase {
+
+    public void testSectionsAndRecords() {
+        DnsResourceRecord a1 = record("www.example.com.", DnsType.A, 1);
+        DnsResourceRecord a2 = record("www.example.com.", DnsType.A, 2);
+        DnsResourceRecord ns = record("example.com.", DnsType.NS, 3);
+        DnsMessage message = new DnsMessage(new DnsHeader(9, 0x8400, 1, 2, 1, 1),
+                List.of(new DnsQuestion("www.example.com.", DnsType.A, DnsClass.IN)),
+                List.of(a1, a2), List.of(ns), List.of(Edns.opt(1232)));
+        ByteBuffer buffer = ByteBuffer.wrap(new DnsMessageCodec().encode(message));
+
+        DnsMessageView view = new DnsMessageView().wrap(buffer);
+        assertEquals(DnsType.A, view.getQuestion().getQType());
+        assertTrue(view.getQuestion().nameEquals("WWW.Example.com"));
+        assertFalse(view.getQuestion().nameEquals("example.com."));
+        assertTrue(view.getQuestion().isAtOrBelow("EXAMPLE.com."));
+        assertTrue(view.getQuestion().isAtOrBelow("www.example.com"));
+        assertTrue(view.getQuestion().isAtOrBelow("."));
+        assertFalse(view.getQuestion().isAtOrBelow("ww.example.com."));
+        assertFalse(view.getQuestion().isAtOrBelow("example.org."));
+        assertEquals(2, view.getCount(DnsWireWriter.ANSWER));
+
+        DnsRecordFlyweight record = view.getRecord(DnsWireWriter.ANSWER, 1, new DnsRecordFlyweight());
+        assertEquals(2, buffer.get(record.getRDataOffset() + 3));
+        record = view.getRecord(DnsWireWriter.AUTHORITY, 0, record);
+        assertEquals(DnsType.NS, record.getType());
+        assertEquals(1232, view.getOpt().getUdpPayloadSize());
+        assertEquals(buffer.limit(), view.getSectionOffset(DnsWireWriter.ADDITIONAL + 1));
+
+        // Rewrapping forgets everything found in the previous message
+        ByteBuffer other = ByteBuffer.wrap(new DnsMessageCodec().encode(new DnsMessage(new DnsHeader(1, 0, 1, 0, 0, 0),
+                List.of(new DnsQuestion(".", DnsType.NS, DnsClass.IN)), Collections.emptyList(), Collections.emptyList())));
+        view.wrap(other);
+        assertTrue(view.getQuestion().nameEquals("."));
+        assertFalse(view.getOpt().isPresent());
+        assertEquals(other.limit(), view.getSectionOffset(DnsWireWriter.ANSWER));
+    }
+
+    public void testMissingQuestionAndRecord() {
+        ByteBuffer buffer = ByteBuffer.allocate(DnsHeaderFlyweight.HEADER_SIZE);
+        DnsMessageView view = new DnsMessageView().wrap(buffer);
+        try {
+            view.getQuestion();
+            fail("No question to parse");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            view.getRecord(DnsWireWriter.ANSWER, 0, new DnsRecordFlyweight());
+            fail("No answers");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static DnsResourceRecord record(String name, int type, int last) {
+        return new DnsResourceRecord(name, type, DnsClass.IN, 3600, 4, new byte[]{10, 0, 0, (byte) last});
+    }
+}
@@ -0,0 +1,183 @@
+package org.ju.util;
+
+import junit.framework.TestCase;
+import org.ju.model.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The flyweight views and wire writer must agree byte-for-byte with the object codec.
+ */
+public class DnsWireCodecTest extends TestCase {
+
+    private final DnsMessageCodec codec = new DnsMessageCodec();
+
+    public void testWriterMatchesObjectCodec() {
+        DnsResourceRecord a = new DnsResourceRecord("www.example.com.", DnsType.A, DnsClass.IN,
+                3600, 4, new byte[]{(byte) 192, (byte) 168, 1, 10});
+        DnsResourceRecord ns = new DnsResourceRecord("example.com.", DnsType.NS, DnsClass.IN,
+                3600, 4, new byte[]{127, 0, 0, 1});
+        DnsMessage message = new DnsMessage(new DnsHeader(7, 0x8400, 1, 1, 1, 0),
+                List.of(new DnsQuestion("www.example.com.", DnsType.A, DnsClass.IN)),
+                List.of(a), List.of(ns));
+
+        ByteBuffer out = ByteBuffer.allocateDirect(512);
+        ByteBuffer written = new DnsWireWriter().wrap(out, 7, 0x8400)
+                .question("www.example.com.", DnsType.A, DnsClass.IN)
+                .record(DnsWireWriter.ANSWER, a)
+                .record(DnsWireWriter.AUTHORITY, ns)
+                .finish();
+        byte[] bytes = new byte[written.remaining()];
+        written.get(bytes);
+
+        assertTrue(Arrays.equals(codec.encode(message), bytes));
+    }
+
+    public void testOversizedMessageIsTruncatedIdenticallyByBothEncoders() {
+        List<DnsResourceRecord> answers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            answers.add(new DnsResourceRecord("big.example.com.", DnsType.A, DnsClass.IN,
+                    60, 4, new byte[]{10, 0, 0, (byte) i}));
+        }
+        DnsMessage message = new DnsMessage(new DnsHeader(9, 0x8400, 1, 50, 0, 0),
+                List.of(new DnsQuestion("big.example.com.", DnsType.A, DnsClass.IN)),
+                answers, Collections.emptyList());
+
+        ByteBuffer out = ByteBuffer.allocate(512);
+        DnsWireWriter writer = new DnsWireWriter().wrap(out, 9, 0x8400)
+                .question("big.example.com.", DnsType.A, DnsClass.IN);
+        for (DnsResourceRecord a : answers) {
+            writer.record(DnsWireWriter.ANSWER, a);
+        }
+        assertTrue(writer.isTruncated());
+        ByteBuffer written = writer.finish();
+        byte[] bytes = new byte[written.remaining()];
+        written.get(bytes);
+
+        byte[] encoded = codec.encode(message, 512);
+        assertTrue(Arrays.equals(encoded, bytes));
+        DnsMessage decoded = codec.decode(encoded);
+        assertEquals(0x8600, decoded.getHeader().getFlags()); // TC added
+        assertTrue(decoded.getAnswers().size() < 50);
+        // Unbounded, everything fits
+        assertEquals(50, codec.decode(codec.encode(message)).getAnswers().size());
+    }
+
+    public void testOptRoundTripsAndIsFoundByTheFlyweight() {
+        DnsMessage query = new DnsMessage(new DnsHeader(3, 0x0100, 1, 0, 0, 1),
+                List.of(new DnsQuestion("www.example.com.", DnsType.A, DnsClass.IN)),
+                Collections.emptyList(), Collections.emptyList(), List.of(Edns.opt(4096)));
+        byte[] wire = codec.encode(query);
+
+        DnsMessage decoded = codec.decode(wire);
+        assertEquals(1, decoded.getAdditionals().size());
+        assertEquals(4096, Edns.payloadSize(decoded.getOpt()));
+
+        ByteBuffer buffer = ByteBuffer.wrap(wire);
+        DnsHeaderFlyweight header = new DnsHeaderFlyweight().wrap(buffer);
+        DnsQuestionFlyweight question = new DnsQuestionFlyweight().wrap(buffer, DnsHeaderFlyweight.HEADER_SIZE);
+        DnsOptFlyweight opt = new DnsOptFlyweight().wrap(buffer, header, question.getEndOffset());
+        assertTrue(opt.isPresent());
+        assertEquals(4096, opt.getUdpPayloadSize());
+        assertEquals(0, opt.getVersion());
+    }
+
+    public void testFlyweightsReadEncodedMessage() {
+        DnsResourceRecord a = new DnsResourceRecord("mail.example.com.", DnsType.A, DnsClass.IN,
+                60, 4, new byte[]{10, 0, 0, 1});
+        DnsMessage message = new DnsMessage(new DnsHeader(0xBEEF, 0x8000, 1, 1, 0, 0),
+                List.of(new DnsQuestion("mail.example.com.", DnsType.A, DnsClass.IN)),
+                List.of(a), Collections.emptyList());
+        ByteBuffer buffer = ByteBuffer.wrap(codec.encode(message));
+
+        DnsHeaderFlyweight header = new DnsHeaderFlyweight().wrap(buffer);
+        assertEquals(0xBEEF, header.getId());
+        assertEquals(1, header.getQdCount());
+        assertEquals(1, header.getAnCount());
+
+        DnsQuestionFlyweight question = new DnsQuestionFlyweight().wrap(buffer, DnsHeaderFlyweight.HEADER_SIZE);
+        assertEquals("mail.example.com.", question.appendName(new StringBuilder()).toString());
+        assertEquals(DnsType.A, question.getQType());
+        assertEquals(DnsClass.IN, question.getQClass());
+
+        DnsRecordFlyweight record = new DnsRecordFlyweight().wrap(buffer, question.getEndOffset());
+        assertEquals(DnsType.A, record.getType());
+        assertEquals(60, record.getTtl());
+        assertEquals(4, record.getRdLength());
+        assertEquals(10, buffer.get(record.getRDataOffset()));
+        assertEquals(buffer.limit(), record.getEndOffset());
+    }
+
+    public void testNamesInRdataAreExpanded() {
+        // Question example.com. MX at 12; in the answers "example.com." is always a pointer to it
+        ByteBuffer wire = ByteBuffer.allocate(512);
+        wire.putShort((short) 1).putShort((short) 0x8400).putShort((short) 1).putShort((short) 2)
+                .putShort((short) 0).putShort((short) 0);
+        DnsLabelEncoder.encode("example.com.", wire);
+        wire.putShort((short) DnsType.MX).putShort((short) DnsClass.IN);
+        wire.putShort((short) 0xC00C).putShort((short) DnsType.MX).putShort((short) DnsClass.IN).putInt(300)
+                .putShort((short) 9).putShort((short) 10).put((byte) 4).put(new byte[]{'m', 'a', 'i', 'l'})
+                .putShort((short) 0xC00C);
+        wire.putShort((short) 0xC00C).putShort((short) DnsType.SOA).putShort((short) DnsClass.IN).putInt(300)
+                .putShort((short) 34).put((byte) 3).put(new byte[]{'n', 's', '1'}).putShort((short) 0xC00C)
+                .put((byte) 5).put(new byte[]{'a', 'd', 'm', 'i', 'n'}).putShort((short) 0xC00C)
+                .putInt(2024010101).putInt(7200).putInt(3600).putInt(604800).putInt(300);
+
+        DnsMessage message = codec.decode(Arrays.copyOf(wire.array(), wire.position()));
+
+        ByteBuffer mx = ByteBuffer.wrap(message.getAnswers().get(0).getRData());
+        assertEquals(10, mx.getShort());
+        assertEquals("mail.example.com.", DnsLabelEncoder.decode(mx));
+        assertFalse(mx.hasRemaining());
+
+        DnsResourceRecord soa = message.getAnswers().get(1);
+        ByteBuffer rdata = ByteBuffer.wrap(soa.getRData());
+        assertEquals("ns1.example.com.", DnsLabelEncoder.decode(rdata));
+        assertEquals("admin.example.com.", DnsLabelEncoder.decode(rdata));
+        assertEquals(2024010101, rdata.getInt());
+        assertEquals(20, rdata.remaining() + 4);
+        assertEquals(soa.getRData().length, soa.getRdLength());
+
+        // Expanded RDATA no longer points into a message, so it survives re-encoding
+        DnsMessage again = codec.decode(codec.encode(message));
+        assertTrue(Arrays.equals(soa.getRData(), again.getAnswers().get(1).getRData()));
+    }
+
+    public void testRdataNameOverrunningRdlengthRejected() {
+        ByteBuffer wire = ByteBuffer.allocate(512);
+        wire.putShort((short) 1).putShort((short) 0x8000).putShort((short) 0).putShort((short) 1)
+                .putShort((short) 0).putShort((short) 0);
+        DnsLabelEncoder.encode("example.com.", wire);
+        wire.putShort((short) DnsType.CNAME).putShort((short) DnsClass.IN).putInt(300)
+                .putShort((short) 2).put((byte) 4).put(new byte[]{'w', 'w', 'w', '2'}).put((byte) 0);
+        try {
+            codec.decode(Arrays.copyOf(wire.array(), wire.position()));
+            fail("Expected the name to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    public void testRootQuestionName() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new DnsWireWriter().wrap(buffer, 1, 0).question(".", DnsType.NS, DnsClass.IN).finish();
+
+        DnsQuestionFlyweight question = new DnsQuestionFlyweight().wrap(buffer, DnsHeaderFlyweight.HEADER_SIZE);
+        assertEquals(1, question.getNameLength());
+        assertEquals(".", question.appendName(new StringBuilder()).toString());
+    }
+
+    public void testTruncatedQuestionRejected() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'w', 'w'});
+        try {
+            new DnsQuestionFlyweight().wrap(buffer, DnsHeaderFlyweight.HEADER_SIZE);
+            fail("Expected truncated QNAME to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+}
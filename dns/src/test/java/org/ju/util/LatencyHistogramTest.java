@@ -0,0 +1,49 @@
+package org.ju.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Bucket boundaries and percentile accuracy of the latency histogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketsCoverEveryValueOnce() {
+        long[] values = {0, 1, 127, 128, 129, 130, 255, 256, 1000, 123_456_789L, Long.MAX_VALUE};
+        for (long v : values) {
+            int index = LatencyHistogram.index(v);
+            assertTrue(v + " above its bucket", v <= LatencyHistogram.highestValue(index));
+            if (index > 0) {
+                assertTrue(v + " below its bucket", v > LatencyHistogram.highestValue(index - 1));
+            }
+        }
+    }
+
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(100_000, h.getCount());
+        assertWithin(50_000_000L, h.getValueAtPercentile(50));
+        assertWithin(99_000_000L, h.getValueAtPercentile(99));
+        assertWithin(99_900_000L, h.getValueAtPercentile(99.9));
+        assertEquals(100_000_000L, h.getValueAtPercentile(100));
+        assertEquals(100_000_000L, h.getMax());
+    }
+
+    public void testAddMergesCounts() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(20);
+        b.record(5000);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(5000, a.getMax());
+        assertEquals(20, a.getValueAtPercentile(66));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " vs " + expected, actual >= expected && actual <= expected * 1.02);
+    }
+}
@@ -0,0 +1,89 @@
+package org.ju.zone;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The compact store answers exactly like the object trie.
+ */
+public class CompactZoneTest extends TestCase {
+
+    public void testSameAnswersAsZoneTrie() {
+        ZoneTrie trie = new ZoneTrie(1);
+        CompactZone compact = new CompactZone(1);
+        Random random = new Random(17);
+        for (int i = 0; i < 20_000; i++) {
+            // Owners interleave, so each RRset is built up across the whole load
+            String name = "host" + random.nextInt(5000) + ".zone" + random.nextInt(13) + ".test.";
+            byte[] rData = new byte[1 + random.nextInt(40)];
+            random.nextBytes(rData);
+            DnsResourceRecord record = new DnsResourceRecord(name, 1 + random.nextInt(30), DnsClass.IN,
+                    random.nextInt() & 0xFFFFFFFFL, rData.length, rData);
+            trie.add(record);
+            compact.add(record);
+        }
+        compact.trimToSize();
+
+        assertEquals(trie.size(), compact.size());
+        assertEquals(20_000, compact.recordCount());
+        for (int i = 0; i < 5000; i++) {
+            String name = "HOST" + i + ".zone" + (i % 13) + ".test.";
+            assertSame(trie.findClosestMatch(name), compact.findClosestMatch(name));
+            assertSame(trie.get(name), compact.get(name));
+        }
+    }
+
+    public void testClosestEncloserAndRoot() {
+        CompactZone zone = new CompactZone();
+        zone.add(record("example.com.", DnsType.NS, 1));
+        zone.add(record("www.example.com.", DnsType.A, 2));
+        assertEquals("example.com.", zone.findClosestMatch("a.b.Example.COM.").get(0).getName());
+        assertNull(zone.findClosestMatch("test.org."));
+        assertNull(zone.get("com."));
+
+        zone.add(record(".", DnsType.NS, 3));
+        assertEquals(".", zone.findClosestMatch("test.org.").get(0).getName());
+        assertEquals(3, zone.size());
+    }
+
+    public void testAddAfterTrim() {
+        CompactZone zone = new CompactZone().trimToSize();
+        zone.add(record("a.test.", DnsType.A, 1));
+        zone.trimToSize();
+        zone.add(record("b.test.", DnsType.A, 2));
+        zone.add(record("a.test.", DnsType.A, 3));
+        List<DnsResourceRecord> a = zone.get("a.test.");
+        assertEquals(2, a.size());
+        assertEquals(3, a.get(1).getRData()[3]);
+    }
+
+    // --- Helpers ---
+
+    private static void assertSame(List<DnsResourceRecord> expected, List<DnsResourceRecord> actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            DnsResourceRecord e = expected.get(i);
+            DnsResourceRecord a = actual.get(i);
+            assertEquals(e.getName().toLowerCase(), a.getName());
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getRClass(), a.getRClass());
+            assertEquals(e.getTtl(), a.getTtl());
+            assertEquals(e.getRdLength(), a.getRdLength());
+            assertTrue(Arrays.equals(e.getRData(), a.getRData()));
+        }
+    }
+
+    private static DnsResourceRecord record(String name, int type, int last) {
+        return new DnsResourceRecord(name, type, DnsClass.IN, 3600, 4, new byte[]{127, 0, 0, (byte) last});
+    }
+}
@@ -0,0 +1,143 @@
+package org.ju.zone;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Zone diffs, the IXFR journal, and applying diffs to a copy of a secondary's zone.
+ */
+public class SecondaryZoneTest extends TestCase {
+
+    private static final String APEX = "example.test.";
+
+    public void testDiffHoldsOnlyTheChangedRecords() {
+        ZoneTrie before = zone(1, "10.0.0.1", "old");
+        ZoneTrie after = zone(2, "10.0.0.1", "new");
+        ZoneDiff diff = ZoneDiff.between(before, after, APEX);
+
+        assertEquals(1, diff.getFromSerial());
+        assertEquals(2, diff.getToSerial());
+        assertEquals(1, diff.getDeleted().size());
+        assertEquals("old.example.test.", diff.getDeleted().get(0).getName());
+        assertEquals(1, diff.getAdded().size());
+        assertEquals("new.example.test.", diff.getAdded().get(0).getName());
+
+        // Same serial, or a serial going backwards: nothing to journal
+        assertNull(ZoneDiff.between(after, zone(2, "10.0.0.9", "new"), APEX));
+        assertNull(ZoneDiff.between(after, before, APEX));
+    }
+
+    public void testJournalCoversAnUnbrokenRunOfSerials() {
+        ZoneJournal journal = new ZoneJournal(2);
+        journal.append(diff(1, 2));
+        journal.append(diff(2, 3));
+        assertEquals(2, journal.since(1).size());
+        assertEquals(1, journal.since(2).size());
+        assertTrue(journal.since(3).isEmpty());
+        assertNull(journal.since(7));
+
+        journal.append(diff(3, 4)); // Over capacity: 1 -> 2 goes
+        assertNull(journal.since(1));
+        assertEquals(2, journal.since(2).size());
+
+        journal.append(diff(10, 11)); // A gap: the older diffs are no use any more
+        assertNull(journal.since(3));
+        assertEquals(1, journal.since(10).size());
+    }
+
+    public void testAppliedDiffIsServedAndRelinked() {
+        ZoneTrie initial = zone(1, "10.0.0.1", "old");
+        initial.link();
+        SecondaryZone secondary = new SecondaryZone(APEX, initial);
+        assertEquals(1, secondary.getSerial());
+
+        ZoneTrie next = zone(2, "10.0.0.1", "new");
+        byte[] target = DnsLabelEncoder.encode("new.example.test.");
+        next.add(new DnsResourceRecord("alias.example.test.", DnsType.CNAME, DnsClass.IN, 300, target.length, target));
+        SecondaryZone updated = secondary.apply(ZoneDiff.between(zone(1, "10.0.0.1", "old"), next, APEX));
+
+        assertEquals(2, updated.getSerial());
+        assertEquals(2, Soa.serial(updated.getSoa()));
+        assertEquals(DnsType.A, updated.findAnswer("new.example.test.").get(0).getType());
+        // The old name is gone: the closest match is the apex again
+        assertEquals(APEX, updated.findClosestMatch("old.example.test.").get(0).getName());
+        // A CNAME added by the diff is followed, as in a freshly loaded zone
+        List<DnsResourceRecord> chain = updated.findAnswer("ALIAS.example.test");
+        assertEquals(2, chain.size());
+        assertEquals("new.example.test.", chain.get(1).getName());
+        assertEquals(3, updated.size());
+
+        // What was published before is untouched, for the queries still reading it
+        assertEquals(1, secondary.getSerial());
+        assertEquals(1, Soa.serial(Soa.find(secondary.findClosestMatch(APEX))));
+        assertEquals("old.example.test.", secondary.findAnswer("old.example.test.").get(0).getName());
+        assertEquals(APEX, secondary.findClosestMatch("alias.example.test.").get(0).getName());
+    }
+
+    public void testDiffMustStartAtTheCurrentSerial() {
+        ZoneTrie initial = zone(5, "10.0.0.1", "old");
+        SecondaryZone secondary = new SecondaryZone(APEX, initial);
+        try {
+            secondary.apply(diff(4, 6));
+            fail("Applied a diff from the wrong serial");
+        } catch (IllegalStateException expected) {
+            assertEquals(5, secondary.getSerial());
+        }
+    }
+
+    public void testRunOfDiffsWithAGapChangesNothing() {
+        SecondaryZone secondary = new SecondaryZone(APEX, zone(5, "10.0.0.1", "old"));
+        ZoneDiff good = new ZoneDiff(soa(APEX, 5), soa(APEX, 6), List.of(), List.of(a("added." + APEX, "10.0.0.3")));
+        try {
+            secondary.apply(List.of(good, diff(7, 8)));
+            fail("Applied diffs with a gap between them");
+        } catch (IllegalStateException expected) {
+            // The first diff must not show
+            assertEquals(5, secondary.getSerial());
+            assertEquals(5, Soa.serial(Soa.find(secondary.findClosestMatch(APEX))));
+            assertEquals(APEX, secondary.findClosestMatch("added.example.test.").get(0).getName());
+        }
+        assertEquals(6, secondary.apply(List.of(good)).getSerial());
+    }
+
+    /**
+     * The apex with its SOA and an A record, plus one more A record at {@code name}.
+     */
+    private static ZoneTrie zone(long serial, String apexAddress, String name) {
+        ZoneTrie trie = new ZoneTrie();
+        trie.add(soa(APEX, serial));
+        trie.add(a(APEX, apexAddress));
+        trie.add(a(name + "." + APEX, "10.0.0.2"));
+        return trie;
+    }
+
+    private static ZoneDiff diff(long from, long to) {
+        return new ZoneDiff(soa(APEX, from), soa(APEX, to), List.of(), List.of());
+    }
+
+    static DnsResourceRecord soa(String apex, long serial) {
+        ByteBuffer rdata = ByteBuffer.allocate(512);
+        DnsLabelEncoder.encode("ns1." + apex, rdata);
+        DnsLabelEncoder.encode("hostmaster." + apex, rdata);
+        rdata.putInt((int) serial).putInt(3600).putInt(600).putInt(86400).putInt(300);
+        byte[] bytes = new byte[rdata.position()];
+        rdata.flip();
+        rdata.get(bytes);
+        return new DnsResourceRecord(apex, DnsType.SOA, DnsClass.IN, 3600, bytes.length, bytes);
+    }
+
+    private static DnsResourceRecord a(String name, String address) {
+        String[] octets = address.split("\\.");
+        byte[] rdata = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            rdata[i] = (byte) Integer.parseInt(octets[i]);
+        }
+        return new DnsResourceRecord(name, DnsType.A, DnsClass.IN, 300, 4, rdata);
+    }
+}
@@ -0,0 +1,138 @@
+package org.ju.zone;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Master-file syntax, directives, rdata encoding and error reporting of the zone loader.
+ */
+public class ZoneFileLoaderTest extends TestCase {
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("zones");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    public void testDirectivesAndRelativeNames() throws IOException {
+        write("hosts.inc",
+                "ftp     A     10.0.0.3",
+                "        AAAA  2001:db8::3");
+        Path zone = write("example.zone",
+                "$ORIGIN example.com.",
+                "$TTL 1h",
+                "@   IN SOA ns1 hostmaster (",
+                "        2024010101 ; serial",
+                "        7200 3600 1w 300 )",
+                "@       NS    ns1",
+                "ns1     A     192.0.2.1",
+                "www  60 IN A  192.0.2.10   ; comment",
+                "        IN 120 A 192.0.2.11",
+                "mail    MX    10 mx.other.net.",
+                "alias   CNAME www",
+                "txt     TXT   \"hello world\" \"semi;colon\"",
+                "$INCLUDE hosts.inc sub.example.com.",
+                "back    A     192.0.2.99");
+
+        List<DnsResourceRecord> records = load(zone, null, 1);
+        assertEquals(11, records.size());
+
+        DnsResourceRecord soa = records.get(0);
+        assertEquals("example.com.", soa.getName());
+        assertEquals(DnsType.SOA, soa.getType());
+        assertEquals(3600, soa.getTtl());
+
+        assertEquals("ns1.example.com.", records.get(2).getName());
+        assertEquals(60, records.get(3).getTtl());
+        assertEquals("www.example.com.", records.get(4).getName()); // blank owner inherits
+        assertEquals(120, records.get(4).getTtl());
+        assertEquals("192.0.2.11", InetAddress.getByAddress(records.get(4).getRData()).getHostAddress());
+
+        ByteBuffer mx = ByteBuffer.wrap(records.get(5).getRData());
+        assertEquals(10, mx.getShort());
+
+        byte[] txt = records.get(7).getRData();
+        assertEquals(11, txt[0]);
+        assertEquals("semi;colon", new String(txt, 13, 10, StandardCharsets.ISO_8859_1));
+
+        assertEquals("ftp.sub.example.com.", records.get(8).getName());
+        assertEquals(DnsType.AAAA, records.get(9).getType());
+        assertEquals(16, records.get(9).getRdLength());
+        // $INCLUDE's origin does not leak back into the parent file
+        assertEquals("back.example.com.", records.get(10).getName());
+    }
+
+    public void testMalformedLineReportsFileAndLine() throws IOException {
+        Path zone = write("bad.zone",
+                "$TTL 300",
+                "a.example. A 10.0.0.1",
+                "b.example. A 10.0.0.999");
+        try {
+            load(zone, null, 2);
+            fail("Expected parse failure");
+        } catch (ZoneParseException e) {
+            assertEquals(3, e.getLine());
+            assertTrue(e.getMessage(), e.getMessage().startsWith(zone + ":3: "));
+        }
+    }
+
+    public void testMissingTtlIsAnError() throws IOException {
+        Path zone = write("nottl.zone", "a.example. A 10.0.0.1");
+        try {
+            load(zone, null, 1);
+            fail("Expected parse failure");
+        } catch (ZoneParseException e) {
+            assertEquals(1, e.getLine());
+        }
+    }
+
+    public void testParallelLoadKeepsFileOrder() throws IOException {
+        Path zone = dir.resolve("big.zone");
+        try (BufferedWriter out = Files.newBufferedWriter(zone)) {
+            out.write("$ORIGIN big.test.\n$TTL 300\n");
+            for (int i = 0; i < 50_000; i++) {
+                out.write("host" + i + " A 10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255) + "\n");
+            }
+        }
+        List<DnsResourceRecord> records = load(zone, null, 4);
+        assertEquals(50_000, records.size());
+        for (int i = 0; i < records.size(); i += 1111) {
+            assertEquals("host" + i + ".big.test.", records.get(i).getName());
+        }
+    }
+
+    private List<DnsResourceRecord> load(Path zone, String origin, int threads) throws IOException {
+        List<DnsResourceRecord> records = new ArrayList<>();
+        ZoneLoadStats stats = new ZoneFileLoader(threads).load(zone, origin, records::add);
+        assertEquals(records.size(), stats.getRecords());
+        return records;
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, List.of(lines), StandardCharsets.ISO_8859_1);
+        return file;
+    }
+}
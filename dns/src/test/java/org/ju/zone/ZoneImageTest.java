@@ -0,0 +1,134 @@
+package org.ju.zone;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Round trip through the compiled image, and its integrity checks.
+ */
+public class ZoneImageTest extends TestCase {
+
+    private Path image;
+    private ZoneTrie trie;
+
+    @Override
+    protected void setUp() throws IOException {
+        image = Files.createTempFile("zone", ".img");
+        trie = new ZoneTrie();
+        trie.add(record(".", DnsType.NS, new byte[]{1, 1, 1, 1}));
+        trie.add(record("com.", DnsType.NS, new byte[]{127, 0, 0, 1}));
+        trie.add(record("Example.com.", DnsType.NS, new byte[]{127, 0, 0, 2}));
+        trie.add(record("www.example.com.", DnsType.A, new byte[]{10, 0, 0, 1}));
+        trie.add(record("www.example.com.", DnsType.A, new byte[]{10, 0, 0, 2}));
+        for (int i = 0; i < 1000; i++) {
+            trie.add(record("h" + i + ".bulk.example.com.", DnsType.A, new byte[]{10, 1, (byte) (i >> 8), (byte) i}));
+        }
+        ZoneImageCompiler.write(trie, image);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(image);
+    }
+
+    public void testLookupsMatchTheTrie() throws IOException {
+        ZoneImage zone = ZoneImage.open(image, true);
+        assertEquals(trie.size(), zone.size());
+
+        String[] queries = {"www.example.com.", "WWW.EXAMPLE.COM", "a.b.example.com.", "example.com.",
+                "google.com.", "test.org.", ".", "h999.bulk.example.com.", "x.h17.bulk.example.com."};
+        for (String query : queries) {
+            assertEquals(query, describe(trie.findClosestMatch(query)), describe(zone.findClosestMatch(query)));
+        }
+        // Owner names keep their original case
+        assertEquals("Example.com.", zone.findClosestMatch("x.example.com.").get(0).getName());
+    }
+
+    public void testWireLookupsMatch() throws IOException {
+        ZoneImage zone = ZoneImage.open(image, true);
+        CompactZone compact = new CompactZone();
+        trie.forEachRRset(rrset -> rrset.forEach(compact::add));
+
+        String[] queries = {"www.example.com.", "WWW.EXAMPLE.COM.", "a.b.Example.com.", "example.com.",
+                "google.com.", "test.org.", ".", "h999.bulk.example.com.", "x.H17.bulk.example.com."};
+        for (String query : queries) {
+            // Behind some bytes, as a QNAME sits behind the header
+            ByteBuffer packet = ByteBuffer.allocate(300);
+            packet.position(12);
+            DnsLabelEncoder.encode(query, packet);
+            String expected = describe(trie.findClosestMatch(query));
+            assertEquals(query, expected, describe(trie.findClosestMatch(packet, 12)));
+            assertEquals(query, expected, describe(zone.findClosestMatch(packet, 12)));
+            assertEquals(query, expected, describe(compact.findClosestMatch(packet, 12)));
+        }
+    }
+
+    public void testCorruptionIsDetected() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(image.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+        ZoneImage.open(image, false); // Header is still fine
+        try {
+            ZoneImage.open(image, true);
+            fail("Expected checksum mismatch");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("checksum"));
+        }
+    }
+
+    public void testUnknownVersionIsRejected() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(image.toFile(), "rw")) {
+            file.seek(ZoneImage.VERSION_OFFSET);
+            file.writeInt(ZoneImage.FORMAT_VERSION + 1);
+        }
+        try {
+            ZoneImage.open(image, false);
+            fail("Expected version check to fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("version"));
+        }
+    }
+
+    public void testWildcardsAreRefused() throws IOException {
+        trie.add(record("*.example.com.", DnsType.A, new byte[]{10, 0, 0, 3}));
+        Path other = Files.createTempFile("wild", ".img");
+        try {
+            ZoneImageCompiler.write(trie, other);
+            fail("Expected the wildcard to be refused");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("*.example.com."));
+        } finally {
+            Files.deleteIfExists(other);
+        }
+    }
+
+    private static String describe(List<DnsResourceRecord> records) {
+        if (records == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (DnsResourceRecord record : records) {
+            sb.append(record.getName().toLowerCase()).append('/').append(record.getType())
+                    .append('/').append(record.getTtl()).append('/').append(Arrays.toString(record.getRData())).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static DnsResourceRecord record(String name, int type, byte[] rData) {
+        return new DnsResourceRecord(name, type, DnsClass.IN, 300, rData.length, rData);
+    }
+}
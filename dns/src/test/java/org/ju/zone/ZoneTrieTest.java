@@ -0,0 +1,246 @@
+package org.ju.zone;
+
+import junit.framework.TestCase;
+import org.ju.model.DnsClass;
+import org.ju.model.DnsResourceRecord;
+import org.ju.model.DnsType;
+import org.ju.util.DnsLabelEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Closest-encloser semantics of the reverse-label trie.
+ */
+public class ZoneTrieTest extends TestCase {
+
+    private final ZoneTrie trie = new ZoneTrie(4);
+
+    @Override
+    protected void setUp() {
+        trie.add(record("com.", DnsType.NS));
+        trie.add(record("example.com.", DnsType.NS));
+        trie.add(record("www.example.com.", DnsType.A));
+        trie.add(record("www.example.com.", DnsType.A));
+    }
+
+    public void testExactMatch() {
+        List<DnsResourceRecord> found = trie.findClosestMatch("www.example.com.");
+        assertEquals(2, found.size());
+        assertEquals("www.example.com.", found.get(0).getName());
+    }
+
+    public void testFallsBackToClosestEncloser() {
+        assertEquals("example.com.", trie.findClosestMatch("a.b.example.com.").get(0).getName());
+        assertEquals("com.", trie.findClosestMatch("google.com.").get(0).getName());
+        assertNull(trie.findClosestMatch("test.org."));
+    }
+
+    public void testMatchingIsCaseInsensitive() {
+        assertEquals(2, trie.findClosestMatch("WWW.Example.COM.").size());
+        assertEquals(2, trie.get("www.EXAMPLE.com").size());
+    }
+
+    public void testRootZoneIsChecked() {
+        trie.add(record(".", DnsType.NS));
+        assertEquals(".", trie.findClosestMatch("test.org.").get(0).getName());
+        assertEquals(".", trie.findClosestMatch(".").get(0).getName());
+    }
+
+    public void testEmptyInteriorNodesHoldNoRecords() {
+        assertNull(trie.get("www.google.com."));
+        trie.add(record("a.b.c.d.", DnsType.A));
+        assertNull(trie.get("c.d."));
+        assertNull(trie.findClosestMatch("x.c.d."));
+        assertEquals(4, trie.size());
+    }
+
+    public void testGrowsPastInitialSize() {
+        ZoneTrie big = new ZoneTrie(1);
+        for (int i = 0; i < 50_000; i++) {
+            big.add(record("host" + i + ".zone" + (i % 97) + ".test.", DnsType.A));
+        }
+        assertEquals(50_000, big.size());
+        for (int i = 0; i < 50_000; i += 997) {
+            String name = "HOST" + i + ".zone" + (i % 97) + ".test.";
+            assertEquals(name.toLowerCase(), big.findClosestMatch(name).get(0).getName());
+        }
+    }
+
+    public void testLinkResolvesChainsAndWildcards() {
+        trie.add(cname("alias.example.com.", "www.example.com."));
+        trie.add(cname("hop.example.com.", "alias.example.com."));
+        trie.add(cname("out.example.com.", "elsewhere.org."));
+        trie.add(cname("loop1.example.com.", "loop2.example.com."));
+        trie.add(cname("loop2.example.com.", "loop1.example.com."));
+        trie.add(record("*.wild.example.com.", DnsType.A));
+        trie.add(cname("to-wild.example.com.", "x.wild.example.com."));
+        trie.link();
+
+        // hop -> alias -> www (two A records), all in one list
+        assertEquals("[hop.example.com., alias.example.com., www.example.com., www.example.com.]", owners(trie.findAnswer("HOP.example.com.")));
+        assertEquals("[out.example.com.]", owners(trie.findAnswer("out.example.com.")));
+        assertEquals("[loop1.example.com., loop2.example.com.]", owners(trie.findAnswer("loop1.example.com.")));
+
+        // Missing names under the wildcard get its records; the wildcard name itself is not synthesized
+        assertEquals("[*.wild.example.com.]", owners(trie.findAnswer("a.wild.example.com.")));
+        assertEquals("[*.wild.example.com.]", owners(trie.findAnswer("b.c.wild.example.com.")));
+        assertEquals("[to-wild.example.com., x.wild.example.com.]", owners(trie.findAnswer("to-wild.example.com.")));
+        assertEquals(DnsType.A, trie.findAnswer("to-wild.example.com.").get(1).getType());
+
+        // Plain names and the closest match are untouched
+        assertSame(trie.get("www.example.com."), trie.findAnswer("www.example.com."));
+        assertSame(trie.findClosestMatch("x.www.example.com."), trie.findAnswer("x.www.example.com."));
+
+        // Adding a record drops the precomputed answers until the next link()
+        trie.add(record("alias.example.com.", DnsType.TXT));
+        assertEquals("[hop.example.com.]", owners(trie.findAnswer("hop.example.com.")));
+    }
+
+    public void testEditedCopyLeavesTheOriginalAlone() {
+        ZoneTrie zone = new ZoneTrie(1);
+        for (int i = 0; i < 10_000; i++) { // Several pages
+            zone.add(record("host" + i + ".example.com.", DnsType.A));
+        }
+        zone.add(cname("alias.example.com.", "host9999.example.com."));
+        zone.link();
+
+        ZoneTrie copy = zone.copy();
+        copy.edit(List.of(record("host9999.example.com.", DnsType.A), record("host5.example.com.", DnsType.A)),
+                List.of(record("new.deep.example.com.", DnsType.A), record("host9999.example.com.", DnsType.TXT)));
+        copy.relink();
+
+        assertEquals(1, zone.get("host5.example.com.").size());
+        assertNull(zone.get("new.deep.example.com."));
+        assertEquals("[alias.example.com., host9999.example.com.]", owners(zone.findAnswer("alias.example.com.")));
+        assertEquals(DnsType.A, zone.findAnswer("alias.example.com.").get(1).getType());
+        assertEquals(10_001, zone.size());
+
+        assertNull(copy.get("host5.example.com."));
+        assertEquals(1, copy.get("new.deep.example.com.").size());
+        assertEquals(DnsType.TXT, copy.findAnswer("alias.example.com.").get(1).getType());
+        assertEquals(10_001, copy.size());
+    }
+
+    public void testEmptiedNamesLeaveTheTree() {
+        ZoneTrie zone = new ZoneTrie();
+        zone.add(record("*.example.com.", DnsType.TXT));
+        zone.add(record("a.b.example.com.", DnsType.A));
+        zone.add(record("c.b.example.com.", DnsType.A));
+        zone.link();
+
+        ZoneTrie copy = zone.copy();
+        copy.edit(List.of(record("a.b.example.com.", DnsType.A)), List.of());
+        copy.relink();
+        // b still has c below it, so it stays an empty non-terminal; a is gone
+        assertEquals(-1, copy.findNode("a.b.example.com."));
+        assertTrue(copy.findNode("b.example.com.") >= 0);
+
+        copy.edit(List.of(record("c.b.example.com.", DnsType.A)), List.of());
+        copy.relink();
+        assertEquals(-1, copy.findNode("b.example.com."));
+        assertEquals("[*.example.com.]", owners(copy.findAnswer("b.example.com.")));
+        // Back again under a new node
+        copy.edit(List.of(), List.of(record("b.example.com.", DnsType.A)));
+        copy.relink();
+        assertEquals("[b.example.com.]", owners(copy.findAnswer("b.example.com.")));
+        assertTrue(zone.findNode("a.b.example.com.") >= 0);
+    }
+
+    public void testRelinkAfterEditsMatchesAFullLink() {
+        Random random = new Random(7);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            names.add("h" + i + ".s" + (i % 7) + ".example.com.");
+        }
+        for (int s = 0; s < 7; s++) {
+            names.add("*.s" + s + ".example.com.");
+            names.add("d" + s + ".example.com.");
+            names.add("ns.d" + s + ".example.com.");
+        }
+        ZoneTrie zone = new ZoneTrie(1);
+        for (int i = 0; i < 6_000; i++) { // Spread the rest over more than one page
+            zone.add(record("filler" + i + ".example.com.", DnsType.A));
+        }
+        List<DnsResourceRecord> live = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            DnsResourceRecord record = randomRecord(random, names);
+            zone.add(record);
+            live.add(record);
+        }
+        zone.link();
+
+        for (int round = 0; round < 40; round++) {
+            List<DnsResourceRecord> deleted = new ArrayList<>();
+            for (int i = 0; i < 8 && !live.isEmpty(); i++) {
+                deleted.add(live.remove(random.nextInt(live.size())));
+            }
+            List<DnsResourceRecord> added = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                added.add(randomRecord(random, names));
+            }
+            live.addAll(added);
+            ZoneTrie next = zone.copy();
+            next.edit(deleted, added);
+            next.relink();
+
+            ZoneTrie fresh = new ZoneTrie();
+            next.forEachRRset(rrset -> rrset.forEach(fresh::add));
+            fresh.link();
+            for (String name : names) {
+                for (String query : List.of(name.replace("*", "x"), "z." + name, name)) {
+                    assertEquals("Round " + round + ", " + query, render(fresh.findAnswer(query)),
+                            render(next.findAnswer(query)));
+                }
+            }
+            zone = next;
+        }
+    }
+
+    private static DnsResourceRecord randomRecord(Random random, List<String> names) {
+        String owner = names.get(random.nextInt(names.size()));
+        String target = names.get(random.nextInt(names.size())).replace("*", "w" + random.nextInt(3));
+        switch (random.nextInt(4)) {
+            case 0: return cname(owner, target);
+            case 1: return ns(owner.startsWith("*") ? "d0.example.com." : owner, target);
+            default:
+                return new DnsResourceRecord(owner, DnsType.A, DnsClass.IN, 3600, 4,
+                        new byte[]{10, 0, 0, (byte) random.nextInt(4)});
+        }
+    }
+
+    private static String render(List<DnsResourceRecord> records) {
+        if (records == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (DnsResourceRecord record : records) {
+            sb.append(record.getName().toLowerCase()).append('/').append(record.getType()).append('/')
+                    .append(java.util.Arrays.toString(record.getRData())).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static DnsResourceRecord ns(String name, String target) {
+        byte[] rData = DnsLabelEncoder.encode(target);
+        return new DnsResourceRecord(name, DnsType.NS, DnsClass.IN, 3600, rData.length, rData);
+    }
+
+    private static String owners(List<DnsResourceRecord> records) {
+        List<String> names = new ArrayList<>();
+        for (DnsResourceRecord record : records) {
+            names.add(record.getName().toLowerCase());
+        }
+        return names.toString();
+    }
+
+    private static DnsResourceRecord cname(String name, String target) {
+        byte[] rData = DnsLabelEncoder.encode(target);
+        return new DnsResourceRecord(name, DnsType.CNAME, DnsClass.IN, 3600, rData.length, rData);
+    }
+
+    private static DnsResourceRecord record(String name, int type) {
+        return new DnsResourceRecord(name, type, DnsClass.IN, 3600, 4, new byte[]{127, 0, 0, 1});
+    }
+}